@@ -0,0 +1,75 @@
+package edu.missouri.chenglab.benchmark;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.missouri.chenglab.lordg.utility.ContactListReader;
+import edu.missouri.chenglab.lordg.valueObject.ConstraintTable;
+
+/**
+ * Reading a contact list file with ContactListReader, either parsing the text file or
+ * reading the binary copy written next to it
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class ContactParsingBenchmark {
+
+	@Param({"20000", "200000"})
+	public int nbrPoint;
+
+	@Param({"10", "50"})
+	public int contactPerPoint;
+
+	@Param({"1", "4"})
+	public int nbrThread;
+
+	//true to read the binary copy of the contact list
+	@Param({"false", "true"})
+	public boolean isCached;
+
+	private File folder;
+	private File contactFile;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception{
+		folder = SyntheticContacts.createTempFolder();
+		contactFile = new File(folder, "contacts.txt");
+		new SyntheticContacts(nbrPoint, contactPerPoint).write(contactFile);
+
+		if (isCached){
+			//write the binary copy
+			read();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown(){
+		SyntheticContacts.delete(folder);
+	}
+
+	@Benchmark
+	public ConstraintTable read() throws Exception{
+		ContactListReader reader = new ContactListReader(nbrThread, null);
+		reader.setCacheEnabled(isCached);
+		return reader.read(contactFile.getAbsolutePath(), 0);
+	}
+}
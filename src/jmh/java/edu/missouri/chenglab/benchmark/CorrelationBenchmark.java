@@ -0,0 +1,66 @@
+package edu.missouri.chenglab.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.missouri.chenglab.lordg.evaluation.CalRMSD;
+import edu.missouri.chenglab.lordg.valueObject.ConstraintTable;
+
+/**
+ * Spearman correlation between IFs and distances of a structure (CalRMSD.correlationIFvsDist),
+ * this scores every structure, e.g. every candidate of the conversion factor search.
+ * Values are ranked by RankCorrelation, nbrThread threads sort them
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class CorrelationBenchmark {
+
+	@Param({"2000", "20000"})
+	public int nbrPoint;
+
+	@Param({"10", "50"})
+	public int contactPerPoint;
+
+	@Param({"1", "4"})
+	public int nbrThread;
+
+	private ConstraintTable constraints;
+
+	private double[] x;
+
+	@Setup(Level.Trial)
+	public void setup(){
+		SyntheticContacts contacts = new SyntheticContacts(nbrPoint, contactPerPoint);
+		constraints = contacts.toConstraintTable();
+
+		//a noisy copy of the walk, so that the correlation is not perfect
+		x = contacts.getWalk();
+		Random random = new Random(nbrPoint);
+		for(int i = 0; i < x.length; i++){
+			x[i] += random.nextGaussian();
+		}
+	}
+
+	@Benchmark
+	public double correlationIFvsDist() throws Exception{
+		return CalRMSD.correlationIFvsDist(x, constraints, 0, nbrThread);
+	}
+}
@@ -0,0 +1,90 @@
+package edu.missouri.chenglab.benchmark;
+
+import java.io.File;
+
+import edu.missouri.chenglab.Structure3DMax.algorithm.StructureGenerator3DMax;
+import edu.missouri.chenglab.Structure3DMax.valueObject.InputParameters_3DMax;
+import edu.missouri.chenglab.lordg.noisy_mds.StructureGeneratorLorentz_HierarchicalModeling;
+import edu.missouri.chenglab.lordg.optimization.OptimizedObject;
+import edu.missouri.chenglab.lordg.valueObject.InputParameters;
+
+/**
+ * Structure engines set up on synthetic contacts, ready to evaluate their objective function
+ *
+ */
+public class Engines {
+
+	public static final String LORDG = "lordg";
+	public static final String MAX3D = "3dmax";
+
+	private static final String FILE_PREFIX = "benchmark";
+
+	private File contactFile;
+	private File folder;
+	private int nbrThread;
+
+	private StructureGeneratorLorentz_HierarchicalModeling lorDG;
+	private StructureGenerator3DMax max3D;
+
+	/**
+	 *
+	 * @param contacts
+	 * @param folder: the contact file and files written by the engines are in this folder
+	 * @param nbrThread: threads used to evaluate the objective function
+	 * @throws Exception
+	 */
+	public Engines(SyntheticContacts contacts, File folder, int nbrThread) throws Exception{
+		this.folder = folder;
+		this.nbrThread = nbrThread;
+
+		contactFile = new File(folder, "contacts.txt");
+		contacts.write(contactFile);
+	}
+
+	/**
+	 *
+	 * @param engine: LORDG or MAX3D
+	 * @return the engine, its contacts are read and distances are computed with conversion factor 1
+	 * @throws Exception
+	 */
+	public OptimizedObject create(String engine) throws Exception{
+		if (LORDG.equals(engine)){
+			InputParameters parameters = new InputParameters();
+			parameters.setInput_file(contactFile.getAbsolutePath());
+			parameters.setOutput_folder(folder.getAbsolutePath());
+			parameters.setFile_prefix(FILE_PREFIX);
+			parameters.setConvert_factor(1.0);
+			parameters.setNumber_threads(nbrThread);
+
+			lorDG = new StructureGeneratorLorentz_HierarchicalModeling(parameters);
+			lorDG.prepareStructure();
+			return lorDG;
+
+		}else if (MAX3D.equals(engine)){
+			InputParameters_3DMax parameters = new InputParameters_3DMax();
+			parameters.setInput_file(contactFile.getAbsolutePath());
+			parameters.setOutput_folder(folder.getAbsolutePath());
+			parameters.setFile_prefix(FILE_PREFIX);
+			parameters.setConvert_factor(1.0);
+			parameters.setNumber_threads(nbrThread);
+
+			max3D = new StructureGenerator3DMax(parameters);
+			max3D.prepareStructure();
+			return max3D;
+		}
+
+		throw new IllegalArgumentException("Unknown engine: " + engine);
+	}
+
+	/**
+	 * release threads of the engines
+	 */
+	public void shutdown(){
+		if (lorDG != null){
+			lorDG.shutdown();
+		}
+		if (max3D != null){
+			max3D.shutdown();
+		}
+	}
+}
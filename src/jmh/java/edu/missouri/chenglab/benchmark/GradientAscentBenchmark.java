@@ -0,0 +1,100 @@
+package edu.missouri.chenglab.benchmark;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.missouri.chenglab.lordg.optimization.GradientAscent;
+import edu.missouri.chenglab.lordg.optimization.OptimizedObject;
+import edu.missouri.chenglab.lordg.valueObject.InputParameters;
+
+/**
+ * Iterations of gradient ascent (line searches included), every invocation starts from the same structure
+ * and runs ITERATIONS iterations, the score is in iterations per second
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class GradientAscentBenchmark {
+
+	private static final int ITERATIONS = 10;
+
+	@Param({Engines.LORDG, Engines.MAX3D})
+	public String engine;
+
+	@Param({"2000", "20000"})
+	public int nbrPoint;
+
+	@Param({"10", "50"})
+	public int contactPerPoint;
+
+	@Param({"1", "4"})
+	public int nbrThread;
+
+	private Engines engines;
+
+	private OptimizedObject objective;
+
+	private InputParameters parameters;
+
+	private double[] initialStructure;
+	private double[] x;
+
+	private File folder;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception{
+		SyntheticContacts contacts = new SyntheticContacts(nbrPoint, contactPerPoint);
+
+		folder = SyntheticContacts.createTempFolder();
+		engines = new Engines(contacts, folder, nbrThread);
+		objective = engines.create(engine);
+
+		//a perturbed copy of the walk, so that the optimization doesn't converge in a few iterations
+		initialStructure = contacts.getWalk();
+		Random random = new Random(nbrPoint);
+		for(int i = 0; i < initialStructure.length; i++){
+			initialStructure[i] += random.nextGaussian();
+		}
+		x = new double[initialStructure.length];
+
+		parameters = new InputParameters();
+		parameters.setMax_iteration(ITERATIONS);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown(){
+		engines.shutdown();
+		SyntheticContacts.delete(folder);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ITERATIONS)
+	public int iterations() throws Exception{
+		System.arraycopy(initialStructure, 0, x, 0, x.length);
+
+		GradientAscent gradientAscent = new GradientAscent(objective, x, false);
+		gradientAscent.performGradientAscent(parameters);
+
+		return gradientAscent.getNbrIteration();
+	}
+}
@@ -0,0 +1,83 @@
+package edu.missouri.chenglab.benchmark;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.missouri.chenglab.lordg.optimization.OptimizedObject;
+
+/**
+ * Objective function and gradient of the structure engines (calGradientAndObjective), on synthetic contacts
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class ObjectiveBenchmark {
+
+	@Param({Engines.LORDG, Engines.MAX3D})
+	public String engine;
+
+	@Param({"2000", "20000"})
+	public int nbrPoint;
+
+	@Param({"10", "50"})
+	public int contactPerPoint;
+
+	@Param({"1", "4"})
+	public int nbrThread;
+
+	private Engines engines;
+
+	private OptimizedObject objective;
+
+	private double[] x;
+	private double[] der;
+
+	private File folder;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception{
+		SyntheticContacts contacts = new SyntheticContacts(nbrPoint, contactPerPoint);
+
+		folder = SyntheticContacts.createTempFolder();
+		engines = new Engines(contacts, folder, nbrThread);
+		objective = engines.create(engine);
+
+		//the objective is evaluated at the structure contacts are generated from
+		x = contacts.getWalk();
+		der = new double[x.length];
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown(){
+		engines.shutdown();
+		SyntheticContacts.delete(folder);
+	}
+
+	@Benchmark
+	public double gradientAndObjective() throws InterruptedException{
+		return objective.calGradientAndObjective(x, der);
+	}
+
+	@Benchmark
+	public double objectiveOnly() throws InterruptedException{
+		return objective.calObjective(x);
+	}
+}
@@ -0,0 +1,159 @@
+package edu.missouri.chenglab.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import edu.missouri.chenglab.lordg.valueObject.ConstraintTable;
+
+/**
+ * Synthetic contacts for benchmarks. Points are generated by a random walk, every point has a contact with the next point
+ * and contactPerPoint - 1 contacts with points further along the chain (the genomic distance of contacts decays exponentially),
+ * the IF of a contact decreases with the distance between the two points in the walk.
+ *
+ * Contacts only depend on the number of points and contacts per point, so results of different runs can be compared
+ *
+ */
+public class SyntheticContacts {
+
+	//distance between two consecutive positions in contact files, positions must fit in an int
+	public static final int RESOLUTION = 5000;
+
+	private static final long SEED = 20180101;
+
+	//average genomic distance (in points) of non adjacent contacts
+	private static final double MEAN_OFFSET = 20;
+
+	private int nbrPoint;
+
+	private int[] pos1;
+	private int[] pos2;
+	private double[] IF;
+	private int size;
+
+	//the random walk, point i is (walk[i * 3], walk[i * 3 + 1], walk[i * 3 + 2])
+	private double[] walk;
+
+	/**
+	 *
+	 * @param nbrPoint: number of points
+	 * @param contactPerPoint: average number of contacts of a point
+	 */
+	public SyntheticContacts(int nbrPoint, int contactPerPoint){
+		this.nbrPoint = nbrPoint;
+
+		Random random = new Random(SEED);
+
+		walk = new double[nbrPoint * 3];
+		for(int i = 1; i < nbrPoint; i++){
+			for(int k = 0; k < 3; k++){
+				walk[i * 3 + k] = walk[(i - 1) * 3 + k] + random.nextGaussian();
+			}
+		}
+
+		int capacity = nbrPoint * Math.max(1, contactPerPoint);
+		pos1 = new int[capacity];
+		pos2 = new int[capacity];
+		IF = new double[capacity];
+
+		Set<Integer> partners = new HashSet<Integer>();
+		int j;
+		for(int i = 0; i < nbrPoint - 1; i++){
+			partners.clear();
+			partners.add(i + 1);
+			for(int c = 1; c < contactPerPoint; c++){
+				j = i + 2 + (int)(-Math.log(1 - random.nextDouble()) * MEAN_OFFSET);
+				if (j < nbrPoint) partners.add(j);
+			}
+
+			for(int p : partners){
+				pos1[size] = i;
+				pos2[size] = p;
+				IF[size] = 1.0 / Math.pow(distance(i, p) + 0.5, 1.5);
+				size++;
+			}
+		}
+	}
+
+	private double distance(int i, int j){
+		double dx = walk[i * 3] - walk[j * 3];
+		double dy = walk[i * 3 + 1] - walk[j * 3 + 1];
+		double dz = walk[i * 3 + 2] - walk[j * 3 + 2];
+		return Math.sqrt(dx * dx + dy * dy + dz * dz);
+	}
+
+	/**
+	 * Write contacts as a contact list (pos1 pos2 IF), positions are point ids * RESOLUTION
+	 * @param file
+	 * @throws IOException
+	 */
+	public void write(File file) throws IOException{
+		PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(file), 1 << 20));
+		try{
+			for(int k = 0; k < size; k++){
+				pw.print((long)pos1[k] * RESOLUTION);
+				pw.print('\t');
+				pw.print((long)pos2[k] * RESOLUTION);
+				pw.print('\t');
+				pw.println(String.format("%.6f", IF[k]));
+			}
+		}finally{
+			pw.close();
+		}
+	}
+
+	/**
+	 *
+	 * @return contacts as constraints between point ids, distances are the distances in the random walk
+	 */
+	public ConstraintTable toConstraintTable(){
+		ConstraintTable table = new ConstraintTable(size);
+		for(int k = 0; k < size; k++){
+			table.add(pos1[k], pos2[k], IF[k], distance(pos1[k], pos2[k]), false);
+		}
+		table.setChrId(new int[nbrPoint]);
+		return table;
+	}
+
+	/**
+	 *
+	 * @return a copy of the random walk, as a structure to evaluate
+	 */
+	public double[] getWalk(){
+		return walk.clone();
+	}
+
+	public int getNbrPoint() {
+		return nbrPoint;
+	}
+
+	public int size(){
+		return size;
+	}
+
+	public static File createTempFolder() throws IOException{
+		return Files.createTempDirectory("gmol-benchmark").toFile();
+	}
+
+	public static void delete(File folder){
+		if (folder == null) return;
+
+		File[] files = folder.listFiles();
+		if (files != null){
+			for(File file : files){
+				if (file.isDirectory()){
+					delete(file);
+				}else{
+					file.delete();
+				}
+			}
+		}
+		folder.delete();
+	}
+}
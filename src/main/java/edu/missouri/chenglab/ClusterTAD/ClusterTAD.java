@@ -14,7 +14,6 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
-import java.util.Scanner;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
@@ -28,13 +27,8 @@ import javax.swing.SwingWorker;
 
 import org.jmol.api.JmolViewer;
 
-import weka.clusterers.SimpleKMeans;
-import weka.core.Attribute;
-import weka.core.Instance;
-import weka.core.Instances;
-import weka.core.SparseInstance;
-import weka.core.converters.CSVLoader;
 import edu.missouri.chenglab.ClusterTAD.Parameter;
+import edu.missouri.chenglab.hicdata.ContactMatrix;
 
 public class ClusterTAD{
 	
@@ -70,6 +64,8 @@ public class ClusterTAD{
 	public static String reclustername = null;
 	public static String  TADfile = null;
 	public static boolean global_isStopRunning = false;
+	public static int nbrThread = 0; // number of threads of k-means, 0 to use all processors
+	static SummedAreaTable sumTable = null; // block sums of the matrix scored by TAD_QA
 
 	 // creates progress bar
     final static JProgressBar pb = new JProgressBar();
@@ -80,62 +76,18 @@ public class ClusterTAD{
     
 	public static List<Double> Quality = new ArrayList<Double>();;
 	/**
-	 *  Read matrix from file		
+	 *  Read matrix from file, the matrix is square and symmetric		
 	 * @param Filename
 	 * @return
-	 * @throws FileNotFoundException 
+	 * @throws Exception 
 	 */
-	public static double [][] readFile(String Filename, String sep) throws FileNotFoundException{			
-		// pre-read in the number of rows/columns
-		int rows = 0;
-		int cols = 0;		
-		 try {
-			 Scanner input = new Scanner (new File( Filename));
-		 
-				while(input.hasNextLine())
-				{	String [] line = null;
-					String rowdata = input.nextLine();
-					rowdata = rowdata.trim();
-					//System.out.println(rowdata);
-					line = rowdata.split(sep);						
-					//System.out.println(String.format("col = %d", line.length));
-					++rows;		
-					cols = line.length;
-				}			
-				input.close();
-		 	} catch (FileNotFoundException e) {
-	         e.printStackTrace();
-		 	}
-		
-		 System.out.println(String.format("Number of row/col = %d", rows));
-		 // read in the data
-		 double [][] a = new double[rows][cols];
-		 try {
-			 int linesCounter = 0;
-			 Scanner input = new Scanner (new File( Filename));
-		 
-				while(input.hasNextLine())
-				{
-					String [] line = null;
-					String rowdata = input.nextLine();
-					line = rowdata.split(sep);			
-					
-					 for (int k = 0; k < cols; k++) {	
-						 	
-		                	a[linesCounter][k] = Double.parseDouble(line[k]);
-		                }
-					 linesCounter++;    						    
-				}			
-				input.close();
-		 	} catch (FileNotFoundException e) {
-	         e.printStackTrace();
-		 	}
-		 
+	public static double [][] readFile(String Filename) throws Exception{			
+		ContactMatrix matrix = ContactMatrix.readMatrix(Filename);
+		System.out.println(String.format("Number of row/col = %d", matrix.size()));
 		
-		 nRegion = rows;
+		nRegion = matrix.size();
 		
-		 
-		return a;
+		return matrix.toDense();
 	}
 	
 	/**
@@ -216,72 +168,18 @@ public class ClusterTAD{
 	}
 	
 	/**
-	 * Perform kmeans clustering using weka-kmeans algorithm
-	 * @param data
+	 * Perform kmeans clustering (KMeans, as weka SimpleKMeans)
+	 * @param data: data[attribute][instance]
 	 * @return
 	 * @throws Exception
 	 */	
 	public static int [] ClusteringAlgorithm(double[][]data, int ncluster) throws Exception {
 		
-	     int numDimensions = data.length;
-	     int numInstances = data[0].length;
-	     ArrayList<Attribute> atts = new ArrayList<Attribute>();
-	     List<Instance> instances = new ArrayList<Instance>();
-	     for(int dim = 0; dim < numDimensions; dim++)
-	     {
-	         Attribute current = new Attribute("Attribute" + dim, dim);
-	         if(dim == 0)
-	         {
-	             for(int obj = 0; obj < numInstances; obj++)
-	             {
-	                 instances.add(new SparseInstance(numDimensions));
-	             }
-	         }
-
-	         for(int obj = 0; obj < numInstances; obj++)
-	         {
-	             instances.get(obj).setValue(current, data[dim][obj]);
-	         }
-
-	         atts.add(current);
-		     if (Parameter.stoprunning) { 
-		    	
-		    	 break; 
-		     }
-	     }
-	     
-
-	     
-	     Instances newDataset = new Instances("Dataset", atts, instances.size());
-
-	     for(Instance inst : instances)
-	         newDataset.add(inst);
-
-		SimpleKMeans kmeans = new SimpleKMeans();
-		 
-		kmeans.setSeed(10);
-
-		//important parameter to set: preserver order, number of cluster.
-		kmeans.setPreserveInstancesOrder(true);
-		try {
-			kmeans.setNumClusters(ncluster);
-		} catch (Exception e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-
-		kmeans.buildClusterer(newDataset);
+		KMeans kmeans = new KMeans(data, nbrThread, 10);
 		
 		// This array returns the cluster number (starting with 0) for each instance
 		// The array has as many elements as the number of instances
-		int[] assignments = kmeans.getAssignments();
-		int i=0;
-		/*for(int clusterNum : assignments) {
-		    System.out.printf("Instance %d -> Cluster %d \n", i, clusterNum);
-		    i++;
-		}*/
-		
-		return assignments;
+		return kmeans.cluster(ncluster);
 		
 	}
 	
@@ -340,13 +238,15 @@ public class ClusterTAD{
 	    int [][] Clusters = new int[row][len];
 	    int [] Cluster_assign = null;
 	    ncluster = minK;
+	    //instances are scaled once, every K starts from the centers of K - 1
+	    KMeans kmeans = new KMeans(data, nbrThread, 10);
 	    for (int i=0;i < len;i++) {	
 	    	    	
 	    	 System.out.println(String.format("kmeans_Clustering :: K = %d .......", ncluster));  	
 	    	//========Perform Kmeans Clustering using Current K====================
 		     if (Parameter.stoprunning) { 
 		    	 break; }
-	    	Cluster_assign = ClusteringAlgorithm(data,ncluster);
+	    	Cluster_assign = kmeans.cluster(ncluster);
 	    	int h= 0; int k= 0;
 	    	while (h<row)
 	    	 {
@@ -447,6 +347,18 @@ public class ClusterTAD{
 		
 	}
 	
+	/**
+	 * Returns the summed-area table of Data, built at the first call for a matrix and reused for every domain, K and reclustering pass
+	 * @param Data
+	 * @return
+	 */
+	public static SummedAreaTable getSummedAreaTable(double[][] Data) {
+		if (sumTable == null || !sumTable.isTableOf(Data)) {
+			sumTable = new SummedAreaTable(Data);
+		}
+		return sumTable;
+	}
+	
 	/**
 	 *  Returns the Intra Quality of Domains
 	 * @param dS - domain start
@@ -455,15 +367,21 @@ public class ClusterTAD{
 	 * @return
 	 */
 	public static double IntraQuality(int dS,int dE, double[][] Data) {
+		return IntraQuality(dS, dE, getSummedAreaTable(Data));
+	}
+	
+	/**
+	 *  Returns the Intra Quality of Domains, average of the contacts between two different bins of the domain
+	 * @param dS - domain start
+	 * @param dE - domain end
+	 * @param table - summed-area table of the Input Data
+	 * @return
+	 */
+	public static double IntraQuality(int dS,int dE, SummedAreaTable table) {
 		double intra = 0;
-		double sum = 0;
-		int count = 0;
-		 for (int i=dS; i<dE+1;i++) {
-			 for (int j=i+1; j<dE+1;j++) {
-				 count = count +1;
-				 sum = sum + Data[i][j];
-			 }
-		 }
+		long len = dE - dS + 1;
+		long count = len > 1 ? len * (len - 1) / 2 : 0;
+		double sum = table.upperTriangle(dS, dE);
 		 // compute intra
 		 if (sum >  0 && count > 0) {
 			 intra = sum/count;
@@ -484,27 +402,34 @@ public class ClusterTAD{
 	 * @return
 	 */
 	public static double [] InterQuality(int dS1,int dE1, int dS2,int dE2,double[][] Data) {
+		return InterQuality(dS1, dE1, dS2, dE2, getSummedAreaTable(Data));
+	}
+	
+	/**
+	 * Returns the Inter Quality of Domains, sum and number of contacts between row i of the first domain (or of the gap before the second one)
+	 * and the first i + 1 bins after the first domain, a staircase ending at the second domain end
+	 * @param dS1
+	 * @param dE1
+	 * @param dS2
+	 * @param dE2
+	 * @param table - summed-area table of the Input Data
+	 * @return
+	 */
+	public static double [] InterQuality(int dS1,int dE1, int dS2,int dE2,SummedAreaTable table) {
 		double [] output = new double[2];
-		double sum = 0;
-		int count = 0;
-		int incr = 0;
-		for (int i=dS1; i<=dS2-1;i++) {
-			incr = incr + 1;
-			int c= 0;
-			 for (int j=dE1+1; j<=dE2;j++) {
-				 c = c + 1;
-				 count = count +1;
-				 sum = sum + Data[i][j];
-				 if(c==incr) {
-				        break;
-				 }
-			 }
-		 }
+		long rows = Math.max(0, dS2 - dS1);
+		long cols = Math.max(0, dE2 - dE1);
+		long count = 0;
+		if (rows <= cols) {
+			count = rows * (rows + 1) / 2;
+		}
+		else {
+			count = cols * (cols + 1) / 2 + (rows - cols) * cols;
+		}
+		double sum = count == 0 ? 0 : table.sum(dS1, dS2 - 1, dE1 + 1, dE2, dE1 - dS1 + 1);
 				
 		output[0] = sum; output[1] = count; 
 		return output;
-		
-		
 	}
 	
 	
@@ -516,6 +441,7 @@ public class ClusterTAD{
 	 * @return
 	 */
 	public static double TAD_QA(int [][]TAD, double [][] Data) {
+		SummedAreaTable table = getSummedAreaTable(Data);
 		int TAD_len = TAD.length;
     	int domain1_start; int domain1_end,domain2_start; int domain2_end;
     	double [] outinter1 = new double[2];
@@ -534,31 +460,31 @@ public class ClusterTAD{
     		 // Intra
     		 domain1_start = TAD[j][0];
     	     domain1_end =  TAD[j][1];
-    	     double intra = IntraQuality(domain1_start,domain1_end, Data) ;
+    	     double intra = IntraQuality(domain1_start,domain1_end, table) ;
     	     double inter = 0;
     		 // Inter
     	     if (j==0) {
     	    	 // Adjacent td is just the next one
     	    	 domain2_start = TAD[j+1][0];
     	    	 domain2_end = TAD[j+1][1];
-    	    	 outinter1 =  InterQuality( domain1_start,domain1_end,domain2_start,domain2_end,Data) ;
+    	    	 outinter1 =  InterQuality( domain1_start,domain1_end,domain2_start,domain2_end,table) ;
     	    	 inter = outinter1[0]/outinter1[1];
     	     }
     	     else if(j > 0 && j < TAD_len - 1)  {
     	    	 //Adjacent td includes prev and next
     	    	 domain2_start = TAD[j-1][0];
     	    	 domain2_end = TAD[j-1][1];
-    	    	 outinter1 =  InterQuality( domain2_start,domain2_end,domain1_start,domain1_end,Data) ;
+    	    	 outinter1 =  InterQuality( domain2_start,domain2_end,domain1_start,domain1_end,table) ;
     	    	 domain2_start = TAD[j+1][0];
     	    	 domain2_end = TAD[j+1][1];
-    	    	 outinter2 =  InterQuality( domain1_start,domain1_end,domain2_start,domain2_end,Data) ;
+    	    	 outinter2 =  InterQuality( domain1_start,domain1_end,domain2_start,domain2_end,table) ;
     	    	 inter = (outinter1[0] + outinter2[0]) /  (outinter1[1] + outinter2[1]);
     	     }
     	     else if (j==TAD_len - 1 ) {
     	    	 // Adjacent td id just the  prev one  
     	    	 domain2_start = TAD[j-1][0];
     	    	 domain2_end = TAD[j-1][1];
-    	    	 outinter1 =  InterQuality(domain2_start,domain2_end, domain1_start,domain1_end,Data) ;
+    	    	 outinter1 =  InterQuality(domain2_start,domain2_end, domain1_start,domain1_end,table) ;
     	    	 inter = outinter1[0]/outinter1[1];
     	     }
     	     
@@ -923,6 +849,7 @@ public class ClusterTAD{
 			ismatrix = Integer.parseInt(args[3]);
 		    startloc = Integer.parseInt(args[4]);
 		    chromosome = args[5];	  
+		    if (args.length > 6) nbrThread = Integer.parseInt(args[6]);
 		    
 		  
 		   
@@ -966,6 +893,7 @@ public class ClusterTAD{
 		    		     		     
 		     System.out.println(String.format("Input = %s", inputfile));
 		    try {	
+		    	sumTable = null;
 		    	RealData= Parameter.readFile(inputfile,seperator,ismatrix);
 			    System.out.println("File read successfully!!!\n");
 			} catch (FileNotFoundException e) {
@@ -0,0 +1,461 @@
+package edu.missouri.chenglab.ClusterTAD;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * K-means clustering on primitive arrays, it replaces weka SimpleKMeans for ClusterTAD.
+ *
+ * As SimpleKMeans, every attribute is scaled to [0, 1] by its range (constant attributes are 0), the distance is Euclidean,
+ * and iterations stop when no instance changes cluster. Centers are seeded by k-means++, iterations use Hamerly's bounds
+ * (an upper bound of the distance to the own center, a lower bound of the distance to the second closest center),
+ * so most instances are not compared with all centers after the first iterations.
+ *
+ * Clustering with K clusters after clustering with fewer clusters starts from the previous centers, new centers are added by k-means++,
+ * so a sweep over increasing K converges in a few iterations for every K. Instances are processed in parallel,
+ * in chunks of a fixed size, results don't depend on the number of threads
+ *
+ */
+public class KMeans {
+
+	private static final int MAX_ITERATION = 500;
+
+	//instances per task
+	private static final int CHUNK_SIZE = 256;
+
+	//attributes per task when centers are computed
+	private static final int DIMENSION_CHUNK_SIZE = 64;
+
+	private int nbrThread;
+
+	//number of instances and attributes
+	private int n;
+	private int d;
+
+	//scaled instances, instance i is x[i * d .. i * d + d)
+	private double[] x;
+
+	private Random random;
+
+	//last solution
+	private int k;
+	private double[] centers;
+	private int[] assignments;
+	private int iterations;
+
+	//Hamerly's bounds
+	private double[] upper;
+	private double[] lower;
+
+	/**
+	 *
+	 * @param data: data[attribute][instance], as the weka instances built by ClusterTAD.ClusteringAlgorithm
+	 * @param nbrThread: 0 to use all processors
+	 * @param seed: seed of k-means++
+	 */
+	public KMeans(double[][] data, int nbrThread, long seed){
+		this.nbrThread = nbrThread > 0 ? nbrThread : Runtime.getRuntime().availableProcessors();
+		this.random = new Random(seed);
+
+		d = data.length;
+		n = data[0].length;
+		x = new double[n * d];
+
+		double min, max;
+		for(int a = 0; a < d; a++){
+			min = Double.MAX_VALUE;
+			max = -Double.MAX_VALUE;
+			for(int i = 0; i < n; i++){
+				min = Math.min(min, data[a][i]);
+				max = Math.max(max, data[a][i]);
+			}
+			for(int i = 0; i < n; i++){
+				x[i * d + a] = max > min ? (data[a][i] - min) / (max - min) : 0;
+			}
+		}
+
+		upper = new double[n];
+		lower = new double[n];
+	}
+
+	/**
+	 * Cluster instances into k clusters, from the centers of the last solution if it has fewer clusters
+	 * @param k
+	 * @return the cluster (0..k-1) of every instance
+	 * @throws Exception
+	 */
+	public int[] cluster(int k) throws Exception{
+		if (k < 1 || k > n) throw new IllegalArgumentException("Number of clusters must be in [1, " + n + "]: " + k);
+
+		ExecutorService executor = Executors.newFixedThreadPool(nbrThread);
+		try{
+			double[] newCenters = new double[k * d];
+			int nbrSeeded = 0;
+			if (centers != null && this.k < k){
+				System.arraycopy(centers, 0, newCenters, 0, this.k * d);
+				nbrSeeded = this.k;
+			}else{
+				assignments = null;
+			}
+			seed(executor, newCenters, nbrSeeded, k);
+
+			this.k = k;
+			centers = newCenters;
+			if (assignments == null) assignments = new int[n];
+
+			iterate(executor, nbrSeeded);
+		}finally{
+			executor.shutdown();
+		}
+
+		return assignments.clone();
+	}
+
+	/**
+	 * Cluster instances from given centers instead of k-means++ (e.g. to compare with Lloyd's iterations from the same centers)
+	 * @param initialCenters: k centers in the scaled space, center j is initialCenters[j * d .. j * d + d)
+	 * @return the cluster (0..k-1) of every instance
+	 * @throws Exception
+	 */
+	int[] cluster(double[] initialCenters) throws Exception{
+		ExecutorService executor = Executors.newFixedThreadPool(nbrThread);
+		try{
+			k = initialCenters.length / d;
+			centers = initialCenters.clone();
+			assignments = new int[n];
+
+			iterate(executor, 0);
+		}finally{
+			executor.shutdown();
+		}
+
+		return assignments.clone();
+	}
+
+	/**
+	 * Cluster instances for every K from minK to maxK, every K starts from the solution of K - 1
+	 * @param minK
+	 * @param maxK
+	 * @return assignments[K - minK][instance]
+	 * @throws Exception
+	 */
+	public int[][] sweep(int minK, int maxK) throws Exception{
+		int[][] rs = new int[maxK - minK + 1][];
+		for(int k = minK; k <= maxK; k++){
+			rs[k - minK] = cluster(k);
+		}
+		return rs;
+	}
+
+	/**
+	 * k-means++: centers from..k-1 are instances drawn with probability proportional to their square distance to the closest center
+	 */
+	private void seed(ExecutorService executor, final double[] c, int from, int k) throws Exception{
+		final double[] minDist = new double[n];
+
+		if (from == 0){
+			int first = random.nextInt(n);
+			System.arraycopy(x, first * d, c, 0, d);
+			from = 1;
+		}
+
+		final int nbrCenter = from;
+		runChunks(executor, new ChunkTask() {
+			@Override
+			public int run(int beg, int end) {
+				double dist;
+				for(int i = beg; i < end; i++){
+					if (assignments != null){
+						//the last solution has converged, instances are assigned to their closest centers
+						minDist[i] = squareDistance(i, c, assignments[i]);
+						continue;
+					}
+					minDist[i] = Double.MAX_VALUE;
+					for(int j = 0; j < nbrCenter; j++){
+						dist = squareDistance(i, c, j);
+						if (dist < minDist[i]) minDist[i] = dist;
+					}
+				}
+				return 0;
+			}
+		});
+
+		for(int j = from; j < k; j++){
+			double total = 0;
+			for(int i = 0; i < n; i++) total += minDist[i];
+
+			//all instances are on centers, any instance
+			int picked = n - 1;
+			if (total > 0){
+				double r = random.nextDouble() * total;
+				for(int i = 0; i < n; i++){
+					r -= minDist[i];
+					if (r < 0){
+						picked = i;
+						break;
+					}
+				}
+			}else{
+				picked = random.nextInt(n);
+			}
+			System.arraycopy(x, picked * d, c, j * d, d);
+
+			final int newCenter = j;
+			runChunks(executor, new ChunkTask() {
+				@Override
+				public int run(int beg, int end) {
+					double dist;
+					for(int i = beg; i < end; i++){
+						dist = squareDistance(i, c, newCenter);
+						if (dist < minDist[i]) minDist[i] = dist;
+					}
+					return 0;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Hamerly's iterations from the current centers
+	 * @param nbrKept: number of centers kept from the last solution, instances are only compared with new centers
+	 */
+	private void iterate(ExecutorService executor, final int nbrKept) throws Exception{
+
+		//first assignment
+		runChunks(executor, new ChunkTask() {
+			@Override
+			public int run(int beg, int end) {
+				for(int i = beg; i < end; i++){
+					if (nbrKept > 0){
+						assignNew(i, nbrKept);
+					}else{
+						assignments[i] = -1;
+						assignAll(i);
+					}
+				}
+				return 0;
+			}
+		});
+
+		final double[] move = new double[k];
+		final double[] halfGap = new double[k];
+		double[] oldCenters = new double[k * d];
+
+		for(iterations = 1; iterations <= MAX_ITERATION; iterations++){
+
+			System.arraycopy(centers, 0, oldCenters, 0, k * d);
+			updateCenters(executor);
+
+			int farthest = 0;
+			for(int j = 0; j < k; j++){
+				move[j] = Math.sqrt(squareDistance(centers, j, oldCenters, j));
+				if (move[j] > move[farthest]) farthest = j;
+			}
+			double secondMove = 0;
+			for(int j = 0; j < k; j++){
+				if (j != farthest) secondMove = Math.max(secondMove, move[j]);
+			}
+			final int maxMoved = farthest;
+			final double maxMove = move[farthest], secondMaxMove = secondMove;
+
+			//half of the distance from every center to its closest center
+			for(int j = 0; j < k; j++){
+				halfGap[j] = Double.MAX_VALUE;
+			}
+			for(int j = 0; j < k; j++){
+				for(int j2 = j + 1; j2 < k; j2++){
+					double dist = Math.sqrt(squareDistance(centers, j, centers, j2)) / 2;
+					if (dist < halfGap[j]) halfGap[j] = dist;
+					if (dist < halfGap[j2]) halfGap[j2] = dist;
+				}
+			}
+
+			int changed = runChunks(executor, new ChunkTask() {
+				@Override
+				public int run(int beg, int end) {
+					int count = 0, a;
+					double bound;
+					for(int i = beg; i < end; i++){
+						a = assignments[i];
+						upper[i] += move[a];
+						lower[i] -= a == maxMoved ? secondMaxMove : maxMove;
+
+						bound = Math.max(halfGap[a], lower[i]);
+						if (upper[i] <= bound) continue;
+
+						upper[i] = Math.sqrt(squareDistance(i, centers, a));
+						if (upper[i] <= bound) continue;
+
+						if (assignAll(i)) count++;
+					}
+					return count;
+				}
+			});
+
+			if (changed == 0) break;
+		}
+	}
+
+	/**
+	 * compare instance i with all centers, set its cluster and bounds
+	 * @return true if its cluster changed
+	 */
+	private boolean assignAll(int i){
+		double best = Double.MAX_VALUE, second = Double.MAX_VALUE, dist;
+		int bestCenter = 0;
+		for(int j = 0; j < k; j++){
+			dist = squareDistance(i, centers, j);
+			if (dist < best){
+				second = best;
+				best = dist;
+				bestCenter = j;
+			}else if (dist < second){
+				second = dist;
+			}
+		}
+
+		upper[i] = Math.sqrt(best);
+		lower[i] = Math.sqrt(second);
+
+		boolean changed = assignments[i] != bestCenter;
+		assignments[i] = bestCenter;
+		return changed;
+	}
+
+	/**
+	 * compare instance i with centers from..k-1, it is assigned to its closest center of the first ones and
+	 * its lower bound is still a lower bound of the distance to the others
+	 */
+	private void assignNew(int i, int from){
+		double best = Math.sqrt(squareDistance(i, centers, assignments[i])), second = lower[i], dist;
+		int bestCenter = assignments[i];
+		for(int j = from; j < k; j++){
+			dist = Math.sqrt(squareDistance(i, centers, j));
+			if (dist < best){
+				second = best;
+				best = dist;
+				bestCenter = j;
+			}else if (dist < second){
+				second = dist;
+			}
+		}
+
+		upper[i] = best;
+		lower[i] = second;
+		assignments[i] = bestCenter;
+	}
+
+	/**
+	 * centers are means of their instances, a center without instance doesn't move.
+	 * Tasks take blocks of attributes, every sum is accumulated in the order of instances
+	 */
+	private void updateCenters(ExecutorService executor) throws Exception{
+		final int[] count = new int[k];
+		for(int i = 0; i < n; i++){
+			count[assignments[i]]++;
+		}
+
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for(int dim = 0; dim < d; dim += DIMENSION_CHUNK_SIZE){
+			final int beg = dim, end = Math.min(d, dim + DIMENSION_CHUNK_SIZE);
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					double[] sum = new double[k * (end - beg)];
+					int w = end - beg, offset;
+					for(int i = 0; i < n; i++){
+						offset = assignments[i] * w;
+						for(int a = beg; a < end; a++){
+							sum[offset + a - beg] += x[i * d + a];
+						}
+					}
+					for(int j = 0; j < k; j++){
+						if (count[j] == 0) continue;
+						for(int a = beg; a < end; a++){
+							centers[j * d + a] = sum[j * w + a - beg] / count[j];
+						}
+					}
+					return null;
+				}
+			});
+		}
+		waitFor(executor.invokeAll(tasks));
+	}
+
+	/**
+	 * run a task on chunks of instances
+	 * @return sum of results of chunks
+	 */
+	private int runChunks(ExecutorService executor, final ChunkTask task) throws Exception{
+		List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+		for(int i = 0; i < n; i += CHUNK_SIZE){
+			final int beg = i, end = Math.min(n, i + CHUNK_SIZE);
+			tasks.add(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					return task.run(beg, end);
+				}
+			});
+		}
+
+		int total = 0;
+		for(Future<Integer> f : executor.invokeAll(tasks)){
+			total += f.get();
+		}
+		return total;
+	}
+
+	private static void waitFor(List<Future<Void>> futures) throws Exception{
+		for(Future<Void> f : futures){
+			f.get();
+		}
+	}
+
+	private double squareDistance(int i, double[] c, int j){
+		double s = 0, diff;
+		int xi = i * d, cj = j * d;
+		for(int a = 0; a < d; a++){
+			diff = x[xi + a] - c[cj + a];
+			s += diff * diff;
+		}
+		return s;
+	}
+
+	private double squareDistance(double[] c1, int j1, double[] c2, int j2){
+		double s = 0, diff;
+		for(int a = 0; a < d; a++){
+			diff = c1[j1 * d + a] - c2[j2 * d + a];
+			s += diff * diff;
+		}
+		return s;
+	}
+
+	/**
+	 *
+	 * @return sum of square distances of instances to their centers (in the scaled space) of the last solution
+	 */
+	public double getSquaredError(){
+		double s = 0;
+		for(int i = 0; i < n; i++){
+			s += squareDistance(i, centers, assignments[i]);
+		}
+		return s;
+	}
+
+	/**
+	 *
+	 * @return number of iterations of the last solution
+	 */
+	public int getIterations() {
+		return iterations;
+	}
+
+	private interface ChunkTask{
+		int run(int beg, int end);
+	}
+}
@@ -0,0 +1,132 @@
+package edu.missouri.chenglab.ClusterTAD;
+
+/**
+ * Prefix sums of a contact matrix, built once, answer the sum of any rectangular block in O(1), and the sum of any
+ * block cut by a diagonal (the cells (i, j) of the block with j - i <= k), so triangles and staircases are O(1) too.
+ *
+ * Two tables of (rows + 1) x (cols + 1) values are kept:
+ * the summed-area table, area(i, j) = sum of data[i'][j'] for i' <= i, j' <= j
+ * and the diagonal table, wedge(i, j) = sum of data[i'][j'] for i' <= i, j' <= j, j' - i' <= j - i, the part of area(i, j) on the left
+ * of the diagonal through (i, j), wedge(i, j) = wedge(i - 1, j - 1) + sum of row i up to j
+ *
+ */
+public class SummedAreaTable {
+
+	private double[][] data;
+
+	private int nRow;
+	private int nCol;
+
+	//width of the tables, index (i + 1) * width + j + 1 holds the value at (i, j), the first row and column are 0
+	private int width;
+
+	private double[] area;
+	private double[] wedge;
+
+	/**
+	 *
+	 * @param data: the contact matrix, rows can't change after the table is built
+	 */
+	public SummedAreaTable(double[][] data){
+		this.data = data;
+		this.nRow = data.length;
+		this.nCol = nRow == 0 ? 0 : data[0].length;
+		this.width = nCol + 1;
+
+		area = new double[(nRow + 1) * width];
+		wedge = new double[(nRow + 1) * width];
+
+		for(int i = 0; i < nRow; i++){
+			double[] row = data[i];
+			int cur = (i + 1) * width + 1;
+			int prev = i * width;
+			double rowSum = 0;
+			for(int j = 0; j < nCol; j++, cur++, prev++){
+				rowSum += row[j];
+				area[cur] = area[prev + 1] + rowSum;
+				wedge[cur] = wedge[prev] + rowSum;
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @param data
+	 * @return true if this table was built for this matrix
+	 */
+	public boolean isTableOf(double[][] data){
+		return this.data == data;
+	}
+
+	/**
+	 * Sum of the block, bounds are inclusive, an empty block sums to 0
+	 * @param rowStart
+	 * @param rowEnd
+	 * @param colStart
+	 * @param colEnd
+	 * @return
+	 */
+	public double sum(int rowStart, int rowEnd, int colStart, int colEnd){
+		if (rowStart > rowEnd || colStart > colEnd) return 0;
+
+		return area(rowEnd, colEnd) - area(rowStart - 1, colEnd) - area(rowEnd, colStart - 1) + area(rowStart - 1, colStart - 1);
+	}
+
+	/**
+	 * Sum of the cells (i, j) of the block with j - i <= k, bounds are inclusive
+	 * @param rowStart
+	 * @param rowEnd
+	 * @param colStart
+	 * @param colEnd
+	 * @param k: diagonal offset, 0 is the main diagonal
+	 * @return
+	 */
+	public double sum(int rowStart, int rowEnd, int colStart, int colEnd, int k){
+		if (rowStart > rowEnd || colStart > colEnd) return 0;
+
+		return corner(rowEnd, colEnd, k) - corner(rowStart - 1, colEnd, k) - corner(rowEnd, colStart - 1, k) + corner(rowStart - 1, colStart - 1, k);
+	}
+
+	/**
+	 * Sum of the cells (i, j) with start <= i < j <= end, the upper triangle of a domain without its diagonal
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	public double upperTriangle(int start, int end){
+		return sum(start, end, start, end) - sum(start, end, start, end, 0);
+	}
+
+	public int getRowCount() {
+		return nRow;
+	}
+
+	public int getColumnCount() {
+		return nCol;
+	}
+
+	//sum of data[i'][j'] for i' <= i, j' <= j
+	private double area(int i, int j){
+		if (i < 0 || j < 0) return 0;
+		return area[(i + 1) * width + j + 1];
+	}
+
+	//sum of data[i'][j'] for i' <= i, j' <= j, j' - i' <= j - i
+	private double wedge(int i, int j){
+		if (i < 0 || j < 0) return 0;
+		return wedge[(i + 1) * width + j + 1];
+	}
+
+	//sum of data[i'][j'] for i' <= i, j' <= j, j' - i' <= k
+	private double corner(int i, int j, int k){
+		if (i < 0 || j < 0) return 0;
+
+		//the diagonal leaves the block through its last row, no cell on the right of (i, i + k) is kept
+		if (j - i >= k) return wedge(i, i + k);
+
+		//the diagonal leaves the block through its last column, rows below (j - k, j) are entirely kept
+		int r = j - k;
+		if (r < 0) return area(i, j);
+		return wedge(r, j) + area(i, j) - area(r, j);
+	}
+}
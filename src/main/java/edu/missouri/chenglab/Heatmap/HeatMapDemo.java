@@ -1062,7 +1062,7 @@ public class HeatMapDemo extends JFrame implements ItemListener, FocusListener
         					return;
         				}
         				// Input is a Matrix format
-        				default_data =  LoadHeatmap.readFile(Filename, sep);
+        				default_data =  LoadHeatmap.readFile(Filename);
         				//update the row and column
         				mat = LoadHeatmap.MatSize(default_data);            	
                   	    row_max = mat[0];
@@ -1099,7 +1099,7 @@ public class HeatMapDemo extends JFrame implements ItemListener, FocusListener
         				
         				useTuple  = true; //Specify input as Tuple input
         				//Input is in Tuple format
-        				default_data =  LoadHeatmap.readTupleFile(Filename, sep);       
+        				default_data =  LoadHeatmap.readTupleFile(Filename);       
         				// Detect the Resolution, detect the Starting Index
         				mat = LoadHeatmap.MatSize(default_data);            				
         				 
@@ -7,10 +7,7 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
 
@@ -23,6 +20,8 @@ import javax.swing.SwingWorker;
 import org.apache.commons.math3.stat.correlation.PearsonsCorrelation;
 import org.apache.commons.math3.stat.correlation.SpearmansCorrelation;
 
+import edu.missouri.chenglab.hicdata.ContactMatrix;
+
 
 public class LoadHeatmap {
 
@@ -32,105 +31,29 @@ public class LoadHeatmap {
     static HashMap<Integer, Integer> map =  new HashMap<Integer, Integer>();
     static HashMap<Integer, Integer> mapthekey =  new HashMap<Integer, Integer>(); 
     static int [][] ExtractedTAD = null;
+    // sorted positions of the tuple file read last
+    static int [] positions = null;
+    static String positionsFile = null;
    
     
   
 	  
 	/**
 	 * 
-	 * read tuple input 
+	 * read tuple input, rows and columns are the sorted distinct positions of the file
 	 * @param Filename
-	 * @param sep
 	 * @return
-	 * @throws FileNotFoundException
+	 * @throws Exception
 	 *  */
 		
 	
-	public static double [][] readTupleFile(String Filename, String sep) throws FileNotFoundException{	
-	
-		//create Hashmap
-		HashMap<Integer, Integer> map = new HashMap<Integer, Integer>();
-		//store index on hashmap: 
-		int max = 0;	
-		int count = 0;
-		try {
-			 Scanner input = new Scanner (new File( Filename));			 
-				while(input.hasNextLine())
-				{	String [] line = null;
-					String rowdata = input.nextLine();
-					rowdata = rowdata.trim();
-					if(!rowdata.isEmpty()) {
-					line = rowdata.split(sep);
-					for (int i= 0; i<2;i++) {
-						int key = Integer.parseInt(line[i]);
-						if (map.containsKey(key)) {
-							//key exists
-							continue;
-						} else {
-							Object value = map.get(key);
-							if (value == null) {
-							    value = max++;		
-								map.put(key, (Integer) value);
-								count =  count + 1;
-							}														
-						}							
-					}
-					}
-				}			
-				input.close();
-		 	} catch (FileNotFoundException e) {
-	         e.printStackTrace();
-		 	}	
-		System.out.println(String.format("The total number of unique element = %d", count));
-		
-		
-		
-		// Once the number of element is obtained, get the total number of elements, create a matrix with them	
-		 double [][] a = new double[count][count];
-		 for (int i = 0; i<max;i++) {
-				for (int j = 0; j<max;j++) {
-					a[i][j] = 0;
-			}
-		}
+	public static double [][] readTupleFile(String Filename) throws Exception{	
+		ContactMatrix matrix = ContactMatrix.readContactList(Filename, 0);
+		positions = matrix.getPositions();
+		positionsFile = Filename;
+		System.out.println(String.format("The total number of unique element = %d", positions.length));
 		
-		// For each key get value
-		 try {				
-			 Scanner input = new Scanner (new File( Filename));
-		 
-				while(input.hasNextLine())
-				{
-					String [] line = null;
-					String rowdata = input.nextLine();
-					rowdata = rowdata.trim();
-					if(!rowdata.isEmpty()) {
-						line = rowdata.split(sep);						
-						// Find the key value from map
-						int indexkey0 = Integer.parseInt(line[0]); int indexvalue0 = map.get(indexkey0);
-						int indexkey1 = Integer.parseInt(line[1]); int indexvalue1 = map.get(indexkey1);
-						
-						System.out.println(String.format("%d %d %f",  indexkey0, indexkey1 ,Double.parseDouble(line[2]) ));
-						
-						if (Double.isNaN( Double.parseDouble(line[2]))) {
-							a[indexvalue0][indexvalue1] = 0;
-							a[indexvalue1][indexvalue0] = 0;
-						}
-						else {
-							a[indexvalue0][indexvalue1] = Double.parseDouble(line[2]) ;					 
-							a[indexvalue1][indexvalue0] = Double.parseDouble(line[2]) ;
-						}
-					}
-				
-	             }			
-			
-				input.close();
-		 	} catch (FileNotFoundException e) {
-		 		System.out.println("There is a line with a wrong Format");
-	         e.printStackTrace();
-		 	}
-		 
-		// double [][]newa = new double[count][count];
-		// newa = Tanh(a);
-		 return a;
+		return matrix.toDense();
 		
 	}
 	
@@ -140,52 +63,24 @@ public class LoadHeatmap {
 	 * @return
 	 */
 	
-	public static Map<Integer, Integer> Createmap(String Filename) {
-		List<Integer> list = new ArrayList<Integer>();
-		
-		
-		int max = 0;	
-		int count = 0;
-		try {
-			 Scanner input = new Scanner (new File( Filename));			 
-				while(input.hasNextLine())
-				{	String [] line = null;
-					String rowdata = input.nextLine();
-					rowdata = rowdata.trim();
-					if(!rowdata.isEmpty()) {
-					line = rowdata.split(sep);
-					for (int i= 0; i<2;i++) {
-						int key = Integer.parseInt(line[i]);
-						if (map.containsKey(key)) {
-							//key exists
-							continue;
-						} else {							
-							map.put(key, count); // Genome location and index
-						    count =  count + 1;
-																			
-						}							
-					}
-					}
-				}			
-				input.close();
-		 	} catch (FileNotFoundException e) {
-	         e.printStackTrace();
-		 	}	
-		System.out.println(String.format("The total number of unique element = %d", count));
+	public static Map<Integer, Integer> Createmap(String Filename) throws Exception {
+		// positions of the file, sorted
+		if (!Filename.equals(positionsFile)) {
+			positions = ContactMatrix.readContactList(Filename, 0).getPositions();
+			positionsFile = Filename;
+		}
+		System.out.println(String.format("The total number of unique element = %d", positions.length));
 		
-		// Copy the key into a list and order.
-		list = new ArrayList<>(map.keySet());
-		Collections.sort(list);
 		// copy the key into a map
 		map.clear();
-		for (int i = 0;i<list.size();i++) {
-			int value = list.get(i);
+		for (int i = 0;i<positions.length;i++) {
+			int value = positions[i];
 			map.put(i,value);
 			mapthekey.put(value, i);
 		}
 		
-		Startlocation = list.get(0);	
-		Endlocation = list.get(list.size()-1);
+		Startlocation = positions[0];	
+		Endlocation = positions[positions.length-1];
 			
 		return map;
 	}
@@ -258,61 +153,16 @@ public class LoadHeatmap {
 	
 	
 	/**
-	 *  Read matrix from file		
+	 *  Read matrix from file, the matrix is square and symmetric		
 	 * @param Filename
 	 * @return
-	 * @throws FileNotFoundException 
+	 * @throws Exception 
 	 */
-	public static double [][] readFile(String Filename, String sep) throws FileNotFoundException{			
-		// pre-read in the number of rows/columns
-		int rows = 0;
-		int cols = 0;		
-		 try {
-			 Scanner input = new Scanner (new File( Filename));
-		 
-				while(input.hasNextLine())
-				{	String [] line = null;
-					String rowdata = input.nextLine();	
-					rowdata = rowdata.trim();
-					//System.out.println(rowdata);
-					line = rowdata.split(sep);						
-					//System.out.println(String.format("col = %d", line.length));
-					++rows;		
-					cols = line.length;
-				}			
-				input.close();
-		 	} catch (FileNotFoundException e) {
-	         e.printStackTrace();
-		 	}
-		
-		 System.out.println(String.format("Number of row/col = %d", rows));
-		 // read in the data
-		 double [][] a = new double[rows][cols];
-		 try {
-			 int linesCounter = 0;
-			 Scanner input = new Scanner (new File( Filename));
-		 
-				while(input.hasNextLine())
-				{
-					String [] line = null;
-					String rowdata = input.nextLine();
-					rowdata = rowdata.trim();
-					line = rowdata.split(sep);						
-					 for (int k = 0; k < cols; k++) {							  
-		                	a[linesCounter][k] = Double.parseDouble(line[k]);
-		                }
-					 linesCounter++;    						    
-				}			
-				input.close();
-		 	} catch (FileNotFoundException e) {
-	         e.printStackTrace();
-		 	}
-		 
+	public static double [][] readFile(String Filename) throws Exception{			
+		ContactMatrix matrix = ContactMatrix.readMatrix(Filename);
+		System.out.println(String.format("Number of row/col = %d", matrix.size()));
 		
-		 
-		// double [][]newa = new double[rows][cols];
-		// newa = Tanh(a);
-		 return a;
+		return matrix.toDense();
 	}
   
 	/**
@@ -6,11 +6,11 @@ import java.io.FileReader;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.Random;
 import java.util.regex.Pattern;
 
 import  edu.missouri.chenglab.Structure3DMax.optimization.GradientAscent;
@@ -21,9 +21,14 @@ import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
 
 import  edu.missouri.chenglab.Structure3DMax.utility.Helper;
 import  edu.missouri.chenglab.Structure3DMax.valueObject.Constants;
-import  edu.missouri.chenglab.Structure3DMax.valueObject.Constraint;
 import edu.missouri.chenglab.Structure3DMax.valueObject.InputParameters_3DMax;
-import edu.missouri.chenglab.loopdetection.utility.CommonFunctions;
+import edu.missouri.chenglab.lordg.evaluation.SampledCorrelation;
+import edu.missouri.chenglab.lordg.optimization.Checkpoint;
+import edu.missouri.chenglab.lordg.optimization.ConversionFactorSearch;
+import edu.missouri.chenglab.lordg.optimization.LBFGS;
+import edu.missouri.chenglab.lordg.optimization.ModelStreamer;
+import edu.missouri.chenglab.lordg.optimization.ObjectiveEvaluator;
+import edu.missouri.chenglab.lordg.valueObject.ConstraintTable;
 import  edu.missouri.chenglab.Structure3DMax.evaluation.CalRMSD;
 
 public class StructureGenerator3DMax implements OptimizedObject{
@@ -33,8 +38,14 @@ public class StructureGenerator3DMax implements OptimizedObject{
 	//number of structures will be generated
 	private int NUM;
 	
-	//list of constraints, each contains position i,j, IF, dist
-	private List<Constraint> lstCons;
+	//table of constraints, each contains position i,j, IF, dist
+	private ConstraintTable constraints;
+	
+	//constraints read by the generator searching for the conversion factor, a candidate computes its own distances from them
+	private ConstraintTable sharedConstraints;
+	
+	//normalized IFs of contacts in the input (without added adjacent contacts), to compute the average distance
+	private double[] contactIF;
 	
 	//list to map 0..n to pos1...posn
 	private List<Integer> lstPos;
@@ -63,8 +74,14 @@ public class StructureGenerator3DMax implements OptimizedObject{
 	//maximum distance that will be scaled down to	
 	//private double maxScale = Constants.SCALE_DISTANCE; 
 	
-	//list contains indices of sub constraints for parallel threads
-	private ArrayList<Integer> lstSubDataSetId = new ArrayList<Integer>();
+	//evaluates the objective function and gradient in parallel, it keeps its threads for the whole optimization
+	private ObjectiveEvaluator evaluator;
+	
+	//writes checkpoints of the optimization of the output model, null if checkpoints are disabled
+	private Checkpoint.Writer checkpointWriter;
+	
+	//checkpoint of a previous run to resume from, null to start from a new structure
+	private Checkpoint resumed;
 
 	//file prefix to name output file structure
 	//private String FILE_PREFIX;
@@ -89,6 +106,9 @@ public class StructureGenerator3DMax implements OptimizedObject{
 	//interval to ignore when calculating Spearman correlation, a[i,i + interval] = 0
 	private int interval = 5;
 	
+	//to initialize structures and draw the sample of constraints to score conversion factors early
+	private Random random = new Random();
+	
 	//private double contactThres;
 	//private int[] chrLens = null;
 	private HashMap<Integer,Integer> idToChr = new HashMap<Integer,Integer>(); //to map index to chromosome
@@ -103,23 +123,45 @@ public class StructureGenerator3DMax implements OptimizedObject{
 	}
 	
 	/**
-	 * read input contacts
+	 * A generator that uses contacts already read by another generator, to evaluate one conversion factor
+	 * @param parent
+	 * @param parameters
+	 */
+	private StructureGenerator3DMax(StructureGenerator3DMax parent, InputParameters_3DMax parameters){
+		this.inputParameters = parameters;
+		this.sharedConstraints = parent.constraints;
+		this.contactIF = parent.contactIF;
+		this.lstPos = parent.lstPos;
+		this.idToChr = parent.idToChr;
+		this.n = parent.n;
+		this.avgIF = parent.avgIF;
+		this.totalIF = parent.totalIF;
+		this.maxIF = parent.maxIF;
+	}
+	
+	/**
+	 * read input contacts, this doesn't depend on the conversion factor, 
+	 * so it is done once even when many conversion factors are tried
 	 * @throws Exception
 	 */
 	private void readInput() throws Exception{
 		
-		inputParameters.getViewer().displayMessage(new String[]{"Reading input data ..."});
+		if (inputParameters.getViewer() != null){
+			inputParameters.getViewer().displayMessage(new String[]{"Reading input data ..."});
+		}
 		
 		lstPos = new ArrayList<Integer>();
 		
-		// Detect if Input is in Tuple format
-		int format = helper.inputdetector(inputParameters);
-		if (format == 1) {
-			//change input file to new path
-			inputParameters.setInput_file(helper.readMatrixtoList(inputParameters));			
+		// Detect if Input is in Tuple format, a contact source (e.g. a .hic file) has no input file
+		if (inputParameters.getContactSource() == null) {
+			int format = helper.inputdetector(inputParameters);
+			if (format == 1) {
+				//change input file to new path
+				inputParameters.setInput_file(helper.readMatrixtoList(inputParameters));			
+			}
 		}
 		
-		lstCons = helper.readContactList(inputParameters, lstPos,inputParameters.getContact_thres());
+		constraints = helper.readContactList(inputParameters, lstPos,inputParameters.getContact_thres());
 		//lstCons = helper.readContactMatrixAsList(INPUT_FILE);
 		//n = helper.determineNbrOfPoints(INPUT_FILE);
 		
@@ -163,92 +205,111 @@ public class StructureGenerator3DMax implements OptimizedObject{
 		}				
 
 		
-		//correct lstCons to remove gap, if there is no gap, this doesn't change anything
+		//correct constraints to remove gap, if there is no gap, this doesn't change anything
+		int[] pos1 = constraints.getPos1Array();
+		int[] pos2 = constraints.getPos2Array();
+		double[] IF = constraints.getIFArray();
+		int size = constraints.size();
 		avgIF = 0.0;
-		for(Constraint con: lstCons){
-//			if (Math.abs(con.getPos1() - con.getPos2()) == 1 && con.getIF() < 20.0){
-//				System.out.println(con.getPos1() + "\t" + con.getPos2());
-//			}
-			con.setPos1(mapPosToID.get(con.getPos1()));
-			con.setPos2(mapPosToID.get(con.getPos2()));
-			avgIF += con.getIF();
+		for(int k = 0; k < size; k++){
+			pos1[k] = mapPosToID.get(pos1[k]);
+			pos2[k] = mapPosToID.get(pos2[k]);
+			avgIF += IF[k];
 		}
-		avgIF /= lstCons.size();
+		avgIF /= size;
 		
 		maxIF = 0.0;
 		
-		//scale average distance to AVG_DIST
-		double avgDist = 0.0;
 		double avgAdjIF = 0.0;
 		int avgAdjCount = 0;
-		for(Constraint con : lstCons){						
+		contactIF = new double[size];
+		for(int k = 0; k < size; k++){
 			
-			con.setIF(con.getIF()/avgIF); //normalize IF by avgIF
-			avgDist += (1.0 / Math.pow(con.getIF(),inputParameters.getConvert_factor()));
+			IF[k] /= avgIF; //normalize IF by avgIF
+			contactIF[k] = IF[k];
 			
-			totalIF += con.getIF();
-			if (con.getIF() > maxIF){
-				maxIF = con.getIF();
+			totalIF += IF[k];
+			if (IF[k] > maxIF){
+				maxIF = IF[k];
 			}
 			
-			if (Math.abs(con.getPos1() - con.getPos2()) == 1 && idToChr.get(con.getPos1()) == idToChr.get(con.getPos2())) {
+			if (Math.abs(pos1[k] - pos2[k]) == 1 && idToChr.get(pos1[k]) == idToChr.get(pos2[k])) {
 				avgAdjCount++;
-				avgAdjIF += con.getIF();
+				avgAdjIF += IF[k];
 			}
 		}
-		avgDist /= lstCons.size();
 		avgAdjIF /= avgAdjCount;
 		
-		scale_factor = avgDist ;  //January 3, 2018
-		
 		// December 19 2017 : minimum used to avoid too large maximum
 		 maxIF = Math.min(avgAdjIF, maxIF);
 		
-		Collections.sort(lstCons);
 		addAdjacentContacts(avgAdjIF);
 		//addNonContact();
 		
-		System.out.println("Number of constraints: " + lstCons.size());
+		System.out.println("Number of constraints: " + constraints.size());
+		
+		constraints.sort();
+		constraints.trimToSize();
+		
+		int[] chrId = new int[n];
+		for(int i = 0; i < n; i++){
+			chrId[i] = idToChr.get(i);
+		}
+		constraints.setChrId(chrId);
+		
+	}
+	
+	/**
+	 * Convert IFs to distances with the current conversion factor
+	 */
+	private void convertIF2Distance(){
+		
+		//scale average distance to AVG_DIST
+		double avgDist = 0.0;
+		for(int k = 0; k < contactIF.length; k++){
+			avgDist += (1.0 / Math.pow(contactIF[k],inputParameters.getConvert_factor()));
+		}
+		avgDist /= contactIF.length;
+		
+		scale_factor = avgDist ;  //January 3, 2018
+		
 		double max = 0;
-		for(Constraint con : lstCons){	
-			double d= AVG_DIST / (Math.pow(con.getIF(),inputParameters.getConvert_factor()) * avgDist );
-			con.setDist(d);
-			if (AVG_DIST / (Math.pow(con.getIF(),inputParameters.getConvert_factor()) * avgDist ) > max){
-				max = AVG_DIST / (Math.pow(con.getIF(),inputParameters.getConvert_factor()) * avgDist) ;
+		double[] IF = constraints.getIFArray();
+		double[] dist = constraints.getDistArray();
+		for(int k = 0; k < constraints.size(); k++){	
+			dist[k] = AVG_DIST / (Math.pow(IF[k],inputParameters.getConvert_factor()) * avgDist );
+			if (dist[k] > max){
+				max = dist[k];
 			}
 		}
 		
-		System.out.println("Max distance is: " + max);
-		
+		System.out.println("Conversion factor: " + inputParameters.getConvert_factor() + ", max distance is: " + max);
 	}
 	
 	
 	//add adjacent contacts if not exist
 	
 	private void addAdjacentContacts(double IF){
-		int id;
-		ArrayList<Constraint> ctList = new ArrayList<Constraint>();
-		Constraint ct;
-		for(int i = 0; i < n - 1; i++){
-			if (idToChr.get(i) == idToChr.get(i+ 1) ){	
-				
-				ct = new Constraint(i,i + 1,IF);				
-				id = Collections.binarySearch(lstCons, ct);
-				if (id < 0){
-					ctList.add(ct);
-				}else{					
-					if (lstCons.get(id).getIF() < IF){
-						lstCons.remove(id);
-						ctList.add(ct);
-					}
-					
-					
+		
+		boolean[] hasAdjacentContact = new boolean[n];// hasAdjacentContact[i] = true if contact (i, i + 1) exists
+		
+		int size = constraints.size();
+		for(int k = 0; k < size; k++){
+			int i = constraints.getPos1(k);
+			if (constraints.getPos2(k) - i == 1 && idToChr.get(i) == idToChr.get(i + 1)){
+				hasAdjacentContact[i] = true;
+				if (constraints.getIF(k) < IF){
+					constraints.setIF(k, IF);
 				}
 			}
-			
 		}
 		
-		lstCons.addAll(ctList);
+		constraints.ensureCapacity(size + n);
+		for(int i = 0; i < n - 1; i++){
+			if (!hasAdjacentContact[i] && idToChr.get(i) == idToChr.get(i+ 1)){
+				constraints.add(i, i + 1, IF);
+			}
+		}
 	}
 
 	private void readParameters(String paraFile)throws Exception{
@@ -330,6 +391,16 @@ public class StructureGenerator3DMax implements OptimizedObject{
 					
 				}else if (st[0].equalsIgnoreCase(Constants.DISTANCE_FILE)){					
 					inputParameters.setDistanceFile(st[1]);					
+				}else if (st[0].equalsIgnoreCase(Constants.OPTIMIZER_KEY)){					
+					inputParameters.setOptimizer(st[1]);					
+				}else if (st[0].equalsIgnoreCase(Constants.CHECKPOINT_INTERVAL_KEY)){					
+					inputParameters.setCheckpointInterval(Integer.parseInt(st[1]));					
+				}else if (st[0].equalsIgnoreCase(Constants.RESUME_KEY)){					
+					inputParameters.setResume(Boolean.parseBoolean(st[1]));					
+				}else if (st[0].equalsIgnoreCase(Constants.EARLY_SCORING_SAMPLE_KEY)){					
+					inputParameters.setEarlyScoringSample(Integer.parseInt(st[1]));					
+				}else if (st[0].equalsIgnoreCase(Constants.EARLY_SCORING_CONFIDENCE_KEY)){					
+					inputParameters.setEarlyScoringConfidence(Double.parseDouble(st[1]));					
 				}
 				
 				
@@ -356,8 +427,6 @@ public class StructureGenerator3DMax implements OptimizedObject{
 	 * Initialize variables before running optimization
 	 */
 	private void initialize(){
-				
-		str = new double[n * 3];
 		
 		//get the number of processor available
 		int numOfcores = Runtime.getRuntime().availableProcessors();
@@ -365,9 +434,9 @@ public class StructureGenerator3DMax implements OptimizedObject{
 		if (numOfcores == 0){
 			numOfcores = 2;// default number when this parameter cannot be detected
 		}
-		//each core can take care of 2 threads		
+		//threads are kept busy by the evaluator, so one thread per core		
 		//limit number of threads to avoid excessive communication cost
-		numOfcores = Math.min(numOfcores * 2 , Constants.MAX_NUM_THREAD);
+		numOfcores = Math.min(numOfcores, Constants.MAX_NUM_THREAD);
 		
 //		String inEclipseStr = System.getProperty("runInEclipse");
 //		if ("true".equalsIgnoreCase(inEclipseStr)){
@@ -386,9 +455,11 @@ public class StructureGenerator3DMax implements OptimizedObject{
 		}
 		
 		System.out.println("Number of processors:" + numOfcores);
-		//divide the set of points into equal subsets, each will be processed by one processor (thread)
-		lstSubDataSetId.clear();
-		helper.divideDataSet(lstCons.size(), numOfcores, lstSubDataSetId);
+		//divide the set of constraints into equal subsets, each will be processed by one thread
+		if (evaluator != null){
+			evaluator.shutdown();
+		}
+		evaluator = new ObjectiveEvaluator(new GradientCaculator(), constraints.size(), n * 3, numOfcores, Constants.MIN_CONSTRAINTS_PER_THREAD);
 		
 		
 		File outputFolder = new File(inputParameters.getOutput_folder());
@@ -406,15 +477,17 @@ public class StructureGenerator3DMax implements OptimizedObject{
 	 */
 	private void initializeStructure() throws Exception{
 		
+		str = new double[n * 3];
+		
 		double chrX=0,chrY=0,chrZ=0,size = 0.1;
 		
 		for(int i = 0; i < n; i++){
 			
 			//reset starting point for every chromosome
 		
-				chrX = Math.random() * size;
-				chrY = Math.random() * size;
-				chrZ = Math.random() * size;
+				chrX = random.nextDouble() * size;
+				chrY = random.nextDouble() * size;
+				chrZ = random.nextDouble() * size;
 				
 
 
@@ -431,87 +504,275 @@ public class StructureGenerator3DMax implements OptimizedObject{
 		
 		if (parameterFile != null) readParameters(parameterFile);
 		
-		double convertFactor = inputParameters.getConvert_factor();
+		//a resumed run takes the conversion factor of its checkpoint, so the factor is not searched again
+		if (inputParameters.isResume()){
+			readCheckpoint();
+		}
+		
+		//contacts are read once, even when many conversion factors are tried
+		readInput();
 		
-		if (convertFactor == -1){
+		if (inputParameters.getConvert_factor() == -1){
 		
-			convertFactor = inputParameters.getMinConversionFactor();
-			double cor, minCor = 1.0;
-			double bestConvertFactor = Constants.DEFAULT_CONVERT_FACTOR;//default
-			String bestModel = "";
-			Pair pair;
+			return searchConvertFactor();
 			
+		}else{
+			inputParameters.setSearchingConversionFactor(false);
+			return run();
+		}
+		
+		
+	}
+	
+	/**
+	 * Search for the best conversion factor, candidate factors are evaluated in parallel on the contacts that have been read,
+	 * the model of the best factor is written out
+	 * @return
+	 * @throws Exception
+	 */
+	private Pair searchConvertFactor() throws Exception{
+		
+		inputParameters.setSearchingConversionFactor(true);
+		
+		int numOfcores = Runtime.getRuntime().availableProcessors();
+		if (numOfcores == 0){
+			numOfcores = 2;// default number when this parameter cannot be detected
+		}
+		numOfcores = Math.min(numOfcores, Constants.MAX_NUM_THREAD);
+		
+		ConversionFactorSearch search = new ConversionFactorSearch(new ConversionFactorSearch.CandidateFactory() {
 			
-			inputParameters.setSearchingConversionFactor(true);
-			Set<String> allModels = new HashSet<String>();
-			for(; convertFactor <= inputParameters.getMaxConversionFactor(); convertFactor += 0.1){
-				try {
-					inputParameters.setNumber_threads(1);
-					inputParameters.setConvert_factor(convertFactor);
-					pair = run(); 
-					
-					allModels.add(pair.modelFile);
-					
-				} catch (Exception e) {					
-					e.printStackTrace();
-					continue;
-				}
-				System.out.println("Result--------------------" + convertFactor + "\t" + pair.cor);
-				if (minCor > pair.cor){
-					minCor = pair.cor;
-					bestConvertFactor = convertFactor;
-					bestModel = pair.modelFile;
-				}
-				
-				if (inputParameters.isStopRunning()){
-					inputParameters.setStopRunning(false);
-					break;
-				}
+			@Override
+			public ConversionFactorSearch.Candidate create(double factor) throws Exception {
+				return new FactorCandidate(factor);
 			}
 			
-			//free memory
-			lstPos = null;
-			
+			@Override
+			public boolean isStopRunning() {
+				return inputParameters.isStopRunning();
+			}
 			
-			PrintWriter pw = new PrintWriter(inputParameters.getOutput_folder()+ "/" + "best_alpha_log.txt");
-			//pw.printf("\n\nBest convert factor: %.2f, pick models generated using this convert factor as your final models \n", bestConvertFactor);
-			pw.printf("\n\nBest convert factor: %.2f, with avg. correlation: %.2f, pick models generated using this convert factor as your final models \n", bestConvertFactor, minCor);
+			@Override
+			public void candidateScored(double factor, double score, boolean isFinal) {
+				if (inputParameters.getViewer() != null){
+					inputParameters.getViewer().displayMessage(new String[]{"Searching conversion factor...", 
+							"Conversion factor: " + String.format("%.2f", factor), "Correlation: " + String.format("%.2f", -1 * score)});
+				}
+			}
+		}, inputParameters.getMinConversionFactor(), inputParameters.getMaxConversionFactor(), numOfcores, inputParameters.getMax_iteration());
+		
+		search.setAdaptive(Constants.SEARCH_ADAPTIVE.equalsIgnoreCase(inputParameters.getSearchMode()));
+		
+		//candidates are scored on the same sample of constraints after the first stage
+		if (inputParameters.getEarlyScoringSample() > 0){
+			search.setEstimator(new SampledCorrelation(constraints, inputParameters.getEarlyScoringSample(), 
+					inputParameters.getEarlyScoringConfidence(), random.nextLong()));
+		}
+		
+		ConversionFactorSearch.Result best = search.search();
+		
+		if (inputParameters.isStopRunning()){
+			inputParameters.setStopRunning(false);
+		}
+		
+		if (best == null){
+			throw new Exception("No conversion factor could be evaluated, please check your input");
+		}
+		
+		List<ConversionFactorSearch.Result> results = new ArrayList<ConversionFactorSearch.Result>(search.getResults());
+		Collections.sort(results, new Comparator<ConversionFactorSearch.Result>() {
+			@Override
+			public int compare(ConversionFactorSearch.Result o1, ConversionFactorSearch.Result o2) {
+				return Double.compare(o1.getFactor(), o2.getFactor());
+			}
+		});
+		
+		PrintWriter pw = new PrintWriter(inputParameters.getOutput_folder()+ "/" + "best_alpha_log.txt");
+		//pw.printf("\n\nBest convert factor: %.2f, pick models generated using this convert factor as your final models \n", bestConvertFactor);
+		pw.printf("\n\nBest convert factor: %.2f, with avg. correlation: %.2f, pick models generated using this convert factor as your final models \n", best.getFactor(), best.getScore());
+		pw.println("\nConvert factor\tCorrelation");
+		for(ConversionFactorSearch.Result rs : results){
+			pw.printf("%.3f\t%.4f%s\n", rs.getFactor(), rs.getScore(), rs.isAbandoned() ? "\tabandoned early" : "");
+		}
 
-			System.out.printf("\n\nBest convert factor: %.2f, pick models generated using this convert factor as your final models \n", bestConvertFactor);
-			pw.close();
+		System.out.printf("\n\nBest convert factor: %.2f, pick models generated using this convert factor as your final models \n", best.getFactor());
+		pw.close();
+		
+		//write out the model of the best factor, distances of the shared constraints are computed for it
+		inputParameters.setConvert_factor(best.getFactor());
+		convertIF2Distance();
+		str = ((FactorCandidate)best.getCandidate()).generator.str;
+		
+		Pair pair = writeOutput();
+		
+		//free memory
+		lstPos = null;
+		
+		return pair;
+	}
+	
+	/**
+	 * Read contacts and initialize the structure without optimizing it, 
+	 * calGradientAndObjective() can be called after this, e.g. to benchmark the objective function
+	 * @return the initial structure
+	 * @throws Exception
+	 */
+	public double[] prepareStructure() throws Exception{
+		
+		if (constraints == null){
+			readInput();
+		}
+		
+		convertIF2Distance();
+		
+		initialize();
+		
+		initializeStructure();
+		
+		return str;
+	}
+	
+	/**
+	 * release threads used to evaluate the objective function
+	 */
+	public void shutdown(){
+		if (evaluator != null){
+			evaluator.shutdown();
+		}
+	}
+	
+	public Pair run(String... cFactor) throws Exception{
+		
+		if (inputParameters.isResume()){
+			readCheckpoint();
+		}
+		
+		//read contact data, unless it has been read
+		if (constraints == null){
+			readInput();
+		}
+		
+		convertIF2Distance();
+		
+		//December 19, 2017 : for parallel processing (Not Used) 
+		initialize();
+		
+		if (resumed != null && resumed.getX().length != n * 3){
+			System.out.println("The checkpoint has " + resumed.getX().length / 3 + " points instead of " + n + ", it is not used");
+			resumed = null;
+		}
+		
+		if (resumed != null){
+			str = resumed.getX();
+		}else{
+			initializeStructure();
+		}
+		
+		checkpointWriter = helper.createCheckpointWriter(inputParameters);
+		
+		try{
+			optimizeStructure(resumed);
+		}finally{
+			//release threads of the evaluator
+			evaluator.shutdown();
+			resumed = null;
+		}
+		
+		Pair pair = writeOutput();
+		
+		//the checkpoint of a stopped optimization is kept to resume it
+		if (checkpointWriter != null && !inputParameters.isStopRunning()){
+			checkpointWriter.delete();
+		}
+		checkpointWriter = null;
+		
+		return pair;
+	}
+	
+	/**
+	 * Read the checkpoint of a previous run of this model, the conversion factor is set to the factor of the checkpoint
+	 * @return the checkpoint, null if there is no valid checkpoint
+	 */
+	private Checkpoint readCheckpoint(){
+		if (resumed == null){
+			File file = Checkpoint.getFile(inputParameters.getOutput_folder(), inputParameters.getFile_prefix());
+			resumed = Checkpoint.read(file);
 			
-			//generate models after searching for best factor
-			//convertFactor = bestConvertFactor;			
-			//inputParameters.setConvert_factor(convertFactor);
-			//inputParameters.setSearchingConversionFactor(false);
-			//run();
+			if (resumed == null){
+				System.out.println("No checkpoint to resume from: " + file.getPath());
+				return null;
+			}
+			System.out.printf("Resuming from %s, iteration: %d, conversion factor: %.2f\n", file.getPath(), resumed.getIteration(), resumed.getConvertFactor());
+		}
+		
+		inputParameters.setConvert_factor(resumed.getConvertFactor());
+		return resumed;
+	}
+	
+	/**
+	 * Optimize the structure with the optimizer selected in inputParameters
+	 * @throws Exception
+	 */
+	private void optimizeStructure() throws Exception{
+		optimizeStructure(null);
+	}
+	
+	/**
+	 * Optimize the structure with the optimizer selected in inputParameters, checkpoints are written by checkpointWriter if it is set
+	 * @param checkpoint: to continue the optimization saved in it, the structure must be its variables, null to start a new optimization
+	 * @throws Exception
+	 */
+	private void optimizeStructure(Checkpoint checkpoint) throws Exception{
+		
+		if (Constants.LBFGS.equalsIgnoreCase(inputParameters.getOptimizer())){
 			
-			for(String file: allModels) {
-				if (!file.equals(bestModel)) {
-					CommonFunctions.delete_file(file);
+			LBFGS lbfgs = new LBFGS(this, str, inputParameters.isVerbose());
+			lbfgs.setCheckpointWriter(checkpointWriter);
+			if (checkpoint != null){
+				lbfgs.resume(checkpoint);
+			}
+			final ModelStreamer streamer = helper.createModelStreamer(inputParameters, inputParameters.getTmpFolder(), idToChr);
+			lbfgs.optimize(inputParameters.getMax_iteration(), new LBFGS.IterationListener() {
+				@Override
+				public boolean iterationDone(int count, double[] x, double objectiveFn) throws Exception {
+					
+					if (streamer != null && streamer.isDue()){
+						String msg = "Conversion factor: " + String.format("%.2f", inputParameters.getConvert_factor());
+						String msgObj = "Objective function: " + String.format("%.3f",objectiveFn);
+						if (inputParameters.isSearchingConversionFactor()){
+							streamer.publish(x, "Searching conversion factor...", msg, msgObj);
+						}else{
+							streamer.publish(x, msg, msgObj);
+						}
+					}
+					
+					return !inputParameters.isStopRunning();
 				}
-			};
+			});
 			
-			inputParameters.getViewer().loadNewModel(bestModel, new String[]{"Best Conversion Factor: " + String.format("%.2f", bestConvertFactor), 
-					"Correlation: " + String.format("%.2f", -1 * minCor)});
+		}else{
 			
-			return new Pair(minCor, bestModel);
+			GradientAscent gradientAscent = new GradientAscent(this, str, inputParameters.isVerbose(), inputParameters.getTmpFolder(),idToChr);
+			if (inputParameters.getLearning_rate()  != 0){
+				gradientAscent.setInitialLearingRate(inputParameters.getLearning_rate());
+			}
+			gradientAscent.setCheckpointWriter(checkpointWriter);
+			if (checkpoint != null){
+				gradientAscent.resume(checkpoint);
+			}
 			
-		}else{
-			inputParameters.setSearchingConversionFactor(false);
-			return run();
+			gradientAscent.performGradientAscent(inputParameters);
 		}
-		
-		
 	}
 	
-	public Pair run(String... cFactor) throws Exception{
+	/**
+	 * Evaluate the structure, write it out with log files and show it in the viewer
+	 * @return
+	 * @throws Exception
+	 */
+	private Pair writeOutput() throws Exception{
 		String fileName;
 		
-		readInput(); //it includes conversion from IF2Distance
-		//December 19, 2017 : for parallel processing (Not Used) 
-		initialize();
-		
 		double str_scale = scale_factor ;
 		
 		inputParameters.setLstPos(lstPos);
@@ -527,27 +788,18 @@ public class StructureGenerator3DMax implements OptimizedObject{
 		
 		int run_nbr = inputParameters.getNum();
 		
-				
-		initializeStructure();
-		
-		GradientAscent gradientAscent = new GradientAscent(this, str, inputParameters.isVerbose(), inputParameters.getTmpFolder(),idToChr);
-		if (inputParameters.getLearning_rate()  != 0){
-			gradientAscent.setInitialLearingRate(inputParameters.getLearning_rate());
-		}
-		
-		gradientAscent.performGradientAscent(inputParameters);
-		
 		String currentTimeMillis = System.currentTimeMillis() + "";
 		
 		fileName = inputParameters.getFile_prefix() + "_" + currentTimeMillis ;		
 		
-		rmsd = CalRMSD.rmse(str, lstCons);
+		rmsd = CalRMSD.rmse(str, constraints);
 		interval = 0;
 		try{
 			
-			cor = CalRMSD.correlationIFvsDist(str, lstCons, interval);
-			corDist = CalRMSD.correlationWishDistvsDist(str, lstCons, interval);
-			pcorDist = CalRMSD.PearsoncorrelationWishDistvsDist(str, lstCons, interval);
+			cor = CalRMSD.correlationIFvsDist(str, constraints, interval, inputParameters.getNumber_threads());
+			double[] corWishDist = CalRMSD.correlationsWishDistvsDist(str, constraints, interval, inputParameters.getNumber_threads());
+			corDist = corWishDist[0];
+			pcorDist = corWishDist[1];
 		}catch(Exception ex){
 			cor = 1.0;// convertFactor fails the reconstruction so make cor = maximum (1)
 		}
@@ -568,8 +820,13 @@ public class StructureGenerator3DMax implements OptimizedObject{
 			
 			
 			if (inputParameters.getViewer() != null){
-				inputParameters.getViewer().loadNewModel(outputFileGSS, new String[]{"Conversion Factor: " + String.format("%.2f", inputParameters.getConvert_factor()), 
-						"Correlation: " + String.format("%.2f", corDist)});
+				if (inputParameters.isSearchingConversionFactor()){
+					inputParameters.getViewer().loadNewModel(outputFileGSS, new String[]{"Best Conversion Factor: " + String.format("%.2f", inputParameters.getConvert_factor()), 
+							"Correlation: " + String.format("%.2f", -1 * cor)});
+				}else{
+					inputParameters.getViewer().loadNewModel(outputFileGSS, new String[]{"Conversion Factor: " + String.format("%.2f", inputParameters.getConvert_factor()), 
+							"Correlation: " + String.format("%.2f", corDist)});
+				}
 			}
 			
 			
@@ -650,6 +907,88 @@ public class StructureGenerator3DMax implements OptimizedObject{
 		return new Pair(avgCor, outputFileGSS);
 	}
 	
+	/**
+	 * Optimize the structure of a candidate conversion factor, the structure is initialized in the first call
+	 * and the optimization continues from it in the next calls
+	 * @param maxIteration
+	 * @throws Exception
+	 */
+	private void optimizeCandidate(int maxIteration) throws Exception{
+		
+		constraints = sharedConstraints.copyWithNewDistances();
+		convertIF2Distance();
+		
+		initialize();
+		
+		if (str == null){
+			initializeStructure();
+		}
+		
+		inputParameters.setMax_iteration(maxIteration);
+		try{
+			optimizeStructure();
+		}finally{
+			evaluator.shutdown();
+		}
+		
+		//distances are computed again in the next call, so that candidates waiting for the next call don't keep them
+		constraints = null;
+		evaluator = null;
+	}
+	
+	/**
+	 * Score the structure of a candidate conversion factor, only IFs of the shared constraints are used
+	 * @return Spearman correlation between IFs and distances, the lower the better
+	 */
+	private double scoreCandidate(){
+		try{
+			return CalRMSD.correlationIFvsDist(str, sharedConstraints, 0, inputParameters.getNumber_threads());
+		}catch(Exception ex){
+			return 1.0;// convertFactor fails the reconstruction so make cor = maximum (1)
+		}
+	}
+	
+	/**
+	 * A conversion factor evaluated by ConversionFactorSearch, it has its own generator sharing contacts with this generator
+	 */
+	class FactorCandidate implements ConversionFactorSearch.Candidate{
+		
+		StructureGenerator3DMax generator;
+		
+		FactorCandidate(double factor){
+			InputParameters_3DMax parameters = inputParameters.copy();
+			parameters.setConvert_factor(factor);
+			//candidates are optimized at the same time, each uses one thread and doesn't show intermediate models
+			parameters.setNumber_threads(1);
+			parameters.setTmpFolder(null);
+			parameters.setViewer(null);
+			parameters.setVerbose(false);
+			parameters.setStopRunning(false);
+			
+			generator = new StructureGenerator3DMax(StructureGenerator3DMax.this, parameters);
+		}
+		
+		@Override
+		public void optimize(int maxIteration) throws Exception {
+			generator.optimizeCandidate(maxIteration);
+		}
+		
+		@Override
+		public double score() throws Exception {
+			return generator.scoreCandidate();
+		}
+		
+		@Override
+		public double[] getStructure() {
+			return generator.str;
+		}
+		
+		@Override
+		public void stop() {
+			generator.inputParameters.setStopRunning(true);
+		}
+	}
+	
 	
 	class Pair{
 		double cor;
@@ -663,51 +1002,27 @@ public class StructureGenerator3DMax implements OptimizedObject{
 	
 	/**
 	 * Calculate objective function and gradient
+	 * 
+	 * the objective function is the log likelihood -n/2 - n * log(sqrt(V / n)), V is the sum of squared residuals 
+	 * (x - dist)^2 over all constraints. Its gradient is -n / (2V) times the gradient of V, so threads compute V and 
+	 * the gradient of V in one pass over the constraints, and the gradient is scaled after V is summed over all threads
 	 */
 	@Override
 	public double calGradientAndObjective(double[] x, double[] der)
 			throws InterruptedException {
 		
-		double cost = 0.0;
-		
-		GradientCaculator[] gradCalculator = new GradientCaculator[lstSubDataSetId.size()];
-		
-		gradCalculator[0] = new GradientCaculator(x, 0 , lstSubDataSetId.get(0), der != null);
-		for(int i = 1; i < gradCalculator.length; i++){
-			gradCalculator[i] = new GradientCaculator(x, lstSubDataSetId.get(i - 1) + 1, lstSubDataSetId.get(i), der != null);
-		}
-		
-		//start threads
-		for(int i = 0; i < gradCalculator.length; i++){
-			gradCalculator[i].start();
-		}
+		//sum of squared residuals, der is the gradient of it
+		double v = evaluator.evaluate(x, der);
 		
-		//wait for all threads to finish
-		try {
-			for(int i=0; i< gradCalculator.length; i++){
-				gradCalculator[i].join();
-			}			
-		} catch (InterruptedException e) {			
-			e.printStackTrace();
-			throw e;
-		}
-
-		//aggregate the cost
-		for(int i = 0; i < gradCalculator.length; i++){
-			cost += gradCalculator[i].getCost();
-		}
-	
 		if (der != null){
-			//aggregate the gradient
+			//d(cost)/dv
+			double scale = -n / (2 * v);
 			for(int i = 0; i < der.length; i++){
-				der[i] = 0;
-				for(int k = 0; k < gradCalculator.length; k++){
-					der[i] += gradCalculator[k].getChange()[i];
-				} 				
-			}			
-		}		
+				der[i] *= scale;
+			}
+		}
 		
-		return cost;
+		return -(n/2) - (n*Math.log(Math.sqrt(v/n)));
 		
 	}
 
@@ -722,150 +1037,59 @@ public class StructureGenerator3DMax implements OptimizedObject{
 	
 	
 	/**
-	 * This class is used to calculate the gradient for a subset of datapoints
-	 * in a single threaded program, all data points are i = 1 .. n and j = i+1 ... n
-	 * to calculate the gradient in parallel, one thread will be in charged of calculating for i = begin ... end
+	 * This class is used to calculate the sum of squared residuals and its gradient for a subset of constraints
+	 * in a single threaded program, all constraints are k = 0 ... m - 1
+	 * to calculate in parallel, one thread will be in charged of calculating for k = begin ... end
 	 * 
-	 * for any modification of the objective function, this function will need to be modified accordingly
+	 * for any modification of the objective function, this function and calGradientAndObjective will need to be modified accordingly
 	 * @author Tuan
 	 *
 	 */
-	class GradientCaculator extends Thread{
-		//the first index to calculate the gradient
-		private int beg;
-		//the last index to calculate the gradient
-		private int end;
-		//gradient to be returned
-		double[] change;
-		//objective function
-		double cost=0;
-		//indicate if calculation for gradient is needed
-		boolean isGradientNeeded;
-		
-		// number of points 
-		int np = 0; 
-		double[] structure;
-		
-		GradientCaculator(double[] str, int b, int e, boolean isGradient){
-			this.beg = b;
-			this.end = e;		
-			this.structure = str;
-			this.isGradientNeeded = isGradient;
-			
-			
-			if (isGradientNeeded){
-				this.change = new double[n * 3];
-			}
-		}
+	class GradientCaculator implements ObjectiveEvaluator.Kernel{
 		
-		
-		/**
-		 * Calculate the chain rule derivative for the gradient calculation
-		 * @author Tosin
-		 */
-		
-		public double[] gradient_chain_calc() {
-			double [] d= new double[2];
-			double dist,x,z,ifr,w,dl_dw,dw_dv;
-			double v = 0;
+		@Override
+		public double evaluate(double[] structure, double[] change, int beg, int end){
+			double dist,x,tmp,z,ifr, val = 0;			
 			int i,j;
-			Constraint con;
-			for(int k = beg; k <= end; k ++){
-				con = lstCons.get(k);
-				
-				i = con.getPos1();
-				j = con.getPos2();
-				dist = con.getDist();
-				
-				ifr = con.getIF();
-				
-				if (ifr <= 0) continue;
-				
-				// structure distance
-				x = Math.sqrt(helper.calEuclidianDist(structure[i * 3], structure[i * 3 + 1], 
-						structure[i * 3 + 2], structure[j * 3], structure[j * 3 + 1], structure[j * 3 + 2]));
-				// IF distance = dist
-				int pow = 2;
-				z = Math.pow(x - dist,pow);
-				v+= z;
-			}
-			
-			w = Math.sqrt(v/n);
-			dl_dw = -n/w;
-			dw_dv = 1/(2*Math.sqrt(n*v));
-			// System.out.printf("The n = %d , v = %f, np*v = %f, sqrt = %f, 2*sqrt = %f, 1over = %f\n",n, v , n*v, Math.sqrt(n*v), 2*Math.sqrt(n*v), 	dw_dv );
-			
-			d[0] = dl_dw; d[1]= dw_dv ;
+			int[] pos1 = constraints.getPos1Array();
+			int[] pos2 = constraints.getPos2Array();
+			double[] IF = constraints.getIFArray();
+			double[] distance = constraints.getDistArray();
 			
-			return d;
-		}
-		
-		
-		
-		public void run(){
-			double dist,x,ez,tmp,z,ifr,dl_dw ,dw_dv, val = 0;			
-			int i,j;
-			Constraint con;
-			double [] d = gradient_chain_calc();  // partial_derivatives
 			for(int k = beg; k <= end; k ++){
 				
-				con = lstCons.get(k);
-				
-				i = con.getPos1();
-				j = con.getPos2();
-				dist = con.getDist();
+				i = pos1[k];
+				j = pos2[k];
+				dist = distance[k];
 				
-				
-				ifr = con.getIF();
+				ifr = IF[k];
 				
 				if (ifr <= 0) continue;
-								
-				
-				// set adjacent point frequency
-				if (Math.abs(i - j) == 1 && idToChr.get(i) == idToChr.get(j)){
-					ifr = 1.0 * maxIF;
-				}				
-
 				
 				x = Math.sqrt(helper.calEuclidianDist(structure[i * 3], structure[i * 3 + 1], 
 						structure[i * 3 + 2], structure[j * 3], structure[j * 3 + 1], structure[j * 3 + 2]));
-			
 				
 				z = x - dist;		
 				
-				// the remaining part of dv_d(x,y,z)
-				tmp =  d[0] * d[1] * 2 * (z / x)  ;
-				
 				// objective function
-				int pow = 2;
-				val += Math.pow(z,pow);
-			
+				val += z * z;
 				
-				if ( isGradientNeeded){					 
-					
-					change[i * 3] += tmp * (structure[i * 3] - structure[j * 3]);
-					change[i * 3 + 1] += tmp * (structure[i * 3 + 1] - structure[j * 3 + 1]);
-					change[i * 3 + 2] += tmp * (structure[i * 3 + 2] - structure[j * 3 + 2]);
-					
-					change[j * 3] += tmp * (structure[j * 3] - structure[i * 3]);
-					change[j * 3 + 1] += tmp * (structure[j * 3 + 1] - structure[i * 3 + 1]);
-					change[j * 3 + 2] += tmp * (structure[j * 3 + 2] - structure[i * 3 + 2]);
-					
-				}
-
+				if (change == null) continue;
+				
+				// d(z^2)/dx divided by x, the direction is (structure[i] - structure[j]) / x
+				tmp = 2 * (z / x);
+				
+				change[i * 3] += tmp * (structure[i * 3] - structure[j * 3]);
+				change[i * 3 + 1] += tmp * (structure[i * 3 + 1] - structure[j * 3 + 1]);
+				change[i * 3 + 2] += tmp * (structure[i * 3 + 2] - structure[j * 3 + 2]);
+				
+				change[j * 3] += tmp * (structure[j * 3] - structure[i * 3]);
+				change[j * 3 + 1] += tmp * (structure[j * 3 + 1] - structure[i * 3 + 1]);
+				change[j * 3 + 2] += tmp * (structure[j * 3 + 2] - structure[i * 3 + 2]);
 				
 			}
 			
-			cost = -(n/2) - (n*Math.log(Math.sqrt(val/n)));
-			
-		}
-
-		public double[] getChange() {
-			return change;
-		}
-		
-		public double getCost() {
-			return cost;
+			return val;
 		}
 		
 	}
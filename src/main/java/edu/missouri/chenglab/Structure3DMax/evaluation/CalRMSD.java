@@ -1,6 +1,7 @@
 package  edu.missouri.chenglab.Structure3DMax.evaluation;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -8,6 +9,7 @@ import java.util.Map;
 //import shrec3D.Evaluate;
 import edu.missouri.chenglab.Structure3DMax.utility.Helper;
 import edu.missouri.chenglab.Structure3DMax.valueObject.Constraint;
+import edu.missouri.chenglab.lordg.valueObject.ConstraintTable;
 
 /**
  * To calculate RMSD of a reconstructed structure and wish distances
@@ -188,6 +190,133 @@ public class CalRMSD {
 	
 	
 	
+	public static double correlationIFvsDist(double[] str, ConstraintTable cons, int interval) throws Exception{		
+		
+		return correlationIFvsDist(str, cons, interval, 0);
+	}
+	
+	/**
+	 * 
+	 * @param str
+	 * @param cons
+	 * @param interval
+	 * @param nbrThread: threads to rank values, 0 to use all processors, 1 when structures are scored in parallel
+	 * @return
+	 * @throws Exception
+	 */
+	public static double correlationIFvsDist(double[] str, ConstraintTable cons, int interval, int nbrThread) throws Exception{		
+		
+		return correlationIFvsDist(str, cons, interval, nbrThread, true);
+	}
+	
+	/**
+	 * 
+	 * @param str
+	 * @param cons
+	 * @param interval
+	 * @param nbrThread: threads to rank values, 0 to use all processors
+	 * @param isZeroPadded: true (as the List version) to pad both vectors with 0 up to n * (n - 1) / 2 elements,
+	 * false to use only the constraints that are scored
+	 * (padded pairs are (0, 0), which calSpearmanCorrelation removes, false gives the same correlation without allocating them)
+	 * @return
+	 * @throws Exception
+	 */
+	public static double correlationIFvsDist(double[] str, ConstraintTable cons, int interval, int nbrThread, boolean isZeroPadded) throws Exception{		
+		
+		double[][] a = pairedWithDist(str, cons, cons.getIFArray(), interval, isZeroPadded);
+		return Evaluate.calSpearmanCorrelation(a[0], a[1], nbrThread);
+	}
+	
+	public static double correlationWishDistvsDist(double[] str, ConstraintTable cons, int interval) throws Exception{		
+		
+		double[][] a = pairedWithDist(str, cons, cons.getDistArray(), interval, true);
+		return Evaluate.calSpearmanCorrelation(a[0], a[1]);
+	}
+	
+	public static double PearsoncorrelationWishDistvsDist(double[] str, ConstraintTable cons, int interval) throws Exception{		
+		
+		double[][] a = pairedWithDist(str, cons, cons.getDistArray(), interval, true);
+		return Evaluate.calPearsonCorrelation(a[0], a[1]);
+	}
+	
+	/**
+	 * Spearman and Pearson correlations between wish distances and distances in the structure, computed together
+	 * @param str
+	 * @param cons
+	 * @param interval
+	 * @param nbrThread: threads to rank values, 0 to use all processors
+	 * @return {Spearman correlation, Pearson correlation}
+	 * @throws Exception
+	 */
+	public static double[] correlationsWishDistvsDist(double[] str, ConstraintTable cons, int interval, int nbrThread) throws Exception{		
+		
+		double[][] a = pairedWithDist(str, cons, cons.getDistArray(), interval, true);
+		return Evaluate.calCorrelations(a[0], a[1], nbrThread);
+	}
+	
+	/**
+	 * 
+	 * @param str
+	 * @param cons
+	 * @param values: IFs or wish distances of constraints
+	 * @param interval
+	 * @param isZeroPadded: pad both arrays with 0 up to n * (n - 1) / 2 elements (n points), as the List version
+	 * @return {distances in the structure, values} of constraints that are used for the correlation
+	 * @throws Exception if padded arrays would be too large
+	 */
+	private static double[][] pairedWithDist(double[] str, ConstraintTable cons, double[] values, int interval, boolean isZeroPadded) throws Exception{
+		int[] pos1 = cons.getPos1Array();
+		int[] pos2 = cons.getPos2Array();
+		double[] IF = cons.getIFArray();
+		
+		//the List version keeps at most n * (n - 1) / 2 constraints
+		long n = str.length / 3;
+		long maxLen = n * (n - 1) / 2;
+		if (isZeroPadded && maxLen > Integer.MAX_VALUE - 8){
+			throw new Exception("Too many points (" + n + ") to pad the correlation with 0, use isZeroPadded = false");
+		}
+		
+		double[] dist = new double[cons.size()];
+		double[] val = new double[cons.size()];
+		
+		int i,j,count = 0;
+		for(int k = 0; k < cons.size() && count < maxLen; k++){
+			i = pos1[k];
+			j = pos2[k];
+			if (i != j && Math.abs(i - j) >= interval && IF[k] > 0){				
+				dist[count] = helper.calEuclidianDist(str[i * 3], str[i * 3 + 1], str[i * 3 + 2], str[j * 3], str[j * 3 + 1], str[j * 3 + 2]);
+				val[count] = values[k];
+				count++;
+			}
+		}
+		
+		int len = isZeroPadded ? (int) maxLen : count;
+		if (len != dist.length){
+			dist = Arrays.copyOf(dist, len);
+			val = Arrays.copyOf(val, len);
+		}
+		
+		return new double[][]{dist, val};
+	}
+	
+	public static double rmse(double[] str, ConstraintTable cons){
+		double d,sum = 0.0;
+		int i,j;
+		int[] pos1 = cons.getPos1Array();
+		int[] pos2 = cons.getPos2Array();
+		double[] dist = cons.getDistArray();
+		for(int k = 0; k < cons.size(); k++){
+			i = pos1[k];
+			j = pos2[k];
+			d = helper.calEuclidianDist(str[i * 3], str[i * 3 + 1], str[i * 3 + 2], str[j * 3], str[j * 3 + 1], str[j * 3 + 2]);
+			sum += (d - dist[k]) * (d - dist[k]);
+		}
+		
+		sum /= cons.size();
+		
+		return Math.sqrt(sum);
+	}
+	
 	public static double rmse(double[] str, List<Constraint> lstCon){
 		double d,sum = 0.0;
 		int i,j;
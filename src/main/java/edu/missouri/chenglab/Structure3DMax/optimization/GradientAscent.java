@@ -8,6 +8,8 @@ import edu.missouri.chenglab.Structure3DMax.utility.Helper;
 import edu.missouri.chenglab.Structure3DMax.valueObject.Constants;
 import edu.missouri.chenglab.Structure3DMax.optimization.OptimizedObject;
 import edu.missouri.chenglab.Structure3DMax.valueObject.InputParameters_3DMax;
+import edu.missouri.chenglab.lordg.optimization.Checkpoint;
+import edu.missouri.chenglab.lordg.optimization.ModelStreamer;
 
 /**
  * This class performs gradient descent using line search to find optimal step size
@@ -43,11 +45,20 @@ public class GradientAscent {
 	
 	private String tmpFolder;
 	
+	//number of objective function evaluations of the last run
+	private int nbrEvaluation;
+	
 	private InputParameters_3DMax inputParameters = null;
 	
 	//the derivatives
 	private double[] Sum_Grad;
 	
+	//writes checkpoints of the optimization, null if checkpoints are disabled
+	private Checkpoint.Writer checkpointWriter;
+	
+	//state to resume the optimization from, null to start from the variables
+	private Checkpoint resumed;
+	
 	/**
 	 * this should be used when calling gradient ascent multiple times, 
 	 * set variables in very run but initialize derivative and tried_derivative once
@@ -118,23 +129,39 @@ public class GradientAscent {
 	 */
 	public void performGradientAscent(InputParameters_3DMax inputPara) throws Exception{
 		int count = 0;
+		long startTime = System.currentTimeMillis();
 		initialize();
+		nbrEvaluation = 0;
 		
 		//initial objective function value
 		double oldObj;
 		objectiveFn = optimizedObject.calGradientAndObjective(variables, derivatives);
+		nbrEvaluation++;
 		
 
 	   // step_size = lineSearch(variables, derivatives, objectiveFn);	
-		updateVariables(variables, derivatives);
+		//iterations done before this run, when it resumes from a checkpoint
+		int firstIteration = resumed != null ? resumed.getIteration() : 0;
+		count = firstIteration;
+		
+		if (resumed != null && resumed.getDirection() != null){
+			//variables come from the checkpoint, continue with its sums of squared gradients
+			System.arraycopy(resumed.getDirection(), 0, Sum_Grad, 0, Sum_Grad.length);
+		}else{
+			updateVariables(variables, derivatives);
+		}
+		
+		resumed = null;
 		
-		Helper helper = Helper.getHelperInstance();
+		//shows the structure in the viewer during the optimization
+		ModelStreamer streamer = Helper.getHelperInstance().createModelStreamer(inputPara, tmpFolder, idToChr);
 		while(! isConvergence() && count < inputPara.getMax_iteration()){
 			
 			count++;			
 			oldObj = objectiveFn;
 			
 			objectiveFn = optimizedObject.calGradientAndObjective(variables, derivatives);
+			nbrEvaluation++;
 			
 			
 			if (verbose){
@@ -145,36 +172,19 @@ public class GradientAscent {
 			updateVariables(variables, derivatives);					
 			//step_size = initialLearingRate / (Math.sqrt(count));
 			
-			if (tmpFolder != null && (count % 30 == 0 || count < 100) ){			
-				
-				String tmpFileGss = tmpFolder + "/iteration_" + count + ".gss";
-				String tmpFilePdb = tmpFolder + "/iteration_" + count + ".pdb";
-				helper.writeStructureGSS(tmpFileGss,variables, inputPara.getLstPos(), idToChr, inputPara.getChrom(), inputPara.getGenomeID());
-				helper.writeStructure(tmpFilePdb,variables, idToChr, "");				
-				
-				if (inputPara.getViewer() != null){					
-					
-					/*if (count > 1){
-						inputPara.getViewer().loadNewModel(tmpFile);
-					}else{*/
-						
-						String msg = "Conversion factor: " + String.format("%.2f", inputPara.getConvert_factor());
-						String msgObj = "Objective function: " + String.format("%.3f",objectiveFn);
-						if (inputPara.isSearchingConversionFactor()){
-							inputPara.getViewer().loadNewModel(tmpFileGss, new String[]{"Searching conversion factor...",msg, msgObj});
-						}else{
-							inputPara.getViewer().loadNewModel(tmpFileGss, msg, msgObj);
-						}
-						
-						
-					//}
-					
-					//if (count < 60) Thread.sleep(1000);					
+			if (streamer != null && streamer.isDue()){
+				String msg = "Conversion factor: " + String.format("%.2f", inputPara.getConvert_factor());
+				String msgObj = "Objective function: " + String.format("%.3f",objectiveFn);
+				if (inputPara.isSearchingConversionFactor()){
+					streamer.publish(variables, "Searching conversion factor...", msg, msgObj);
+				}else{
+					streamer.publish(variables, msg, msgObj);
 				}
-				
-				helper.delete_file(tmpFileGss);
-				helper.delete_file(tmpFilePdb);
-			}	
+			}
+			
+			if (checkpointWriter != null && (checkpointWriter.isDue() || inputPara.isStopRunning())){
+				checkpointWriter.write(variables, Sum_Grad, initialLearingRate, count);
+			}
 			
 			if (inputPara.isStopRunning()){
 				//inputPara.setStopRunning(false);
@@ -185,6 +195,10 @@ public class GradientAscent {
 			
 		}
 		
+		System.out.printf("Gradient ascent: %d iterations, %d objective evaluations (%.2f per iteration), %s in %.2f seconds\n",
+				count, nbrEvaluation, nbrEvaluation / (double) Math.max(count - firstIteration, 1),
+				isConvergence() ? "converged" : "stopped", (System.currentTimeMillis() - startTime) / 1000.0);
+		
 	}
 	
 	/**
@@ -225,6 +239,7 @@ public class GradientAscent {
 			updateVariables(triedVariables,variables,direction,alpha);
 			
 			f1 = optimizedObject.calObjective(triedVariables);
+			nbrEvaluation++;
 			f2 = currentFn + 0.5 * alpha * gradientNorm * gradientNorm;
 			
 		}while ( f1 < f2 && alpha >= NEAR_ZERO);
@@ -298,11 +313,24 @@ public class GradientAscent {
 			initialize();
 		}
 	}
+	public int getNbrEvaluation() {
+		return nbrEvaluation;
+	}
 	public double getInitialLearingRate() {
 		return initialLearingRate;
 	}
 	public void setInitialLearingRate(double initialLearingRate) {
 		this.initialLearingRate = initialLearingRate;
 	}
+	public void setCheckpointWriter(Checkpoint.Writer checkpointWriter) {
+		this.checkpointWriter = checkpointWriter;
+	}
+	/**
+	 * the next run continues the optimization saved in the checkpoint, its variables must already be set
+	 * @param checkpoint: the iteration count is continued, so are the sums of squared gradients if the checkpoint has them
+	 */
+	public void resume(Checkpoint checkpoint) {
+		this.resumed = checkpoint;
+	}
 	
 }
@@ -9,18 +9,19 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Scanner;
-import java.util.Set;
 import java.util.regex.Pattern;
 
 
 
 import  edu.missouri.chenglab.Structure3DMax.valueObject.Constraint;
 import edu.missouri.chenglab.Structure3DMax.valueObject.InputParameters_3DMax;
+import edu.missouri.chenglab.lordg.optimization.Checkpoint;
+import edu.missouri.chenglab.lordg.optimization.ModelStreamer;
+import edu.missouri.chenglab.lordg.utility.ContactListReader;
+import edu.missouri.chenglab.lordg.valueObject.ConstraintTable;
 
 public class Helper {	
 	private DecimalFormat df2 = new DecimalFormat("0.00");
@@ -217,171 +218,34 @@ public class Helper {
 	}
 
 	/**
-	 * Read contact list file, each line is a contact of the form: pos1 pos1 IF
-	 * @param fileName
-	 * @return
+	 * Read contact list file, each line is a contact of the form: pos1 pos1 IF,
+	 * or the contact source of the parameters if there is one
+	 * @param inputPara: input file (or contact source), viewer to show progress and number of threads
+	 * @param lstPos: sorted positions of the contacts are added to this
+	 * @param thres: only contacts with IF > thres are kept
+	 * @return contacts with their positions (not mapped to indices), pos1 <= pos2
 	 * @throws Exception
 	 */
-	public List<Constraint> readContactList(InputParameters_3DMax inputPara, List<Integer> lstPos,double...thres) throws Exception{
-		
-		String fileName = inputPara.getInput_file();
-		
-		File file = new File(fileName);
-		
-		long totalLength = file.length();
-		double lengthPerPercent = 100.0/totalLength;
-		long readLength = 0;
-		int readPercent; 
+	public ConstraintTable readContactList(InputParameters_3DMax inputPara, List<Integer> lstPos,double...thres) throws Exception{
 		
-		
-		FileReader fr = null;
-		BufferedReader br = null;
-		ArrayList<Constraint> lst = new ArrayList<Constraint>();
-		Set<Integer> setPos = new HashSet<Integer>();
 		double thr = thres.length == 0 ? 0.0 : thres[0];
 		
-		System.out.println("Reading input data ......");
+		ConstraintTable table;
+		int[] positions;
+		if (inputPara.getContactSource() != null){
+			table = inputPara.getContactSource().read(thr);
+			positions = table.findPositions();
+		}else{
+			ContactListReader reader = new ContactListReader(inputPara.getNumber_threads(), inputPara.getViewer());
+			table = reader.read(inputPara.getInput_file(), thr);
+			positions = reader.getPositions();
+		}
 		
-		String inEclipseStr = System.getProperty("runInEclipse");
-		double random = -1;
-		if ("true".equalsIgnoreCase(inEclipseStr)){
-			//random = 0.85;
+		for(int pos : positions){
+			lstPos.add(pos);
 		}
-
 		
-		try{
-			
-			Pattern splitRegex = Pattern.compile("[:\\s]+");
-			fr = new FileReader(file);
-			br = new BufferedReader(fr);
-			
-			String ln;
-			String[] st;			
-
-			StringBuilder sb = new StringBuilder();
-			int count = 0;
-			int x,y,nbr = -1; // number of elements in one line
-			double f;
-			int prevProgress = 0;
-			
-			while((ln = br.readLine()) != null){
-				
-				readLength += ln.length();
-				readPercent = (int) Math.round(lengthPerPercent * readLength);
-			
-				
-				
-				if (inputPara.getViewer() != null && readPercent > prevProgress && readPercent % 5 == 0){					
-					inputPara.getViewer().displayMessage(new String[]{"Reading input data ... " + readPercent + " %" });
-					prevProgress = readPercent;
-				}
-				
-				if (ln.startsWith("#") || ln.trim().length() == 0 || ln.startsWith("x")){
-					continue;
-				}
-				if (nbr == -1){
-					nbr = splitRegex.split(ln).length;
-				}
-				
-			
-				
-				//read every a thoudsand lines and split at once
-				sb.append(ln).append(" ");
-				count++;
-				
-				if (count == 500000){
-					
-					
-					
-					count = 0;
-					st = splitRegex.split(sb.toString());
-					sb = new StringBuilder();
-					
-					if (st.length % nbr != 0){
-						throw new Exception("There is a line that doesn't contain exactly 3 numbers");
-					}
-					//each line contains 3 numbers
-					for(int i = 0; i < st.length / nbr; i++){
-						x = Integer.parseInt(st[i * nbr + 0]);
-						
-						//position2
-						y = Integer.parseInt(st[i * nbr + 1]);
-						
-						//interaction frequency
-						f = Double.parseDouble(st[i * nbr + 2]);
-						
-						
-						
-						if (x != y && !Double.isNaN(f) && f > thr 
-								/*&& Math.abs(x-y) < Constants.MAX_CONTACT_LENGTH
-									&& Math.abs(x-y) > Constants.MIN_CONTACT_LENGTH*/){
-							
-							if (Math.random() > random)
-								lst.add(new Constraint(x, y, f)) ;
-							setPos.add(x);
-							setPos.add(y);
-						}
-						 
-					}
-					//progress++;
-					if (random < 0)
-						System.out.print(".");
-				}		
-			}
-			
-			
-			//if sb is not empty
-			if (sb.toString().trim().length() > 0){
-				st = splitRegex.split(sb.toString());
-				//sb = new StringBuilder();
-				
-				if (st.length % nbr != 0){
-					throw new Exception("There is a line that doesn't contain exactly 3 numbers");
-				}
-				//each line contains 3 numbers
-				for(int i = 0; i < st.length / nbr; i++){
-					x = Integer.parseInt(st[i * nbr + 0]);
-					
-					//position2
-					y = Integer.parseInt(st[i * nbr + 1]);
-					
-					//interaction frequency
-					f = Double.parseDouble(st[i * nbr + 2]);
-					
-					//keeping absolute positions, so that later they can be recovered from indices
-					
-					if (x != y && !Double.isNaN(f) && f > thr 
-							/*&& Math.abs(x-y) < Constants.MAX_CONTACT_LENGTH
-								&& Math.abs(x-y) > Constants.MIN_CONTACT_LENGTH*/){
-						
-						if (Math.random() > random)
-							lst.add(new Constraint(x, y, f));
-						setPos.add(x);
-						setPos.add(y);
-					}
-				}
-				
-			}
-			
-			System.out.println("\nDone reading input data. ");
-			
-			lstPos.addAll(setPos);
-			
-				
-			Collections.sort(lstPos);
-			
-		}catch(Exception ex){
-			ex.printStackTrace();
-			throw ex;
-		}finally{
-			if (br != null){
-				br.close();
-			}
-			if (fr != null){
-				fr.close();
-			}
-		}		
-		return lst;
+		return table;
 	}
 
 	/**
@@ -799,6 +663,40 @@ public class Helper {
 	
 	
 
+	/**
+	 * Make a writer for checkpoints of the optimization, in output_folder/file_prefix_checkpoint.bin
+	 * @param inputPara
+	 * @return null if checkpoints are disabled
+	 */
+	public Checkpoint.Writer createCheckpointWriter(InputParameters_3DMax inputPara){
+		if (inputPara.getCheckpointInterval() <= 0) return null;
+		
+		return new Checkpoint.Writer(Checkpoint.getFile(inputPara.getOutput_folder(), inputPara.getFile_prefix()),
+				inputPara.getCheckpointInterval(), inputPara.getConvert_factor());
+	}
+	
+	/**
+	 * Make a streamer to show the structure in the viewer during the optimization, the model is loaded
+	 * from a gss file written in tmpFolder the first time
+	 * @param inputPara
+	 * @param tmpFolder
+	 * @param idToChr
+	 * @return null if there is no viewer or no tmpFolder
+	 */
+	public ModelStreamer createModelStreamer(final InputParameters_3DMax inputPara, final String tmpFolder, final HashMap<Integer,Integer> idToChr){
+		if (tmpFolder == null || inputPara.getViewer() == null) return null;
+		
+		return new ModelStreamer(inputPara.getViewer(), new ModelStreamer.ModelLoader() {
+			@Override
+			public void loadModel(double[] x, String... msg) throws Exception {
+				String tmpFileGss = tmpFolder + "/live_model.gss";
+				writeStructureGSS(tmpFileGss, x, inputPara.getLstPos(), idToChr, inputPara.getChrom(), inputPara.getGenomeID());
+				inputPara.getViewer().loadNewModel(tmpFileGss, msg);
+				delete_file(tmpFileGss);
+			}
+		});
+	}
+	
 	/**
 	 * Please refer to the GSS format file for detail
 	 * @param pathFilename: output file name
@@ -29,11 +29,36 @@ public class Constants {
 	
 	public static final String DISTANCE_FILE = "DISTANCE_FILE";
 	
+	public static final String OPTIMIZER_KEY = "OPTIMIZER";
+	
+	//values of OPTIMIZER
+	public static final String GRADIENT_ASCENT = "gradient_ascent";
+	public static final String LBFGS = "lbfgs";
+	
+	//seconds between two checkpoints of the optimization, 0 (default) to disable checkpoints
+	public static final String CHECKPOINT_INTERVAL_KEY = "CHECKPOINT_INTERVAL";
+	//true to resume the optimization from the checkpoint of a previous run
+	public static final String RESUME_KEY = "RESUME";
+	
+	//number of constraints sampled to score conversion factors after the first stage of the search, 0 to score them on all constraints
+	public static final String EARLY_SCORING_SAMPLE_KEY = "EARLY_SCORING_SAMPLE";
+	//confidence level of early scores, e.g. 0.95
+	public static final String EARLY_SCORING_CONFIDENCE_KEY = "EARLY_SCORING_CONFIDENCE";
+	
+	public static final String SEARCH_MODE_KEY = "SEARCH_MODE";
+	
+	//values of SEARCH_MODE, how the conversion factor is searched when CONVERT_FACTOR = -1
+	public static final String SEARCH_GRID = "grid";
+	public static final String SEARCH_ADAPTIVE = "adaptive";
+	
 	public static String HEADER_STR_FILE = "3D chromosome/genome modeling by 3DMax";
 	
 	//maximum number of threads should be used 
 	public static final int MAX_NUM_THREAD = 120;
 	
+	//a thread is not used to evaluate less than this number of constraints
+	public static final int MIN_CONSTRAINTS_PER_THREAD = 2000;
+	
 	//the starting learning rate for the line search
 	public static double INITIAL_LEARNING_RATE = 0.001;		
 	
@@ -55,6 +80,11 @@ public class Constants {
 	public static final double END_CONVERT_FACTOR = 3.0;
 	public static final double DEFAULT_CONVERT_FACTOR = 1.0; 
 	
+	//default number of constraints sampled to score candidate conversion factors after the first stage
+	public static final int EARLY_SCORING_SAMPLE = 5000;
+	//default confidence level of the intervals of early scores
+	public static final double EARLY_SCORING_CONFIDENCE = 0.95;
+	
 	public static final long MAX_CONTACT_LENGTH = Long.MAX_VALUE;
 	public static final long MIN_CONTACT_LENGTH = 0;
 
@@ -0,0 +1,206 @@
+package edu.missouri.chenglab.compareTAD;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compare all pairs of TAD sets (TADs of several callers or replicates of the same chromosome), every set is compared
+ * with every other set as in TADComparison: numbers of equal, sub, conflicting and new TADs, and recall.
+ * Sets are indexed once, rows of the comparison matrix are computed by threads
+ *
+ */
+public class TADBatchComparison {
+
+	private int nbrThread;
+
+	private String[] names;
+	private TADIndex[] sets;
+
+	//counts[a][b]: numbers of TADs of set a in each class (TADIndex.EQUAL, SUB, CONFLICTING, NEW) against set b
+	private int[][][] counts;
+
+	//recall[a][b]: recall of set a against set b
+	private double[][] recall;
+
+	/**
+	 *
+	 * @param nbrThread: number of threads, 0 to use all processors
+	 */
+	public TADBatchComparison(int nbrThread){
+		this.nbrThread = nbrThread > 0 ? nbrThread : Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Compare TADs in bed like files
+	 * @param files
+	 * @param resolution
+	 * @throws Exception
+	 */
+	public void compare(final List<String> files, final int resolution) throws Exception{
+		if (files.size() < 2) throw new IllegalArgumentException("At least 2 TAD files are needed, got " + files.size());
+
+		String[] names = new String[files.size()];
+		TADIndex[] sets = new TADIndex[files.size()];
+
+		ExecutorService executor = Executors.newFixedThreadPool(nbrThread);
+		try{
+			List<Future<TADIndex>> futures = new ArrayList<Future<TADIndex>>();
+			for(final String file : files){
+				futures.add(executor.submit(new Callable<TADIndex>() {
+					@Override
+					public TADIndex call() throws Exception {
+						return TADIndex.read(file, resolution);
+					}
+				}));
+			}
+			for(int a = 0; a < files.size(); a++){
+				names[a] = new File(files.get(a)).getName();
+				sets[a] = futures.get(a).get();
+			}
+
+			compare(names, sets, executor);
+		}finally{
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Compare indexed TAD sets
+	 * @param names: names of sets, to write matrices
+	 * @param sets
+	 * @throws Exception
+	 */
+	public void compare(String[] names, TADIndex[] sets) throws Exception{
+		ExecutorService executor = Executors.newFixedThreadPool(nbrThread);
+		try{
+			compare(names, sets, executor);
+		}finally{
+			executor.shutdown();
+		}
+	}
+
+	private void compare(String[] names, final TADIndex[] sets, ExecutorService executor) throws Exception{
+		this.names = names;
+		this.sets = sets;
+
+		final int m = sets.length;
+		counts = new int[m][m][];
+		recall = new double[m][m];
+
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		for(int a = 0; a < m; a++){
+			final int query = a;
+			futures.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					for(int b = 0; b < m; b++){
+						counts[query][b] = sets[query].count(sets[b]);
+						recall[query][b] = sets[query].recall(counts[query][b]);
+					}
+					return null;
+				}
+			}));
+		}
+		for(Future<Void> future : futures){
+			future.get();
+		}
+	}
+
+	/**
+	 * Write the recall matrix and the matrices of numbers of TADs in each class, tab separated with names of sets
+	 * @param outputFile
+	 * @throws Exception
+	 */
+	public void write(String outputFile) throws Exception{
+		PrintWriter pw = new PrintWriter(outputFile);
+		try{
+			pw.println("Total Recall (row: TADs compared, column: reference TADs)");
+			writeMatrix(pw, -1);
+			String[] titles = {"Case 1: Exact TADs", "Case 2: Sub-TADs", "Case 3: Conflicting TADs", "Case 4: New TADs"};
+			for(int c = 0; c < titles.length; c++){
+				pw.println();
+				pw.println(titles[c]);
+				writeMatrix(pw, c);
+			}
+		}finally{
+			pw.close();
+		}
+	}
+
+	//writes recall if c < 0, counts of class c otherwise
+	private void writeMatrix(PrintWriter pw, int c){
+		pw.print("TADs");
+		for(String name : names){
+			pw.print("\t" + name);
+		}
+		pw.println();
+		for(int a = 0; a < names.length; a++){
+			pw.print(names[a]);
+			for(int b = 0; b < names.length; b++){
+				pw.print("\t" + (c < 0 ? String.format("%.2f", recall[a][b]) : String.valueOf(counts[a][b][c])));
+			}
+			pw.println();
+		}
+	}
+
+	/**
+	 * Compare all TAD files in a folder
+	 * @param args: folder of TAD files, resolution, output file, number of threads (optional)
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception{
+		if (args.length < 3){
+			System.out.println("Usage: TADBatchComparison <folder of TAD files> <resolution> <output file> [number of threads]");
+			return;
+		}
+
+		File[] files = new File(args[0]).listFiles();
+		if (files == null) throw new Exception("Cannot read the folder " + args[0]);
+		Arrays.sort(files);
+
+		File output = new File(args[2]).getAbsoluteFile();
+		List<String> tadFiles = new ArrayList<String>();
+		for(File file : files){
+			if (file.isFile() && !file.getAbsoluteFile().equals(output)) tadFiles.add(file.getPath());
+		}
+
+		long startTime = System.currentTimeMillis();
+
+		TADBatchComparison comparison = new TADBatchComparison(args.length > 3 ? Integer.parseInt(args[3]) : 0);
+		comparison.compare(tadFiles, Integer.parseInt(args[1]));
+		comparison.write(args[2]);
+
+		System.out.printf("%d TAD files compared in %.2f seconds\n", tadFiles.size(), (System.currentTimeMillis() - startTime) / 1000.0);
+	}
+
+	public String[] getNames() {
+		return names;
+	}
+
+	public TADIndex[] getSets() {
+		return sets;
+	}
+
+	/**
+	 *
+	 * @return counts[a][b]: numbers of TADs of set a in each class (TADIndex.EQUAL, SUB, CONFLICTING, NEW) against set b
+	 */
+	public int[][][] getCounts() {
+		return counts;
+	}
+
+	/**
+	 *
+	 * @return recall[a][b]: recall of set a against set b
+	 */
+	public double[][] getRecall() {
+		return recall;
+	}
+}
@@ -6,11 +6,8 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Scanner;
-import edu.missouri.chenglab.ClusterTAD.Parameter;
 import javax.swing.JOptionPane;
 
 public class TADComparison {
@@ -28,73 +25,16 @@ public class TADComparison {
 	static BufferedWriter log_outputWriter = null;
 	static String Outputpath= null;
 	static String filename = null; // output filename
-	static ArrayList Method1_B1 = new ArrayList();  // search for TAD in an arraylist
-	static ArrayList Method1_B2 = new ArrayList();
-	static ArrayList Method2_B1 = new ArrayList();
-	static ArrayList Method2_B2 = new ArrayList();
 	
 	/**
 	 * Read TAD File 
 	 * @param Filename
-	 * @param sep
+	 * @param num
 	 * @return
 	 * @throws FileNotFoundException
 	 */
 	public static  int [][] readTADFile (String Filename, int num) throws FileNotFoundException{			
-		// pre-read in the number of rows/columns
-				int rows = 0;
-				int cols = 0;		
-				 try {
-					 Scanner input = new Scanner (new File( Filename));
-				 
-						while(input.hasNextLine())
-						{	String [] line = null;
-							String rowdata = input.nextLine();	
-							rowdata = rowdata.trim();
-							//System.out.println(rowdata);
-							line = rowdata.split(sep);						
-							//System.out.println(String.format("col = %d", line.length));
-							++rows;		
-							cols = line.length;
-						}			
-						input.close();
-				 	} catch (FileNotFoundException e) {
-			         e.printStackTrace();
-				 	}
-				
-			
-				 // read in the data
-				 int [][] a = new int[rows][2];
-				 try {
-					 int linesCounter = 0;
-					 Scanner input = new Scanner (new File( Filename));
-				 
-						while(input.hasNextLine())
-						{
-							String [] line = null;
-							String rowdata = input.nextLine();
-							rowdata = rowdata.trim();
-							line = rowdata.split(sep);						
-												  
-				            a[linesCounter][0] = Integer.parseInt(line[1])/Resolution ;
-				            a[linesCounter][1] = Integer.parseInt(line[2])/Resolution ; 
-				            if (num ==1) {
-				            	Method1_B1 .add( a[linesCounter][0]) ;
-				            	Method1_B2 .add( a[linesCounter][1]) ;
-				            }else {
-				            	
-				            	Method2_B1 .add( a[linesCounter][0]) ;
-				            	Method2_B2 .add( a[linesCounter][1]) ;
-				            }
-							 linesCounter++;    						    
-						}			
-						input.close();
-				 	} catch (FileNotFoundException e) {
-			         e.printStackTrace();
-				 	}
-				 
-				
-				return a;
+		return TADIndex.readTADs(Filename, Resolution);
 	}
 	
 	
@@ -150,125 +90,46 @@ public class TADComparison {
 	 
 	 public static void compare_TAD() throws Exception {
 		 
+		 System.out.println(String.format("The Total number of TADs in Method-1 = %d \n", Method1.length));
+		 log_outputWriter.write(String.format("The Total number of TADs in Method-1 = %d \n", Method1.length));
+		 
+		 int len = Method1.length;
+		 TotalNo = len;
 		 
-		  /* %--------------------------------------------------------------------------
-		    % Case 1:
-		    % Finds the Number of exact TD between ClusterTD and Method-2
-		    % For each TD in method A find ones that have same start and end border
+		 /* %--------------------------------------------------------------------------
+		    % Case 1: TD in method 1 with the same start and end border in Method-2
+		    % Case 2: TD in method 1 inside a TD of Method-2
+		    % Case 3: TD in method 1 that starts in a TD and ends in another TD of Method-2
+		    % Case 4: TD in method 1 not found in Method-2
+		    % Both TAD sets are indexed by their borders and classified by one sweep
 		    %--------------------------------------------------------------------------
 		  */
-		 System.out.println(String.format("The Total number of TADs in Method-1 = %d \n", Method1_B1.size()));
-		 log_outputWriter.write(String.format("The Total number of TADs in Method-1 = %d \n", Method1_B1.size()));
-		 
+		 TADIndex index1 = new TADIndex(Method1);
+		 TADIndex index2 = new TADIndex(Method2);
+		 int [] counts = index1.count(index2);
 		 
-		 int len = Method1_B1.size();
-		 TotalNo = len;
-		 for (int i = 0; i < Method1_B1.size(); i++) {
-			 //CASE 1
-			 // Get the index where Start border (border 1) exist 
-			 Object b1 = Method1_B1.get(i); //column 1 is the start border
-			 boolean cont = Method2_B1.contains(b1);
-			 // if found
-			 if (cont) {
-				 int cont_ind = Method2_B1.indexOf(b1);
-				 // find if the border 2 is the same
-				 Object b2 = Method1_B2.get(i); //column 1 is the start border
-				 Object val=  Method2_B2.get(cont_ind );
-				 if ( b2.equals(val)) { // if the same increase count
-					 eqcount++;
-			 }
-				 else
-					 continue;
-			 }
-			 
-			 if (Parameter.stoprunning) { 
-			    	
-		    	 break; 
-		     }
-			
-		 }
+		 eqcount = counts[TADIndex.EQUAL];
+		 subcount = counts[TADIndex.SUB];
+		 confcount = counts[TADIndex.CONFLICTING];
+		 newcount = counts[TADIndex.NEW];
 		 
 		 	System.out.println(String.format("The Number of equal TD = %d \n",eqcount));
 		 	 log_outputWriter.write(String.format("Case 1 = %d \n", eqcount));	 
-		 
-		 	
-		 	 //CASE 2   //CASE 3
-			for (int i = 0; i < Method1_B1.size(); i++) {
-				int index = 0;
-				 Object M1_b1 = Method1_B1.get(i); // column 1 is the start border
-			 	 Object  M1_b2 = Method1_B2.get(i); // column 2 is the end border 
-			 	 
-			 	ArrayList findB1 = new ArrayList();
-				ArrayList findB2 = new ArrayList();
-				 for (int j = 0; j < Method2_B1.size(); j++) {
-					if ( (int) M1_b1 >= (int) Method2_B1.get(j)) {
-						findB1.add(j);
-					}
-					if ( (int) M1_b2 <= (int) Method2_B2.get(j)) {
-						findB2.add(j);
-					}				 		
-			     }
-				 
-				 int begin_boundary = 0, close_boundary = 1;
-				 if (!findB1.isEmpty() && !findB2.isEmpty()) {
-					 begin_boundary = (int) findB1.get(findB1.size()-1);
-					 close_boundary = (int) findB2.get(0);
-				 }else
-				 {
-					 continue ;
-				 }
-				 
-				 findB1.clear(); findB2.clear();
-				 if( begin_boundary==close_boundary) {
-			            // this means its the same TD
-					 index = 1;
-				 }
-				 else
-				 {
-			            confcount = confcount + 1; //if it starts in a TD and ends in another TD
-				 }
-				 
-				 // Find the TAD to check out if it inside a other TD
-			      
-			        if(index==1) {
-			        	
-			            subcount = subcount + 1;
-			        }
-			        
-			        if (Parameter.stoprunning) { 
-				    	
-				    	 break; 
-				     }
-				 
-		 	 }
-			
-			 // Actual No of SubTD = count - eqcount:: because count includes those from exact same TD
 			
-			int  no_SubTD = subcount - eqcount;
-			System.out.println(String.format("The Number of TDs with SubTD = %d\n",no_SubTD));
+			System.out.println(String.format("The Number of TDs with SubTD = %d\n",subcount));
 			
 			System.out.println(String.format("The No of TDs with Conflicting TD btw methods = %d\n",confcount));
 			
-			 log_outputWriter.write(String.format("CASE 2 =  %d\n",no_SubTD));
+			 log_outputWriter.write(String.format("CASE 2 =  %d\n",subcount));
 			
 			log_outputWriter.write(String.format("CASE 3  = %d\n",confcount));
 			
-			subcount= no_SubTD;
-			
-			//CASE 4
-			
-			
-			 newcount = len-eqcount-no_SubTD-confcount;
-			 
 			 System.out.println(String.format("The No of Unique TDs = %d\n",newcount));
 			
 			log_outputWriter.write(String.format("CASE 4 =  %d\n",newcount));
 			
 			//Calculate the Total Recall percentage
-			int sumfound = eqcount + no_SubTD;
-			
-			double per1 = (sumfound/(double) len) ;
-					per1 = per1	*  100.0;
+			double per1 = index1.recall(counts);
 			
 			 System.out.println(String.format(" Total Recall  =  %f%%\n",per1));
 			log_outputWriter.write(String.format("Total Recall  =  %f%%\n",per1));
@@ -341,10 +202,6 @@ public class TADComparison {
 	    
 	    log_outputWriter.flush();
 		log_outputWriter.close();
-		 Method1_B1.clear();
-		 Method1_B2.clear();
-		 Method2_B1 .clear();
-		 Method2_B2.clear();
 		 
 		 
 		
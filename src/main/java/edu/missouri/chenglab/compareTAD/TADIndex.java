@@ -0,0 +1,176 @@
+package edu.missouri.chenglab.compareTAD;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Scanner;
+
+/**
+ * TADs of one caller (or replicate) indexed by their boundaries: starts and ends in primitive arrays sorted by start then end,
+ * and the maximum end of every prefix of the sorted TADs, so TADs of another set are classified by one sweep over both sets
+ * instead of scanning the other set for every TAD.
+ *
+ * A TAD of this set compared with a reference set is
+ * EQUAL: the reference has a TAD with the same start and end,
+ * SUB: the last reference TAD starting before (or at) its start is the first one ending after (or at) its end, so it is inside that TAD,
+ * CONFLICTING: these two reference TADs are different, it starts in a TAD and ends in another one,
+ * NEW: no reference TAD starts before it or no reference TAD ends after it
+ *
+ */
+public class TADIndex {
+
+	public static final int EQUAL = 0;
+	public static final int SUB = 1;
+	public static final int CONFLICTING = 2;
+	public static final int NEW = 3;
+
+	public static final String sep = "\\s+";
+
+	private int n;
+
+	//boundaries (in bins) sorted by start then end
+	private int[] start;
+	private int[] end;
+
+	//maxEnd[i]: maximum of end[0..i]
+	private int[] maxEnd;
+
+	//position of the i-th sorted TAD in the input
+	private int[] order;
+
+	/**
+	 *
+	 * @param tads: tads[i][0] start bin, tads[i][1] end bin, in any order
+	 */
+	public TADIndex(final int[][] tads){
+		n = tads.length;
+
+		Integer[] sorted = new Integer[n];
+		for(int i = 0; i < n; i++) sorted[i] = i;
+		Arrays.sort(sorted, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				if (tads[a][0] != tads[b][0]) return Integer.compare(tads[a][0], tads[b][0]);
+				return Integer.compare(tads[a][1], tads[b][1]);
+			}
+		});
+
+		start = new int[n];
+		end = new int[n];
+		maxEnd = new int[n];
+		order = new int[n];
+		for(int i = 0; i < n; i++){
+			order[i] = sorted[i];
+			start[i] = tads[order[i]][0];
+			end[i] = tads[order[i]][1];
+			maxEnd[i] = i == 0 ? end[i] : Math.max(maxEnd[i - 1], end[i]);
+		}
+	}
+
+	/**
+	 * Read TADs from a bed like file (chromosome, start, end), positions are converted to bins
+	 * @param fileName
+	 * @param resolution
+	 * @return
+	 * @throws FileNotFoundException
+	 */
+	public static int[][] readTADs(String fileName, int resolution) throws FileNotFoundException{
+		List<int[]> tads = new ArrayList<int[]>();
+		Scanner input = new Scanner(new File(fileName));
+		try{
+			while(input.hasNextLine()){
+				String rowdata = input.nextLine().trim();
+				if (rowdata.length() == 0) continue;
+
+				String[] line = rowdata.split(sep);
+				tads.add(new int[]{Integer.parseInt(line[1]) / resolution, Integer.parseInt(line[2]) / resolution});
+			}
+		}finally{
+			input.close();
+		}
+		return tads.toArray(new int[tads.size()][]);
+	}
+
+	/**
+	 * Index TADs of a bed like file
+	 * @param fileName
+	 * @param resolution
+	 * @return
+	 * @throws FileNotFoundException
+	 */
+	public static TADIndex read(String fileName, int resolution) throws FileNotFoundException{
+		return new TADIndex(readTADs(fileName, resolution));
+	}
+
+	/**
+	 * Classify TADs of this set against the reference set
+	 * @param reference
+	 * @return class (EQUAL, SUB, CONFLICTING or NEW) of every TAD, in the input order
+	 */
+	public int[] classify(TADIndex reference){
+		int[] classes = new int[n];
+
+		//last reference TAD starting before the current TAD, first reference TAD not before it (start then end)
+		int begin = -1, next = 0;
+		for(int i = 0; i < n; i++){
+			int s = start[i], e = end[i];
+
+			while(begin + 1 < reference.n && reference.start[begin + 1] <= s) begin++;
+			while(next < reference.n && (reference.start[next] < s || reference.start[next] == s && reference.end[next] < e)) next++;
+
+			int c;
+			if (next < reference.n && reference.start[next] == s && reference.end[next] == e){
+				c = EQUAL;
+			}else{
+				int close = reference.firstEndingAfter(e);
+				if (begin < 0 || close < 0) c = NEW;
+				else if (begin == close) c = SUB;
+				else c = CONFLICTING;
+			}
+			classes[order[i]] = c;
+		}
+		return classes;
+	}
+
+	/**
+	 * Number of TADs of this set in each class against the reference set
+	 * @param reference
+	 * @return counts indexed by EQUAL, SUB, CONFLICTING and NEW
+	 */
+	public int[] count(TADIndex reference){
+		int[] counts = new int[4];
+		for(int c : classify(reference)){
+			counts[c]++;
+		}
+		return counts;
+	}
+
+	/**
+	 * Recall of this set against the reference set
+	 * @param counts: as returned by count
+	 * @return percentage of TADs that are equal to or inside a reference TAD
+	 */
+	public double recall(int[] counts){
+		return (counts[EQUAL] + counts[SUB]) / (double) n * 100.0;
+	}
+
+	//first sorted TAD with end >= e, -1 if none
+	private int firstEndingAfter(int e){
+		if (n == 0 || maxEnd[n - 1] < e) return -1;
+
+		int lo = 0, hi = n - 1;
+		while(lo < hi){
+			int mid = (lo + hi) >>> 1;
+			if (maxEnd[mid] >= e) hi = mid;
+			else lo = mid + 1;
+		}
+		return lo;
+	}
+
+	public int size() {
+		return n;
+	}
+}
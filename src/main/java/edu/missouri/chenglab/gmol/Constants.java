@@ -14,7 +14,13 @@ public interface Constants {
 	
 	String GENOMICLOCATIONFILE = "genomicLocationFile";
 	
+	//selection of a .hic input file: resolution (bp), normalization, region (from - to, bp, empty for the whole chromosome)
+	String HICRESOLUTION = "hicResolution";
+	String HICNORMALIZATION = "hicNormalization";
+	String HICREGION = "hicRegion";
+	
 	String OUTPUTLOOPFILE = "outputLoopFile";
+	String MAXLOOPSIZE = "maxLoopSize";
 	
 	String TRACKNAME = "trackName";
 	String TRACKFILENAME = "trackFileName";
@@ -9,22 +9,21 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
-import org.apache.commons.math3.linear.LUDecomposition;
-import org.apache.commons.math3.linear.MatrixUtils;
-import org.apache.commons.math3.linear.RealMatrix;
-import org.apache.commons.math3.linear.SingularValueDecomposition;
-import org.apache.commons.math3.stat.StatUtils;
-import org.apache.commons.math3.stat.correlation.SpearmansCorrelation;
 import org.jmol.adapter.smarter.Atom;
 import org.jmol.viewer.Viewer;
 
 import edu.missouri.chenglab.gmol.Constants;
 import edu.missouri.chenglab.gmol.valueobjects.ComparisonObject;
 import edu.missouri.chenglab.loopdetection.utility.CommonFunctions;
+import edu.missouri.chenglab.lordg.evaluation.RankCorrelation;
 import edu.missouri.chenglab.lordg.utility.Helper;
 import edu.missouri.chenglab.lordg.valueObject.GenomicLocation;
 
@@ -37,6 +36,24 @@ import edu.missouri.chenglab.lordg.valueObject.GenomicLocation;
  */
 public class Comparison {
 	
+	//a thread doesn't compute distances of less than this number of pairs
+	private static final long MIN_PAIRS_PER_PART = 1 << 18;
+	
+	//number of threads to compute and rank distances
+	private int nbrThread;
+	
+	public Comparison(){
+		this(0);
+	}
+	
+	/**
+	 * 
+	 * @param nbrThread: number of threads, 0 to use all processors
+	 */
+	public Comparison(int nbrThread){
+		this.nbrThread = nbrThread > 0 ? nbrThread : Runtime.getRuntime().availableProcessors();
+	}
+	
 	public static void main(String[] args) throws Exception{
 		String inputFile1 = "C:/Users/Tuan/workspace/Gmol/output/chr11_10kb_gm12878_list_125mb_135mb_1512086718696.gss";
 		//String inputFile2 = "C:/Users/Tuan/workspace/Gmol/output/chr11_10kb_gm12878_list_125mb_135mb_1512086718696.gss";
@@ -52,7 +69,7 @@ public class Comparison {
 		List<AtomRegion> atomList1 = readModel(inputFile1);
 		List<AtomRegion> atomList2 = readModel(inputFile2);
 		
-		Set<AtomRegion> set1 = new HashSet<AtomRegion>(atomList2);
+		Set<AtomRegion> set1 = new HashSet<AtomRegion>(atomList1);
 		Set<AtomRegion> set2 = new HashSet<AtomRegion>(atomList2);
 		
 		atomList1 = atomList1.stream().filter(a -> set2.contains(a)).collect(Collectors.toList());
@@ -69,155 +86,48 @@ public class Comparison {
 		center(atomList1);
 		center(atomList2);
 		
+		int n = atomList1.size();
+		double[] model1 = getCoordinates(atomList1);
+		double[] model2 = getCoordinates(atomList2);
 		
-		RealMatrix matrix1 = getCoordinateMatrix(atomList1);
-		RealMatrix matrix2 = getCoordinateMatrix(atomList2);
-		
-		/*
-		double[][] a = matrix1.getData();
-		PrintWriter pw = new PrintWriter("matrix1.txt");
-		for(int i = 0; i < a.length; i++){
-			for(int j = 0;j < a[0].length; j++){
-				pw.printf("%.5f ", a[i][j]);
-			}
-			pw.println();
-		}
-		pw.close();
-		
-		a = matrix2.getData();
-		pw = new PrintWriter("matrix2.txt");
-		for(int i = 0; i < a.length; i++){
-			for(int j = 0;j < a[0].length; j++){
-				pw.printf("%.5f ", a[i][j]);
-			}
-			pw.println();
-		}
-		pw.close();
-		*/
-		
-		RealMatrix mt = ((matrix1.transpose()).multiply(matrix2)).scalarMultiply(1.0/matrix1.getRowDimension());
-		
-		SingularValueDecomposition svd = new SingularValueDecomposition(mt);
-		
-		RealMatrix u = svd.getU();
-		RealMatrix v = svd.getVT();
-		RealMatrix s = svd.getS();
-		
-		//RealMatrix test = u.multiply(s).multiply(v).subtract(mt);
-		
-		LUDecomposition decompositionU = new LUDecomposition(u);
-		LUDecomposition decompositionV = new LUDecomposition(v);
-		double uDeterminant = decompositionU.getDeterminant();
-		double vDeterminant = decompositionV.getDeterminant();
-		
-		if (uDeterminant * vDeterminant < 0){
-			s.multiplyEntry(2, 2, -1);
-			
-			u.multiplyEntry(0, 2, -1);
-			u.multiplyEntry(1, 2, -1);
-			u.multiplyEntry(2, 2, -1);
-		}
-		
-		RealMatrix r = u.multiply(v);
-		
-		double varSum = StatUtils.variance(matrix1.getColumn(0)) + StatUtils.variance(matrix1.getColumn(1)) + StatUtils.variance(matrix1.getColumn(2));
-		
-		double scale = 1.0 / varSum * (s.getEntry(0, 0) + s.getEntry(1, 1) + s.getEntry(2, 2));
-		
-		RealMatrix t = MatrixUtils.createRowRealMatrix(new double[]{StatUtils.mean(matrix1.getColumn(0)), StatUtils.mean(matrix1.getColumn(1)), StatUtils.mean(matrix1.getColumn(2))}).subtract(
-				MatrixUtils.createRowRealMatrix(new double[]{StatUtils.mean(matrix2.getColumn(0)), StatUtils.mean(matrix2.getColumn(1)), StatUtils.mean(matrix2.getColumn(2))}).multiply(r.scalarMultiply(scale)));
-		
-		
-		RealMatrix matrix1Converted = matrix1.multiply(r.scalarMultiply(scale));
-		
-		//translate
-		for(int i = 0; i < matrix1Converted.getRowDimension(); i++){
-			RealMatrix tmp = matrix1Converted.getRowMatrix(i).subtract(t);		
-			matrix1Converted.setRowMatrix(i, tmp);
-		}
-		
-		
-//		RealMatrix errorMatrix = matrix1Converted.subtract(matrix2);
-//		double totalError1 = 0;
-//		for(int i = 0; i < errorMatrix.getRowDimension(); i++){
-//			totalError1 += StatUtils.sumSq(errorMatrix.getRow(i));
-//		}		
-//		System.out.println("Total error :" + totalError1);
+		//rotate and scale model1 to model2
+		Superposition superposition = new Superposition();
+		superposition.superpose(model1, model2, n);
 		
+		double[] model1Converted = new double[n * 3];
+		superposition.transform(model1, n, model1Converted);
 		
 		Helper helper = Helper.getHelperInstance();
 		
-		double[] str = new double[matrix2.getRowDimension() * 2 * 3];
+		double[] str = new double[n * 2 * 3];
+		System.arraycopy(model2, 0, str, 0, n * 3);
+		System.arraycopy(model1Converted, 0, str, n * 3, n * 3);
 		
-		//List<Integer> lstPos = new ArrayList<Integer>();
 		Map<Integer, GenomicLocation> idToChr = new HashMap<Integer,GenomicLocation>();
 		String chrom = "1";
 		String genomeID = "-";
 		
-		
-		int k = 0;
-		for(int i = 0; i < matrix2.getRowDimension(); i ++){
-			
-
-			idToChr.put(k/3, new GenomicLocation(k/3, "1", atomList1.get(i).fromPos, atomList1.get(i).endPos)); 
-
-			
-			str[k++] = matrix2.getRow(i)[0];
-			str[k++] = matrix2.getRow(i)[1];
-			str[k++] = matrix2.getRow(i)[2];	
-			
-			//lstPos.add(atomList1.get(i).fromPos);
+		for(int i = 0; i < n; i ++){
+			idToChr.put(i, new GenomicLocation(i, "1", atomList1.get(i).fromPos, atomList1.get(i).endPos)); 
 		}
-		
-		for(int i = 0; i < matrix1Converted.getRowDimension(); i ++){
-			
-
-			idToChr.put(k/3, new GenomicLocation(k/3, "2", atomList2.get(i).fromPos, atomList2.get(i).endPos));
-
-			
-			str[k++] = matrix1Converted.getRow(i)[0];
-			str[k++] = matrix1Converted.getRow(i)[1];
-			str[k++] = matrix1Converted.getRow(i)[2];
-			
-//			str[k++] = matrix1.getRow(i)[0];
-//			str[k++] = matrix1.getRow(i)[1];
-//			str[k++] = matrix1.getRow(i)[2];
-			
-			//lstPos.add(atomList2.get(i).fromPos);
+		for(int i = 0; i < n; i ++){
+			idToChr.put(n + i, new GenomicLocation(n + i, "2", atomList2.get(i).fromPos, atomList2.get(i).endPos));
 		}
 		  
 		String outputFileGSS = "superimpose_" + CommonFunctions.getFileNameFromPath(inputFile1).replace(".gss", "") 
 				+ CommonFunctions.getFileNameFromPath(inputFile2).replace(".gss", "") + ".gss";
 		helper.writeStructureGSS(outputFileGSS, str, idToChr, chrom, genomeID);
 		
-		int n = matrix1Converted.getRowDimension();
 		double[] dist1 = new double[n * (n - 1) / 2];
 		double[] dist2 = new double[n * (n - 1) / 2];
 		
-		SpearmansCorrelation spearmanCor = new SpearmansCorrelation();
-		
-		
-		k = 0;
-		double totalError = 0.0;
-		for(int i = 0; i < n; i++){
-			for(int j = i + 1; j < n; j++){
-				dist1[k] = Math.sqrt(helper.calEuclidianDist(matrix1Converted.getRow(i)[0],  matrix1Converted.getRow(i)[1], matrix1Converted.getRow(i)[2], 
-						matrix1Converted.getRow(j)[0],  matrix1Converted.getRow(j)[1], matrix1Converted.getRow(j)[2]));
-				
-				
-				dist2[k] = Math.sqrt(helper.calEuclidianDist(matrix2.getRow(i)[0], matrix2.getRow(i)[1], matrix2.getRow(i)[2], 
-						matrix2.getRow(j)[0], matrix2.getRow(j)[1], matrix2.getRow(j)[2]));
-				
-				totalError += (dist1[k] - dist2[k]) * (dist1[k] - dist2[k]);
-				k++;
-			}
-		}
+		double totalError = pairwiseDistances(model1Converted, model2, n, dist1, dist2);
 		
 		totalError = Math.sqrt(totalError) / dist1.length;
 		
 		//totalError /= Constants.AVG_DIST_MODEL;
 		
-		double cor = spearmanCor.correlation(dist1, dist2);
+		double cor = RankCorrelation.spearman(dist1, dist2, nbrThread);
 		
 		//viewer.loadNewModel(outputFileGSS, new String[]{String.format("RMSE: %.8f",totalError), String.format("Spearman correlation: %.4f",cor)});
 		
@@ -232,22 +142,96 @@ public class Comparison {
 		
 	}
 	
-	private RealMatrix getCoordinateMatrix(List<AtomRegion> atomList){
-		double[][] a = new double[atomList.size()][3];
+	/**
+	 * Distances between all pairs of points of two models, pair (i, j), i < j, is at i * n - i * (i + 1) / 2 + j - i - 1.
+	 * Rows are split into parts with the same number of pairs, parts are computed in parallel
+	 * @param model1
+	 * @param model2
+	 * @param n: number of points
+	 * @param dist1: output, distances of model1
+	 * @param dist2: output, distances of model2
+	 * @return sum of squared differences between distances of the two models
+	 * @throws Exception
+	 */
+	private double pairwiseDistances(final double[] model1, final double[] model2, final int n, final double[] dist1, final double[] dist2) throws Exception{
+		long nbrPair = (long)n * (n - 1) / 2;
+		int nbrPart = (int)Math.max(1, Math.min(nbrThread * 4L, nbrPair / MIN_PAIRS_PER_PART));
+		
+		//first row of every part
+		final int[] bound = new int[nbrPart + 1];
+		long pairs = 0;
+		for(int i = 0, p = 1; i < n && p < nbrPart; i++){
+			pairs += n - 1 - i;
+			if (pairs >= nbrPair * p / nbrPart){
+				bound[p++] = i + 1;
+			}
+		}
+		bound[nbrPart] = n;
+		for(int p = 1; p < nbrPart; p++){
+			if (bound[p] == 0) bound[p] = bound[p - 1];
+		}
+		
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(nbrThread, nbrPart));
+		try{
+			List<Future<Double>> futures = new ArrayList<Future<Double>>();
+			for(int p = 0; p < nbrPart; p++){
+				final int beg = bound[p], end = bound[p + 1];
+				futures.add(executor.submit(new Callable<Double>() {
+					@Override
+					public Double call() throws Exception {
+						double error = 0, d1, d2, x1, y1, z1, x2, y2, z2, dx, dy, dz;
+						int k;
+						for(int i = beg; i < end; i++){
+							k = (int)((long)i * n - (long)i * (i + 1) / 2);
+							x1 = model1[i * 3]; y1 = model1[i * 3 + 1]; z1 = model1[i * 3 + 2];
+							x2 = model2[i * 3]; y2 = model2[i * 3 + 1]; z2 = model2[i * 3 + 2];
+							for(int j = i + 1; j < n; j++, k++){
+								dx = model1[j * 3] - x1; dy = model1[j * 3 + 1] - y1; dz = model1[j * 3 + 2] - z1;
+								d1 = Math.sqrt(dx * dx + dy * dy + dz * dz);
+								dx = model2[j * 3] - x2; dy = model2[j * 3 + 1] - y2; dz = model2[j * 3 + 2] - z2;
+								d2 = Math.sqrt(dx * dx + dy * dy + dz * dz);
+								
+								dist1[k] = d1;
+								dist2[k] = d2;
+								error += (d1 - d2) * (d1 - d2);
+							}
+						}
+						return error;
+					}
+				}));
+			}
+			
+			double totalError = 0;
+			for(Future<Double> future : futures){
+				totalError += future.get();
+			}
+			return totalError;
+		}finally{
+			executor.shutdown();
+		}
+	}
+	
+	/**
+	 * 
+	 * @param atomList
+	 * @return coordinates as a flat array, point i is (x[i * 3], x[i * 3 + 1], x[i * 3 + 2])
+	 */
+	double[] getCoordinates(List<AtomRegion> atomList){
+		double[] x = new double[atomList.size() * 3];
 		for(int i = 0; i < atomList.size(); i++){
-			a[i][0] = atomList.get(i).x;
-			a[i][1] = atomList.get(i).y;
-			a[i][2] = atomList.get(i).z;
+			x[i * 3] = atomList.get(i).x;
+			x[i * 3 + 1] = atomList.get(i).y;
+			x[i * 3 + 2] = atomList.get(i).z;
 		}
 		
-		return MatrixUtils.createRealMatrix(a);
+		return x;
 	}
 
 	/**
 	 * Normalize models so that RMSE is comparable for different cases
 	 * @param atomList
 	 */
-	private void normalize(List<AtomRegion> atomList){
+	void normalize(List<AtomRegion> atomList){
 		
 		
 		Helper helper = Helper.getHelperInstance();
@@ -273,7 +257,7 @@ public class Comparison {
 		}
 	}
 	
-	private void center(List<AtomRegion> atomList){
+	void center(List<AtomRegion> atomList){
 		double[] center = new double[3];
 		
 		for(AtomRegion atom: atomList){
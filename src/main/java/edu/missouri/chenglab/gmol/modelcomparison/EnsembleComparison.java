@@ -0,0 +1,416 @@
+package edu.missouri.chenglab.gmol.modelcomparison;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.missouri.chenglab.gmol.modelcomparison.Comparison.AtomRegion;
+
+/**
+ * Compare all pairs of models of an ensemble (e.g. models of a GSS folder) at the same time:
+ * RMSD after the optimal superposition of a model onto another (Superposition) and
+ * Pearson correlation between distances of all pairs of points of the two models.
+ *
+ * Distances are never stored: points are split into tiles of TILE_SIZE x TILE_SIZE pairs, distances of a tile are computed
+ * for all models into a small buffer, then the products of distances of every pair of models are added up.
+ * Tiles are processed by threads, each thread keeps its own sums. Distances are shifted by an estimate of their mean
+ * (from a sample of pairs) so that sums of products don't lose precision
+ *
+ */
+public class EnsembleComparison {
+
+	//points in a side of a tile, distances of a tile for one model fit in the L1 cache
+	private static final int TILE_SIZE = 32;
+
+	//pairs of points used to estimate the mean distance of a model
+	private static final int MEAN_SAMPLE_SIZE = 10000;
+
+	private int nbrThread;
+
+	private String[] names;
+
+	//models with the same points, model a is models[a], point i is (models[a][i * 3], models[a][i * 3 + 1], models[a][i * 3 + 2])
+	private double[][] models;
+	private int n;
+
+	//rmsd[a][b]: RMSD between model b and model a superposed onto it
+	private double[][] rmsd;
+	private double[][] correlation;
+
+	/**
+	 *
+	 * @param nbrThread: number of threads, 0 to use all processors
+	 */
+	public EnsembleComparison(int nbrThread){
+		this.nbrThread = nbrThread > 0 ? nbrThread : Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Compare models in .gss files, only regions in all models are compared
+	 * @param files
+	 * @throws Exception
+	 */
+	public void compare(List<String> files) throws Exception{
+		if (files.size() < 2) throw new IllegalArgumentException("At least 2 models are needed, got " + files.size());
+
+		Comparison comparison = new Comparison(nbrThread);
+
+		List<List<AtomRegion>> atomLists = new ArrayList<List<AtomRegion>>();
+		Set<AtomRegion> common = null;
+		for(String file : files){
+			List<AtomRegion> atomList = comparison.readModel(file);
+			atomLists.add(atomList);
+
+			if (common == null){
+				common = new HashSet<AtomRegion>(atomList);
+			}else{
+				common.retainAll(new HashSet<AtomRegion>(atomList));
+			}
+		}
+
+		if (common.size() < 2){
+			throw new Exception("Check your models!!!, they have less than 2 common regions!");
+		}
+
+		names = new String[files.size()];
+		double[][] coordinates = new double[files.size()][];
+		for(int a = 0; a < files.size(); a++){
+			names[a] = new File(files.get(a)).getName();
+
+			//regions in the order of the first model
+			List<AtomRegion> atomList = new ArrayList<AtomRegion>();
+			for(AtomRegion atom : atomLists.get(0)){
+				if (common.contains(atom)) atomList.add(atom);
+			}
+			if (a > 0){
+				List<AtomRegion> sorted = new ArrayList<AtomRegion>();
+				Map<AtomRegion, AtomRegion> map = new HashMap<AtomRegion, AtomRegion>();
+				for(AtomRegion atom : atomLists.get(a)){
+					map.put(atom, atom);
+				}
+				for(AtomRegion atom : atomList){
+					sorted.add(map.get(atom));
+				}
+				atomList = sorted;
+			}
+
+			comparison.normalize(atomList);
+			coordinates[a] = comparison.getCoordinates(atomList);
+		}
+
+		compare(names, coordinates, common.size());
+	}
+
+	/**
+	 * Compare models with the same points
+	 * @param names: names of models, to write matrices
+	 * @param models
+	 * @param n: number of points
+	 * @throws Exception
+	 */
+	public void compare(String[] names, double[][] models, int n) throws Exception{
+		this.names = names;
+		this.models = models;
+		this.n = n;
+
+		int m = models.length;
+		rmsd = new double[m][m];
+		correlation = new double[m][m];
+
+		ExecutorService executor = Executors.newFixedThreadPool(nbrThread);
+		try{
+			superposeAll(executor);
+			correlateDistances(executor);
+		}finally{
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * RMSD of all ordered pairs of models, each thread superposes models onto one target at a time
+	 */
+	private void superposeAll(ExecutorService executor) throws Exception{
+		final int m = models.length;
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		for(int b = 0; b < m; b++){
+			final int target = b;
+			futures.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					Superposition superposition = new Superposition();
+					for(int a = 0; a < m; a++){
+						if (a == target) continue;
+						superposition.superpose(models[a], models[target], n);
+						rmsd[a][target] = superposition.getRMSD();
+					}
+					return null;
+				}
+			}));
+		}
+		for(Future<Void> future : futures){
+			future.get();
+		}
+	}
+
+	/**
+	 * Pearson correlation between distances of all pairs of models, tiles of pairs of points are shared by threads
+	 */
+	private void correlateDistances(ExecutorService executor) throws Exception{
+		final int m = models.length;
+
+		//models are taken two by two, there is an empty model if the number of models is odd
+		final int paddedM = m + m % 2;
+
+		final double[] shift = estimateMeanDistances();
+
+		final int nbrBlock = (n + TILE_SIZE - 1) / TILE_SIZE;
+		final long nbrTile = (long)nbrBlock * (nbrBlock + 1) / 2;
+		final AtomicLong nextTile = new AtomicLong();
+
+		List<Future<double[][]>> futures = new ArrayList<Future<double[][]>>();
+		for(int t = 0; t < nbrThread; t++){
+			futures.add(executor.submit(new Callable<double[][]>() {
+				@Override
+				public double[][] call() throws Exception {
+					//products of shifted distances of every pair of models (upper triangle), sums of shifted distances in the last row
+					double[][] sums = new double[paddedM + 1][paddedM];
+					double[][] tile = new double[paddedM][TILE_SIZE * TILE_SIZE];
+					double[] dots = new double[4];
+
+					int bi = 0, bj = 0, size;
+					long done = 0, id;
+					while((id = nextTile.getAndIncrement()) < nbrTile){
+						//tiles are numbered row by row in the upper triangle of blocks
+						while(done + nbrBlock - bi <= id){
+							done += nbrBlock - bi;
+							bi++;
+						}
+						bj = bi + (int)(id - done);
+
+						size = 0;
+						for(int a = 0; a < m; a++){
+							size = tileDistances(models[a], bi, bj, shift[a], tile[a]);
+						}
+
+						for(int a = 0; a < m; a++){
+							double[] ta = tile[a];
+							double s = 0;
+							for(int k = 0; k < size; k++){
+								s += ta[k];
+							}
+							sums[paddedM][a] += s;
+						}
+
+						for(int a = 0; a < m; a += 2){
+							for(int b = a; b < m; b += 2){
+								dot(tile[a], tile[a + 1], tile[b], tile[b + 1], size, dots);
+								sums[a][b] += dots[0];
+								sums[a][b + 1] += dots[1];
+								sums[a + 1][b] += dots[2];
+								sums[a + 1][b + 1] += dots[3];
+							}
+						}
+					}
+					return sums;
+				}
+			}));
+		}
+
+		double[][] sums = new double[m + 1][m];
+		for(Future<double[][]> future : futures){
+			double[][] s = future.get();
+			for(int b = 0; b < m; b++){
+				for(int a = 0; a < m; a++){
+					sums[a][b] += s[a][b];
+				}
+				sums[m][b] += s[paddedM][b];
+			}
+		}
+
+		//covariance from sums of shifted distances: sum(x * y) - sum(x) * sum(y) / N
+		double nbrPair = (double)n * (n - 1) / 2;
+		double[][] cov = new double[m][m];
+		for(int a = 0; a < m; a++){
+			for(int b = a; b < m; b++){
+				cov[a][b] = sums[a][b] - sums[m][a] * sums[m][b] / nbrPair;
+			}
+		}
+		for(int a = 0; a < m; a++){
+			correlation[a][a] = 1.0;
+			for(int b = a + 1; b < m; b++){
+				correlation[a][b] = cov[a][b] / Math.sqrt(cov[a][a] * cov[b][b]);
+				correlation[b][a] = correlation[a][b];
+			}
+		}
+	}
+
+	/**
+	 * dot products of x1 and x2 with y1 and y2 on the first size values, every value read is used twice
+	 * and the four sums don't wait for each other
+	 * @param dots: output, x1.y1, x1.y2, x2.y1, x2.y2
+	 */
+	private static void dot(double[] x1, double[] x2, double[] y1, double[] y2, int size, double[] dots){
+		double p11 = 0, p12 = 0, p21 = 0, p22 = 0, a1, a2, b1, b2;
+		for(int k = 0; k < size; k++){
+			a1 = x1[k];
+			a2 = x2[k];
+			b1 = y1[k];
+			b2 = y2[k];
+			p11 += a1 * b1;
+			p12 += a1 * b2;
+			p21 += a2 * b1;
+			p22 += a2 * b2;
+		}
+		dots[0] = p11;
+		dots[1] = p12;
+		dots[2] = p21;
+		dots[3] = p22;
+	}
+
+	/**
+	 * distances (minus shift) between points of block bi and points of block bj, i < j
+	 * @return number of distances in the tile
+	 */
+	private int tileDistances(double[] x, int bi, int bj, double shift, double[] tile){
+		int iEnd = Math.min(n, (bi + 1) * TILE_SIZE), jEnd = Math.min(n, (bj + 1) * TILE_SIZE);
+		int size = 0, jBeg;
+		double xi, yi, zi, dx, dy, dz;
+		for(int i = bi * TILE_SIZE; i < iEnd; i++){
+			xi = x[i * 3];
+			yi = x[i * 3 + 1];
+			zi = x[i * 3 + 2];
+			jBeg = bi == bj ? i + 1 : bj * TILE_SIZE;
+			for(int j = jBeg; j < jEnd; j++){
+				dx = x[j * 3] - xi;
+				dy = x[j * 3 + 1] - yi;
+				dz = x[j * 3 + 2] - zi;
+				tile[size++] = Math.sqrt(dx * dx + dy * dy + dz * dz) - shift;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 *
+	 * @return mean distance of every model, estimated on the same pairs of points
+	 */
+	private double[] estimateMeanDistances(){
+		Random random = new Random(n);
+		int[] pair = new int[MEAN_SAMPLE_SIZE * 2];
+		for(int p = 0; p < MEAN_SAMPLE_SIZE; p++){
+			pair[p * 2] = random.nextInt(n);
+			pair[p * 2 + 1] = random.nextInt(n);
+		}
+
+		double[] mean = new double[models.length];
+		int i, j;
+		double dx, dy, dz;
+		for(int a = 0; a < models.length; a++){
+			double[] x = models[a];
+			for(int p = 0; p < MEAN_SAMPLE_SIZE; p++){
+				i = pair[p * 2];
+				j = pair[p * 2 + 1];
+				dx = x[i * 3] - x[j * 3];
+				dy = x[i * 3 + 1] - x[j * 3 + 1];
+				dz = x[i * 3 + 2] - x[j * 3 + 2];
+				mean[a] += Math.sqrt(dx * dx + dy * dy + dz * dz);
+			}
+			mean[a] /= MEAN_SAMPLE_SIZE;
+		}
+		return mean;
+	}
+
+	/**
+	 * Write the RMSD matrix and the correlation matrix, tab separated with names of models
+	 * @param outputFile
+	 * @throws Exception
+	 */
+	public void write(String outputFile) throws Exception{
+		PrintWriter pw = new PrintWriter(outputFile);
+		try{
+			pw.println("RMSD (row: model superposed onto the column model)");
+			writeMatrix(pw, rmsd, "%.6g");
+			pw.println();
+			pw.println("Pearson correlation of distances");
+			writeMatrix(pw, correlation, "%.4f");
+		}finally{
+			pw.close();
+		}
+	}
+
+	private void writeMatrix(PrintWriter pw, double[][] matrix, String format){
+		pw.print("Model");
+		for(String name : names){
+			pw.print("\t" + name);
+		}
+		pw.println();
+		for(int a = 0; a < matrix.length; a++){
+			pw.print(names[a]);
+			for(int b = 0; b < matrix.length; b++){
+				pw.print("\t" + String.format(format, matrix[a][b]));
+			}
+			pw.println();
+		}
+	}
+
+	/**
+	 * Compare all .gss models in a folder
+	 * @param args: folder of models, output file, number of threads (optional)
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception{
+		if (args.length < 2){
+			System.out.println("Usage: EnsembleComparison <folder of .gss models> <output file> [number of threads]");
+			return;
+		}
+
+		File[] files = new File(args[0]).listFiles();
+		if (files == null) throw new Exception("Cannot read the folder " + args[0]);
+		Arrays.sort(files);
+
+		List<String> models = new ArrayList<String>();
+		for(File file : files){
+			if (file.getName().endsWith(".gss")) models.add(file.getPath());
+		}
+
+		long startTime = System.currentTimeMillis();
+
+		EnsembleComparison comparison = new EnsembleComparison(args.length > 2 ? Integer.parseInt(args[2]) : 0);
+		comparison.compare(models);
+		comparison.write(args[1]);
+
+		System.out.printf("%d models compared in %.2f seconds\n", models.size(), (System.currentTimeMillis() - startTime) / 1000.0);
+	}
+
+	/**
+	 *
+	 * @return rmsd[a][b]: RMSD between model b and model a superposed onto it
+	 */
+	public double[][] getRmsd() {
+		return rmsd;
+	}
+
+	/**
+	 *
+	 * @return Pearson correlation between distances of all pairs of points of two models
+	 */
+	public double[][] getCorrelation() {
+		return correlation;
+	}
+
+	public String[] getNames() {
+		return names;
+	}
+}
@@ -0,0 +1,272 @@
+package edu.missouri.chenglab.gmol.modelcomparison;
+
+import org.apache.commons.math3.linear.EigenDecomposition;
+import org.apache.commons.math3.linear.MatrixUtils;
+
+/**
+ * Optimal superposition (rotation, scale and translation) of a moving model onto a target model,
+ * models are flat arrays, point i is (x[i * 3], x[i * 3 + 1], x[i * 3 + 2]).
+ *
+ * The rotation is found in closed form with quaternions (Horn 1987): the best rotation is the eigenvector of the largest
+ * eigenvalue of a 4x4 matrix built from the covariance of the two models. The eigenvalue is the largest root of the
+ * characteristic polynomial, found by Newton's method from an upper bound (Theobald 2005), the eigenvector is
+ * a column of the adjugate of (K - lambda I). The rotation is always proper (no reflection), as the SVD
+ * version with the sign of the last singular value flipped.
+ *
+ * An instance keeps the result of the last superposition and doesn't allocate memory,
+ * it must not be used by two threads at the same time
+ *
+ */
+public class Superposition {
+
+	private static final int MAX_NEWTON_ITERATION = 50;
+
+	private static final double NEWTON_TOLERANCE = 1e-11;
+
+	private double[] rotation = new double[9];//row major, target ~ scale * rotation * (moving - movingCenter) + targetCenter
+	private double scale;
+
+	private double[] movingCenter = new double[3];
+	private double[] targetCenter = new double[3];
+
+	//sums of squared distances of the points to their center
+	private double movingSquare;
+	private double targetSquare;
+
+	//largest eigenvalue, the sum of the singular values of the covariance matrix (the last one is negative for a reflection)
+	private double lambda;
+
+	private int n;
+
+	private double[] k = new double[16];
+	private double[] adj = new double[16];
+
+	/**
+	 * Superpose the first n points of moving onto target
+	 * @param moving
+	 * @param target
+	 * @param n: number of points
+	 */
+	public void superpose(double[] moving, double[] target, int n){
+		if (n < 1) throw new IllegalArgumentException("No point to superpose");
+		this.n = n;
+
+		center(moving, n, movingCenter);
+		center(target, n, targetCenter);
+
+		double sxx = 0, sxy = 0, sxz = 0, syx = 0, syy = 0, syz = 0, szx = 0, szy = 0, szz = 0;
+		double g1 = 0, g2 = 0, ax, ay, az, bx, by, bz;
+		for(int i = 0; i < n; i++){
+			ax = moving[i * 3] - movingCenter[0];
+			ay = moving[i * 3 + 1] - movingCenter[1];
+			az = moving[i * 3 + 2] - movingCenter[2];
+			bx = target[i * 3] - targetCenter[0];
+			by = target[i * 3 + 1] - targetCenter[1];
+			bz = target[i * 3 + 2] - targetCenter[2];
+
+			g1 += ax * ax + ay * ay + az * az;
+			g2 += bx * bx + by * by + bz * bz;
+
+			sxx += ax * bx; sxy += ax * by; sxz += ax * bz;
+			syx += ay * bx; syy += ay * by; syz += ay * bz;
+			szx += az * bx; szy += az * by; szz += az * bz;
+		}
+		movingSquare = g1;
+		targetSquare = g2;
+
+		k[0] = sxx + syy + szz; k[1] = syz - szy;       k[2] = szx - sxz;        k[3] = sxy - syx;
+		k[4] = k[1];            k[5] = sxx - syy - szz; k[6] = sxy + syx;        k[7] = szx + sxz;
+		k[8] = k[2];            k[9] = k[6];            k[10] = -sxx + syy - szz; k[11] = syz + szy;
+		k[12] = k[3];           k[13] = k[7];           k[14] = k[11];           k[15] = -sxx - syy + szz;
+
+		lambda = largestEigenvalue(Math.sqrt(g1 * g2));
+
+		if (!quaternionRotation()){
+			//the largest eigenvalue is not simple (e.g. points on a line), the eigenvector is taken from a full decomposition
+			double[][] m = new double[4][4];
+			for(int r = 0; r < 4; r++){
+				for(int c = 0; c < 4; c++){
+					m[r][c] = k[r * 4 + c];
+				}
+			}
+			EigenDecomposition eigen = new EigenDecomposition(MatrixUtils.createRealMatrix(m));
+			int best = 0;
+			for(int e = 1; e < 4; e++){
+				if (eigen.getRealEigenvalue(e) > eigen.getRealEigenvalue(best)) best = e;
+			}
+			double[] q = eigen.getEigenvector(best).toArray();
+			lambda = eigen.getRealEigenvalue(best);
+			setRotation(q[0], q[1], q[2], q[3]);
+		}
+
+		scale = g1 > 0 ? lambda / g1 : 1.0;
+	}
+
+	private static void center(double[] x, int n, double[] c){
+		c[0] = c[1] = c[2] = 0;
+		for(int i = 0; i < n; i++){
+			c[0] += x[i * 3];
+			c[1] += x[i * 3 + 1];
+			c[2] += x[i * 3 + 2];
+		}
+		c[0] /= n;
+		c[1] /= n;
+		c[2] /= n;
+	}
+
+	/**
+	 * Newton's method on the characteristic polynomial of k, from an upper bound of its eigenvalues
+	 */
+	private double largestEigenvalue(double upperBound){
+		//k has trace 0, its characteristic polynomial is x^4 + c2 x^2 + c1 x + c0
+		double tr2 = 0, tr3 = 0, kk;
+		for(int r = 0; r < 4; r++){
+			for(int c = 0; c < 4; c++){
+				tr2 += k[r * 4 + c] * k[r * 4 + c];
+				kk = 0;
+				for(int e = 0; e < 4; e++){
+					kk += k[r * 4 + e] * k[e * 4 + c];
+				}
+				tr3 += kk * k[c * 4 + r];
+			}
+		}
+		double c2 = -tr2 / 2;
+		double c1 = -tr3 / 3;
+		double c0 = determinant4(k);
+
+		double x = upperBound, prev, p, dp;
+		for(int it = 0; it < MAX_NEWTON_ITERATION; it++){
+			p = ((x * x + c2) * x + c1) * x + c0;
+			dp = (4 * x * x + 2 * c2) * x + c1;
+			if (dp == 0) break;
+
+			prev = x;
+			x -= p / dp;
+			if (Math.abs(x - prev) <= NEWTON_TOLERANCE * Math.max(1.0, Math.abs(x))) break;
+		}
+		return x;
+	}
+
+	/**
+	 * the rotation from the largest column of the adjugate of (k - lambda I)
+	 * @return false if all columns are too small, i.e. the eigenvalue is not simple
+	 */
+	private boolean quaternionRotation(){
+		double[] m = adj;
+		for(int e = 0; e < 16; e++) m[e] = k[e];
+		for(int d = 0; d < 4; d++) m[d * 5] -= lambda;
+
+		//columns of the adjugate are cofactors, (k - lambda I) is symmetric so rows and columns are the same
+		double best = -1, norm, q0 = 0, q1 = 0, q2 = 0, q3 = 0, c0, c1, c2, c3;
+		for(int c = 0; c < 4; c++){
+			c0 = cofactor(m, c, 0);
+			c1 = cofactor(m, c, 1);
+			c2 = cofactor(m, c, 2);
+			c3 = cofactor(m, c, 3);
+			norm = c0 * c0 + c1 * c1 + c2 * c2 + c3 * c3;
+			if (norm > best){
+				best = norm;
+				q0 = c0; q1 = c1; q2 = c2; q3 = c3;
+			}
+		}
+
+		//relative to the scale of the matrix, the adjugate is a cubic in its entries
+		double s = Math.abs(lambda) + 1e-300;
+		if (!(best > 1e-20 * s * s * s * s * s * s)) return false;
+
+		setRotation(q0, q1, q2, q3);
+		return true;
+	}
+
+	private void setRotation(double w, double x, double y, double z){
+		double norm = Math.sqrt(w * w + x * x + y * y + z * z);
+		w /= norm; x /= norm; y /= norm; z /= norm;
+
+		rotation[0] = w * w + x * x - y * y - z * z;
+		rotation[1] = 2 * (x * y - w * z);
+		rotation[2] = 2 * (x * z + w * y);
+		rotation[3] = 2 * (x * y + w * z);
+		rotation[4] = w * w - x * x + y * y - z * z;
+		rotation[5] = 2 * (y * z - w * x);
+		rotation[6] = 2 * (x * z - w * y);
+		rotation[7] = 2 * (y * z + w * x);
+		rotation[8] = w * w - x * x - y * y + z * z;
+	}
+
+	/**
+	 * cofactor (r, c) of a 4x4 row major matrix
+	 */
+	private static double cofactor(double[] m, int r, int c){
+		int r0 = r == 0 ? 1 : 0, r1 = r <= 1 ? 2 : 1, r2 = r <= 2 ? 3 : 2;
+		int c0 = c == 0 ? 1 : 0, c1 = c <= 1 ? 2 : 1, c2 = c <= 2 ? 3 : 2;
+
+		double d = m[r0 * 4 + c0] * (m[r1 * 4 + c1] * m[r2 * 4 + c2] - m[r1 * 4 + c2] * m[r2 * 4 + c1])
+				- m[r0 * 4 + c1] * (m[r1 * 4 + c0] * m[r2 * 4 + c2] - m[r1 * 4 + c2] * m[r2 * 4 + c0])
+				+ m[r0 * 4 + c2] * (m[r1 * 4 + c0] * m[r2 * 4 + c1] - m[r1 * 4 + c1] * m[r2 * 4 + c0]);
+
+		return (r + c) % 2 == 0 ? d : -d;
+	}
+
+	private static double determinant4(double[] m){
+		double d = 0;
+		for(int c = 0; c < 4; c++){
+			d += m[c] * cofactor(m, 0, c);
+		}
+		return d;
+	}
+
+	/**
+	 * Transform the first n points of the moving model (or any model with the same frame) with the last superposition
+	 * @param x
+	 * @param n
+	 * @param out: transformed points, can be x
+	 */
+	public void transform(double[] x, int n, double[] out){
+		double px, py, pz;
+		for(int i = 0; i < n; i++){
+			px = x[i * 3] - movingCenter[0];
+			py = x[i * 3 + 1] - movingCenter[1];
+			pz = x[i * 3 + 2] - movingCenter[2];
+
+			out[i * 3] = scale * (rotation[0] * px + rotation[1] * py + rotation[2] * pz) + targetCenter[0];
+			out[i * 3 + 1] = scale * (rotation[3] * px + rotation[4] * py + rotation[5] * pz) + targetCenter[1];
+			out[i * 3 + 2] = scale * (rotation[6] * px + rotation[7] * py + rotation[8] * pz) + targetCenter[2];
+		}
+	}
+
+	/**
+	 *
+	 * @return RMSD between the target and the moving model after it is rotated, scaled and translated
+	 */
+	public double getRMSD(){
+		return Math.sqrt(Math.max(0, targetSquare - scale * lambda) / n);
+	}
+
+	/**
+	 *
+	 * @return RMSD between the target and the moving model after it is only rotated and translated
+	 */
+	public double getRigidRMSD(){
+		return Math.sqrt(Math.max(0, movingSquare + targetSquare - 2 * lambda) / n);
+	}
+
+	/**
+	 *
+	 * @return row major rotation matrix, it is reused by the next superposition
+	 */
+	public double[] getRotation() {
+		return rotation;
+	}
+
+	public double getScale() {
+		return scale;
+	}
+
+	public double[] getMovingCenter() {
+		return movingCenter;
+	}
+
+	public double[] getTargetCenter() {
+		return targetCenter;
+	}
+}
@@ -0,0 +1,98 @@
+package edu.missouri.chenglab.hicdata;
+
+import java.io.IOException;
+
+import edu.missouri.chenglab.lordg.valueObject.ConstraintTable;
+
+/**
+ * Contact matrix stored as its diagonals 0 .. bandwidth, entry (i, i + d) is at i * (bandwidth + 1) + d,
+ * entries further from the diagonal are 0. Suits contact lists cut at a maximum genomic distance
+ *
+ */
+public class BandedContactMatrix extends ContactMatrix {
+
+	private int bandwidth;
+
+	private DoubleStorage value;
+
+	/**
+	 *
+	 * @param positions: genomic position (or index) of each bin
+	 * @param entries: pos1 <= pos2 are indices of bins, pos2 - pos1 <= bandwidth
+	 * @param bandwidth
+	 * @param isSummed: entries between the same bins are summed if true, the last one is kept otherwise
+	 * @param isMapped: keep entries in a memory-mapped file
+	 * @throws IOException
+	 */
+	BandedContactMatrix(int[] positions, ConstraintTable entries, int bandwidth, boolean isSummed, boolean isMapped) throws IOException{
+		this.positions = positions;
+		this.n = positions.length;
+		this.bandwidth = bandwidth;
+
+		value = new DoubleStorage((long) n * (bandwidth + 1), isMapped);
+
+		int[] pos1 = entries.getPos1Array();
+		int[] pos2 = entries.getPos2Array();
+		double[] IF = entries.getIFArray();
+		for(int k = 0; k < entries.size(); k++){
+			long index = index(pos1[k], pos2[k]);
+			if (isSummed){
+				value.add(index, IF[k]);
+			}else{
+				value.set(index, IF[k]);
+			}
+		}
+	}
+
+	//i <= j <= i + bandwidth
+	private long index(int i, int j){
+		return (long) i * (bandwidth + 1) + j - i;
+	}
+
+	@Override
+	public double get(int i, int j) {
+		if (i > j){
+			int t = i;
+			i = j;
+			j = t;
+		}
+		if (j - i > bandwidth) return 0;
+		return value.get(index(i, j));
+	}
+
+	@Override
+	public void forEachEntry(int fromRow, int toRow, EntryVisitor visitor) {
+		for(int i = fromRow; i < toRow; i++){
+			int last = Math.min(n - 1, i + bandwidth);
+			long index = index(i, i);
+			for(int j = i; j <= last; j++, index++){
+				double v = value.get(index);
+				if (v != 0) visitor.visit(i, j, v);
+			}
+		}
+	}
+
+	@Override
+	public long memorySize() {
+		return memorySize(n, bandwidth);
+	}
+
+	@Override
+	public boolean isMapped() {
+		return value.isMapped();
+	}
+
+	/**
+	 *
+	 * @param n
+	 * @param bandwidth
+	 * @return bytes taken by a banded matrix
+	 */
+	static long memorySize(int n, int bandwidth){
+		return 8L * n * (bandwidth + 1);
+	}
+
+	public int getBandwidth() {
+		return bandwidth;
+	}
+}
@@ -0,0 +1,109 @@
+package edu.missouri.chenglab.hicdata;
+
+import java.io.IOException;
+
+import edu.missouri.chenglab.lordg.valueObject.ConstraintTable;
+
+/**
+ * Contact matrix stored as dense blocks of BLOCK_SIZE x BLOCK_SIZE bins, only blocks of the upper triangle that have contacts
+ * are allocated. blockSlot[bi * nbrBlockRow + bj] is the slot of block (bi, bj) in the storage, -1 if the block is empty.
+ * A matrix with contacts everywhere is an ordinary dense matrix (half of it)
+ *
+ */
+public class BlockContactMatrix extends ContactMatrix {
+
+	private static final int BLOCK_AREA = BLOCK_SIZE * BLOCK_SIZE;
+
+	private int nbrBlockRow;
+	private int[] blockSlot;
+
+	private DoubleStorage value;
+
+	/**
+	 *
+	 * @param positions: genomic position (or index) of each bin
+	 * @param entries: pos1 <= pos2 are indices of bins
+	 * @param blockSlot: slots of blocks with entries, numbered from 0, -1 for empty blocks
+	 * @param nbrBlock: number of blocks with entries
+	 * @param isSummed: entries between the same bins are summed if true, the last one is kept otherwise
+	 * @param isMapped: keep entries in a memory-mapped file
+	 * @throws IOException
+	 */
+	BlockContactMatrix(int[] positions, ConstraintTable entries, int[] blockSlot, int nbrBlock, boolean isSummed, boolean isMapped) throws IOException{
+		this.positions = positions;
+		this.n = positions.length;
+		this.nbrBlockRow = (n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		this.blockSlot = blockSlot;
+
+		value = new DoubleStorage((long) nbrBlock * BLOCK_AREA, isMapped);
+
+		int[] pos1 = entries.getPos1Array();
+		int[] pos2 = entries.getPos2Array();
+		double[] IF = entries.getIFArray();
+		for(int k = 0; k < entries.size(); k++){
+			long index = index(pos1[k], pos2[k]);
+			if (isSummed){
+				value.add(index, IF[k]);
+			}else{
+				value.set(index, IF[k]);
+			}
+		}
+	}
+
+	//i <= j, -1 if the block of (i, j) is empty
+	private long index(int i, int j){
+		int slot = blockSlot[i / BLOCK_SIZE * nbrBlockRow + j / BLOCK_SIZE];
+		if (slot < 0) return -1;
+		return (long) slot * BLOCK_AREA + i % BLOCK_SIZE * BLOCK_SIZE + j % BLOCK_SIZE;
+	}
+
+	@Override
+	public double get(int i, int j) {
+		if (i > j){
+			int t = i;
+			i = j;
+			j = t;
+		}
+		long index = index(i, j);
+		return index < 0 ? 0 : value.get(index);
+	}
+
+	@Override
+	public void forEachEntry(int fromRow, int toRow, EntryVisitor visitor) {
+		for(int i = fromRow; i < toRow; i++){
+			int bi = i / BLOCK_SIZE;
+			for(int bj = bi; bj < nbrBlockRow; bj++){
+				int slot = blockSlot[bi * nbrBlockRow + bj];
+				if (slot < 0) continue;
+
+				int j = Math.max(i, bj * BLOCK_SIZE);
+				int last = Math.min(n, (bj + 1) * BLOCK_SIZE);
+				long index = (long) slot * BLOCK_AREA + i % BLOCK_SIZE * BLOCK_SIZE + j % BLOCK_SIZE;
+				for(; j < last; j++, index++){
+					double v = value.get(index);
+					if (v != 0) visitor.visit(i, j, v);
+				}
+			}
+		}
+	}
+
+	@Override
+	public long memorySize() {
+		return memorySize(nbrBlockRow, (int)(value.length() / BLOCK_AREA));
+	}
+
+	@Override
+	public boolean isMapped() {
+		return value.isMapped();
+	}
+
+	/**
+	 *
+	 * @param nbrBlockRow
+	 * @param nbrBlock: number of allocated blocks
+	 * @return bytes taken by a block matrix
+	 */
+	static long memorySize(int nbrBlockRow, int nbrBlock){
+		return 8L * nbrBlock * BLOCK_AREA + 4L * nbrBlockRow * nbrBlockRow;
+	}
+}
@@ -0,0 +1,293 @@
+package edu.missouri.chenglab.hicdata;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+import edu.missouri.chenglab.lordg.utility.ContactListReader;
+import edu.missouri.chenglab.lordg.valueObject.ConstraintTable;
+
+/**
+ * Symmetric contact matrix shared by the Hi-C tools (normalization, ClusterTAD, heatmap, evaluation).
+ * Only the upper triangle (i <= j) is stored, by one of three backends chosen by create() from the size and the density of the contacts:
+ * SparseContactMatrix: compressed sparse rows, for scattered contacts
+ * BandedContactMatrix: the diagonals up to the largest distance between contacting bins, for contacts near the diagonal
+ * BlockContactMatrix: dense blocks of BLOCK_SIZE x BLOCK_SIZE bins, only blocks with contacts are allocated, for dense matrices
+ *
+ * The banded and block backends are memory-mapped when they would take more than getMappedThreshold() bytes.
+ * Entries are read by get() or visited without boxing by forEachEntry() (normalization, evaluation).
+ * The heatmap and ClusterTAD display, transform and cluster whole dense arrays, they copy the matrix with toDense() after loading it
+ *
+ */
+public abstract class ContactMatrix {
+
+	//rows and columns of a block of BlockContactMatrix
+	public static final int BLOCK_SIZE = 128;
+
+	//no block backend when the index of blocks would be larger than this
+	private static final long MAX_BLOCK_INDEX_SIZE = 1 << 26;
+
+	//backends taking more than this (bytes) are memory-mapped
+	private static long mappedThreshold = Runtime.getRuntime().maxMemory() / 4;
+
+	protected int n;
+
+	//genomic position (or index) of each bin, sorted
+	protected int[] positions;
+
+	/**
+	 * receives entries of the upper triangle
+	 */
+	public interface EntryVisitor {
+		void visit(int i, int j, double value);
+	}
+
+	/**
+	 *
+	 * @param i
+	 * @param j
+	 * @return entry (i, j), i and j in any order
+	 */
+	public abstract double get(int i, int j);
+
+	/**
+	 * Visit non-zero entries (i, j) of the upper triangle, j >= i, of rows [fromRow, toRow), sorted by row then column
+	 * @param fromRow
+	 * @param toRow
+	 * @param visitor
+	 */
+	public abstract void forEachEntry(int fromRow, int toRow, EntryVisitor visitor);
+
+	/**
+	 *
+	 * @return bytes taken by the entries
+	 */
+	public abstract long memorySize();
+
+	/**
+	 *
+	 * @return true if entries are in a memory-mapped file
+	 */
+	public boolean isMapped(){
+		return false;
+	}
+
+	/**
+	 * Visit all non-zero entries of the upper triangle
+	 * @param visitor
+	 */
+	public void forEachEntry(EntryVisitor visitor){
+		forEachEntry(0, n, visitor);
+	}
+
+	/**
+	 *
+	 * @return the whole symmetric matrix as a dense array
+	 */
+	public double[][] toDense(){
+		return toDense(0, n);
+	}
+
+	/**
+	 *
+	 * @param from
+	 * @param to
+	 * @return the symmetric block of bins [from, to) as a dense array
+	 */
+	public double[][] toDense(final int from, final int to){
+		final double[][] a = new double[to - from][to - from];
+		forEachEntry(from, to, new EntryVisitor() {
+			@Override
+			public void visit(int i, int j, double value) {
+				if (j < to){
+					a[i - from][j - from] = value;
+					a[j - from][i - from] = value;
+				}
+			}
+		});
+		return a;
+	}
+
+	public int size() {
+		return n;
+	}
+
+	public int[] getPositions() {
+		return positions;
+	}
+
+	/**
+	 * Build the matrix with the backend that takes the least memory
+	 * @param entries: pos1 <= pos2 are indices of bins (not genomic positions), entries are modified
+	 * @param positions: genomic position (or index) of each bin, sorted
+	 * @param isSummed: entries between the same bins are summed if true, the last one is kept otherwise
+	 * @return
+	 * @throws IOException if a memory-mapped file can't be created
+	 */
+	public static ContactMatrix create(ConstraintTable entries, int[] positions, boolean isSummed) throws IOException{
+		int n = positions.length;
+		int size = entries.size();
+		int[] pos1 = entries.getPos1Array();
+		int[] pos2 = entries.getPos2Array();
+
+		int bandwidth = 0;
+		for(int k = 0; k < size; k++){
+			bandwidth = Math.max(bandwidth, pos2[k] - pos1[k]);
+		}
+
+		//blocks with contacts, numbered by row then column
+		int nbrBlockRow = (n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		int[] blockSlot = null;
+		int nbrBlock = 0;
+		if ((long) nbrBlockRow * nbrBlockRow <= MAX_BLOCK_INDEX_SIZE){
+			blockSlot = new int[nbrBlockRow * nbrBlockRow];
+			for(int k = 0; k < size; k++){
+				blockSlot[pos1[k] / BLOCK_SIZE * nbrBlockRow + pos2[k] / BLOCK_SIZE] = 1;
+			}
+			for(int b = 0; b < blockSlot.length; b++){
+				blockSlot[b] = blockSlot[b] == 1 ? nbrBlock++ : -1;
+			}
+		}
+
+		long sparseSize = SparseContactMatrix.memorySize(n, size);
+		long bandedSize = BandedContactMatrix.memorySize(n, bandwidth);
+		long blockSize = blockSlot == null ? Long.MAX_VALUE : BlockContactMatrix.memorySize(nbrBlockRow, nbrBlock);
+
+		ContactMatrix matrix;
+		if (blockSize <= bandedSize && blockSize <= sparseSize){
+			matrix = new BlockContactMatrix(positions, entries, blockSlot, nbrBlock, isSummed, blockSize > mappedThreshold);
+		}else if (bandedSize <= sparseSize){
+			blockSlot = null;
+			matrix = new BandedContactMatrix(positions, entries, bandwidth, isSummed, bandedSize > mappedThreshold);
+		}else{
+			blockSlot = null;
+			matrix = new SparseContactMatrix(positions, pos1, pos2, entries.getIFArray(), size, isSummed);
+		}
+
+		System.out.printf("Contact matrix: %d bins, %d contacts, %s, %.1f MB%s\n", n, size, matrix.getClass().getSimpleName(),
+				matrix.memorySize() / 1e6, matrix.isMapped() ? " memory-mapped" : "");
+
+		return matrix;
+	}
+
+	/**
+	 * Read a contact list (pos1 pos2 IF), contacts on the diagonal are kept, NaN contacts are skipped,
+	 * a contact listed twice keeps its last value
+	 * @param fileName
+	 * @param nbrThread: threads to parse the file, 0 to use all processors
+	 * @return matrix whose bins are the sorted distinct positions of the file
+	 * @throws Exception
+	 */
+	public static ContactMatrix readContactList(String fileName, int nbrThread) throws Exception{
+		ContactListReader reader = new ContactListReader(nbrThread, null);
+		reader.setDiagonalKept(true);
+		ConstraintTable table = reader.read(fileName, Double.NEGATIVE_INFINITY);
+		int[] positions = reader.getPositions();
+
+		//genomic positions to bins
+		int[] pos1 = table.getPos1Array();
+		int[] pos2 = table.getPos2Array();
+		for(int k = 0; k < table.size(); k++){
+			pos1[k] = Arrays.binarySearch(positions, pos1[k]);
+			pos2[k] = Arrays.binarySearch(positions, pos2[k]);
+		}
+
+		return create(table, positions, false);
+	}
+
+	/**
+	 * Read a square symmetric matrix, one row per line, values separated by spaces or tabs, NaN values are 0.
+	 * Every row is parsed, the lower triangle must be the transpose of the upper triangle
+	 * @param fileName
+	 * @return matrix whose bins are the row indices
+	 * @throws Exception if the matrix is not square or not symmetric
+	 */
+	public static ContactMatrix readMatrix(String fileName) throws Exception{
+		ConstraintTable entries = new ConstraintTable();
+		//non-zero values below the diagonal, transposed, to be compared with the upper triangle
+		ConstraintTable lower = new ConstraintTable();
+		Pattern splitRegex = Pattern.compile("[\\s]+");
+		String ln;
+		String[] st;
+		double v;
+		int n = -1, i = 0, nbrUpper = 0;
+
+		BufferedReader br = null;
+		try{
+			br = new BufferedReader(new FileReader(fileName), 1 << 20);
+			while((ln = br.readLine()) != null){
+				ln = ln.trim();
+				if (ln.isEmpty()) continue;
+
+				st = splitRegex.split(ln);
+				if (n < 0) n = st.length;
+				if (st.length != n){
+					throw new Exception("Row " + (i + 1) + " has " + st.length + " values, " + n + " are expected");
+				}
+				if (i == n){
+					throw new Exception("The matrix is not square, it has more than " + n + " rows");
+				}
+
+				for(int j = 0; j < n; j++){
+					v = Double.parseDouble(st[j]);
+					if (v == 0 || Double.isNaN(v)) continue;
+
+					if (j < i){
+						lower.add(j, i, v);
+					}else{
+						entries.add(i, j, v);
+						if (j > i) nbrUpper++;
+					}
+				}
+				i++;
+			}
+
+			n = Math.max(n, 0);
+			if (i != n){
+				throw new Exception("The matrix is not square: " + i + " rows, " + n + " columns");
+			}
+			if (lower.size() != nbrUpper){
+				throw new Exception("The matrix is not symmetric: " + nbrUpper + " non-zero values above the diagonal, " + lower.size() + " below");
+			}
+		}catch(Exception ex){
+			ex.printStackTrace();
+			throw ex;
+		}finally{
+			if (br != null){
+				br.close();
+			}
+		}
+
+		int[] positions = new int[n];
+		for(int k = 0; k < n; k++){
+			positions[k] = k;
+		}
+		ContactMatrix matrix = create(entries, positions, false);
+
+		//as many values on both sides, every value below the diagonal must have its mirror
+		for(int k = 0; k < lower.size(); k++){
+			int row = lower.getPos1(k), col = lower.getPos2(k);
+			if (matrix.get(row, col) != lower.getIF(k)){
+				Exception ex = new Exception("The matrix is not symmetric: value " + matrix.get(row, col) + " at row " + (row + 1) + ", column " + (col + 1)
+						+ " and " + lower.getIF(k) + " at row " + (col + 1) + ", column " + (row + 1));
+				ex.printStackTrace();
+				throw ex;
+			}
+		}
+		return matrix;
+	}
+
+	/**
+	 *
+	 * @return backends taking more than this (bytes) are memory-mapped
+	 */
+	public static long getMappedThreshold() {
+		return mappedThreshold;
+	}
+
+	public static void setMappedThreshold(long mappedThreshold) {
+		ContactMatrix.mappedThreshold = mappedThreshold;
+	}
+}
@@ -0,0 +1,91 @@
+package edu.missouri.chenglab.hicdata;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Array of doubles indexed by long, kept either on the heap or in a memory-mapped temporary file,
+ * so values of large contact matrices can be paged by the operating system instead of taking heap.
+ * The temporary file is mapped in segments of SEGMENT_SIZE doubles and deleted when it is no longer needed.
+ * Values are 0 initially
+ *
+ */
+class DoubleStorage {
+
+	//doubles per mapped segment (1 GB)
+	private static final int SEGMENT_SHIFT = 27;
+	private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+	private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+	//largest array on the heap
+	private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+	private long length;
+
+	//values on the heap, null if the storage is mapped
+	private double[] heap;
+
+	private DoubleBuffer[] segments;
+
+	/**
+	 *
+	 * @param length
+	 * @param isMapped: keep values in a memory-mapped temporary file, arrays too large for the heap are always mapped
+	 * @throws IOException
+	 */
+	DoubleStorage(long length, boolean isMapped) throws IOException{
+		this.length = length;
+		if (!isMapped && length <= MAX_ARRAY_SIZE){
+			heap = new double[(int) length];
+			return;
+		}
+
+		File file = File.createTempFile("contacts", ".tmp");
+		file.deleteOnExit();
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try{
+			raf.setLength(8 * length);
+			FileChannel channel = raf.getChannel();
+
+			segments = new DoubleBuffer[(int)((length + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT)];
+			for(int s = 0; s < segments.length; s++){
+				long start = (long) s << SEGMENT_SHIFT;
+				long size = Math.min(SEGMENT_SIZE, length - start);
+				segments[s] = channel.map(FileChannel.MapMode.READ_WRITE, 8 * start, 8 * size).asDoubleBuffer();
+			}
+		}finally{
+			raf.close();
+		}
+
+		//mappings stay valid after the file is deleted (not on every system, the file is deleted on exit then)
+		file.delete();
+	}
+
+	double get(long k){
+		if (heap != null) return heap[(int) k];
+		return segments[(int)(k >>> SEGMENT_SHIFT)].get((int)(k & SEGMENT_MASK));
+	}
+
+	void set(long k, double value){
+		if (heap != null){
+			heap[(int) k] = value;
+		}else{
+			segments[(int)(k >>> SEGMENT_SHIFT)].put((int)(k & SEGMENT_MASK), value);
+		}
+	}
+
+	void add(long k, double value){
+		set(k, get(k) + value);
+	}
+
+	long length(){
+		return length;
+	}
+
+	boolean isMapped(){
+		return heap == null;
+	}
+}
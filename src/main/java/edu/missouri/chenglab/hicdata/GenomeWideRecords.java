@@ -0,0 +1,350 @@
+package edu.missouri.chenglab.hicdata;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.broad.igv.Globals;
+import org.broad.igv.feature.Chromosome;
+
+import edu.missouri.chenglab.lordg.valueObject.ConstraintTable;
+import juicebox.data.ContactRecord;
+import juicebox.data.Dataset;
+import juicebox.data.Matrix;
+import juicebox.data.MatrixZoomData;
+import juicebox.tools.utils.original.NormalizationCalculations;
+import juicebox.windowui.HiCZoom;
+import juicebox.windowui.NormalizationType;
+
+/**
+ * Records of the "whole-genome" matrix (All vs All) of a .hic file, used by the genome-wide dump of ReadHiCData
+ * and by HiCContactReader.
+ * Every chromosome pair is a block whose records are shifted by the first bins of the chromosomes, blocks are read
+ * by tasks of an executor and written (or merged) in the order of the dump.
+ * The normalization vector is computed by juicebox NormalizationCalculations from all records, so normalized dumps
+ * need all records in memory (O(records)); only raw dumps (NONE) are streamed with flat memory.
+ */
+final class GenomeWideRecords {
+
+    // records are formatted in chunks of about this size (bytes)
+    private static final int CHUNK_SIZE = 1 << 20;
+    // chunks a block can have ahead of the writer
+    private static final int QUEUED_CHUNKS = 4;
+    // marks the end of the chunks of a block
+    private static final byte[] END_OF_BLOCK = new byte[0];
+
+    private GenomeWideRecords() {
+    }
+
+    /**
+     * A chromosome pair of the whole-genome matrix, its records are shifted by the first bins of the chromosomes
+     */
+    static class GenomeBlock {
+        final Iterable<ContactRecord> records;
+        final int addX;
+        final int addY;
+
+        GenomeBlock(Iterable<ContactRecord> records, int addX, int addY) {
+            this.records = records;
+            this.addX = addX;
+            this.addY = addY;
+        }
+    }
+
+    /**
+     * Read records of the whole-genome matrix into a table, the same ones a genome-wide dump would write (x, y, value),
+     * without the dump: blocks are read by nbrThread tasks and normalized on the fly
+     * @param thr: only records with value > thr are kept
+     * @param isDiagonalKept: keep records with x == y
+     * @param nbrThread: number of blocks read at the same time, 0 to use all processors
+     * @return records, x <= y are bins of the whole-genome matrix, in the order of the dump
+     * @throws Exception
+     */
+    static ConstraintTable readGenomeWideData(Dataset dataset, List<Chromosome> chromosomeList, boolean includeIntra,
+                                              HiCZoom zoom, NormalizationType norm, double thr, boolean isDiagonalKept,
+                                              int nbrThread) throws Exception {
+        nbrThread = nbrThread > 0 ? nbrThread : Runtime.getRuntime().availableProcessors();
+
+        List<Chromosome> chromosomes = getGenomeChromosomes(chromosomeList);
+        int[] offsets = getGenomeOffsets(chromosomes, zoom);
+
+        List<GenomeBlock> blocks = createWholeGenomeBlocks(dataset, chromosomes, offsets, zoom, includeIntra);
+        double[] vector = getGenomeWideVector(blocks, offsets[chromosomes.size()], norm);
+
+        ExecutorService executor = Executors.newFixedThreadPool(nbrThread);
+        try {
+            return readBlocks(blocks, vector, thr, isDiagonalKept, executor);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Chromosomes of the whole-genome matrix, without the "All" chromosome
+     */
+    static List<Chromosome> getGenomeChromosomes(List<Chromosome> chromosomeList) {
+        List<Chromosome> chromosomes = new ArrayList<Chromosome>();
+        for (Chromosome c : chromosomeList) {
+            if (!c.getName().equals(Globals.CHR_ALL)) chromosomes.add(c);
+        }
+        return chromosomes;
+    }
+
+    /**
+     * First bin of every chromosome in the "whole-genome" matrix, the last element is the number of bins
+     */
+    static int[] getGenomeOffsets(List<Chromosome> chromosomes, HiCZoom zoom) {
+        int[] offsets = new int[chromosomes.size() + 1];
+        for (int i = 0; i < chromosomes.size(); i++) {
+            offsets[i + 1] = offsets[i] + chromosomes.get(i).getLength() / zoom.getBinSize() + 1;
+        }
+        return offsets;
+    }
+
+    /**
+     * Chromosome pairs of the whole-genome matrix, in the order of the output, matrices are read here so that tasks only read records
+     */
+    static List<GenomeBlock> createWholeGenomeBlocks(Dataset dataset, List<Chromosome> chromosomes, int[] offsets,
+                                                     HiCZoom zoom, boolean includeIntra) {
+        List<GenomeBlock> blocks = new ArrayList<GenomeBlock>();
+        for (int i = 0; i < chromosomes.size(); i++) {
+            Chromosome c1 = chromosomes.get(i);
+            for (int j = 0; j < chromosomes.size(); j++) {
+                Chromosome c2 = chromosomes.get(j);
+                if (c1.getIndex() < c2.getIndex() || (c1.equals(c2) && includeIntra)) {
+                    Matrix matrix = dataset.getMatrix(c1, c2);
+                    if (matrix != null) {
+                        final MatrixZoomData zd = matrix.getZoomData(zoom);
+                        if (zd != null) {
+                            Iterable<ContactRecord> records = new Iterable<ContactRecord>() {
+                                @Override
+                                public Iterator<ContactRecord> iterator() {
+                                    return zd.contactRecordIterator();
+                                }
+                            };
+                            blocks.add(new GenomeBlock(records, offsets[i], offsets[j]));
+                        }
+                    }
+                }
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * Genome-wide normalization vector, normalized count (x, y) = count / (vector[x] * vector[y]),
+     * computed by NormalizationCalculations from all records of the whole-genome matrix
+     * @param totalSize: number of bins of the whole-genome matrix
+     * @return null for NONE, counts are kept raw
+     * @throws Exception if the normalization is not supported
+     */
+    static double[] getGenomeWideVector(List<GenomeBlock> blocks, int totalSize, NormalizationType norm) throws Exception {
+        if (norm == null || norm == NormalizationType.NONE) return null;
+
+        System.out.println("Computing genome-wide " + norm + " vector ...");
+        NormalizationCalculations calculations = new NormalizationCalculations(collectRecords(blocks), totalSize);
+        double[] vector = calculations.getNorm(norm);
+        if (vector == null) throw new Exception("Genome-wide " + norm + " normalization is not supported");
+
+        return vector;
+    }
+
+    /**
+     * All records of the blocks, shifted, in the order of the blocks
+     */
+    static ArrayList<ContactRecord> collectRecords(List<GenomeBlock> blocks) {
+        ArrayList<ContactRecord> recordArrayList = new ArrayList<ContactRecord>();
+        for (GenomeBlock block : blocks) {
+            for (ContactRecord cr : block.records) {
+                recordArrayList.add(new ContactRecord(cr.getBinX() + block.addX, cr.getBinY() + block.addY, cr.getCounts()));
+            }
+        }
+        return recordArrayList;
+    }
+
+    /**
+     * Write records of all blocks, blocks are formatted by tasks of the executor and written in order.
+     * Block b + nbrThread is submitted when block b is written, so at most nbrThread blocks are in flight,
+     * each with at most QUEUED_CHUNKS chunks
+     * @param blocks
+     * @param vector: genome-wide normalization vector, null for raw counts
+     * @param ofile: text (x, y, value per line), or little-endian binary (int x, int y, float value per record)
+     *             if it ends with .bin, standard out if null
+     * @param nbrThread: number of blocks formatted at the same time
+     * @param executor
+     * @return number of records
+     * @throws Exception
+     */
+    static long writeGenomeWideRecords(List<GenomeBlock> blocks, double[] vector, String ofile, int nbrThread,
+                                       ExecutorService executor) throws Exception {
+        boolean isBinary = ofile != null && ofile.endsWith(".bin");
+        int nbrBlock = blocks.size();
+
+        List<BlockingQueue<byte[]>> queues = new ArrayList<BlockingQueue<byte[]>>();
+        List<Future<Long>> futures = new ArrayList<Future<Long>>();
+        for (int b = 0; b < Math.min(nbrThread, nbrBlock); b++) {
+            submitFormatting(blocks.get(b), vector, isBinary, queues, futures, executor);
+        }
+
+        OutputStream out = ofile != null ? new BufferedOutputStream(new FileOutputStream(ofile), CHUNK_SIZE) : System.out;
+        long nbrRecord = 0;
+        try {
+            for (int b = 0; b < nbrBlock; b++) {
+                byte[] chunk;
+                while ((chunk = queues.get(b).take()) != END_OF_BLOCK) {
+                    out.write(chunk);
+                }
+                nbrRecord += futures.get(b).get();
+                queues.set(b, null);
+
+                if (b + nbrThread < nbrBlock) {
+                    submitFormatting(blocks.get(b + nbrThread), vector, isBinary, queues, futures, executor);
+                }
+            }
+            out.flush();
+        } finally {
+            if (ofile != null) out.close();
+        }
+
+        System.out.println(nbrRecord + " records of " + nbrBlock + " chromosome pairs are written");
+        return nbrRecord;
+    }
+
+    /**
+     * Submit a task formatting the block, its queue and future are appended to queues and futures
+     */
+    private static void submitFormatting(final GenomeBlock block, final double[] vector, final boolean isBinary,
+                                         List<BlockingQueue<byte[]>> queues, List<Future<Long>> futures,
+                                         ExecutorService executor) {
+        final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<byte[]>(QUEUED_CHUNKS);
+        queues.add(queue);
+        futures.add(executor.submit(new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+                try {
+                    return formatRecords(block, vector, isBinary, queue);
+                } finally {
+                    queue.put(END_OF_BLOCK);
+                }
+            }
+        }));
+    }
+
+    /**
+     * Normalize and format records of a block into chunks
+     * @return number of records
+     */
+    private static long formatRecords(GenomeBlock block, double[] vector, boolean isBinary,
+                                      BlockingQueue<byte[]> queue) throws InterruptedException {
+        String lineSeparator = System.lineSeparator();
+        StringBuilder sb = isBinary ? null : new StringBuilder(CHUNK_SIZE + 64);
+        ByteBuffer buf = isBinary ? ByteBuffer.allocate(CHUNK_SIZE).order(ByteOrder.LITTLE_ENDIAN) : null;
+
+        long count = 0;
+        for (ContactRecord cr : block.records) {
+            int x = cr.getBinX() + block.addX;
+            int y = cr.getBinY() + block.addY;
+            float value = normalize(cr.getCounts(), vector, x, y);
+
+            if (isBinary) {
+                if (buf.remaining() < 12) {
+                    queue.put(Arrays.copyOf(buf.array(), buf.position()));
+                    buf.clear();
+                }
+                buf.putInt(x);
+                buf.putInt(y);
+                buf.putFloat(value);
+            } else {
+                sb.append(x).append('\t').append(y).append('\t').append(value).append(lineSeparator);
+                if (sb.length() >= CHUNK_SIZE) {
+                    queue.put(sb.toString().getBytes());
+                    sb.setLength(0);
+                }
+            }
+            count++;
+        }
+
+        if (isBinary && buf.position() > 0) {
+            queue.put(Arrays.copyOf(buf.array(), buf.position()));
+        } else if (!isBinary && sb.length() > 0) {
+            queue.put(sb.toString().getBytes());
+        }
+        return count;
+    }
+
+    /**
+     * @param vector: genome-wide normalization vector, null for raw counts
+     * @return (float) (count / (vector[x] * vector[y])), NaN if the vector is 0 or NaN at x or y
+     */
+    static float normalize(float counts, double[] vector, int x, int y) {
+        if (vector == null) return counts;
+        if (vector[x] != 0 && vector[y] != 0 && !Double.isNaN(vector[x]) && !Double.isNaN(vector[y])) {
+            return (float) (counts / (vector[x] * vector[y]));
+        }
+        return Float.NaN;
+    }
+
+    /**
+     * Read records of all blocks into one table, blocks are read by tasks of the executor and merged in order
+     * @param vector: genome-wide normalization vector, null for raw counts
+     * @param thr: only records with value > thr are kept, records with a NaN value are skipped
+     * @param isDiagonalKept: keep records with x == y
+     * @throws Exception
+     */
+    static ConstraintTable readBlocks(List<GenomeBlock> blocks, final double[] vector, final double thr,
+                                      final boolean isDiagonalKept, ExecutorService executor) throws Exception {
+        List<Future<ConstraintTable>> futures = new ArrayList<Future<ConstraintTable>>();
+        for (final GenomeBlock block : blocks) {
+            futures.add(executor.submit(new Callable<ConstraintTable>() {
+                @Override
+                public ConstraintTable call() throws Exception {
+                    ConstraintTable table = new ConstraintTable();
+                    for (ContactRecord cr : block.records) {
+                        int x = cr.getBinX() + block.addX;
+                        int y = cr.getBinY() + block.addY;
+                        float value = normalize(cr.getCounts(), vector, x, y);
+                        if ((isDiagonalKept || x != y) && !Float.isNaN(value) && value > thr) {
+                            table.add(x, y, value);
+                        }
+                    }
+                    return table;
+                }
+            }));
+        }
+
+        ConstraintTable[] tables = new ConstraintTable[blocks.size()];
+        long total = 0;
+        for (int b = 0; b < tables.length; b++) {
+            tables[b] = futures.get(b).get();
+            total += tables[b].size();
+        }
+        if (total > Integer.MAX_VALUE - 8) throw new Exception("Too many records in the whole-genome matrix: " + total);
+
+        int size = (int) total;
+        int[] pos1 = new int[Math.max(size, 1)];
+        int[] pos2 = new int[Math.max(size, 1)];
+        double[] values = new double[Math.max(size, 1)];
+        int k = 0;
+        for (int b = 0; b < tables.length; b++) {
+            int n = tables[b].size();
+            System.arraycopy(tables[b].getPos1Array(), 0, pos1, k, n);
+            System.arraycopy(tables[b].getPos2Array(), 0, pos2, k, n);
+            System.arraycopy(tables[b].getIFArray(), 0, values, k, n);
+            k += n;
+            tables[b] = null;
+        }
+        return new ConstraintTable(pos1, pos2, values, size);
+    }
+}
@@ -0,0 +1,222 @@
+package edu.missouri.chenglab.hicdata;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.broad.igv.Globals;
+import org.broad.igv.feature.Chromosome;
+
+import edu.missouri.chenglab.lordg.utility.ContactSource;
+import edu.missouri.chenglab.lordg.valueObject.ConstraintTable;
+import juicebox.HiC;
+import juicebox.data.ContactRecord;
+import juicebox.data.Dataset;
+import juicebox.data.HiCFileTools;
+import juicebox.data.Matrix;
+import juicebox.data.MatrixZoomData;
+import juicebox.data.NormalizationVector;
+import juicebox.windowui.HiCZoom;
+import juicebox.windowui.NormalizationType;
+
+/**
+ * Read contacts of a .hic file straight into the primitive arrays of the structure engines (LorDG, 3DMax),
+ * records go from the juicebox iterator to the ConstraintTable, normalized on the fly, instead of being dumped
+ * as text (ExtractHiCWorker) and parsed back (ContactListReader).
+ *
+ * Contacts are the ones the text dump of ReadHiCData would give to ContactListReader:
+ * for a chromosome pair, positions are the starts of bins (bin * bin size) and records outside the region are skipped,
+ * for All vs All, positions are bins of the whole-genome matrix.
+ * The LorDG and 3DMax commands set one as the contact source of their input parameters when their input is a .hic file.
+ * It keeps no state between reads, so it can be read again for another run
+ *
+ */
+public class HiCContactReader implements ContactSource {
+
+	private Dataset dataset;
+	private Chromosome chr1;
+	private Chromosome chr2;
+	private HiCZoom zoom;
+	private NormalizationType norm;
+
+	//region of chr1 (regionIndices[0], regionIndices[1]) and chr2 (regionIndices[2], regionIndices[3]) in bp, null for whole chromosomes
+	private int[] regionIndices = null;
+
+	//blocks of the whole-genome matrix read at the same time, 0 to use all processors
+	private int nbrThread = 0;
+
+	/**
+	 *
+	 * @param dataset
+	 * @param chr1
+	 * @param chr2
+	 * @param zoom
+	 * @param norm: NONE for raw counts
+	 */
+	public HiCContactReader(Dataset dataset, Chromosome chr1, Chromosome chr2, HiCZoom zoom, NormalizationType norm){
+		this.dataset = dataset;
+		this.chr1 = chr1;
+		this.chr2 = chr2;
+		this.zoom = zoom;
+		this.norm = norm;
+	}
+
+	/**
+	 * Reader of a chromosome, or a region of it, of a .hic file
+	 * @param hicFile
+	 * @param chrom: name of the chromosome, with or without "chr"
+	 * @param binSize: resolution (bp)
+	 * @param norm: NONE, KR, VC, VC_SQRT ...
+	 * @param region: start and end of the region (bp), null for the whole chromosome
+	 * @return
+	 * @throws Exception if the chromosome or the normalization is unknown
+	 */
+	public static HiCContactReader open(String hicFile, String chrom, int binSize, String norm, int[] region) throws Exception{
+		Dataset dataset = HiCFileTools.extractDatasetForCLT(Arrays.asList(hicFile), false);
+
+		Chromosome chr = null;
+		for(Chromosome c : dataset.getChromosomes()){
+			String name = c.getName();
+			if (name.equalsIgnoreCase(chrom) || name.equalsIgnoreCase("chr" + chrom) || ("chr" + name).equalsIgnoreCase(chrom)){
+				chr = c;
+				break;
+			}
+		}
+		if (chr == null) throw new Exception("Chromosome " + chrom + " is not in " + hicFile);
+
+		NormalizationType normalization = NormalizationType.enumValueFromString(norm);
+		if (normalization == null) throw new Exception("Unknown normalization: " + norm);
+
+		HiCContactReader reader = new HiCContactReader(dataset, chr, chr, new HiCZoom(HiC.Unit.BP, binSize), normalization);
+		if (region != null){
+			reader.setRegionIndices(new int[]{region[0], region[1], region[0], region[1]});
+		}
+		return reader;
+	}
+
+	@Override
+	public ConstraintTable read(double thr) throws Exception{
+		long startTime = System.currentTimeMillis();
+
+		System.out.println("Reading contacts from the .hic file ......");
+
+		ConstraintTable table;
+		try{
+			if (chr1.getName().equals(Globals.CHR_ALL) && chr2.getName().equals(Globals.CHR_ALL)){
+				table = GenomeWideRecords.readGenomeWideData(dataset, dataset.getChromosomes(), true, zoom, norm, thr, false, nbrThread);
+			}else{
+				table = readMatrix(thr);
+			}
+		}catch(Exception ex){
+			ex.printStackTrace();
+			throw ex;
+		}
+
+		System.out.printf("Done reading contacts: %d contacts, %.2f seconds\n", table.size(),
+				(System.currentTimeMillis() - startTime) / 1000.0);
+
+		return table;
+	}
+
+	/**
+	 * Read records of the chromosome pair, positions are starts of bins
+	 * @param thr
+	 * @return
+	 * @throws Exception
+	 */
+	private ConstraintTable readMatrix(double thr) throws Exception{
+		//x of records is in the chromosome with the smaller index
+		boolean isSwapped = chr2.getIndex() < chr1.getIndex();
+		Chromosome c1 = isSwapped ? chr2 : chr1, c2 = isSwapped ? chr1 : chr2;
+
+		Matrix matrix = dataset.getMatrix(c1, c2);
+		if (matrix == null) throw new Exception("No reads in " + c1.getName() + " " + c2.getName());
+
+		MatrixZoomData zd = matrix.getZoomData(zoom);
+		if (zd == null) throw new Exception("Unknown resolution: " + zoom);
+
+		double[] v1 = null, v2 = null;
+		if (norm != null && norm != NormalizationType.NONE){
+			v1 = getNormalizationVector(c1);
+			v2 = c1.equals(c2) ? v1 : getNormalizationVector(c2);
+		}
+
+		return readRecords(zd.contactRecordIterator(), zoom.getBinSize(), recordRegion(regionIndices, chr1, chr2), v1, v2, thr);
+	}
+
+	/**
+	 * Region in the coordinates of records, where x is in the chromosome with the smaller index (as in MatrixZoomData.dump)
+	 * @param region: start and end of chr1, start and end of chr2 (bp), null for whole chromosomes
+	 * @return region of x then y, null for whole chromosomes
+	 */
+	static int[] recordRegion(int[] region, Chromosome chr1, Chromosome chr2){
+		if (region == null || chr2.getIndex() >= chr1.getIndex()) return region;
+		return new int[]{region[2], region[3], region[0], region[1]};
+	}
+
+	/**
+	 * Contacts of records, the ones the observed text dump writes and ContactListReader reads back:
+	 * positions are starts of bins, a normalized count is the float count / (v1[x] * v2[y]), NaN if a vector is 0 or NaN there.
+	 * Records with x == y or a NaN count are skipped, pos1 <= pos2 as ContactListReader gives them
+	 * @param iter
+	 * @param binSize
+	 * @param region: region of x then y (bp), null for whole chromosomes
+	 * @param v1: normalization vector of x, null for raw counts
+	 * @param v2: normalization vector of y
+	 * @param thr: only contacts with count > thr are kept
+	 * @return
+	 */
+	static ConstraintTable readRecords(Iterator<ContactRecord> iter, int binSize, int[] region, double[] v1, double[] v2, double thr){
+		ConstraintTable table = new ConstraintTable();
+		while(iter.hasNext()){
+			ContactRecord cr = iter.next();
+			int x = cr.getBinX() * binSize;
+			int y = cr.getBinY() * binSize;
+			if (region != null && (x < region[0] || x > region[1] || y < region[2] || y > region[3])) continue;
+
+			float value = cr.getCounts();
+			if (v1 != null){
+				double n1 = v1[cr.getBinX()], n2 = v2[cr.getBinY()];
+				if (n1 != 0 && n2 != 0 && !Double.isNaN(n1) && !Double.isNaN(n2)){
+					value = (float) (value / (n1 * n2));
+				}else{
+					value = Float.NaN;
+				}
+			}
+
+			if (x != y && !Float.isNaN(value) && value > thr){
+				table.add(Math.min(x, y), Math.max(x, y), value);
+			}
+		}
+		table.trimToSize();
+
+		return table;
+	}
+
+	private double[] getNormalizationVector(Chromosome chr) throws Exception{
+		NormalizationVector nv = dataset.getNormalizationVector(chr.getIndex(), zoom, norm);
+		if (nv == null || nv.getData() == null){
+			throw new Exception(norm + " normalization is not available for " + chr.getName() + " at " + zoom);
+		}
+		return nv.getData();
+	}
+
+	public int[] getRegionIndices() {
+		return regionIndices;
+	}
+
+	/**
+	 *
+	 * @param regionIndices: start and end of chr1, start and end of chr2 (bp), null for whole chromosomes
+	 */
+	public void setRegionIndices(int[] regionIndices) {
+		this.regionIndices = regionIndices;
+	}
+
+	public int getNbrThread() {
+		return nbrThread;
+	}
+
+	public void setNbrThread(int nbrThread) {
+		this.nbrThread = nbrThread;
+	}
+}
@@ -0,0 +1,227 @@
+package edu.missouri.chenglab.hicdata;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Knight-Ruiz matrix balancing (P. Knight, D. Ruiz, A fast algorithm for matrix balancing, IMA J. Numer. Anal. 2013),
+ * the inexact Newton method with conjugate gradient inner iterations of their bnewt code.
+ * It finds x such that diag(x) A diag(x) has all row sums equal to 1, using only products of A with vectors.
+ *
+ * Rows with few non-zero entries can make the balancing fail, when it doesn't converge, rows with the fewest non-zero entries
+ * are filtered out (their factor is 0) and balancing starts again, with increasing percentiles of the numbers of non-zero entries.
+ * Only vectors of the matrix size are allocated, products with the matrix are computed by the executor
+ *
+ */
+public class KnightRuizBalancer {
+
+	//percentiles of the numbers of non-zero entries of rows, rows at or below are filtered out, 0 keeps all rows
+	private static final double[] FILTER_PERCENTILES = {0, 1, 2, 3, 5, 10, 20};
+
+	//largest number of Newton iterations
+	private static final int MAX_ITERATION = 300;
+
+	//bounds of the factors of a Newton step, as in bnewt
+	private static final double DELTA_MIN = 0.1;
+	private static final double DELTA_MAX = 3;
+
+	private double tolerance;
+
+	private ExecutorService executor;
+
+	//products with the matrix of the last balancing
+	private int matrixVectorProducts;
+
+	//rows filtered out in the last balancing
+	private int nbrFiltered;
+
+	/**
+	 *
+	 * @param tolerance: balancing stops when the norm of (1 - row sums) is less than tolerance
+	 * @param executor: computes products with the matrix
+	 */
+	public KnightRuizBalancer(double tolerance, ExecutorService executor){
+		this.tolerance = tolerance;
+		this.executor = executor;
+	}
+
+	/**
+	 * Balance the matrix
+	 * @param a
+	 * @return x, with x[i] = 0 for rows filtered out
+	 * @throws Exception if the balancing fails even after filtering
+	 */
+	public double[] balance(SparseContactMatrix a) throws Exception{
+		int n = a.size();
+		int[] nonZeros = a.rowNonZeros();
+		int[] sorted = Arrays.copyOf(nonZeros, n);
+		Arrays.sort(sorted);
+
+		boolean[] isKept = new boolean[n];
+		for(double percentile : FILTER_PERCENTILES){
+			int threshold = percentile == 0 ? 0 : sorted[(int)(percentile / 100 * (n - 1))];
+
+			nbrFiltered = 0;
+			for(int i = 0; i < n; i++){
+				isKept[i] = nonZeros[i] > threshold;
+				if (!isKept[i]) nbrFiltered++;
+			}
+
+			double[] x = balance(a, isKept);
+			if (x != null) return x;
+
+			System.out.printf("KR balancing did not converge, filtering rows with at most %d non-zero entries\n", threshold);
+		}
+
+		throw new Exception("KR balancing did not converge");
+	}
+
+	/**
+	 * bnewt on the rows kept, other rows are 0 in every vector
+	 * @return null if it doesn't converge
+	 */
+	private double[] balance(SparseContactMatrix a, boolean[] isKept) throws Exception{
+		int n = a.size();
+
+		int m = 0;
+		for(int i = 0; i < n; i++){
+			if (isKept[i]) m++;
+		}
+		if (m == 0) return null;
+
+		//indices of rows kept
+		int[] rows = new int[m];
+		m = 0;
+		for(int i = 0; i < n; i++){
+			if (isKept[i]) rows[m++] = i;
+		}
+
+		double[] x = new double[n];
+		double[] v = new double[n];
+		double[] rk = new double[n];
+		double[] y = new double[n];
+		double[] z = new double[n];
+		double[] p = new double[n];
+		double[] w = new double[n];
+		double[] ax = new double[n];
+
+		for(int i : rows) x[i] = 1.0;
+
+		double g = 0.9, etamax = 0.1, eta = etamax;
+		double rt = tolerance * tolerance, stopTol = tolerance * 0.5;
+
+		a.multiply(x, ax, executor);
+		matrixVectorProducts = 1;
+
+		double rhoKm1 = 0, rhoKm2 = 0;
+		for(int i : rows){
+			v[i] = x[i] * ax[i];
+			rk[i] = 1 - v[i];
+			rhoKm1 += rk[i] * rk[i];
+		}
+		double rout = rhoKm1, rold = rout;
+
+		int iteration = 0;
+		while(rout > rt){
+			if (++iteration > MAX_ITERATION) return null;
+
+			int k = 0;
+			for(int i : rows) y[i] = 1.0;
+			double innerTol = Math.max(eta * eta * rout, rt);
+
+			while(rhoKm1 > innerTol){
+				k++;
+				if (k == 1){
+					rhoKm1 = 0;
+					for(int i : rows){
+						z[i] = rk[i] / v[i];
+						p[i] = z[i];
+						rhoKm1 += rk[i] * z[i];
+					}
+				}else{
+					double beta = rhoKm1 / rhoKm2;
+					for(int i : rows) p[i] = z[i] + beta * p[i];
+				}
+
+				//w = x .* (A (x .* p)) + v .* p
+				for(int i : rows) w[i] = x[i] * p[i];
+				a.multiply(w, ax, executor);
+				double pw = 0;
+				for(int i : rows){
+					w[i] = x[i] * ax[i] + v[i] * p[i];
+					pw += p[i] * w[i];
+				}
+				double alpha = rhoKm1 / pw;
+
+				//stay inside the cone DELTA_MIN <= y <= DELTA_MAX, the step is cut at the first bound it reaches, lower or upper
+				double minY = Double.POSITIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+				for(int i : rows){
+					double ynew = y[i] + alpha * p[i];
+					minY = Math.min(minY, ynew);
+					maxY = Math.max(maxY, ynew);
+				}
+				if (minY <= DELTA_MIN || maxY >= DELTA_MAX){
+					double gamma = Double.POSITIVE_INFINITY;
+					for(int i : rows){
+						double ap = alpha * p[i];
+						if (minY <= DELTA_MIN && ap < 0) gamma = Math.min(gamma, (DELTA_MIN - y[i]) / ap);
+						if (maxY >= DELTA_MAX && ap > 0) gamma = Math.min(gamma, (DELTA_MAX - y[i]) / ap);
+					}
+					for(int i : rows) y[i] += gamma * alpha * p[i];
+					break;
+				}
+
+				rhoKm2 = rhoKm1;
+				rhoKm1 = 0;
+				for(int i : rows){
+					y[i] += alpha * p[i];
+					rk[i] -= alpha * w[i];
+					z[i] = rk[i] / v[i];
+					rhoKm1 += rk[i] * z[i];
+				}
+			}
+
+			for(int i : rows) x[i] *= y[i];
+			a.multiply(x, ax, executor);
+			matrixVectorProducts += k + 1;
+
+			rhoKm1 = 0;
+			for(int i : rows){
+				if (Double.isNaN(x[i]) || x[i] <= 0) return null;
+				v[i] = x[i] * ax[i];
+				rk[i] = 1 - v[i];
+				rhoKm1 += rk[i] * rk[i];
+			}
+			rout = rhoKm1;
+
+			//update inner iteration stopping criterion
+			double rat = rout / rold;
+			rold = rout;
+			double resNorm = Math.sqrt(rout);
+			double etaO = eta;
+			eta = g * rat;
+			if (g * etaO * etaO > 0.1){
+				eta = Math.max(eta, g * etaO * etaO);
+			}
+			eta = Math.max(Math.min(eta, etamax), stopTol / resNorm);
+		}
+
+		return x;
+	}
+
+	/**
+	 *
+	 * @return number of products with the matrix in the last balancing
+	 */
+	public int getMatrixVectorProducts() {
+		return matrixVectorProducts;
+	}
+
+	/**
+	 *
+	 * @return number of rows filtered out in the last balancing
+	 */
+	public int getNbrFiltered() {
+		return nbrFiltered;
+	}
+}
@@ -1,54 +1,67 @@
 package edu.missouri.chenglab.hicdata;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.IOException;
-import java.io.PrintWriter;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.regex.Pattern;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import edu.missouri.chenglab.lordg.utility.ContactListReader;
+import edu.missouri.chenglab.lordg.valueObject.ConstraintTable;
 
 
 
 public class Normalization {
 	
+	//normalization methods
+	public static final int STANDARD = 1;
+	public static final int ICE = 2;
+	public static final int KR = 3;
+	
+	//largest number of iterative correction rounds
+	public static final int MAX_ITERATION = 500;
+	
+	//iterative correction stops when every bias changes by less than this fraction in a round
+	public static final double TOLERANCE = 1e-5;
+	
+	//KR balancing stops when the norm of the deviation of row sums from 1 is less than this
+	public static final double KR_TOLERANCE = 1e-6;
 	
 	public static void normalize(String input_file, String output_file, int method) throws Exception{
-		ArrayList<Integer> lstPos = new ArrayList<Integer>();
-		HashMap<Integer,Integer> hmPos = new HashMap<Integer,Integer>();
+		normalize(input_file, output_file, method, 0, method == KR ? KR_TOLERANCE : TOLERANCE);
+	}
+	
+	/**
+	 * 
+	 * @param input_file: contact list, pos1 pos2 IF
+	 * @param output_file
+	 * @param method: STANDARD, ICE or KR (other values are ICE)
+	 * @param nbrThread: 0 to use all processors
+	 * @param tolerance: convergence tolerance of iterative correction or KR balancing
+	 * @throws Exception
+	 */
+	public static void normalize(String input_file, String output_file, int method, int nbrThread, double tolerance) throws Exception{
+		nbrThread = nbrThread > 0 ? nbrThread : Runtime.getRuntime().availableProcessors();
 		
 		System.out.println("Reading input ...");
-		double[][] a = readContactData(input_file, lstPos,hmPos);
+		SparseContactMatrix a = readContactData(input_file, nbrThread);
 		
 		System.out.println("Performing normalization ...");
-		if (method == 1){
-			a = standardNorm(a);
-		}else{
-			a = ICENorm(a);
+		ExecutorService executor = Executors.newFixedThreadPool(nbrThread);
+		try{
+			if (method == STANDARD){
+				standardNorm(a, executor);
+			}else if (method == KR){
+				KRNorm(a, tolerance, executor);
+			}else{
+				ICENorm(a, tolerance, executor);
+			}
+		}finally{
+			executor.shutdown();
 		}
 		
 		System.out.println("Writing out ...");
-		writeOut(output_file,a,lstPos);
+		a.write(output_file);
 	}
 
-	public static void writeOut(String fileOut, double[][] a, ArrayList<Integer> lstPos) throws Exception{
-		PrintWriter pw = new PrintWriter(fileOut);
-		for(int i = 0; i < a.length; i++){
-			for(int j = i + 1; j < a.length; j++){
-				if (a[i][j] > 0){
-					pw.println(lstPos.get(i) + "\t" + lstPos.get(j) + "\t" + a[i][j]);
-				}
-			}			
-		}
-		pw.flush();
-		pw.close();
-		
-	}	
-
 	/**
 	 * normalize using Iterative Correction 
 	 * 
@@ -59,356 +72,192 @@ public class Normalization {
     Set W^{k+1}_{ij} = \frac{W^k_{ij}}{\Delta B_i \Delta B_j}.
     Set B^{k+1}_i = B^k_i \cdot \Delta B^k_i.
 
-
-	 * @param a
-	 * @return
+	 * Rounds stop when max |\Delta B_i - 1| < tolerance, or after MAX_ITERATION rounds.
+	 * The matrix is normalized in place
+	 * 
+	 * @param w: contact matrix
+	 * @param tolerance
+	 * @param executor: runs row sums and scaling
+	 * @return bias B of every row
+	 * @throws Exception 
 	 */
-	public static double[][] ICENorm(double[][] a){
+	public static double[] ICENorm(SparseContactMatrix w, double tolerance, ExecutorService executor) throws Exception{
 		
-		double total = 0.0;
-		double[][] w = new double[a.length][a.length];
-		
-		for(int i = 0; i < a.length; i++){
-			for(int j = 0; j < a.length; j++){
-				w[i][j] = a[i][j];
-			}
-		}
+		int n = w.size();
+		double[] s;
+		double[] b = new double[n];
+		double[] scale = new double[n];
+		double mean, change;
+		int count, t;
 		
-		double[] s = new double[a.length];
-		double[] b = new double[a.length];
-		double mean;
-		int count;
+		Arrays.fill(b, 1.0);
 		
-		for(int t = 0; t < 30; t++){
+		for(t = 0; t < MAX_ITERATION; t++){
 			
-			for(int i = 0; i < w.length; i++){
-				s[i] = sumVector(w[i]);
-			}
+			s = w.rowSums(executor);
 			
 			count = 0;
-			for(int i = 0; i < w.length; i++){
-				if (!Double.isNaN(s[i]) && s[i] > 0) {
+			mean = 0;
+			for(int i = 0; i < n; i++){
+				if (s[i] > 0) {
 					count++;
+					mean += s[i];
 				}					
 			}
-			/*
-			for(int i = 0; i < s.length; i++){
-				System.out.printf("(%d, %.5f) , ", i,s[i]);
-			}
-			System.out.println();
-			*/
+			if (count == 0) break;
+			mean /= count;
 			
-			if (count == 0){
-				System.out.println();
-			}
-			mean = sumVector(s) / count;
-			//normalize by mean
-			for(int i = 0; i < w.length; i ++){
-				b[i] = s[i] / mean;
+			//normalize by mean, empty rows are left as they are
+			change = 0;
+			for(int i = 0; i < n; i ++){
+				double db = s[i] > 0 ? s[i] / mean : 1.0;
+				change = Math.max(change, Math.abs(db - 1));
+				scale[i] = 1.0 / db;
+				b[i] *= db;
 			}
 			
-			for(int i = 0; i < w.length; i++){
-				for(int j = i+1; j < w.length; j++){
-					
-					if (b[i] <= 0 || b[j] <= 0) continue;
-					
-					w[i][j] = w[i][j] / (b[i] * b[j]);
-					
-					w[j][i] = w[i][j];
-				}
-			}			
+			w.scale(scale, scale, executor);
+			
+			if (change < tolerance) break;
 		}
+		System.out.printf("Iterative correction: %d rounds\n", Math.min(t + 1, MAX_ITERATION));
 		
 		//normalize elements so that sum of a row = 1
 		//
-		for(int i = 0; i < w.length; i++){
-			s[i] = sumVector(w[i]);
+		s = w.rowSums(executor);
+		Arrays.fill(scale, 1.0);
+		for(int i = 0; i < n; i++){
+			if (s[i] > 0) s[i] = 1.0 / s[i];
+			else s[i] = 1.0;
 		}
+		w.scale(s, scale, executor);
 		
-		
-		for(int i = 0; i < w.length; i++){
-			for(int j = i + 1; j < w.length; j++){
-				if (s[i] <= 0) continue;
-				w[i][j] /= s[i];
-				w[j][i] = w[i][j];
-			}
-		}		
-		for(int i = 0; i < a.length; i++){
-			for(int j = i + 1; j < a.length; j++){
-				if (!Double.isNaN(w[i][j])){
-					total += w[i][j];		
-				}
-			}
-		}		
-		//scale normalized IF
-		for(int i = 0; i < w.length; i++){
-			for(int j = 0; j < w.length; j++){
-				w[i][j] *= total;
-			}
+		//scale normalized IF, by their total above the diagonal
+		double total = w.sum(executor);
+		for(double d : w.diagonal()){
+			total -= d;
 		}
-		//
+		Arrays.fill(s, total);
+		w.scale(s, scale, executor);
 		
-		
-		return w;
+		return b;
 	}
 
 
 	
 	/**
+	 * normalize using Knight-Ruiz matrix balancing (KnightRuizBalancer), rows with few contacts may be filtered out,
+	 * their contacts are removed. Normalized contacts are scaled so that their total is the total of raw contacts of rows kept.
+	 * The matrix is normalized in place
 	 * 
-	 * @param a: raw count
-	 * @return normalized count matrix
+	 * @param w: contact matrix
+	 * @param tolerance
+	 * @param executor: runs products with the matrix and scaling
+	 * @return bias B of every row, normalized IF_ij = IF_ij / (B_i * B_j), NaN for rows filtered out
+	 * @throws Exception if balancing fails
 	 */
-	public static double[][] standardNorm(double[][] a){
+	public static double[] KRNorm(SparseContactMatrix w, double tolerance, ExecutorService executor) throws Exception{
 		
-		double[][] norm = new double[a.length][a.length];
-		double[] s1 = new double[a.length];
-		double total = 0;
+		int n = w.size();
+		KnightRuizBalancer balancer = new KnightRuizBalancer(tolerance, executor);
+		double[] x = balancer.balance(w);
+		System.out.printf("KR balancing: %d matrix-vector products, %d rows filtered out\n", balancer.getMatrixVectorProducts(), balancer.getNbrFiltered());
 		
-		for(int i = 0; i < a.length; i++){
-			s1[i] = sumVector(a[i]);
+		//totals of the upper triangle of rows kept, before and after balancing
+		double[] kept = new double[n];
+		double[] product = new double[n];
+		for(int i = 0; i < n; i++){
+			kept[i] = x[i] > 0 ? 1.0 : 0.0;
+		}
+		double rawTotal = 0, balancedTotal = 0;
+		w.multiply(kept, product, executor);
+		for(int i = 0; i < n; i++){
+			rawTotal += kept[i] * product[i];
+		}
+		w.multiply(x, product, executor);
+		for(int i = 0; i < n; i++){
+			balancedTotal += x[i] * product[i];
 		}
 		
-		total = sumVector(s1) / 2;
-		
-		for(int i = 0; i < a.length; i++){
-			for(int j = i + 1; j < a.length; j++){
-				
-				norm[i][j] = a[i][j] * total / (s1[i] * s1[j]);
-				norm[j][i] = norm[i][j];
-				
-			}
+		double c = balancedTotal > 0 ? Math.sqrt(rawTotal / balancedTotal) : 1.0;
+		double[] b = new double[n];
+		for(int i = 0; i < n; i++){
+			x[i] *= c;
+			b[i] = x[i] > 0 ? 1.0 / x[i] : Double.NaN;
 		}
 		
-		return norm;
+		w.scale(x, x, executor);
 		
+		return b;
 	}
 	
 	/**
-	 * sum all elements of array
-	 * @param a
-	 * @return
+	 * normalize a raw count in place: IF_ij * total / (S_i * S_j), rows without contacts are set to 0
+	 * @param a: raw count
+	 * @param executor: runs row sums and scaling
+	 * @throws Exception 
 	 */
-	public static double sumVector(double[] a){
-		double sum = 0.0;
-		for(double d : a){
-			if (!Double.isNaN(d)){
-				sum = sum + d;
-			}
+	public static void standardNorm(SparseContactMatrix a, ExecutorService executor) throws Exception{
+		
+		double[] s1 = a.rowSums(executor);
+		double total = 0;
+		
+		for(int i = 0; i < s1.length; i++){
+			total += s1[i];
+		}
+		total = total / 2;
+		
+		double[] rowFactor = new double[s1.length];
+		double[] colFactor = new double[s1.length];
+		for(int i = 0; i < s1.length; i++){
+			rowFactor[i] = s1[i] != 0 ? total / s1[i] : 0;
+			colFactor[i] = s1[i] != 0 ? 1.0 / s1[i] : 0;
 		}
-		return sum;
+		
+		a.scale(rowFactor, colFactor, executor);
 	}
 	
-	public static double[][] readContactData(String inputFile, ArrayList<Integer> lstPos, HashMap<Integer,Integer> hmPos )	throws FileNotFoundException, Exception{
-		
-		//contact matrix will be returned
-		double[][] a;
+	/**
+	 * Read a contact list into a sparse matrix, contacts with IF <= 0 are left out,
+	 * contacts on the diagonal are kept so that they count in row sums (they are not written out)
+	 * @param inputFile
+	 * @param nbrThread
+	 * @return
+	 * @throws Exception
+	 */
+	public static SparseContactMatrix readContactData(String inputFile, int nbrThread) throws Exception{
+		ContactListReader reader = new ContactListReader(nbrThread, null);
+		reader.setDiagonalKept(true);
+		ConstraintTable table = reader.read(inputFile, 0);
 		
-		int x,y,id1,id2;
-		double f;
-		int nbr = 3; // number of numbers in each line
+		return new SparseContactMatrix(table, reader.getPositions());
+	}
+	
+	/**
+	 * Normalize a contact list
+	 * @param args: input file, output file, method (ICE, KR or standard, default ICE), number of threads (optional), tolerance (optional)
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception{
+		if (args.length < 2){
+			System.out.println("Usage: Normalization <input contact list> <output file> [ICE|KR|standard] [number of threads] [tolerance]");
+			return;
+		}
 		
-		File file = new File(inputFile);
-
-		FileReader fr=null;
-		BufferedReader br = null;		
-		Pattern splitRegex = Pattern.compile("[:\\s]+");
+		int method = ICE;
+		if (args.length > 2){
+			if (args[2].equalsIgnoreCase("KR")) method = KR;
+			else if (args[2].equalsIgnoreCase("standard")) method = STANDARD;
+			else if (!args[2].equalsIgnoreCase("ICE")) throw new IllegalArgumentException("Unknown normalization method: " + args[2]);
+		}
+		int nbrThread = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+		double tolerance = args.length > 4 ? Double.parseDouble(args[4]) : (method == KR ? KR_TOLERANCE : TOLERANCE);
 		
-		HashSet<Integer> posSet = new HashSet<Integer>();
-		StringBuilder sb = new StringBuilder();
-		try{
-				
-			fr = new FileReader(file);
-			br = new BufferedReader(fr);
-			String ln;
-			String[] st;
-			int count = 1;
-			ln = br.readLine();
-			sb.append(ln).append(" ");
-			nbr = splitRegex.split(ln.trim()).length;
-			long progress = 0;
-			while((ln = br.readLine()) != null){
-				if (ln.trim().length() == 0 || !Character.isDigit(ln.charAt(0)) ){
-					continue;
-				}
-				
-				//read every 10 thousand lines and split at once
-				sb.append(ln).append(" ");
-				count++;
-				
-				if (count == 200000){
-					count = 0;
-					st = splitRegex.split(sb.toString());
-					sb = new StringBuilder();
-					
-					if (st.length % nbr != 0){
-						throw new Exception("There is a line that doesn't contain exactly 3 numbers");
-					}
-					//each line contains 'nbr' numbers
-					for(int i = 0; i < st.length / nbr; i++){
-						
-						//only take first 3 numbers
-						x = Integer.parseInt(st[i * nbr + 0]);						
-						//position2
-						y = Integer.parseInt(st[i * nbr + 1]);
-						
-						//interaction frequency
-						//f = Double.parseDouble(st[i * nbr + 2]);
-						
-						//keeping absolute positions, so that later they can be recovered from indices
-						
-						posSet.add(x);
-						
-						posSet.add(y);
-						 
-					}
-				}
-				progress++;
-				//System.out.println(progress * 200000 + " input lines have been read !");
-			}
-			br.close();
-			fr.close();
-			
-			//if sb is not empty
-			if (sb.toString().trim().length() > 0){
-				st = splitRegex.split(sb.toString());
-				sb = new StringBuilder();
-				
-				if (st.length % nbr != 0){
-					throw new Exception("There is a line that doesn't contain exactly 3 numbers");
-				}
-				//each line contains 3 numbers
-				for(int i = 0; i < st.length / nbr; i++){
-					x = Integer.parseInt(st[i * nbr + 0]);
-					
-					//position2
-					y = Integer.parseInt(st[i * nbr + 1]);
-					
-					//keeping absolute positions, so that later they can be recovered from indices
-					
-					posSet.add(x);
-					
-					posSet.add(y);
-					 
-				}
-				
-			}
-
-			lstPos.addAll(posSet);
-			
-			//sort the lst of position ascendingly
-			Collections.sort(lstPos);			
-			
-			//map postion into absolute index
-			for(int i = 0; i < lstPos.size(); i++){
-				hmPos.put(lstPos.get(i), i);
-			}
-			
-			//initialize the matrix contact
-			a = new double[lstPos.size()][lstPos.size()];			
-			
-			fr = new FileReader(file);
-			br = new BufferedReader(fr);
-			count = 0;
-			progress = 0;
-			while((ln = br.readLine()) != null){
-				
-				if (ln.startsWith("#") || ln.trim().length() == 0){
-					continue;
-				}
-				
-				//read every a thoudsand lines and split at once
-				sb.append(ln).append(" ");
-				count++;
-				
-				if (count == 200000){
-					count = 0;
-					st = splitRegex.split(sb.toString());
-					sb = new StringBuilder();
-					
-					if (st.length % nbr != 0){
-						throw new Exception("There is a line that doesn't contain exactly 3 numbers");
-					}
-					//each line contains 3 numbers
-					for(int i = 0; i < st.length / nbr; i++){
-						x = Integer.parseInt(st[i * nbr + 0]);
-						
-						//position2
-						y = Integer.parseInt(st[i * nbr + 1]);
-						
-						//interaction frequency
-						f = Double.parseDouble(st[i * nbr + 2]);
-						
-						//keeping absolute positions, so that later they can be recovered from indices
-						
-						id1 = hmPos.get(x);
-						id2 = hmPos.get(y);
-												
-						//if the frequency is less than thresholds, ignore the contact so that it is considered as non-contact
-						
-
-						a[id1][id2] = f;
-						a[id2][id1] = f;
-						
-						 
-					}
-					
-					progress++;
-					//System.out.println(progress * 200000 + " input lines have been read - second time!");
-				}	
-
-			}
-
-			//if sb is not empty
-			if (sb.toString().trim().length() > 0){
-				st = splitRegex.split(sb.toString());
-				sb = new StringBuilder();
-				
-				if (st.length % nbr != 0){
-					throw new Exception("There is a line that doesn't contain exactly 3 numbers");
-				}
-				//each line contains 3 numbers
-				for(int i = 0; i < st.length / nbr; i++){
-					x = Integer.parseInt(st[i * nbr + 0]);
-					
-					//position2
-					y = Integer.parseInt(st[i * nbr + 1]);
-					
-					//interaction frequency
-					f = Double.parseDouble(st[i * nbr + 2]);
-					
-					//keeping absolute positions, so that later they can be recovered from indices
-					
-					id1 = hmPos.get(x);
-					id2 = hmPos.get(y);
-					
-					a[id1][id2] = f;
-					a[id2][id1] = f;
-					
-					 
-				}
-				
-			}
-
+		long startTime = System.currentTimeMillis();
 		
-		}catch(FileNotFoundException ex){
-			ex.printStackTrace();
-			throw ex;
-		}catch(IOException ex){
-			ex.printStackTrace();
-			throw ex;			
-		}finally{
-			if (br != null){
-				br.close();
-			}
-			if (fr != null){
-				fr.close();
-			}
-			
-		}
+		normalize(args[0], args[1], method, nbrThread, tolerance);
 		
-		return a;
+		System.out.printf("Normalization done in %.2f seconds\n", (System.currentTimeMillis() - startTime) / 1000.0);
 	}
 
-
 }
@@ -3,15 +3,17 @@ package edu.missouri.chenglab.hicdata;
 
 
 import java.io.BufferedOutputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.broad.igv.Globals;
 import org.broad.igv.feature.Chromosome;
@@ -54,14 +56,12 @@ import juicebox.data.MatrixZoomData;
 import juicebox.data.NormalizationVector;
 import juicebox.tools.clt.JuiceboxCLT;
 import juicebox.tools.utils.original.ExpectedValueCalculation;
-import juicebox.tools.utils.original.NormalizationCalculations;
 import juicebox.windowui.HiCZoom;
 import juicebox.windowui.MatrixType;
 import juicebox.windowui.NormalizationType;
 
 public class ReadHiCData extends JuiceboxCLT {
 
-
     private static int[] regionIndices = new int[]{-1, -1, -1, -1};
     private static boolean useRegionIndices = false;
     private final List<String> files = new ArrayList<String>();
@@ -78,6 +78,8 @@ public class ReadHiCData extends JuiceboxCLT {
     private Chromosome chrom1, chrom2;
     private HiCZoom zoom;
     private String outputFile;
+    // blocks of genome-wide dumps read at the same time, 0 to use all processors
+    private int nbrThread = 0;
 
     public ReadHiCData() {
         super(getUsage());
@@ -89,86 +91,85 @@ public class ReadHiCData extends JuiceboxCLT {
 
     public static void dumpGenomeWideData(Dataset dataset, List<Chromosome> chromosomeList,
                                            boolean includeIntra, HiCZoom zoom, NormalizationType norm,
-                                           MatrixType matrixType, int binSize, String ofile) throws FileNotFoundException {
+                                           MatrixType matrixType, int binSize, String ofile) throws Exception {
+        dumpGenomeWideData(dataset, chromosomeList, includeIntra, zoom, norm, matrixType, binSize, ofile, 0);
+    }
+
+    /**
+     * Dump the whole-genome matrix (or its normalization vector and expected values for MatrixType.NORM).
+     * Every chromosome pair is a block read and formatted by its own task (see GenomeWideRecords), records are written
+     * in the order of blocks, at most nbrThread blocks are formatted at once.
+     * The vector is computed by NormalizationCalculations from all records as before, so memory is O(records)
+     * for a normalized dump; only a raw dump (NONE) streams records with memory that doesn't grow with the genome.
+     *
+     * @param ofile      text output, or little-endian binary output (int x, int y, float value per record) if it ends with .bin,
+     *                   standard out if null
+     * @param nbrThread  number of blocks read at the same time, 0 to use all processors
+     * @throws Exception
+     */
+    public static void dumpGenomeWideData(Dataset dataset, List<Chromosome> chromosomeList,
+                                           boolean includeIntra, HiCZoom zoom, NormalizationType norm,
+                                           MatrixType matrixType, int binSize, String ofile, int nbrThread) throws Exception {
         if (zoom.getUnit() == HiC.Unit.FRAG) {
             System.err.println("All versus All currently not supported on fragment resolution");
             //System.exit(8);
         }
-        
-        
-        PrintWriter txtWriter = null;
-        
-        if (ofile != null) {          
-           txtWriter = new PrintWriter(new FileOutputStream(ofile));           
-        }
-        
-        // Build a "whole-genome" matrix
-        ArrayList<ContactRecord> recordArrayList = createWholeGenomeRecords(dataset, chromosomeList, zoom, includeIntra);
 
-        int totalSize = 0;
-        for (Chromosome c1 : chromosomeList) {
-            if (c1.getName().equals(Globals.CHR_ALL)) continue;
-            totalSize += c1.getLength() / zoom.getBinSize() + 1;
-        }
+        nbrThread = nbrThread > 0 ? nbrThread : Runtime.getRuntime().availableProcessors();
 
-        NormalizationCalculations calculations = new NormalizationCalculations(recordArrayList, totalSize);
-        double[] vector = calculations.getNorm(norm);
+        List<Chromosome> chromosomes = GenomeWideRecords.getGenomeChromosomes(chromosomeList);
+        int[] offsets = GenomeWideRecords.getGenomeOffsets(chromosomes, zoom);
+        int totalSize = offsets[chromosomes.size()];
 
-        if (matrixType == MatrixType.NORM) {
+        List<GenomeWideRecords.GenomeBlock> blocks = GenomeWideRecords.createWholeGenomeBlocks(dataset, chromosomes, offsets, zoom, includeIntra);
+        double[] vector = GenomeWideRecords.getGenomeWideVector(blocks, totalSize, norm);
 
-            ExpectedValueCalculation evKR = new ExpectedValueCalculation(chromosomeList, zoom.getBinSize(), null, NormalizationType.GW_KR);
-            int addY = 0;
-            // Loop through chromosomes
-            for (Chromosome chr : chromosomeList) {
-
-                if (chr.getName().equals(Globals.CHR_ALL)) continue;
-                final int chrIdx = chr.getIndex();
-                Matrix matrix = dataset.getMatrix(chr, chr);
-
-                if (matrix == null) continue;
-                MatrixZoomData zd = matrix.getZoomData(zoom);
-                Iterator<ContactRecord> iter = zd.contactRecordIterator();
-                while (iter.hasNext()) {
-                    ContactRecord cr = iter.next();
-                    int x = cr.getBinX();
-                    int y = cr.getBinY();
-                    final float counts = cr.getCounts();
-                    if (vector[x + addY] > 0 && vector[y + addY] > 0 && !Double.isNaN(vector[x + addY]) && !Double.isNaN(vector[y + addY])) {
-                        double value = counts / (vector[x + addY] * vector[y + addY]);
-                        evKR.addDistance(chrIdx, x, y, value);
-                    }
+        ExecutorService executor = Executors.newFixedThreadPool(nbrThread);
+        try {
+            if (matrixType == MatrixType.NORM) {
+                if (vector == null) {
+                    vector = new double[totalSize];
+                    Arrays.fill(vector, 1.0);
                 }
 
-                addY += chr.getLength() / zoom.getBinSize() + 1;
-            }
-            evKR.computeDensity();
-            double[] exp = evKR.getDensityAvg();
-            System.out.println(binSize + "\t" + vector.length + "\t" + exp.length);
-            for (double aVector : vector) {
-                System.out.println(aVector);
-            }
-
-            for (double aVector : exp) {
-                System.out.println(aVector);
-            }
-        } else {   // type == "observed"
-
-            for (ContactRecord cr : recordArrayList) {
-                int x = cr.getBinX();
-                int y = cr.getBinY();
-                float value = cr.getCounts();
-
-                if (vector[x] != 0 && vector[y] != 0 && !Double.isNaN(vector[x]) && !Double.isNaN(vector[y])) {
-                    value = (float) (value / (vector[x] * vector[y]));
-                } else {
-                    value = Float.NaN;
+                ExpectedValueCalculation evKR = new ExpectedValueCalculation(chromosomeList, zoom.getBinSize(), null, NormalizationType.GW_KR);
+                // Loop through chromosomes
+                for (int c = 0; c < chromosomes.size(); c++) {
+                    Chromosome chr = chromosomes.get(c);
+                    final int chrIdx = chr.getIndex();
+                    final int addY = offsets[c];
+                    Matrix matrix = dataset.getMatrix(chr, chr);
+
+                    if (matrix == null) continue;
+                    MatrixZoomData zd = matrix.getZoomData(zoom);
+                    Iterator<ContactRecord> iter = zd.contactRecordIterator();
+                    while (iter.hasNext()) {
+                        ContactRecord cr = iter.next();
+                        int x = cr.getBinX();
+                        int y = cr.getBinY();
+                        final float counts = cr.getCounts();
+                        if (vector[x + addY] > 0 && vector[y + addY] > 0 && !Double.isNaN(vector[x + addY]) && !Double.isNaN(vector[y + addY])) {
+                            double value = counts / (vector[x + addY] * vector[y + addY]);
+                            evKR.addDistance(chrIdx, x, y, value);
+                        }
+                    }
+                }
+                evKR.computeDensity();
+                double[] exp = evKR.getDensityAvg();
+                System.out.println(binSize + "\t" + vector.length + "\t" + exp.length);
+                for (double aVector : vector) {
+                    System.out.println(aVector);
                 }
 
-                System.out.println(x + "\t" + y + "\t" + value);
-                txtWriter.println(x + "\t" + y + "\t" + value);
+                for (double aVector : exp) {
+                    System.out.println(aVector);
+                }
+            } else {   // type == "observed"
+                GenomeWideRecords.writeGenomeWideRecords(blocks, vector, ofile, nbrThread, executor);
             }
+        } finally {
+            executor.shutdownNow();
         }
-        if (txtWriter != null) txtWriter.close();
     }
 
     private static void dumpGeneralVector(Dataset dataset, String chr, Chromosome chromosome,
@@ -214,37 +215,6 @@ public class ReadHiCData extends JuiceboxCLT {
         }
     }
 
-    private static ArrayList<ContactRecord> createWholeGenomeRecords(Dataset dataset, List<Chromosome> tmp, HiCZoom zoom, boolean includeIntra) {
-        ArrayList<ContactRecord> recordArrayList = new ArrayList<ContactRecord>();
-        int addX = 0;
-        int addY = 0;
-        for (Chromosome c1 : tmp) {
-            if (c1.getName().equals(Globals.CHR_ALL)) continue;
-            for (Chromosome c2 : tmp) {
-                if (c2.getName().equals(Globals.CHR_ALL)) continue;
-                if (c1.getIndex() < c2.getIndex() || (c1.equals(c2) && includeIntra)) {
-                    Matrix matrix = dataset.getMatrix(c1, c2);
-                    if (matrix != null) {
-                        MatrixZoomData zd = matrix.getZoomData(zoom);
-                        if (zd != null) {
-                            Iterator<ContactRecord> iter = zd.contactRecordIterator();
-                            while (iter.hasNext()) {
-                                ContactRecord cr = iter.next();
-                                int binX = cr.getBinX() + addX;
-                                int binY = cr.getBinY() + addY;
-                                recordArrayList.add(new ContactRecord(binX, binY, cr.getCounts()));
-                            }
-                        }
-                    }
-                }
-                addY += c2.getLength() / zoom.getBinSize() + 1;
-            }
-            addX += c1.getLength() / zoom.getBinSize() + 1;
-            addY = 0;
-        }
-        return recordArrayList;
-    }
-
     /**
      * Prints out a vector to the given print stream.  Mean centers if center is set
      *
@@ -573,8 +543,8 @@ public class ReadHiCData extends JuiceboxCLT {
                 && chr1.equals(Globals.CHR_ALL)
                 && chr2.equals(Globals.CHR_ALL)) {
             try {
-				dumpGenomeWideData(dataset, chromosomeList, includeIntra, zoom, norm, matrixType, binSize, ofile);
-			} catch (FileNotFoundException e) {				
+				dumpGenomeWideData(dataset, chromosomeList, includeIntra, zoom, norm, matrixType, binSize, ofile, nbrThread);
+			} catch (Exception e) {				
 				e.printStackTrace();
 			}
         } else if (MatrixType.isDumpMatrixType(matrixType)) {
@@ -707,6 +677,14 @@ public class ReadHiCData extends JuiceboxCLT {
 	public void setOutputFile(String outputFile) {
 		this.outputFile = outputFile;
 	}
+
+	public int getNbrThread() {
+		return nbrThread;
+	}
+
+	public void setNbrThread(int nbrThread) {
+		this.nbrThread = nbrThread;
+	}
 	
     
 }
\ No newline at end of file
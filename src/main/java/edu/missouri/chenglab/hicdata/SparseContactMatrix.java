@@ -0,0 +1,385 @@
+package edu.missouri.chenglab.hicdata;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import edu.missouri.chenglab.lordg.valueObject.ConstraintTable;
+
+/**
+ * Symmetric contact matrix stored as its upper triangle (i <= j) in compressed sparse rows, the sparse backend of ContactMatrix:
+ * entries of row i are col[rowStart[i] .. rowStart[i + 1]) and value[...], sorted by column.
+ * Entries of column j above the diagonal (i.e. of row j below the diagonal) are listed by colEntry[colStart[j] .. colStart[j + 1]),
+ * their rows by colRow[...], so the sum of a whole row (or its product with a vector) is computed by the task that owns the row,
+ * without writing into other rows.
+ *
+ * Rows are processed in chunks of ROW_CHUNK_SIZE rows by the given executor, every row is always summed in the same order,
+ * results don't depend on the number of threads
+ *
+ */
+public class SparseContactMatrix extends ContactMatrix {
+
+	//rows per task
+	private static final int ROW_CHUNK_SIZE = 1024;
+
+	private int[] rowStart;
+	private int[] col;
+	private double[] value;
+
+	private int[] colStart;
+	private int[] colEntry;
+	private int[] colRow;
+
+	/**
+	 * Build the matrix from contacts, contacts between the same positions are summed
+	 * @param table: contacts, pos1 < pos2, positions are genomic positions
+	 * @param positions: sorted distinct positions of the contacts
+	 */
+	public SparseContactMatrix(ConstraintTable table, int[] positions){
+		this(positions, indicesOf(table.getPos1Array(), table.size(), positions), indicesOf(table.getPos2Array(), table.size(), positions),
+				table.getIFArray(), table.size(), true);
+	}
+
+	/**
+	 * Build the matrix from entries given by bins
+	 * @param positions: genomic position (or index) of each bin, sorted
+	 * @param row: row[k] <= column[k]
+	 * @param column
+	 * @param IF
+	 * @param size: number of entries
+	 * @param isSummed: entries between the same bins are summed if true, the last one is kept otherwise
+	 */
+	public SparseContactMatrix(int[] positions, int[] row, int[] column, double[] IF, int size, boolean isSummed){
+		this.positions = positions;
+		this.n = positions.length;
+
+		//entries by row, in the order of the file
+		rowStart = new int[n + 1];
+		for(int k = 0; k < size; k++){
+			rowStart[row[k] + 1]++;
+		}
+		for(int i = 0; i < n; i++){
+			rowStart[i + 1] += rowStart[i];
+		}
+
+		col = new int[size];
+		value = new double[size];
+		int[] cursor = Arrays.copyOf(rowStart, n);
+		for(int k = 0; k < size; k++){
+			int e = cursor[row[k]]++;
+			col[e] = column[k];
+			value[e] = IF[k];
+		}
+
+		//sort every row by column and sum duplicates
+		int nnz = 0;
+		for(int i = 0; i < n; i++){
+			int start = rowStart[i], end = rowStart[i + 1];
+			sortRow(start, end);
+
+			rowStart[i] = nnz;
+			for(int e = start; e < end; e++){
+				if (nnz > rowStart[i] && col[nnz - 1] == col[e]){
+					value[nnz - 1] = isSummed ? value[nnz - 1] + value[e] : value[e];
+				}else{
+					col[nnz] = col[e];
+					value[nnz] = value[e];
+					nnz++;
+				}
+			}
+		}
+		rowStart[n] = nnz;
+		if (nnz < size){
+			col = Arrays.copyOf(col, nnz);
+			value = Arrays.copyOf(value, nnz);
+		}
+
+		//entries above the diagonal by column, in row order
+		colStart = new int[n + 1];
+		for(int i = 0; i < n; i++){
+			for(int e = rowStart[i]; e < rowStart[i + 1]; e++){
+				if (col[e] != i) colStart[col[e] + 1]++;
+			}
+		}
+		for(int j = 0; j < n; j++){
+			colStart[j + 1] += colStart[j];
+		}
+		colEntry = new int[colStart[n]];
+		colRow = new int[colStart[n]];
+		cursor = Arrays.copyOf(colStart, n);
+		for(int i = 0; i < n; i++){
+			for(int e = rowStart[i]; e < rowStart[i + 1]; e++){
+				if (col[e] == i) continue;
+				int t = cursor[col[e]]++;
+				colEntry[t] = e;
+				colRow[t] = i;
+			}
+		}
+	}
+
+	//bins of genomic positions
+	private static int[] indicesOf(int[] pos, int size, int[] positions){
+		int[] index = new int[size];
+		for(int k = 0; k < size; k++){
+			index[k] = Arrays.binarySearch(positions, pos[k]);
+		}
+		return index;
+	}
+
+	//sort entries [start, end) by column, most contact lists are already sorted
+	private void sortRow(int start, int end){
+		boolean sorted = true;
+		for(int e = start + 1; e < end && sorted; e++){
+			sorted = col[e - 1] <= col[e];
+		}
+		if (sorted) return;
+
+		//column in the high bits, entry in the low bits, so equal columns keep the order of the file
+		long[] keys = new long[end - start];
+		for(int e = start; e < end; e++){
+			keys[e - start] = ((long) col[e] << 32) | (e - start);
+		}
+		Arrays.sort(keys);
+
+		int[] sortedCol = new int[keys.length];
+		double[] sortedValue = new double[keys.length];
+		for(int t = 0; t < keys.length; t++){
+			sortedCol[t] = (int)(keys[t] >>> 32);
+			sortedValue[t] = value[start + (int) keys[t]];
+		}
+		System.arraycopy(sortedCol, 0, col, start, keys.length);
+		System.arraycopy(sortedValue, 0, value, start, keys.length);
+	}
+
+	@Override
+	public double get(int i, int j) {
+		if (i > j){
+			int t = i;
+			i = j;
+			j = t;
+		}
+		int e = Arrays.binarySearch(col, rowStart[i], rowStart[i + 1], j);
+		return e < 0 ? 0 : value[e];
+	}
+
+	@Override
+	public void forEachEntry(int fromRow, int toRow, EntryVisitor visitor) {
+		for(int i = fromRow; i < toRow; i++){
+			for(int e = rowStart[i]; e < rowStart[i + 1]; e++){
+				if (value[e] != 0) visitor.visit(i, col[e], value[e]);
+			}
+		}
+	}
+
+	@Override
+	public long memorySize() {
+		return 4L * (rowStart.length + colStart.length) + 12L * col.length + 4L * (colEntry.length + colRow.length);
+	}
+
+	/**
+	 *
+	 * @param n
+	 * @param nnz: number of entries
+	 * @return bytes taken by a sparse matrix, at most
+	 */
+	static long memorySize(int n, int nnz){
+		return 8L * (n + 1) + 20L * nnz;
+	}
+
+	/**
+	 * Sum of every row of the symmetric matrix
+	 * @param executor
+	 * @return
+	 * @throws Exception
+	 */
+	public double[] rowSums(ExecutorService executor) throws Exception{
+		final double[] sums = new double[n];
+		forEachChunk(executor, new RowTask() {
+			@Override
+			public double run(int from, int to) {
+				for(int i = from; i < to; i++){
+					double s = 0;
+					for(int e = rowStart[i]; e < rowStart[i + 1]; e++){
+						s += value[e];
+					}
+					for(int t = colStart[i]; t < colStart[i + 1]; t++){
+						s += value[colEntry[t]];
+					}
+					sums[i] = s;
+				}
+				return 0;
+			}
+		});
+		return sums;
+	}
+
+	/**
+	 * Product of the symmetric matrix with a vector
+	 * @param x
+	 * @param y: y = A x
+	 * @param executor
+	 * @throws Exception
+	 */
+	public void multiply(final double[] x, final double[] y, ExecutorService executor) throws Exception{
+		forEachChunk(executor, new RowTask() {
+			@Override
+			public double run(int from, int to) {
+				for(int i = from; i < to; i++){
+					double s = 0;
+					for(int e = rowStart[i]; e < rowStart[i + 1]; e++){
+						s += value[e] * x[col[e]];
+					}
+					for(int t = colStart[i]; t < colStart[i + 1]; t++){
+						s += value[colEntry[t]] * x[colRow[t]];
+					}
+					y[i] = s;
+				}
+				return 0;
+			}
+		});
+	}
+
+	/**
+	 * Number of non-zero entries of every row of the symmetric matrix
+	 * @return
+	 */
+	public int[] rowNonZeros(){
+		int[] count = new int[n];
+		for(int i = 0; i < n; i++){
+			count[i] = rowStart[i + 1] - rowStart[i] + colStart[i + 1] - colStart[i];
+		}
+		return count;
+	}
+
+	/**
+	 * Sum of the upper triangle
+	 * @param executor
+	 * @return
+	 * @throws Exception
+	 */
+	public double sum(ExecutorService executor) throws Exception{
+		return forEachChunk(executor, new RowTask() {
+			@Override
+			public double run(int from, int to) {
+				double s = 0;
+				for(int e = rowStart[from]; e < rowStart[to]; e++){
+					s += value[e];
+				}
+				return s;
+			}
+		});
+	}
+
+	/**
+	 * Entries on the diagonal
+	 * @return
+	 */
+	public double[] diagonal(){
+		double[] d = new double[n];
+		for(int i = 0; i < n; i++){
+			if (rowStart[i] < rowStart[i + 1] && col[rowStart[i]] == i) d[i] = value[rowStart[i]];
+		}
+		return d;
+	}
+
+	/**
+	 * Multiply entry (i, j) by rowFactor[i] * colFactor[j]
+	 * @param rowFactor
+	 * @param colFactor
+	 * @param executor
+	 * @throws Exception
+	 */
+	public void scale(final double[] rowFactor, final double[] colFactor, ExecutorService executor) throws Exception{
+		forEachChunk(executor, new RowTask() {
+			@Override
+			public double run(int from, int to) {
+				for(int i = from; i < to; i++){
+					double f = rowFactor[i];
+					for(int e = rowStart[i]; e < rowStart[i + 1]; e++){
+						value[e] *= f * colFactor[col[e]];
+					}
+				}
+				return 0;
+			}
+		});
+	}
+
+	/**
+	 * Write positive entries above the diagonal: pos1 pos2 value, tab separated, sorted by pos1 then pos2
+	 * @param fileOut
+	 * @throws IOException
+	 */
+	public void write(String fileOut) throws IOException{
+		BufferedWriter bw = new BufferedWriter(new FileWriter(fileOut), 1 << 20);
+		try{
+			StringBuilder sb = new StringBuilder();
+			for(int i = 0; i < n; i++){
+				for(int e = rowStart[i]; e < rowStart[i + 1]; e++){
+					if (value[e] > 0 && col[e] != i){
+						sb.setLength(0);
+						sb.append(positions[i]).append('\t').append(positions[col[e]]).append('\t').append(value[e]).append('\n');
+						bw.write(sb.toString());
+					}
+				}
+			}
+		}finally{
+			bw.close();
+		}
+	}
+
+	/**
+	 * work on rows [from, to)
+	 */
+	private interface RowTask {
+		double run(int from, int to);
+	}
+
+	/**
+	 * Run the task on all chunks of rows
+	 * @return sum of the results of chunks, in the order of chunks
+	 */
+	private double forEachChunk(ExecutorService executor, final RowTask task) throws Exception{
+		List<Future<Double>> futures = new ArrayList<Future<Double>>();
+		for(int from = 0; from < n; from += ROW_CHUNK_SIZE){
+			final int start = from;
+			final int end = Math.min(n, from + ROW_CHUNK_SIZE);
+			futures.add(executor.submit(new Callable<Double>() {
+				@Override
+				public Double call() throws Exception {
+					return task.run(start, end);
+				}
+			}));
+		}
+		double s = 0;
+		for(Future<Double> future : futures){
+			s += future.get();
+		}
+		return s;
+	}
+
+	/**
+	 *
+	 * @return number of stored entries (upper triangle)
+	 */
+	public int nonZeros() {
+		return rowStart[n];
+	}
+
+	public int[] getRowStart() {
+		return rowStart;
+	}
+
+	public int[] getCol() {
+		return col;
+	}
+
+	public double[] getValue() {
+		return value;
+	}
+}
@@ -4,65 +4,120 @@ import java.io.FileNotFoundException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
-import org.apache.commons.math3.stat.inference.TTest;
 import org.jmol.modelset.Atom;
 import org.jmol.viewer.Viewer;
 
 import edu.missouri.chenglab.gmol.Constants;
+import edu.missouri.chenglab.loopdetection.utility.MeanTest;
 import edu.missouri.chenglab.lordg.utility.Helper;
 
+/**
+ * Identify loops in 3D models: a pair of points (i, j) is a loop end if it is much closer than other pairs at the same genomic distance
+ * (gap j - i), closer than most pairs of the chromosome, and closer than pairs around it.
+ *
+ * Distances are computed from coordinates when they are needed, no distance matrix is kept. Pairs can be limited to a genomic band
+ * (maximum loop size); the mean and variance of distances at every gap are computed in one streaming pass (Welford),
+ * the threshold (25th percentile of distances) is taken from a histogram of distances built in the same pass.
+ * Chromosomes are cut into chunks of rows with about the same number of pairs, chunks of all chromosomes are processed in parallel
+ *
+ */
 public class Detector {
-	
+
 	private Helper helper = Helper.getHelperInstance();
-	
-	public static void main(String[] args) {
-		// TODO Auto-generated method stub
-		
-		
-	}
-	
-	public void identifyLoop(Atom[] atoms, Viewer viewer){
-		
-		List<Loop> resultLoop = new ArrayList<Loop>();
-		
+
+	//minimum gap of a loop and ratio between the distance of a loop and the distances it is compared to
+	private static final int MIN_GAP = 5;
+	private static final int DIST_RATIO = 3;
+
+	//p-value of the t-test comparing the distance of a loop with distances at the same gap
+	private static final double P_VALUE = 0.0000001;
+
+	private static final MeanTest MEAN_TEST = new MeanTest(P_VALUE);
+
+	private static final double THRESHOLD_PERCENTILE = 25;
+
+	//bins of the histogram to estimate the threshold
+	private static final int NBR_BIN = 1 << 14;
+
+	//chunks per thread, to balance the work
+	private static final int CHUNKS_PER_THREAD = 4;
+
+	private int nbrThread;
+
+	//maximum genomic size of loops (in base pairs), 0 for no limit
+	private long maxLoopSize = 0;
+
+	public Detector(){
+		this(0);
+	}
+
+	/**
+	 *
+	 * @param nbrThread: number of threads, 0 to use all processors
+	 */
+	public Detector(int nbrThread){
+		this.nbrThread = nbrThread > 0 ? nbrThread : Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Identify loops of the model in the viewer, loops are limited to the maximum loop size parameter of the viewer,
+	 * no limit if it is empty
+	 * @param atoms
+	 * @param viewer
+	 * @throws Exception
+	 */
+	public void identifyLoop(Atom[] atoms, Viewer viewer) throws Exception{
+
+		//the parameter of this call, not the limit of a previous model
+		maxLoopSize = 0;
+		String maxLoopSizeStr = (String) viewer.getParameter(Constants.MAXLOOPSIZE);
+		if (maxLoopSizeStr != null && maxLoopSizeStr.trim().length() > 0){
+			maxLoopSize = Long.parseLong(maxLoopSizeStr.trim().replace(",", ""));
+		}
+
+		List<Atom[]> chromosomes = new ArrayList<Atom[]>();
+
 		List<Atom> atomList = new ArrayList<Atom>();
 		atomList.add(atoms[0]);
-		for(int i = 1; i < atoms.length; i++){			
+		for(int i = 1; i < atoms.length; i++){
 			if (atoms[i].chrID == atoms[i - 1].chrID) atomList.add(atoms[i]);
 			else{//new chromosome
-				Atom[] atomChrom = convertListToArray(atomList);
-				resultLoop.addAll(identifyLoopInAChromosome(atomChrom));
-				
+				chromosomes.add(convertListToArray(atomList));
+
 				atomList = new ArrayList<Atom>();
 				atomList.add(atoms[i]);
-			}			
+			}
 		}
-		
+
 		if (atomList.size() > 0){
-			Atom[] atomChrom = convertListToArray(atomList);
-			resultLoop.addAll(identifyLoopInAChromosome(atomChrom));
+			chromosomes.add(convertListToArray(atomList));
 		}
-		
+
+		List<Loop> resultLoop = identifyLoop(chromosomes);
+
 		//String inputModelFile = viewer.getFullPathName();
 		//viewer.loadNewModel(inputModelFile, String.format("%d loop%s identified", resultLoop.size(), resultLoop.size() > 1 ? "s":""));
-		
+
 		viewer.displayMessage(new String[]{String.format("%d loop%s identified", resultLoop.size(), resultLoop.size() > 1 ? "s":"")});
-		
+
 		//viewer.evalString("restrict bonds not selected;select not selected;wireframe 5;color structure");
-		
+
 		StringBuilder sb = new StringBuilder();
 		for (Loop loop : resultLoop){
 		    //cmd.spectrum(expression="count", palette="rainbow", selection="id " + str(loop.beg + 1) + "-" + str(loop.end + 1))
 			//viewer.evalString(String.format("select atomno >= %d and atomno <= %d; wireframe 10; color group;", loop.atomBeg.index + 1, loop.atomEnd.index + 1));
-			sb.append(String.format("select atomno >= %d and atomno <= %d; wireframe 10; color group;", loop.atomBeg.index + 1, loop.atomEnd.index + 1));			
+			sb.append(String.format("select atomno >= %d and atomno <= %d; wireframe 10; color group;", loop.atomBeg.index + 1, loop.atomEnd.index + 1));
 		}
 		viewer.evalString(sb.toString());
-		
-		
+
+
 		viewer.evalString(String.format("select all;"));
-		String outputFile = (String) viewer.getParameter(Constants.OUTPUTLOOPFILE);	
+		String outputFile = (String) viewer.getParameter(Constants.OUTPUTLOOPFILE);
 		if (outputFile != null && outputFile.length() > 0){
 			PrintWriter pw = null;
 			try {
@@ -72,13 +127,13 @@ public class Detector {
 				}
 			} catch (FileNotFoundException e) {
 				e.printStackTrace();
-			}finally{			
+			}finally{
 				if (pw != null) pw.close();
 			}
 		}
-		
+
 	}
-	
+
 	private Atom[] convertListToArray(List<Atom> lst){
 		Atom[] a = new Atom[lst.size()];
 		for(int i = 0; i < lst.size(); i++){
@@ -86,146 +141,425 @@ public class Detector {
 		}
 		return a;
 	}
-	
-	public List<Loop> identifyLoopInAChromosome(Atom[] atoms){
-		
-		int length = atoms.length;
-		
-
-		double[][] coor = new double[length][3];
-		for(int i = 0; i < length; i++){
-			coor[i][0] = atoms[i].x;
-			coor[i][1] = atoms[i].y;
-			coor[i][2] = atoms[i].z;
-		}
-		
-
-		DescriptiveStatistics ds = new DescriptiveStatistics();
-		
-		double[][] d = new double[length][length];
-		double[] avg = new double[length];
-		double[][] gap = new double[length][];
-				
-		for(int g = 0; g < length; g++){
-			gap[g] = new double[length - g];
-			int count=0;
-			for(int i = 0; i < length - g; i++){
-				int j = i + g;
-				d[i][j] = distance(coor[i], coor[j]);
-				d[j][i] = d[i][j];
-				
-				ds.addValue(d[i][j]);
-				
-				avg[g] += d[i][j];
-				
-				gap[g][count++] = d[i][j];
-				
+
+	public List<Loop> identifyLoopInAChromosome(Atom[] atoms) throws Exception{
+		List<Atom[]> chromosomes = new ArrayList<Atom[]>();
+		chromosomes.add(atoms);
+		return identifyLoop(chromosomes);
+	}
+
+	/**
+	 * Identify loops in chromosomes, each chromosome is processed independently
+	 * @param chromosomes: atoms of every chromosome
+	 * @return loops of all chromosomes, in the order of chromosomes
+	 * @throws Exception
+	 */
+	public List<Loop> identifyLoop(List<Atom[]> chromosomes) throws Exception{
+
+		List<Chromosome> chroms = new ArrayList<Chromosome>();
+		long totalPairs = 0;
+		for(Atom[] atoms : chromosomes){
+			if (atoms.length == 0) continue;
+			Chromosome chr = new Chromosome(atoms);
+			chroms.add(chr);
+			totalPairs += chr.nbrPairs;
+		}
+
+		//chunks of rows, a chromosome gets a number of chunks proportional to its number of pairs
+		List<Chunk> chunks = new ArrayList<Chunk>();
+		int totalChunks = nbrThread * CHUNKS_PER_THREAD;
+		for(Chromosome chr : chroms){
+			int nbrChunk = (int)Math.max(1, Math.min(chr.n, Math.round((double)totalChunks * chr.nbrPairs / Math.max(1, totalPairs))));
+			chr.chunks = splitRows(chr, nbrChunk);
+			chunks.addAll(chr.chunks);
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(nbrThread);
+		try{
+			List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+
+			//distance statistics of every gap and histogram of distances
+			for(final Chunk chunk : chunks){
+				tasks.add(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						accumulate(chunk);
+						return null;
+					}
+				});
+			}
+			waitFor(executor.invokeAll(tasks));
+
+			for(Chromosome chr : chroms){
+				mergeStatistics(chr);
+			}
+
+			//loop candidates of every row
+			tasks.clear();
+			for(final Chunk chunk : chunks){
+				tasks.add(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						findLoops(chunk);
+						return null;
+					}
+				});
+			}
+			waitFor(executor.invokeAll(tasks));
+
+		}finally{
+			executor.shutdown();
+		}
+
+		List<Loop> resultLoop = new ArrayList<Loop>();
+		for(Chromosome chr : chroms){
+			List<Loop> loops = new ArrayList<Loop>();
+			for(Chunk chunk : chr.chunks){
+				loops.addAll(chunk.loops);
+			}
+			resultLoop.addAll(filterLoop(loops));
+		}
+
+		return resultLoop;
+	}
+
+	private static void waitFor(List<Future<Void>> futures) throws Exception{
+		for(Future<Void> f : futures){
+			f.get();
+		}
+	}
+
+	/**
+	 * split rows of a chromosome into chunks with about the same number of pairs
+	 */
+	private List<Chunk> splitRows(Chromosome chr, int nbrChunk){
+		List<Chunk> chunks = new ArrayList<Chunk>();
+		int beg = 0;
+		long pairs = 0;
+		for(int c = 1; c <= nbrChunk && beg < chr.n; c++){
+			long target = chr.nbrPairs * c / nbrChunk;
+			int end = beg;
+			while(end < chr.n && (pairs < target || end == beg)){
+				pairs += chr.rowPairs(end);
+				end++;
+			}
+			if (c == nbrChunk) end = chr.n;
+			chunks.add(new Chunk(chr, beg, end));
+			beg = end;
+		}
+		return chunks;
+	}
+
+	/**
+	 * Welford's mean and variance of distances at every gap, and the histogram of distances, over rows of the chunk
+	 */
+	private void accumulate(Chunk chunk){
+		Chromosome chr = chunk.chr;
+		double[] coor = chr.coor;
+		int band = chr.band;
+
+		chunk.count = new int[band + 1];
+		chunk.mean = new double[band + 1];
+		chunk.m2 = new double[band + 1];
+		chunk.histogram = new long[NBR_BIN];
+
+		double binScale = NBR_BIN / chr.maxDist;
+		double d, delta, inverseCount;
+		int last, bin, g;
+		for(int i = chunk.beg; i < chunk.end; i++){
+			//a gap in this row is in all previous rows of the chunk, all gaps of the row have the same count
+			inverseCount = 1.0 / (i - chunk.beg + 1);
+			last = Math.min(chr.n - 1, i + band);
+			for(int j = i; j <= last; j++){
+				d = distance(coor, i, j);
+				g = j - i;
+
+				chunk.count[g]++;
+				delta = d - chunk.mean[g];
+				chunk.mean[g] += delta * inverseCount;
+				chunk.m2[g] += delta * (d - chunk.mean[g]);
+
+				bin = (int)(d * binScale);
+				chunk.histogram[bin < NBR_BIN ? bin : NBR_BIN - 1]++;
+			}
+		}
+	}
+
+	/**
+	 * merge statistics of chunks of the chromosome (Chan et al.), and estimate the threshold from the histogram
+	 */
+	private void mergeStatistics(Chromosome chr){
+		int band = chr.band;
+		long[] count = new long[band + 1];
+		chr.mean = new double[band + 1];
+		chr.var = new double[band + 1];
+		long[] histogram = new long[NBR_BIN];
+
+		double delta;
+		long total;
+		for(Chunk chunk : chr.chunks){
+			for(int g = 0; g <= band; g++){
+				if (chunk.count[g] == 0) continue;
+				total = count[g] + chunk.count[g];
+				delta = chunk.mean[g] - chr.mean[g];
+				chr.mean[g] += delta * chunk.count[g] / total;
+				chr.var[g] += chunk.m2[g] + delta * delta * count[g] * chunk.count[g] / total;
+				count[g] = total;
+			}
+			for(int b = 0; b < NBR_BIN; b++){
+				histogram[b] += chunk.histogram[b];
+			}
+
+			//not needed anymore
+			chunk.count = null;
+			chunk.mean = null;
+			chunk.m2 = null;
+			chunk.histogram = null;
+		}
+
+		chr.count = count;
+		for(int g = 0; g <= band; g++){
+			chr.var[g] = count[g] > 1 ? chr.var[g] / (count[g] - 1) : Double.NaN;
+		}
+
+		chr.dthres = percentile(histogram, chr.maxDist / NBR_BIN, THRESHOLD_PERCENTILE);
+	}
+
+	/**
+	 * percentile estimated from a histogram, with the same position as DescriptiveStatistics ((n + 1) * p / 100),
+	 * values are spread uniformly in their bin
+	 */
+	private static double percentile(long[] histogram, double binWidth, double p){
+		long n = 0;
+		for(long c : histogram) n += c;
+
+		double pos = p * (n + 1) / 100;
+		pos = Math.max(1, Math.min(n, pos));
+
+		long cumulative = 0;
+		for(int b = 0; b < histogram.length; b++){
+			if (histogram[b] > 0 && cumulative + histogram[b] >= pos){
+				return (b + (pos - cumulative) / histogram[b]) * binWidth;
 			}
-			avg[g] /= (length - g);
-		}
-				
-
-		double dthres = ds.getPercentile(25);
-		    
-		List<Loop> loops = new ArrayList<Loop>();
-		
-		TTest ttest = new TTest();
-		
-		int g = 5, k = 3;
-		for(int i = 0; i < length; i++){
-		    
-		    double dmin = Double.MAX_VALUE;
-		    int end = -1;
-		    for (int j = i + g; j < length; j++){	        
-		        if (d[i][j] < dmin && d[i][j] * k < avg[j-i] && d[i][j] * k < dthres && isloop(d, i, j) && ttest.tTest(d[i][j] * k, gap[j-i]) < 0.0000001){
-		        	dmin = d[i][j];	        
+			cumulative += histogram[b];
+		}
+		return histogram.length * binWidth;
+	}
+
+	/**
+	 * For every row i of the chunk, the closest j that satisfies all conditions of a loop
+	 */
+	private void findLoops(Chunk chunk){
+		Chromosome chr = chunk.chr;
+		double[] coor = chr.coor;
+		Atom[] atoms = chr.atoms;
+
+		chunk.loops = new ArrayList<Loop>();
+
+		double d, dmin, dminSquare, dSquare;
+		int end, last, g;
+		for(int i = chunk.beg; i < chunk.end; i++){
+
+		    dmin = Double.MAX_VALUE;
+		    dminSquare = Double.MAX_VALUE;
+		    end = -1;
+		    last = Math.min(chr.n - 1, i + chr.band);
+		    for (int j = i + MIN_GAP; j <= last; j++){
+		    	dSquare = squareDistance(coor, i, j);
+		    	if (dSquare >= dminSquare) continue;
+
+		    	d = Math.sqrt(dSquare);
+		    	g = j - i;
+		    	//the t-test is cheaper than isloop on large gaps, conditions don't depend on each other
+		        if (d < dmin && d * DIST_RATIO < chr.mean[g] && d * DIST_RATIO < chr.dthres
+		        		&& MEAN_TEST.isSignificant(d * DIST_RATIO, chr.mean[g], chr.var[g], chr.count[g]) && isloop(chr, i, j, dSquare)){
+		        	dmin = d;
+		        	dminSquare = dSquare;
 		            end = j;
 		        }
 		    }
-		                    
-		    
+
+
 		    if (end > -1){
-		        Loop lp = new Loop(i, end,atoms[i], atoms[end], d[i][end]);
-		        
-		        loops.add(lp);
+		        Loop lp = new Loop(i, end, atoms[i], atoms[end], dmin);
+
+		        chunk.loops.add(lp);
 		    }
 		}
-
-		List<Loop> filteredLoops = filterLoop(loops, d);
-		
-		return filteredLoops;
- 	
 	}
 
 	/**
-	 * if 2 loops overlap, keep one with smallest end point distance    
+	 * if 2 loops overlap, keep one with smallest end point distance
 	 * @return
 	 */
-	private List<Loop>  filterLoop(List<Loop> lstLoop, double[][] d){    
+	private List<Loop>  filterLoop(List<Loop> lstLoop){
 	    List<Loop> rs = new ArrayList<Loop>();
 	    if (lstLoop.size() == 0) return rs;
-	    
+
 	    rs.add(lstLoop.get(0));
-	    
+
 	    for (int i = 1; i < lstLoop.size(); i++){
 	        if (isOverlap(rs.get(rs.size() - 1), lstLoop.get(i))){
-	        	
-	        	if (d[rs.get(rs.size() - 1).beg][rs.get(rs.size() - 1).end] > d[lstLoop.get(i).beg][lstLoop.get(i).end])
+
+	        	if (rs.get(rs.size() - 1).dist > lstLoop.get(i).dist)
 	        	    rs.set(rs.size() - 1, lstLoop.get(i));
 	        }else{
 	            rs.add(lstLoop.get(i));
 	        }
 	    }
-	    
+
 	    return rs;
 	}
 
 	/**
-	 * 
+	 * pairs around (p1, p2) must not be closer than (p1, p2)
+	 * @param dSquare: square distance between p1 and p2
 	 * @return
 	 */
-	private boolean isloop(double[][] dist, int p1,int p2){
-	
+	private boolean isloop(Chromosome chr, int p1,int p2, double dSquare){
+
 	    int mid1 = (int)(p1 + (p2 - p1) * 0.25);
 	    int mid2 = (int)(p1 + (p2 - p1) * 0.75);
 	    int out1 = Math.max(0, p1 - 3);
-	    int out2 = Math.min(dist.length - 1, p2 + 3);
-			
+	    int out2 = Math.min(chr.n - 1, p2 + 3);
+
 	    if (mid1 - p1 <= 1) return false;
-	    
-	    if (out2 - p2 <= 1)	return false;	    		
+
+	    if (out2 - p2 <= 1)	return false;
         if (p1 - out1 <= 1) return false;
         if (p2 - mid2 <= 1) return false;
-        
-	    for (int i = out1;i <= mid1;i++){ 			
+
+	    for (int i = out1;i <= mid1;i++){
 	       for(int j = mid2; j <= out2; j++)
-	           if (dist[i][j] < dist[p1][p2]) return false;
+	           if (squareDistance(chr.coor, i, j) < dSquare) return false;
 	    }
-	   
-	    
-//	    for(int i = out1; i < p1; i++){ 
-//	        for(int j = mid2; j <= out2; j++)			
+
+
+//	    for(int i = out1; i < p1; i++){
+//	        for(int j = mid2; j <= out2; j++)
 //	             if (dist[i][j] < dist[p1][p2]) return false;
-//	            
+//
 //	    }
-	    
+
 	    return true;
 	}
-	    
+
 
 
 	/**
-	 * check if two loops overlap    
+	 * check if two loops overlap
 	 * @return
 	 */
-	private boolean isOverlap(Loop loop1, Loop loop2){    
+	private boolean isOverlap(Loop loop1, Loop loop2){
 	    return Math.min(loop1.end, loop2.end) > Math.max(loop1.beg, loop2.beg);
 	}
-	
-	private double distance(double[] x, double[] y){
-	    return Math.sqrt(helper.calEuclidianDist(x[0], x[1], x[2], y[0], y[1], y[2]));
+
+	private double squareDistance(double[] coor, int i, int j){
+	    return helper.calEuclidianDist(coor[i * 3], coor[i * 3 + 1], coor[i * 3 + 2], coor[j * 3], coor[j * 3 + 1], coor[j * 3 + 2]);
+	}
+
+	private double distance(double[] coor, int i, int j){
+	    return Math.sqrt(squareDistance(coor, i, j));
+	}
+
+	public long getMaxLoopSize() {
+		return maxLoopSize;
+	}
+
+	/**
+	 *
+	 * @param maxLoopSize: maximum genomic size of loops in base pairs, 0 for no limit
+	 */
+	public void setMaxLoopSize(long maxLoopSize) {
+		this.maxLoopSize = maxLoopSize;
 	}
-	    		
+
+	/**
+	 * coordinates of a chromosome and statistics of its distances
+	 */
+	private class Chromosome{
+		Atom[] atoms;
+		int n;
+		double[] coor;
+
+		//maximum gap of pairs (in beads)
+		int band;
+		long nbrPairs;
+
+		//upper bound of distances, the diagonal of the bounding box
+		double maxDist;
+
+		//number, mean and variance of distances at every gap
+		long[] count;
+		double[] mean;
+		double[] var;
+
+		double dthres;
+
+		List<Chunk> chunks;
+
+		Chromosome(Atom[] atoms){
+			this.atoms = atoms;
+			n = atoms.length;
+
+			coor = new double[n * 3];
+			double[] min = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+			double[] max = {-Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+			for(int i = 0; i < n; i++){
+				coor[i * 3] = atoms[i].x;
+				coor[i * 3 + 1] = atoms[i].y;
+				coor[i * 3 + 2] = atoms[i].z;
+				for(int k = 0; k < 3; k++){
+					min[k] = Math.min(min[k], coor[i * 3 + k]);
+					max[k] = Math.max(max[k], coor[i * 3 + k]);
+				}
+			}
+			maxDist = Math.sqrt(helper.calEuclidianDist(min[0], min[1], min[2], max[0], max[1], max[2]));
+			if (!(maxDist > 0)) maxDist = 1.0;
+
+			//the band in beads, from the average genomic size of beads
+			band = n - 1;
+			long span = (long)atoms[n - 1].endPos - atoms[0].fromPos + 1;
+			if (maxLoopSize > 0 && span > 0){
+				double beadSize = (double)span / n;
+				band = (int)Math.min(n - 1, Math.ceil(maxLoopSize / beadSize));
+			}
+
+			for(int i = 0; i < n; i++){
+				nbrPairs += rowPairs(i);
+			}
+		}
+
+		/**
+		 * number of pairs (i, j), i <= j, in the band
+		 */
+		int rowPairs(int i){
+			return Math.min(band, n - 1 - i) + 1;
+		}
+	}
+
+	/**
+	 * rows [beg, end) of a chromosome, with their partial statistics and loops
+	 */
+	private class Chunk{
+		Chromosome chr;
+		int beg;
+		int end;
+
+		int[] count;
+		double[] mean;
+		double[] m2;
+		long[] histogram;
+
+		List<Loop> loops;
+
+		Chunk(Chromosome chr, int beg, int end){
+			this.chr = chr;
+			this.beg = beg;
+			this.end = end;
+		}
+	}
+
 	class Loop{
 		int beg = -1;//id of atomBeg in the region (or chromosome)
 		int end = -1;
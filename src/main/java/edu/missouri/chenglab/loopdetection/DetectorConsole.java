@@ -5,21 +5,38 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
-
-import org.apache.commons.math3.stat.StatUtils;
-import org.apache.commons.math3.stat.inference.TTest;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import edu.missouri.chenglab.loopdetection.utility.CommonFunctions;
+import edu.missouri.chenglab.loopdetection.utility.MeanTest;
 import edu.missouri.chenglab.lordg.utility.Helper;
 
 public class DetectorConsole {
 	
 	private static Helper helper = Helper.getHelperInstance();
 	
+	private static MeanTest meanTest = new MeanTest(0.0000001);
+	
+	//bins of the histogram of distances to find the threshold
+	private static final int NBR_BIN = 1 << 14;
+	
 	public static void main(String[] args) throws Exception {
 		
+		//batch mode: DetectorConsole <model folder> <output file> [number of threads]
+		if (args.length >= 2){
+			batchLoopRegions(args[0], args[1], args.length > 2 ? Integer.parseInt(args[2]) : 0);
+			return;
+		}
+		
 		//peakDetect("C:/Users/Tuan/workspace/LoopDetectionAndAnalysis/python_script/chr1_10kb_gm12878_list_0mb_10mb_1483058775167.pdb");
 		
 //		String modelFolder = "/Users/Tuan/git/GenomeMDS/GenomeMDS/output/imr90/10kb/";
@@ -45,7 +62,7 @@ public class DetectorConsole {
 			
 			int i = 0;
 			String folderName;
-			ArrayList<Point> lst = new ArrayList<Point>();
+			List<String> folders = new ArrayList<String>();
 			while(true){
 				if (i == 0) folderName = "0_10";
 				else folderName = (i * 10 - 2) + "_" + (i + 1) * 10;
@@ -55,15 +72,21 @@ public class DetectorConsole {
 					break;
 				}		
 				
-				lst.addAll(getLoopRegions(inputFolder + "/" + folderName));
+				folders.add(inputFolder + "/" + folderName);
 				
 				i++;
 				//if (i == 3) break;
 			}
 			
+			//models of all windows are processed together
+			ArrayList<Point> lst = new ArrayList<Point>();
+			for(ArrayList<Point> regions : callLoops(folders, 0).values()){
+				lst.addAll(regions);
+			}
+			
 			PrintWriter pw = new PrintWriter(outputFile);
 			for(Point p : lst){
-				pw.printf("%s\t%s\t%s\n", chrom, p.labelX, p.labelY);				
+				pw.printf("%s\t%s\t%s\t%d\n", chrom, p.labelX, p.labelY, p.support);				
 			}
 			pw.close();
 			
@@ -118,6 +141,20 @@ public class DetectorConsole {
 		
 		HashMap<Integer, Integer> coor_map = getCoorMapping(coor_mapping_file);
 		
+		writeColoring(folderName, lst, coor_map);
+		
+		return lst;
+	}
+	
+	/**
+	 * Set labels of loops from the coordinate mapping and write commands to color them to loop_coloring.txt of the folder
+	 * @param folderName
+	 * @param lst
+	 * @param coor_map
+	 * @throws Exception
+	 */
+	private static void writeColoring(String folderName, ArrayList<Point> lst, HashMap<Integer, Integer> coor_map) throws Exception{
+		
 		PrintWriter pw = new PrintWriter(folderName + "/loop_coloring.txt");		
 		
 		for(Point p : lst){
@@ -133,8 +170,160 @@ public class DetectorConsole {
 		}
 		
 		pw.close();
+	}
+	
+	/**
+	 * Call loops in models of every folder, models of all folders are processed on a work-stealing pool.
+	 * Calls of models of a folder are merged into regions with the number of models supporting them (consensus),
+	 * the coordinate mapping of a folder is read once for all its models
+	 * @param folders: folders of models (.pdb) with their coordinate mapping file
+	 * @param nbrThread: 0 to use all processors
+	 * @return loop regions of every folder
+	 * @throws Exception
+	 */
+	public static LinkedHashMap<String, ArrayList<Point>> callLoops(List<String> folders, int nbrThread) throws Exception{
+		
+		if (nbrThread <= 0) nbrThread = Runtime.getRuntime().availableProcessors();
+		
+		LinkedHashMap<String, ArrayList<Point>> result = new LinkedHashMap<String, ArrayList<Point>>();
+		
+		ExecutorService executor = Executors.newWorkStealingPool(nbrThread);
+		try{
+			LinkedHashMap<String, List<Future<ArrayList<Point>>>> modelCalls = new LinkedHashMap<String, List<Future<ArrayList<Point>>>>();
+			for(String folder : folders){
+				List<Future<ArrayList<Point>>> futures = new ArrayList<Future<ArrayList<Point>>>();
+				for(final File model : listModels(folder)){
+					futures.add(executor.submit(new Callable<ArrayList<Point>>() {
+						@Override
+						public ArrayList<Point> call() throws Exception {
+							return peakDetect(model.getAbsolutePath());
+						}
+					}));
+				}
+				modelCalls.put(folder, futures);
+			}
+			
+			//folders can share a mapping file
+			HashMap<String, HashMap<Integer, Integer>> mappings = new HashMap<String, HashMap<Integer, Integer>>();
+			for(String folder : modelCalls.keySet()){
+				List<ArrayList<Point>> calls = new ArrayList<ArrayList<Point>>();
+				for(Future<ArrayList<Point>> f : modelCalls.get(folder)){
+					calls.add(f.get());
+				}
+				
+				ArrayList<Point> lst = consensus(calls);
+				if (lst.size() > 0){
+					String coor_mapping_file = "";
+					for(File f : new File(folder).listFiles()){
+						if (f.getName().contains("coordinate_mapping")) coor_mapping_file = f.getAbsolutePath();
+					}
+					if (!mappings.containsKey(coor_mapping_file)) mappings.put(coor_mapping_file, getCoorMapping(coor_mapping_file));
+					
+					writeColoring(folder, lst, mappings.get(coor_mapping_file));
+				}
+				result.put(folder, lst);
+			}
+			
+		}finally{
+			executor.shutdown();
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Call loops in all folders of models under rootFolder (including itself), write loop regions with their support:
+	 * folder, start, end, number of models supporting the region, number of models of the folder
+	 * @param rootFolder
+	 * @param outputFile
+	 * @param nbrThread: 0 to use all processors
+	 * @throws Exception
+	 */
+	public static void batchLoopRegions(String rootFolder, String outputFile, int nbrThread) throws Exception{
+		
+		List<String> folders = new ArrayList<String>();
+		findModelFolders(new File(rootFolder), folders);
+		
+		LinkedHashMap<String, ArrayList<Point>> regions = callLoops(folders, nbrThread);
+		
+		String root = new File(rootFolder).getAbsolutePath();
+		PrintWriter pw = new PrintWriter(outputFile);
+		for(String folder : regions.keySet()){
+			String name = folder.length() > root.length() ? folder.substring(root.length() + 1) : new File(folder).getName();
+			int nbrModel = listModels(folder).length;
+			for(Point p : regions.get(folder)){
+				pw.printf("%s\t%s\t%s\t%d\t%d\n", name, p.labelX, p.labelY, p.support, nbrModel);
+			}
+		}
+		pw.close();
+	}
+	
+	private static void findModelFolders(File folder, List<String> folders){
+		File[] files = folder.listFiles();
+		if (files == null) return;
+		Arrays.sort(files);
 		
-		return lst;
+		if (listModels(folder.getAbsolutePath()).length > 0) folders.add(folder.getAbsolutePath());
+		for(File f : files){
+			if (f.isDirectory()) findModelFolders(f, folders);
+		}
+	}
+	
+	/**
+	 * 
+	 * @param folderName
+	 * @return models (.pdb) of the folder, sorted by name
+	 */
+	private static File[] listModels(String folderName){
+		ArrayList<File> models = new ArrayList<File>();
+		File[] files = new File(folderName).listFiles();
+		if (files != null){
+			for(File f : files){
+				if (f.isFile() && f.getName().endsWith(".pdb")) models.add(f);
+			}
+		}
+		Collections.sort(models);
+		return models.toArray(new File[models.size()]);
+	}
+	
+	/**
+	 * Merge loop calls of models into regions: calls are sorted, a call that overlaps the current region
+	 * by more than 50% is merged into it (as in merge), the support of a region is the number of models with a call in it
+	 * @param modelCalls: loops called in every model
+	 * @return
+	 */
+	public static ArrayList<Point> consensus(List<ArrayList<Point>> modelCalls){
+		
+		ArrayList<ModelCall> calls = new ArrayList<ModelCall>();
+		for(int m = 0; m < modelCalls.size(); m++){
+			for(Point p : modelCalls.get(m)){
+				calls.add(new ModelCall(p, m));
+			}
+		}
+		Collections.sort(calls);
+		
+		ArrayList<Point> rs = new ArrayList<Point>();
+		Point region = null;
+		BitSet models = new BitSet();
+		for(ModelCall c : calls){
+			if (region != null && overlap(region, c.point) > 50){
+				region.y = Math.max(region.y, c.point.y);
+			}else{
+				if (region != null){
+					region.support = models.cardinality();
+					rs.add(region);
+				}
+				region = new Point(c.point.x, c.point.y);
+				models.clear();
+			}
+			models.set(c.model);
+		}
+		if (region != null){
+			region.support = models.cardinality();
+			rs.add(region);
+		}
+		
+		return rs;
 	}
 	
 	
@@ -155,56 +344,106 @@ public class DetectorConsole {
 	
 	/**
 	 * 
-	 * @param cor is a Nx3 matrix with each point is represented by 3 coordinates 
+	 * @param fileName: a model (.pdb)
 	 * @return
 	 */
 	public static ArrayList<Point> peakDetect(String fileName) throws Exception{
 		
 		double[][] cor = helper.loadPDBStructure(fileName);
 		
+		return peakDetect(cor);
+	}
+	
+	/**
+	 * Distances are computed from coordinates when they are needed, no distance matrix is kept: the threshold (the value at 25%
+	 * of sorted distances) is in the bin of a histogram of distances that holds its rank, it is selected among the distances of this bin only,
+	 * so a model takes O(n) memory plus the distances of one bin
+	 * @param cor is a Nx3 matrix with each point is represented by 3 coordinates 
+	 * @return
+	 */
+	public static ArrayList<Point> peakDetect(double[][] cor) throws Exception{
+		
 		ArrayList<Point> lst = new ArrayList<Point>();
 		
 		int n = cor.length;
-		double[][] distance = new double[n][n];
 		
-		if (n == 0) return lst;
-		
-		ArrayList<Double> lstDist = new ArrayList<Double>();
+		if (n < 2) return lst;
 		
+		double[] coor = new double[n * 3];
 		for(int i = 0; i < n; i++){
-			for(int j = i + 1; j < n; j++){
-				distance[i][j] = Math.sqrt(helper.calEuclidianDist(cor[i][0], cor[i][1], cor[i][2], cor[j][0], cor[j][1], cor[j][2]));
-				distance[j][i] = distance[i][j];
-				
-				lstDist.add(distance[i][j]);
-			}
+			coor[i * 3] = cor[i][0];
+			coor[i * 3 + 1] = cor[i][1];
+			coor[i * 3 + 2] = cor[i][2];
 		}
 		
+		//number of pairs i < j
+		long nbrPair = (long)n * (n - 1) / 2;
+		
 		//avg_adjacent /= (n - 1);
 		
 		
-		//distances along at gap = 1, 2, ... n - 1 (0 is ignore)
-		double[][] gap_distance = new double[n][];
+		//mean and variance of distances at gap = 1, 2, ... n - 1 (0 is ignore), in two passes as StatUtils
 		double[] mean_gap_distance = new double[n];
+		double[] var_gap_distance = new double[n];
+		double[] correction = new double[n];
+		
+		double dij, maxDist = 0;
+		for(int i = 0; i < n; i++){
+			for(int j = i + 1; j < n; j++){
+				dij = distance(coor, i, j);
+				mean_gap_distance[j - i] += dij;
+				if (dij > maxDist) maxDist = dij;
+			}
+		}
 		for(int gap = 1; gap < n; gap++){
-			gap_distance[gap] = new double[n - gap];
-			for(int i = 0; i < n - gap; i++){
-				gap_distance[gap][i] = distance[i][i + gap];
+			mean_gap_distance[gap] /= (n - gap);
+		}
+		
+		//histogram of distances in the second pass
+		long[] histogram = new long[NBR_BIN];
+		double binScale = maxDist > 0 ? NBR_BIN / maxDist : 0;
+		
+		double dev;
+		for(int i = 0; i < n; i++){
+			for(int j = i + 1; j < n; j++){
+				dij = distance(coor, i, j);
+				dev = dij - mean_gap_distance[j - i];
+				correction[j - i] += dev;
+				var_gap_distance[j - i] += dev * dev;
+				histogram[bin(dij, binScale)]++;
 			}
-			
-			mean_gap_distance[gap] =  StatUtils.mean(gap_distance[gap]);
+		}
+		for(int gap = 1; gap < n; gap++){
+			var_gap_distance[gap] = n - gap > 1 ? (var_gap_distance[gap] - correction[gap] * correction[gap] / (n - gap)) / (n - gap - 1) : Double.NaN;
+			mean_gap_distance[gap] += correction[gap] / (n - gap);
 		}
 		
 		
+		//the value at 25% of sorted distances, it is the (rank - smaller)-th distance of its bin
+		long rank = (long)(nbrPair * 0.25);
+		int thresBin = 0;
+		long smaller = 0;
+		while(smaller + histogram[thresBin] <= rank){
+			smaller += histogram[thresBin];
+			thresBin++;
+		}
+		if (histogram[thresBin] > Integer.MAX_VALUE - 8) throw new IllegalArgumentException("Too many equal distances: " + histogram[thresBin]);
 		
-		Collections.sort(lstDist);
-		double thres = lstDist.get((int)(lstDist.size() * 0.25));
+		double[] binDistance = new double[(int)histogram[thresBin]];
+		int idx = 0;
+		for(int i = 0; i < n; i++){
+			for(int j = i + 1; j < n; j++){
+				dij = distance(coor, i, j);
+				if (bin(dij, binScale) == thresBin) binDistance[idx++] = dij;
+			}
+		}
+		double thres = CommonFunctions.select(binDistance, binDistance.length, (int)(rank - smaller));
+		binDistance = null;
 		
 		int end,gap = 5;//peaks are at least 5 points away from each other
 		double d;
 		int k = 3;
 		
-		TTest ttest = new TTest();
 		for(int i = 0; i < n; i++){
 			//for each i, pick only one end point with shortest distance to make loop
 			end = -1;
@@ -212,16 +451,19 @@ public class DetectorConsole {
 			
 			for(int j = i + gap; j < n; j++){
 				
+				dij = distance(coor, i, j);
 				
 				//if (distance[i][j] < gap_avg_distance[j - i] * 0.33 && distance[i][j] < thres ){
-				if (distance[i][j] * k < thres 
-						&& isLoop(distance, i, j) && distance[i][j] < d 
-						&& distance[i][j] * k < mean_gap_distance[j-i]
-						&& ttest.tTest(distance[i][j] * k, gap_distance[j - i]) < 0.0000001){
+				//cheap conditions first, conditions don't depend on each other
+				if (dij * k < thres 
+						&& dij < d 
+						&& dij * k < mean_gap_distance[j-i]
+						&& meanTest.isSignificant(dij * k, mean_gap_distance[j - i], var_gap_distance[j - i], n - (j - i))
+						&& isLoop(coor, n, i, j)){
 
 						//System.out.printf("spectrum count, rainbow, id %d-%d \n", i + 1, j + 1);
-						if (distance[i][j] < d){
-							d = distance[i][j];
+						if (dij < d){
+							d = dij;
 							end = j;
 						}
 						
@@ -229,13 +471,13 @@ public class DetectorConsole {
 			}
 			
 			if (end > -1){
-				insert(lst, new Point(i,end), distance);
+				insert(lst, new Point(i, end, d));
 				//System.out.printf("spectrum count, rainbow, id %d-%d \n", i + 1, end + 1);
 				//i = end + 1;
 			}
 		}		
 		
-		lst = filterLoop(lst, distance);
+		lst = filterLoop(lst);
 		
 		for(int i = 0; i < lst.size(); i++){
 			System.out.printf("spectrum count, rainbow, id %d-%d \n", lst.get(i).x + 1, lst.get(i).y + 1);
@@ -244,13 +486,28 @@ public class DetectorConsole {
 		return lst;		
 	}
 	
+	private static double distance(double[] coor, int i, int j){
+		return Math.sqrt(squareDistance(coor, i, j));
+	}
+	
+	/**
+	 * bin of a distance in the histogram, the max distance is in the last bin
+	 */
+	private static int bin(double d, double binScale){
+		int b = (int)(d * binScale);
+		return b < NBR_BIN ? b : NBR_BIN - 1;
+	}
+	
+	private static double squareDistance(double[] coor, int i, int j){
+		return helper.calEuclidianDist(coor[i * 3], coor[i * 3 + 1], coor[i * 3 + 2], coor[j * 3], coor[j * 3 + 1], coor[j * 3 + 2]);
+	}
+	
 	/**
 	 * if two loops overlap, keep the one with smaller end-point distance
 	 * @param loop
-	 * @param d
 	 * @return
 	 */
-	public static ArrayList<Point> filterLoop(ArrayList<Point> loop, double[][] d){
+	public static ArrayList<Point> filterLoop(ArrayList<Point> loop){
 		
 		if (loop.size() == 0) return loop;
 		
@@ -260,7 +517,7 @@ public class DetectorConsole {
 			Point p1 = rs.get(rs.size() - 1);
 			Point p2 = loop.get(i);
 			if (Math.min(p1.y, p2.y) > Math.max(p1.x, p2.x)){
-				if (d[p1.x][p1.y] > d[p2.x][p2.y]){
+				if (p1.dist > p2.dist){
 					rs.set(rs.size() - 1, p2);
 				}
 			}else{
@@ -273,31 +530,24 @@ public class DetectorConsole {
 	
 	/**
 	 * 
-	 * @param dist: NxN matrix of distances 
+	 * @param coor: coordinates of n points, point i is (coor[i * 3], coor[i * 3 + 1], coor[i * 3 + 2])
+	 * @param n
 	 * @param p1 < p2
 	 * @param p2
 	 * @return
 	 */
-	public static boolean isLoop(double[][] dist, int p1, int p2){
-		
-//		if (p1 == 828 && p2 == 858){
-//			System.out.println();
-//			
-//			double curveDist = 0;
-//			for(int i = p1; i < p2; i++){
-//				curveDist += dist[i][i + 1];
-//			}
-//			
-//			System.out.println(curveDist + "\t" + dist[p1][p2]);
-//		}
+	public static boolean isLoop(double[] coor, int n, int p1, int p2){
 		
 		int mid1 = p1 + (p2 - p1) * 1 / 4;
 		int mid2 = p1 + (p2 - p1) * 3 / 4;
 		int out1 = Math.max(0, p1 - 3);
-		int out2 = Math.min(dist.length - 1, p2 + 3);
+		int out2 = Math.min(n - 1, p2 + 3);
 		
 		double buffer = 0.2;
 		
+		//square distances are compared
+		double dist = squareDistance(coor, p1, p2);
+		
 		//p1-mid1 < mid2-p2
 		//p1-mid1 < p2-out2
 		if (mid1 - p1 <= 1) return false;
@@ -306,7 +556,7 @@ public class DetectorConsole {
 			if (p2 - mid2 <= 1) return false;
 			int count = 0;
 			for(int j = mid2; j <= p2; j++){				
-				if (dist[i][j] < dist[p1][p2]){
+				if (squareDistance(coor, i, j) < dist){
 					count++;
 					//return false;
 				}				
@@ -317,7 +567,7 @@ public class DetectorConsole {
 			if (out2 - p2 <= 1) return false;
 			count = 0;
 			for(int j = p2; j <= out2; j++){
-				if (dist[i][j] < dist[p1][p2]){
+				if (squareDistance(coor, i, j) < dist){
 					count++;
 					//return false;
 				}
@@ -332,7 +582,7 @@ public class DetectorConsole {
 			//out1-p1 < mid2-p2		
 			int count = 0;
 			for(int j = mid2; j <= p2; j++){
-				if (dist[i][j] < dist[p1][p2]){
+				if (squareDistance(coor, i, j) < dist){
 					count++;
 					//return false;
 				}
@@ -342,7 +592,7 @@ public class DetectorConsole {
 			//out1-p1 < p2-out2
 			count = 0;
 			for(int j = p2; j <= out2; j++){
-				if (dist[i][j] < dist[p1][p2]) {
+				if (squareDistance(coor, i, j) < dist) {
 					count++;
 					//return false;
 				}				
@@ -436,7 +686,7 @@ public class DetectorConsole {
 	}
 	
 	//insert a peak point into the list, if this peak point overlap more than 50% with a previous one, then, keep one with smaller distance
-	public static void insert(ArrayList<Point> lst, Point peak, double[][] distance){		
+	public static void insert(ArrayList<Point> lst, Point peak){		
 		
 		int n = lst.size();
 		
@@ -444,7 +694,7 @@ public class DetectorConsole {
 		
 		else if (overlap(lst.get(n - 1), peak) >= 5.0){
 			
-			if (distance[peak.x][peak.y] < distance[lst.get(n - 1).x][lst.get(n - 1).y]) lst.set(n - 1,  peak);
+			if (peak.dist < lst.get(n - 1).dist) lst.set(n - 1,  peak);
 			//else discard this new loop because it is not better than previous one
 			
 		}else{
@@ -467,6 +717,8 @@ public class DetectorConsole {
 	static class Point implements Comparable<Point>{
 		int x,y; //indices
 		int labelX, labelY;//labels
+		double dist;//distance between the end points
+		int support = 1;//number of models calling this loop
 		public Point(int xx, int yy){
 			this.x = xx;
 			this.y = yy;
@@ -475,6 +727,10 @@ public class DetectorConsole {
 			this.labelX = xx;
 			this.labelY = yy;
 		}
+		public Point(int xx, int yy, double d){
+			this(xx, yy);
+			this.dist = d;
+		}
 		@Override
 		public int compareTo(Point p) {
 			
@@ -483,5 +739,21 @@ public class DetectorConsole {
 			return (this.x - p.x);
 		}
 	}
+	
+	/**
+	 * a loop called in a model
+	 */
+	static class ModelCall implements Comparable<ModelCall>{
+		Point point;
+		int model;
+		public ModelCall(Point p, int m){
+			this.point = p;
+			this.model = m;
+		}
+		@Override
+		public int compareTo(ModelCall c) {
+			return point.compareTo(c.point);
+		}
+	}
 
 }
@@ -148,6 +148,47 @@ public class CommonFunctions {
 		return lst;
 	}
 	
+	/**
+	 * The k-th smallest value (k starts at 0), as the value at k after sorting, by quickselect.
+	 * Values are reordered, no memory is allocated
+	 * @param values
+	 * @param n: number of values
+	 * @param k
+	 * @return
+	 */
+	public static double select(double[] values, int n, int k){
+		if (k < 0 || k >= n) throw new IllegalArgumentException("Index " + k + " is out of " + n + " values");
+
+		int lo = 0, hi = n - 1, i, j, mid;
+		double pivot, tmp;
+		while(lo < hi){
+			//median of three as the pivot
+			mid = (lo + hi) >>> 1;
+			if (values[mid] < values[lo]){ tmp = values[mid]; values[mid] = values[lo]; values[lo] = tmp; }
+			if (values[hi] < values[lo]){ tmp = values[hi]; values[hi] = values[lo]; values[lo] = tmp; }
+			if (values[hi] < values[mid]){ tmp = values[hi]; values[hi] = values[mid]; values[mid] = tmp; }
+			pivot = values[mid];
+
+			i = lo;
+			j = hi;
+			while(i <= j){
+				while(values[i] < pivot) i++;
+				while(values[j] > pivot) j--;
+				if (i <= j){
+					tmp = values[i]; values[i] = values[j]; values[j] = tmp;
+					i++;
+					j--;
+				}
+			}
+
+			//values[lo..j] <= pivot <= values[i..hi], values between j and i are the pivot
+			if (k <= j) hi = j;
+			else if (k >= i) lo = i;
+			else return values[k];
+		}
+		return values[k];
+	}
+
 	public static String getFileNameFromPath(String path){
 		String[] st = path.split("[.\\\\/]");
 		if (st.length <= 1) return path;
@@ -0,0 +1,53 @@
+package edu.missouri.chenglab.loopdetection.utility;
+
+import org.apache.commons.math3.distribution.TDistribution;
+
+/**
+ * Two-sided one-sample t-test from the mean and variance of the sample, the same decision as TTest.tTest(mu, sample) < pValue
+ * without the sample itself. Critical values decrease with degrees of freedom, the ones at 1, 2, 4, 8... degrees of freedom
+ * bound the critical value of any sample and settle most tests, the t distribution is evaluated only between the bounds
+ *
+ */
+public class MeanTest {
+
+	private double pValue;
+
+	//critical values at 2^k degrees of freedom
+	private double[] criticalT = new double[32];
+
+	public MeanTest(double pValue){
+		this.pValue = pValue;
+		for(int k = 0; k < criticalT.length; k++){
+			criticalT[k] = new TDistribution(null, 1L << k).inverseCumulativeProbability(1 - pValue / 2);
+		}
+	}
+
+	/**
+	 *
+	 * @param mu: the mean to test
+	 * @param mean: mean of the sample
+	 * @param var: bias corrected variance of the sample
+	 * @param n: size of the sample
+	 * @return true if the p-value is less than pValue, false if the sample has less than 2 values
+	 */
+	public boolean isSignificant(double mu, double mean, double var, long n){
+		if (n < 2) return false;
+		if (var == 0) return mean != mu;
+
+		double t = Math.abs((mean - mu) / Math.sqrt(var / n));
+
+		long df = n - 1;
+		int k = 63 - Long.numberOfLeadingZeros(df);
+		if (k + 1 < criticalT.length){
+			if (t > criticalT[k] * (1 + 1e-6)) return true;
+			if (t < criticalT[k + 1] * (1 - 1e-6)) return false;
+		}
+
+		TDistribution distribution = new TDistribution(null, df);
+		return 2.0 * distribution.cumulativeProbability(-t) < pValue;
+	}
+
+	public double getPValue() {
+		return pValue;
+	}
+}
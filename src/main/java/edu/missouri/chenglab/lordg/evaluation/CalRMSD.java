@@ -1,12 +1,14 @@
 package edu.missouri.chenglab.lordg.evaluation;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import edu.missouri.chenglab.lordg.utility.Helper;
 import edu.missouri.chenglab.lordg.valueObject.Constraint;
+import edu.missouri.chenglab.lordg.valueObject.ConstraintTable;
 import edu.missouri.chenglab.lordg.valueObject.InputParameters;
 
 /**
@@ -29,7 +31,7 @@ public class CalRMSD {
 		List<Integer> lstPos = new ArrayList<Integer>();
 		InputParameters inputPara = new InputParameters();
 		inputPara.setInput_file(contactFile);
-		List<Constraint> lstCons = helper.readContactList(inputPara, lstPos);
+		ConstraintTable cons = helper.readContactList(inputPara, lstPos);
 		//List<Constraint> lstCons = helper.readContactMatrixAsList(contactFile);
 		
 		Map<Integer,Integer> mapPosToID = new HashMap<Integer,Integer>();
@@ -37,15 +39,11 @@ public class CalRMSD {
 			mapPosToID.put(lstPos.get(i), i);
 		}
 		
-
-		for(Constraint con: lstCons){
-			//System.out.println(con.getPos1() + "\t" + mapPosToID.get(con.getPos1()));
-			//System.out.println(con.getPos2() + "\t" + mapPosToID.get(con.getPos2()));
-			con.setPos1(mapPosToID.get(con.getPos1()));
-			con.setPos2(mapPosToID.get(con.getPos2()));
-			//System.out.println(con.getPos1() + "\t" + con.getPos2() + "\t" + con.getIF());
-			
-			
+		int[] pos1 = cons.getPos1Array();
+		int[] pos2 = cons.getPos2Array();
+		for(int k = 0; k < cons.size(); k++){
+			pos1[k] = mapPosToID.get(pos1[k]);
+			pos2[k] = mapPosToID.get(pos2[k]);
 		}
 
 		
@@ -57,7 +55,7 @@ public class CalRMSD {
 			str1[i * 3 + 2] = str[i][2];
 		}	
 
-		System.out.println(correlationIFvsDist(str1, lstCons,0));
+		System.out.println(correlationIFvsDist(str1, cons,0));
 	
 	}
 	
@@ -147,6 +145,95 @@ public class CalRMSD {
 		return Evaluate.calSpearmanCorrelation(dist, IFs);
 		//return correlationIFvsDist(calculateDistMT(str), lstCon, interval);
 	}
+	public static double correlationIFvsDist(double[] str, ConstraintTable cons, int interval) throws Exception{		
+		
+		return correlationVsDist(str, cons, cons.getIFArray(), interval, 0, true);
+	}
+	
+	/**
+	 * 
+	 * @param str
+	 * @param cons
+	 * @param interval
+	 * @param nbrThread: threads to rank values, 0 to use all processors, 1 when structures are scored in parallel
+	 * @return
+	 * @throws Exception
+	 */
+	public static double correlationIFvsDist(double[] str, ConstraintTable cons, int interval, int nbrThread) throws Exception{		
+		
+		return correlationVsDist(str, cons, cons.getIFArray(), interval, nbrThread, true);
+	}
+	
+	/**
+	 * 
+	 * @param str
+	 * @param cons
+	 * @param interval
+	 * @param nbrThread: threads to rank values, 0 to use all processors
+	 * @param isZeroPadded: true (as the List version) to count equality constraints that are skipped (i == j, closer than interval, IF <= 0)
+	 * as 0 in both vectors, false to leave them out of the correlation
+	 * (padded pairs are (0, 0), which calSpearmanCorrelation removes, false gives the same correlation without allocating them)
+	 * @return
+	 * @throws Exception
+	 */
+	public static double correlationIFvsDist(double[] str, ConstraintTable cons, int interval, int nbrThread, boolean isZeroPadded) throws Exception{		
+		
+		return correlationVsDist(str, cons, cons.getIFArray(), interval, nbrThread, isZeroPadded);
+	}
+	
+	public static double correlationWishDistvsDist(double[] str, ConstraintTable cons, int interval) throws Exception{		
+		
+		return correlationVsDist(str, cons, cons.getDistArray(), interval, 0, true);
+	}
+	
+	/**
+	 * Spearman correlation between values (IFs or wish distances) of equality constraints and distances in the structure
+	 * @param str
+	 * @param cons
+	 * @param values
+	 * @param interval
+	 * @param nbrThread
+	 * @param isZeroPadded: skipped equality constraints are 0 in both vectors
+	 * @return
+	 * @throws Exception
+	 */
+	private static double correlationVsDist(double[] str, ConstraintTable cons, double[] values, int interval, int nbrThread, boolean isZeroPadded) throws Exception{
+		int[] pos1 = cons.getPos1Array();
+		int[] pos2 = cons.getPos2Array();
+		double[] IF = cons.getIFArray();
+		boolean[] inequality = cons.getInequalityArray();
+		
+		double[] dist = new double[cons.size()];
+		double[] val = new double[cons.size()];
+		
+		int i,j,count = 0;
+		for(int k = 0; k < cons.size(); k++){
+			if (inequality[k]) continue;
+			i = pos1[k];
+			j = pos2[k];
+			if (i != j && Math.abs(i - j) >= interval && IF[k] > 0){
+				dist[count] = helper.calEuclidianDist(str[i * 3], str[i * 3 + 1], str[i * 3 + 2], str[j * 3], str[j * 3 + 1], str[j * 3 + 2]);
+				val[count] = values[k];
+				count++;
+			}
+		}
+		
+		//zero padded vectors have one element per equality constraint, as in the List version
+		int len = count;
+		if (isZeroPadded){
+			len = 0;
+			for(int k = 0; k < cons.size(); k++){
+				if (!inequality[k]) len++;
+			}
+		}
+		if (len < dist.length){
+			dist = Arrays.copyOf(dist, len);
+			val = Arrays.copyOf(val, len);
+		}
+		
+		return Evaluate.calSpearmanCorrelation(dist, val, nbrThread);
+	}
+	
 	public static double correlationWishDistvsDist(double[] str, List<Constraint> lstCon, int interval) throws Exception{		
 				
 		int len = 0;		
@@ -199,6 +286,30 @@ public class CalRMSD {
 		//return rmsd(calculateDistMT(str), lstCon);
 	}
 	
+	public static double rmse(double[] str, ConstraintTable cons){
+		double d,sum = 0.0;
+		int i,j;
+		int[] pos1 = cons.getPos1Array();
+		int[] pos2 = cons.getPos2Array();
+		double[] dist = cons.getDistArray();
+		boolean[] inequality = cons.getInequalityArray();
+		int count = 0;
+		for(int k = 0; k < cons.size(); k++){
+			//inequality constraints are bounds, not distances
+			if (inequality[k]) continue;
+			i = pos1[k];
+			j = pos2[k];
+			d = helper.calEuclidianDist(str[i * 3], str[i * 3 + 1], str[i * 3 + 2], str[j * 3], str[j * 3 + 1], str[j * 3 + 2]);
+			
+			sum += (d - dist[k]) * (d - dist[k]);
+			count++;
+		}
+		
+		sum /= Math.max(1, count);
+		
+		return Math.sqrt(sum);
+	}
+	
 	public static double rmse(double[] dist1, double[] dist2){
 		double s1 = 0, s2 = 0;
 		for(int i = 0; i < dist1.length; i++){
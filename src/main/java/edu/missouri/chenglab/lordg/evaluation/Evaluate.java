@@ -7,12 +7,10 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.List;
 import java.util.regex.Pattern;
 
-import org.apache.commons.math3.stat.correlation.PearsonsCorrelation;
-import org.apache.commons.math3.stat.correlation.SpearmansCorrelation;
 
+import edu.missouri.chenglab.hicdata.ContactMatrix;
 import edu.missouri.chenglab.lordg.utility.Helper;
 
 /**
@@ -69,9 +67,9 @@ public class Evaluate {
 				
 				//contactFile = "/Users/Tuan/workspace/CNS/newdata" + "/" + fileName.replaceAll("_rank.*.pdb","_matrix.txt");
 		
-				double[][] b = readContactMatrix(contactFile);
+				ContactMatrix b = readContactMatrix(contactFile);
 				
-				double[][] a = calPairwiseDist(Helper.getHelperInstance().loadPDBStructure(strFile));
+				double[][] a = Helper.getHelperInstance().loadPDBStructure(strFile);
 				
 			
 				//ignore the first 9 atoms for Pastis structures, 0..8
@@ -119,12 +117,73 @@ public class Evaluate {
 	 * @throws Exception
 	 */
 	private static double correlationStrIF(String strFile, String contFile) throws Exception{
-		double[][] a = calPairwiseDist(readShrec3DCoordinates(strFile));
-		double[][] b = readContactMatrix(contFile);
+		double[][] a = readShrec3DCoordinates(strFile);
+		ContactMatrix b = readContactMatrix(contFile);
 		
 		return calCorrelation(a, b);
 	}
 	
+	/**
+	 * Pearson correlation between distances of a structure and contacts, same as calCorrelation(calPairwiseDist(co), b)
+	 * without the two dense matrices: distances are computed row by row, contacts of a row are read into one array
+	 * @param co: coordinates of the structure
+	 * @param b
+	 * @return
+	 * @throws Exception
+	 */
+	public static double calCorrelation(double[][] co, ContactMatrix b) throws Exception{
+		
+		int n = co.length;
+		if (n != b.size()){			
+			throw new Exception("Matrices don't have the same dimension: " + n + "\t vs. \t" + b.size());			
+		}
+		
+		final double[] row = new double[n];
+		ContactMatrix.EntryVisitor rowReader = new ContactMatrix.EntryVisitor() {
+			@Override
+			public void visit(int i, int j, double value) {
+				if (j > i) row[j] = value;
+			}
+		};
+		
+		//means, then sums of squares around the means, pairs in the same order as calCorrelation
+		int count = 0;
+		double meanX = 0, meanY = 0, d;
+		for(int i = 0; i < n; i++){
+			b.forEachEntry(i, i + 1, rowReader);
+			for(int j = i + 1; j < n; j++){
+				d = distance(co[i][0],co[i][1],co[i][2],co[j][0],co[j][1],co[j][2]);
+				if (!Double.isNaN(d)){
+					meanX += d;
+					meanY += row[j];
+					count++;
+				}
+				row[j] = 0;
+			}
+		}
+		if (count < 2) throw new IllegalArgumentException("At least 2 values are needed, got " + count);
+		meanX /= count;
+		meanY /= count;
+		
+		double sxx = 0, syy = 0, sxy = 0, dx, dy;
+		for(int i = 0; i < n; i++){
+			b.forEachEntry(i, i + 1, rowReader);
+			for(int j = i + 1; j < n; j++){
+				d = distance(co[i][0],co[i][1],co[i][2],co[j][0],co[j][1],co[j][2]);
+				if (!Double.isNaN(d)){
+					dx = d - meanX;
+					dy = row[j] - meanY;
+					sxx += dx * dx;
+					syy += dy * dy;
+					sxy += dx * dy;
+				}
+				row[j] = 0;
+			}
+		}
+		
+		return sxy / Math.sqrt(sxx * syy);
+	}
+	
 	/**
 	 * correlation between 2 symmetric matrices, Pearson correlation
 	 * @param a
@@ -139,30 +198,29 @@ public class Evaluate {
 		
 		//double[] x = flatArray(a);
 		//double[] y = flatArray(b);
-		double[] x,y;
+		int count = 0;
+		for(int i = 0; i < a.length; i++){
+			for(int j = i + 1; j < a.length; j++){
+				if(!Double.isNaN(a[i][j]) ){
+					count++;
+				}
+			}
+		}
 		
-		ArrayList<Double> lst1 = new ArrayList<Double>();
-		ArrayList<Double> lst2 = new ArrayList<Double>();
+		double[] x = new double[count];
+		double[] y = new double[count];
+		count = 0;
 		for(int i = 0; i < a.length; i++){
 			for(int j = i + 1; j < a.length; j++){
 				if(!Double.isNaN(a[i][j]) ){
-					lst1.add(a[i][j]);
-					lst2.add(b[i][j]);
+					x[count] = a[i][j];
+					y[count] = b[i][j];
+					count++;
 				}
-				
 			}
-		}	
-		x = new double[lst1.size()];
-		y = new double[lst1.size()];
-		for(int i = 0; i < lst1.size(); i++){
-			x[i] = lst1.get(i);
-			y[i] = lst2.get(i);
 		}
-		center(x);
-		center(y); 
-		double cor = product(x, y) / (norm2(x) * norm2(y));
 		
-		return cor;
+		return RankCorrelation.pearson(x, y);
 
 	}
 	
@@ -230,7 +288,64 @@ public class Evaluate {
 		return cor;
 	}
 
+	/**
+	 * Spearman correlation between distances of a structure and contacts, same as calSpearmanCorrelation(calPairwiseDist(co), b, gap)
+	 * without dense matrices: only pairs with contacts are used, so only their distances are computed
+	 * @param co: coordinates of the structure
+	 * @param b
+	 * @param gap: pairs (i, j) with j - i <= gap are ignored
+	 * @return
+	 * @throws Exception
+	 */
+	public static double calSpearmanCorrelation(final double[][] co, ContactMatrix b, final int gap) throws Exception{
+		
+		if (co.length != b.size()){			
+			throw new Exception("Matrices don't have the same dimension: " + co.length + "\t vs. \t" + b.size());			
+		}
+		
+		//count pairs, then collect them
+		final int[] count = new int[1];
+		b.forEachEntry(new ContactMatrix.EntryVisitor() {
+			@Override
+			public void visit(int i, int j, double value) {
+				if (j < i + 1 + gap || Double.isNaN(value) || value <= 0) return;
+				double d = distance(co[i][0],co[i][1],co[i][2],co[j][0],co[j][1],co[j][2]);
+				if (!Double.isNaN(d) && d > 0) count[0]++;
+			}
+		});
+		
+		final double[] x = new double[count[0]];
+		final double[] y = new double[count[0]];
+		count[0] = 0;
+		b.forEachEntry(new ContactMatrix.EntryVisitor() {
+			@Override
+			public void visit(int i, int j, double value) {
+				if (j < i + 1 + gap || Double.isNaN(value) || value <= 0) return;
+				double d = distance(co[i][0],co[i][1],co[i][2],co[j][0],co[j][1],co[j][2]);
+				if (!Double.isNaN(d) && d > 0){
+					x[count[0]] = d;
+					y[count[0]] = value;
+					count[0]++;
+				}
+			}
+		});
+		
+		return calSpearmanCorrelation(x, y);
+	}
+
 	public static double calSpearmanCorrelation(double[] a, double[] b) throws Exception{
+		return calSpearmanCorrelation(a, b, 0);
+	}
+	
+	/**
+	 * Spearman correlation, pairs of (0,0) are removed and values are rounded relative to their average before ranking
+	 * @param a
+	 * @param b
+	 * @param nbrThread: threads to rank values, 0 to use all processors
+	 * @return
+	 * @throws Exception
+	 */
+	public static double calSpearmanCorrelation(double[] a, double[] b, int nbrThread) throws Exception{
 		
 		//remove pairs of (0,0) as they inflate correlation number
 		int count = 0;		
@@ -257,7 +372,7 @@ public class Evaluate {
 		}
 		////
 		
-		return new SpearmansCorrelation().correlation(x, y);
+		return RankCorrelation.spearman(x, y, nbrThread);
 	}
 	
 	/**
@@ -266,52 +381,8 @@ public class Evaluate {
 	 * @return
 	 * @throws Exception
 	 */
-	private static double[][] readContactMatrix(String fileName) throws Exception{
-		File file = new File(fileName);
-		FileReader fr = null;
-		BufferedReader br = null;
-		String ln;
-		String[] st;
-		Pattern splitRegex = Pattern.compile("[\\s]+");
-		double[][] a = null;
-		int count = 0;
-		try{
-			fr = new FileReader(file);
-			br = new BufferedReader(fr);
-			
-			ln = br.readLine();
-			st = splitRegex.split(ln.trim());
-			a = new double[st.length][st.length];
-			
-			for(int i = 0; i < st.length; i++){
-				a[count][i] = Double.parseDouble(st[i]);
-			}
-			count++;
-			
-			while((ln = br.readLine()) != null){
-				st = splitRegex.split(ln.trim());
-				
-				for(int i = 0; i < st.length; i++){
-					a[count][i] = Double.parseDouble(st[i]);
-				}
-				count++;
-			}
-			
-		}catch(Exception ex){
-			ex.printStackTrace();
-			throw ex;
-		}finally{
-			if (br != null){
-				br.close();				
-			}
-			if (fr != null){
-				fr.close();
-			}
-		}
-				
-		
-		return a;
-		
+	private static ContactMatrix readContactMatrix(String fileName) throws Exception{
+		return ContactMatrix.readMatrix(fileName);
 	}
 	
 	/**
@@ -453,54 +524,15 @@ public class Evaluate {
 	}
 	
 	
-	public static double mySpearmanCorrelation(double[] a, double[] b){
-		List<Element> lst = new ArrayList<Element>();
-		for(int i = 0; i < a.length; i++){
-			lst.add(new Element(a[i],i));
-		}
-		//Collections.sort(lst, (e1,e2) -> e1.value.compareTo(e2.value) );
-		
-		double[] ranka = new double[a.length];
-		for(int i = 0; i < lst.size(); i++){
-			ranka[lst.get(i).id] = i;
-		}
-		
-		lst.clear();
-		for(int i = 0; i < b.length; i++){
-			lst.add(new Element(b[i],i));
-		}
-		//Collections.sort(lst, (e1,e2) -> e1.value.compareTo(e2.value) );
-		
-		double[] rankb = new double[b.length];
-		for(int i = 0; i < lst.size(); i++){
-			rankb[lst.get(i).id] = i;
-		}
-		
-		return new PearsonsCorrelation().correlation(ranka, rankb);
-		
-//		int n = a.length;
-//		double total = 0.0;
-//		double coef = 6.0 / ((double)(n) * n * n - n);
-//		for(int i = 0; i < n; i++){
-//			total += (ranka[i] - rankb[i]) * (ranka[i] - rankb[i]) ; 
-//		}
-//		total *= coef;
-//		
-//		//System.out.printf("\n %.2f \n", 1.0 - total);
-//		
-//		return 1.0 - total;
-	}
-	
-	static class Element{
-		Double value;
-		int id;
-		
-		public Element(Double v, int i){
-			this.value = v;
-			this.id = i;
-		}
-		
-		
+	/**
+	 * Spearman correlation without removing (0,0) pairs or rounding values
+	 * @param a
+	 * @param b
+	 * @return
+	 * @throws Exception
+	 */
+	public static double mySpearmanCorrelation(double[] a, double[] b) throws Exception{
+		return RankCorrelation.spearman(a, b, 0);
 	}
 	
 
@@ -0,0 +1,324 @@
+package edu.missouri.chenglab.lordg.evaluation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Pearson and Spearman correlations of two arrays, on primitive arrays only.
+ *
+ * Values are ranked by sorting a copy of them together with their indices, chunks are sorted in parallel and then merged,
+ * ties get the average of their ranks (as the default ranking of commons math). Both correlations are computed
+ * in one pass over the values and their ranks. Buffers are kept between calls, so an instance scoring
+ * many structures doesn't allocate memory after the first call; an instance must not be used by two threads at the same time
+ *
+ */
+public class RankCorrelation {
+
+	//a thread is not used to sort less than this number of values
+	private static final int MIN_VALUES_PER_THREAD = 1 << 16;
+
+	//runs shorter than this are sorted by insertion before being merged
+	private static final int INSERTION_SORT_LENGTH = 32;
+
+	private int nbrThread;
+
+	//values being sorted with their indices, and buffers to merge them
+	private double[] key;
+	private int[] index;
+	private double[] tmpKey;
+	private int[] tmpIndex;
+
+	private double[] rankX;
+	private double[] rankY;
+
+	private double pearson;
+	private double spearman;
+
+	/**
+	 *
+	 * @param nbrThread: number of threads to sort values, 0 to use all processors
+	 */
+	public RankCorrelation(int nbrThread){
+		this.nbrThread = nbrThread > 0 ? nbrThread : Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Spearman correlation of x and y with a new engine
+	 * @param x
+	 * @param y
+	 * @param nbrThread: 0 to use all processors
+	 * @return
+	 * @throws Exception
+	 */
+	public static double spearman(double[] x, double[] y, int nbrThread) throws Exception{
+		if (x.length != y.length) throw new IllegalArgumentException("Arrays don't have the same length: " + x.length + " vs. " + y.length);
+		return new RankCorrelation(nbrThread).correlate(x, y, x.length);
+	}
+
+	/**
+	 * Pearson correlation of x and y, values are not ranked
+	 * @param x
+	 * @param y
+	 * @return
+	 */
+	public static double pearson(double[] x, double[] y){
+		if (x.length != y.length) throw new IllegalArgumentException("Arrays don't have the same length: " + x.length + " vs. " + y.length);
+		if (x.length < 2) throw new IllegalArgumentException("At least 2 values are needed, got " + x.length);
+
+		double meanX = 0, meanY = 0;
+		for(int i = 0; i < x.length; i++){
+			meanX += x[i];
+			meanY += y[i];
+		}
+		meanX /= x.length;
+		meanY /= y.length;
+
+		double sxx = 0, syy = 0, sxy = 0, dx, dy;
+		for(int i = 0; i < x.length; i++){
+			dx = x[i] - meanX;
+			dy = y[i] - meanY;
+			sxx += dx * dx;
+			syy += dy * dy;
+			sxy += dx * dy;
+		}
+
+		return sxy / Math.sqrt(sxx * syy);
+	}
+
+	/**
+	 * Compute Pearson and Spearman correlations of the first n values of x and y
+	 * @param x
+	 * @param y
+	 * @param n
+	 * @return the Spearman correlation, the Pearson correlation is in getPearson()
+	 * @throws Exception if there are less than 2 values or a value is NaN
+	 */
+	public double correlate(double[] x, double[] y, int n) throws Exception{
+		if (n < 2) throw new IllegalArgumentException("At least 2 values are needed, got " + n);
+
+		ensureCapacity(n);
+
+		rank(x, n, rankX);
+		rank(y, n, rankY);
+
+		double meanX = 0, meanY = 0;
+		for(int i = 0; i < n; i++){
+			meanX += x[i];
+			meanY += y[i];
+		}
+		meanX /= n;
+		meanY /= n;
+
+		//average ranks keep the mean of ranks (n + 1) / 2
+		double meanRank = (n + 1) / 2.0;
+
+		double sxx = 0, syy = 0, sxy = 0, rxx = 0, ryy = 0, rxy = 0, dx, dy;
+		for(int i = 0; i < n; i++){
+			dx = x[i] - meanX;
+			dy = y[i] - meanY;
+			sxx += dx * dx;
+			syy += dy * dy;
+			sxy += dx * dy;
+
+			dx = rankX[i] - meanRank;
+			dy = rankY[i] - meanRank;
+			rxx += dx * dx;
+			ryy += dy * dy;
+			rxy += dx * dy;
+		}
+
+		pearson = sxy / Math.sqrt(sxx * syy);
+		spearman = rxy / Math.sqrt(rxx * ryy);
+
+		return spearman;
+	}
+
+	/**
+	 * Rank the first n values, ranks start at 1 and tied values get the average of their ranks
+	 * @param values
+	 * @param n
+	 * @param ranks: output, at least n long
+	 * @throws Exception if a value is NaN
+	 */
+	public void rank(double[] values, int n, double[] ranks) throws Exception{
+		ensureCapacity(n);
+
+		for(int i = 0; i < n; i++){
+			if (Double.isNaN(values[i])) throw new IllegalArgumentException("NaN value at " + i);
+			key[i] = values[i];
+			index[i] = i;
+		}
+
+		sort(n);
+
+		int j;
+		double r;
+		for(int i = 0; i < n; i = j){
+			j = i + 1;
+			while(j < n && key[j] == key[i]) j++;
+
+			//positions i..j-1 have ranks i+1..j
+			r = (i + 1 + j) / 2.0;
+			for(int k = i; k < j; k++){
+				ranks[index[k]] = r;
+			}
+		}
+	}
+
+	private void ensureCapacity(int n){
+		if (key == null || key.length < n){
+			key = new double[n];
+			index = new int[n];
+			tmpKey = new double[n];
+			tmpIndex = new int[n];
+			rankX = new double[n];
+			rankY = new double[n];
+		}
+	}
+
+	/**
+	 * sort key[0..n) with index, chunks are sorted by threads and merged pairwise
+	 */
+	private void sort(int n) throws Exception{
+		int nbrWorker = Math.max(1, Math.min(nbrThread, n / MIN_VALUES_PER_THREAD));
+		if (nbrWorker == 1){
+			sortRange(0, n);
+			return;
+		}
+
+		final int[] bound = new int[nbrWorker + 1];
+		for(int w = 0; w <= nbrWorker; w++){
+			bound[w] = (int)((long)n * w / nbrWorker);
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(nbrWorker);
+		try{
+			List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+			for(int w = 0; w < nbrWorker; w++){
+				final int beg = bound[w], end = bound[w + 1];
+				tasks.add(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						sortRange(beg, end);
+						return null;
+					}
+				});
+			}
+			waitFor(executor.invokeAll(tasks));
+
+			//merge sorted runs pairwise, from key into tmpKey, then swap them
+			for(int width = 1; width < nbrWorker; width *= 2){
+				tasks.clear();
+				for(int w = 0; w < nbrWorker; w += 2 * width){
+					final int beg = bound[w], mid = bound[Math.min(w + width, nbrWorker)], end = bound[Math.min(w + 2 * width, nbrWorker)];
+					final double[] srcKey = key, dstKey = tmpKey;
+					final int[] srcIndex = index, dstIndex = tmpIndex;
+					tasks.add(new Callable<Void>() {
+						@Override
+						public Void call() throws Exception {
+							merge(srcKey, srcIndex, dstKey, dstIndex, beg, mid, end);
+							return null;
+						}
+					});
+				}
+				waitFor(executor.invokeAll(tasks));
+
+				swapBuffers();
+			}
+		}finally{
+			executor.shutdown();
+		}
+	}
+
+	private static void waitFor(List<Future<Void>> futures) throws Exception{
+		for(Future<Void> f : futures){
+			f.get();
+		}
+	}
+
+	private void swapBuffers(){
+		double[] k = key;
+		key = tmpKey;
+		tmpKey = k;
+
+		int[] id = index;
+		index = tmpIndex;
+		tmpIndex = id;
+	}
+
+	/**
+	 * bottom up merge sort of key[beg..end), short runs are sorted by insertion,
+	 * the sorted range is in key and index when it returns
+	 */
+	private void sortRange(int beg, int end){
+		for(int i = beg; i < end; i += INSERTION_SORT_LENGTH){
+			insertionSort(key, index, i, Math.min(i + INSERTION_SORT_LENGTH, end));
+		}
+
+		double[] srcKey = key, dstKey = tmpKey;
+		int[] srcIndex = index, dstIndex = tmpIndex, tmpI;
+		double[] tmpK;
+		for(int width = INSERTION_SORT_LENGTH; width < end - beg; width *= 2){
+			for(int i = beg; i < end; i += 2 * width){
+				merge(srcKey, srcIndex, dstKey, dstIndex, i, Math.min(i + width, end), Math.min(i + 2 * width, end));
+			}
+			tmpK = srcKey; srcKey = dstKey; dstKey = tmpK;
+			tmpI = srcIndex; srcIndex = dstIndex; dstIndex = tmpI;
+		}
+
+		if (srcKey != key){
+			System.arraycopy(srcKey, beg, key, beg, end - beg);
+			System.arraycopy(srcIndex, beg, index, beg, end - beg);
+		}
+	}
+
+	private static void insertionSort(double[] key, int[] index, int beg, int end){
+		double k;
+		int id, j;
+		for(int i = beg + 1; i < end; i++){
+			k = key[i];
+			id = index[i];
+			for(j = i - 1; j >= beg && key[j] > k; j--){
+				key[j + 1] = key[j];
+				index[j + 1] = index[j];
+			}
+			key[j + 1] = k;
+			index[j + 1] = id;
+		}
+	}
+
+	/**
+	 * merge sorted src[beg..mid) and src[mid..end) into dst[beg..end)
+	 */
+	private static void merge(double[] srcKey, int[] srcIndex, double[] dstKey, int[] dstIndex, int beg, int mid, int end){
+		int i = beg, j = mid, k = beg;
+		while(i < mid && j < end){
+			if (srcKey[j] < srcKey[i]){
+				dstKey[k] = srcKey[j];
+				dstIndex[k++] = srcIndex[j++];
+			}else{
+				dstKey[k] = srcKey[i];
+				dstIndex[k++] = srcIndex[i++];
+			}
+		}
+		if (i < mid){
+			System.arraycopy(srcKey, i, dstKey, k, mid - i);
+			System.arraycopy(srcIndex, i, dstIndex, k, mid - i);
+		}else if (j < end){
+			System.arraycopy(srcKey, j, dstKey, k, end - j);
+			System.arraycopy(srcIndex, j, dstIndex, k, end - j);
+		}
+	}
+
+	public double getPearson() {
+		return pearson;
+	}
+
+	public double getSpearman() {
+		return spearman;
+	}
+}
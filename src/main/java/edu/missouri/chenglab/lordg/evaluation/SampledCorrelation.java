@@ -0,0 +1,271 @@
+package edu.missouri.chenglab.lordg.evaluation;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.math3.distribution.NormalDistribution;
+
+import edu.missouri.chenglab.lordg.utility.Helper;
+import edu.missouri.chenglab.lordg.valueObject.ConstraintTable;
+
+/**
+ * Estimate the Spearman correlation between IFs and distances of a structure (CalRMSD.correlationIFvsDist without zero padding)
+ * on a sample of the constraints, with a confidence interval. This is used to score structures that are not
+ * fully optimized, e.g. to abandon poor conversion factors early.
+ *
+ * The sample is stratified by genomic distance: constraints are grouped by log2 of the distance between their points
+ * (inter-chromosome constraints are one group), and every group gets a share of the sample proportional to its size,
+ * so the sample has the distance profile of all constraints. The sample is drawn once, every structure is scored
+ * on the same constraints, so scores of different structures are compared without the noise of different samples.
+ *
+ * The interval uses the Fisher transformation of the Spearman correlation r, with the standard error sqrt((1 + r^2 / 2) / (n - 3))
+ * (Bonett and Wright 2000) and the finite population correction. Stratified sampling doesn't increase the variance,
+ * so the interval is conservative
+ *
+ */
+public class SampledCorrelation {
+
+	private static Helper helper = Helper.getHelperInstance();
+
+	//fewer constraints than this don't give a meaningful interval
+	private static final int MIN_SAMPLE_SIZE = 10;
+
+	//stratum of inter-chromosome constraints, intra-chromosome strata are 0..31
+	private static final int INTER_CHROMOSOME_STRATUM = 32;
+
+	private int[] pos1;
+	private int[] pos2;
+
+	//IFs of sampled constraints
+	private double[] IF;
+
+	//number of constraints that can be sampled
+	private int populationSize;
+
+	//quantile of the normal distribution for the confidence level, 0 if the sample has all constraints
+	private double quantile;
+
+	//finite population correction of the variance
+	private double fpc;
+
+	/**
+	 *
+	 * @param cons: constraints, only positions, IFs and inequality flags are used
+	 * @param sampleSize: number of constraints to sample, 0 or more than the number of constraints to use all constraints
+	 * @param confidence: confidence level of intervals, e.g. 0.95
+	 * @param seed: seed to draw the sample
+	 */
+	public SampledCorrelation(ConstraintTable cons, int sampleSize, double confidence, long seed){
+		if (confidence <= 0 || confidence >= 1) throw new IllegalArgumentException("The confidence level must be in (0, 1): " + confidence);
+
+		int[] chrId = cons.getChrId();
+		int n = cons.size();
+
+		//constraints scored by correlationIFvsDist, grouped by stratum
+		int[] stratum = new int[n];
+		int[] stratumSize = new int[INTER_CHROMOSOME_STRATUM + 1];
+		for(int k = 0; k < n; k++){
+			stratum[k] = -1;
+			if (cons.isInequality(k) || cons.getPos1(k) == cons.getPos2(k) || cons.getIF(k) <= 0) continue;
+
+			if (chrId != null && !cons.isIntraChromosome(k)){
+				stratum[k] = INTER_CHROMOSOME_STRATUM;
+			}else{
+				stratum[k] = 31 - Integer.numberOfLeadingZeros(cons.getPos2(k) - cons.getPos1(k));
+			}
+			stratumSize[stratum[k]]++;
+			populationSize++;
+		}
+
+		//a smaller sample doesn't give a meaningful interval, the minimum may be all constraints
+		if (sampleSize > 0) sampleSize = Math.max(sampleSize, MIN_SAMPLE_SIZE);
+
+		int[] selected;
+		if (sampleSize <= 0 || sampleSize >= populationSize){
+			selected = new int[populationSize];
+			int count = 0;
+			for(int k = 0; k < n; k++){
+				if (stratum[k] >= 0) selected[count++] = k;
+			}
+		}else{
+			selected = drawSample(stratum, stratumSize, sampleSize, new Random(seed));
+		}
+
+		pos1 = new int[selected.length];
+		pos2 = new int[selected.length];
+		IF = new double[selected.length];
+		for(int s = 0; s < selected.length; s++){
+			pos1[s] = cons.getPos1(selected[s]);
+			pos2[s] = cons.getPos2(selected[s]);
+			IF[s] = cons.getIF(selected[s]);
+		}
+
+		if (selected.length < populationSize && selected.length > 3){
+			quantile = new NormalDistribution().inverseCumulativeProbability((1 + confidence) / 2);
+			fpc = 1.0 - (double)selected.length / populationSize;
+		}
+	}
+
+	/**
+	 * Proportional allocation of the sample to strata (largest remainders), then a random sample of every stratum
+	 * @param sampleSize: less than the number of constraints that can be sampled
+	 * @return indices of sampled constraints, in increasing order
+	 */
+	private int[] drawSample(int[] stratum, int[] stratumSize, int sampleSize, Random random){
+		int nbrStratum = stratumSize.length;
+
+		int[] quota = new int[nbrStratum];
+		double[] remainder = new double[nbrStratum];
+		int allocated = 0;
+		double share;
+		for(int s = 0; s < nbrStratum; s++){
+			share = (double)sampleSize * stratumSize[s] / populationSize;
+			quota[s] = (int)share;
+			remainder[s] = share - quota[s];
+			allocated += quota[s];
+		}
+		int best;
+		for(; allocated < sampleSize; allocated++){
+			//a stratum never gets more than its constraints, even if shares are rounded down
+			best = -1;
+			for(int s = 0; s < nbrStratum; s++){
+				if (quota[s] < stratumSize[s] && (best < 0 || remainder[s] > remainder[best])) best = s;
+			}
+			quota[best]++;
+			remainder[best] = -1;
+		}
+
+		//constraints of every stratum, then a partial shuffle picks the first quota of them
+		int[][] members = new int[nbrStratum][];
+		int[] count = new int[nbrStratum];
+		for(int s = 0; s < nbrStratum; s++){
+			members[s] = new int[stratumSize[s]];
+		}
+		for(int k = 0; k < stratum.length; k++){
+			if (stratum[k] >= 0) members[stratum[k]][count[stratum[k]]++] = k;
+		}
+
+		int[] selected = new int[sampleSize];
+		int nbrSelected = 0, r, tmp;
+		for(int s = 0; s < nbrStratum; s++){
+			for(int i = 0; i < quota[s]; i++){
+				r = i + random.nextInt(stratumSize[s] - i);
+				tmp = members[s][i];
+				members[s][i] = members[s][r];
+				members[s][r] = tmp;
+
+				selected[nbrSelected++] = members[s][i];
+			}
+		}
+
+		//structures are read in the order of constraints
+		Arrays.sort(selected);
+		return selected;
+	}
+
+	/**
+	 * Estimate the Spearman correlation between IFs and distances of the structure, it can be called by many threads at the same time
+	 * @param str
+	 * @return
+	 * @throws Exception
+	 */
+	public Estimate estimate(double[] str) throws Exception{
+		double[] dist = new double[pos1.length];
+		int i, j;
+		for(int s = 0; s < pos1.length; s++){
+			i = pos1[s];
+			j = pos2[s];
+			dist[s] = helper.calEuclidianDist(str[i * 3], str[i * 3 + 1], str[i * 3 + 2], str[j * 3], str[j * 3 + 1], str[j * 3 + 2]);
+		}
+
+		//the same ranking as the score on all constraints
+		double cor = Evaluate.calSpearmanCorrelation(dist, IF, 1);
+
+		if (quantile == 0 || Double.isNaN(cor)) return new Estimate(cor, cor, cor, pos1.length);
+
+		//half width of the interval in the Fisher space, the transformation is infinite at -1 and 1
+		double halfWidth = quantile * Math.sqrt((1 + cor * cor / 2) / (pos1.length - 3) * fpc);
+		double z = atanh(Math.max(-1 + 1e-12, Math.min(1 - 1e-12, cor)));
+		return new Estimate(cor, Math.tanh(z - halfWidth), Math.tanh(z + halfWidth), pos1.length);
+	}
+
+	private static double atanh(double x){
+		return 0.5 * Math.log((1 + x) / (1 - x));
+	}
+
+	/**
+	 *
+	 * @return number of sampled constraints
+	 */
+	public int getSampleSize(){
+		return pos1.length;
+	}
+
+	/**
+	 *
+	 * @return number of constraints that can be sampled
+	 */
+	public int getPopulationSize() {
+		return populationSize;
+	}
+
+	/**
+	 *
+	 * @return true if all constraints are used, estimates are the exact correlation
+	 */
+	public boolean isExact(){
+		return pos1.length == populationSize;
+	}
+
+	/**
+	 * An estimated correlation with its confidence interval
+	 */
+	public static class Estimate {
+		private double score;
+		private double lower;
+		private double upper;
+		private int sampleSize;
+
+		public Estimate(double score, double lower, double upper, int sampleSize){
+			this.score = score;
+			this.lower = lower;
+			this.upper = upper;
+			this.sampleSize = sampleSize;
+		}
+
+		/**
+		 *
+		 * @param score
+		 * @return an exact score, its interval is the score itself
+		 */
+		public static Estimate exact(double score){
+			return new Estimate(score, score, score, 0);
+		}
+
+		public double getScore() {
+			return score;
+		}
+
+		public double getLower() {
+			return lower;
+		}
+
+		public double getUpper() {
+			return upper;
+		}
+
+		/**
+		 *
+		 * @return number of constraints used, 0 if the score is not estimated on a sample
+		 */
+		public int getSampleSize() {
+			return sampleSize;
+		}
+
+		@Override
+		public String toString(){
+			if (lower == upper) return String.format("%.3f", score);
+			return String.format("%.3f [%.3f, %.3f]", score, lower, upper);
+		}
+	}
+}
@@ -8,28 +8,40 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
-import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.regex.Pattern;
 
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 
 
-import edu.missouri.chenglab.loopdetection.utility.CommonFunctions;
 import edu.missouri.chenglab.lordg.evaluation.CalRMSD;
+import edu.missouri.chenglab.lordg.evaluation.SampledCorrelation;
+import edu.missouri.chenglab.lordg.optimization.Checkpoint;
+import edu.missouri.chenglab.lordg.optimization.ConversionFactorSearch;
+import edu.missouri.chenglab.lordg.optimization.ExcludedVolume;
 import edu.missouri.chenglab.lordg.optimization.GradientAscent;
+import edu.missouri.chenglab.lordg.optimization.LBFGS;
+import edu.missouri.chenglab.lordg.optimization.ObjectiveEvaluator;
 import edu.missouri.chenglab.lordg.optimization.OptimizedObject;
+import edu.missouri.chenglab.lordg.utility.ContactListReader;
+import edu.missouri.chenglab.lordg.utility.ContactSource;
 import edu.missouri.chenglab.lordg.utility.Helper;
 import edu.missouri.chenglab.lordg.valueObject.Constants;
-import edu.missouri.chenglab.lordg.valueObject.Constraint;
+import edu.missouri.chenglab.lordg.valueObject.ConstraintTable;
 import edu.missouri.chenglab.lordg.valueObject.GenomicLocation;
 import edu.missouri.chenglab.lordg.valueObject.InputParameters;
 
@@ -40,8 +52,11 @@ public class StructureGeneratorLorentz_HierarchicalModeling implements Optimized
 	//number of structures will be generated
 	//private int NUM;
 	
-	//list of constraints, each contains position i,j, IF, dist
-	private List<Constraint> lstCons;
+	//table of constraints, each contains position i,j, IF, dist
+	private ConstraintTable constraints;
+	
+	//constraints read by the generator searching for the conversion factor, a candidate computes its own distances from them
+	private ConstraintTable sharedConstraints;
 	
 	//list to map 0..n to pos1...posn
 	private List<Integer> lstPos;
@@ -70,8 +85,17 @@ public class StructureGeneratorLorentz_HierarchicalModeling implements Optimized
 	//maximum distance that will be scaled down to	
 	//private double maxScale = Constants.SCALE_DISTANCE; 
 	
-	//list contains indices of sub constraints for parallel threads
-	private ArrayList<Integer> lstSubDataSetId = new ArrayList<Integer>();
+	//evaluates the objective function and gradient in parallel, it keeps its threads for the whole optimization
+	private ObjectiveEvaluator evaluator;
+	
+	//excluded volume term, null if it is disabled
+	private ExcludedVolume excludedVolume;
+	
+	//writes checkpoints of the optimization of the output model, null if checkpoints are disabled
+	private Checkpoint.Writer checkpointWriter;
+	
+	//checkpoint of a previous run to resume from, null to start from a new structure
+	private Checkpoint resumed;
 
 	//file prefix to name output file structure
 	//private String FILE_PREFIX;
@@ -87,6 +111,9 @@ public class StructureGeneratorLorentz_HierarchicalModeling implements Optimized
 	
 	private double maxIF;	
 	
+	//average IF, IFs in constraints are normalized by it
+	private double avgIF = 1.0;
+	
 	//private double avgIF = 1.0;
 	
 	private double AVG_DIST = Constants.AVG_DIST;
@@ -98,6 +125,15 @@ public class StructureGeneratorLorentz_HierarchicalModeling implements Optimized
 	//interval to ignore when calculating Spearman correlation, a[i,i + interval] = 0
 	private int interval = 5;
 	
+	//to initialize structures, models of an ensemble have their own seeds
+	private Random random = new Random();
+	
+	//resolution solved by this generator, 0 is the input resolution, level l has about n / 2^l points
+	private int level = 0;
+	
+	//time and iterations of each resolution, shared by generators of all resolutions
+	private List<LevelTiming> levelTimings = new ArrayList<LevelTiming>();
+	
 	//private double contactThres;
 	//private int[] chrLens = null;
 	private HashMap<Integer,GenomicLocation> idToChr;// = new HashMap<Integer,Integer>(); //to map index to chromosome
@@ -111,6 +147,22 @@ public class StructureGeneratorLorentz_HierarchicalModeling implements Optimized
 		this.inputParameters = parameters;
 	}
 	
+	/**
+	 * A generator that uses contacts already read by another generator, to evaluate one conversion factor
+	 * @param parent
+	 * @param parameters
+	 */
+	private StructureGeneratorLorentz_HierarchicalModeling(StructureGeneratorLorentz_HierarchicalModeling parent, InputParameters parameters){
+		this.inputParameters = parameters;
+		this.sharedConstraints = parent.constraints;
+		this.lstPos = parent.lstPos;
+		this.idToChr = parent.idToChr;
+		this.n = parent.n;
+		this.totalIF = parent.totalIF;
+		this.maxIF = parent.maxIF;
+		this.avgIF = parent.avgIF;
+	}
+	
 	/**
 	 * read input contacts
 	 * @throws Exception
@@ -121,24 +173,34 @@ public class StructureGeneratorLorentz_HierarchicalModeling implements Optimized
 		//inputParameters.getViewer().loadNewModel(inputParameters.getOutput_folder() + "/tmp.gss", new String[]{"Reading input data ..."});
 		//helper.delete_file(inputParameters.getOutput_folder() + "/tmp.gss");
 		
-		inputParameters.getViewer().displayMessage(new String[]{"Reading input data ..."});
-		
-		lstPos = new ArrayList<Integer>();
+		if (inputParameters.getViewer() != null){
+			inputParameters.getViewer().displayMessage(new String[]{"Reading input data ..."});
+		}
 		
-		lstCons = helper.readContactList(inputParameters, lstPos,inputParameters.getContact_thres());
+		//sorted positions, the id of a position is its index
+		int[] positions;
+		ContactSource source = inputParameters.getContactSource();
+		if (source != null){
+			//contacts straight from the source (e.g. a .hic file), no contact list file in between
+			constraints = source.read(inputParameters.getContact_thres());
+			positions = constraints.findPositions();
+		}else{
+			ContactListReader reader = new ContactListReader(inputParameters.getNumber_threads(), inputParameters.getViewer());
+			constraints = reader.read(inputParameters.getInput_file(), inputParameters.getContact_thres());
+			positions = reader.getPositions();
+		}
 		//lstCons = helper.readContactMatrixAsList(INPUT_FILE);
 		//n = helper.determineNbrOfPoints(INPUT_FILE);
 		
+		lstPos = new ArrayList<Integer>(positions.length);
+		for(int pos : positions){
+			lstPos.add(pos);
+		}
+		
 		n = lstPos.size();		
 		if (n == 0) throw new Exception("Please check your input! there is no data");
 		
 		System.out.println("Number of points: " + n);
-		//map position to absolute id
-		Map<Integer,Integer> mapPosToID = new HashMap<Integer,Integer>();
-		for(int i = 0; i < lstPos.size(); i++){
-			mapPosToID.put(lstPos.get(i), i);
-		}
-		//
 		
 		//output the mapping of coordinate to id in the output structure
 		PrintWriter pw = new PrintWriter(inputParameters.getOutput_folder() + "/" + inputParameters.getFile_prefix() + "_coordinate_mapping.txt");
@@ -200,39 +262,58 @@ public class StructureGeneratorLorentz_HierarchicalModeling implements Optimized
 			}
 		}				
 		
-		//mapping absolute regions to IDs (0...n)
-		for(Constraint con: lstCons){
-			con.setPos1(mapPosToID.get(con.getPos1()));
-			con.setPos2(mapPosToID.get(con.getPos2()));		
+		//mapping absolute regions to IDs (0...n), positions are sorted so pos1 <= pos2 still holds
+		int[] pos1 = constraints.getPos1Array();
+		int[] pos2 = constraints.getPos2Array();
+		for(int k = 0; k < constraints.size(); k++){
+			pos1[k] = Arrays.binarySearch(positions, pos1[k]);
+			pos2[k] = Arrays.binarySearch(positions, pos2[k]);
+		}
+		//room for adjacent contacts
+		constraints.ensureCapacity(constraints.size() + n);
+		
+		//chromosome id of each index, so that the kernels don't need to look up idToChr
+		Map<String,Integer> chrToId = new HashMap<String,Integer>();
+		int[] chrId = new int[n];
+		for(int i = 0; i < n; i++){
+			String chr = idToChr.get(i).getChr();
+			if (!chrToId.containsKey(chr)){
+				chrToId.put(chr, chrToId.size());
+			}
+			chrId[i] = chrToId.get(chr);
 		}
+		constraints.setChrId(chrId);
 		
 		System.out.println("Done reading contact data!");
 		
 	}
 
 	
-	private void convertIF2Distance() throws Exception{
-		
-		System.out.println("Starting to convert IFs to distances");
+	/**
+	 * Prepare constraints for the optimization, this doesn't depend on the conversion factor,
+	 * so it is done once even when many conversion factors are tried
+	 * @throws Exception
+	 */
+	private void prepareConstraints() throws Exception{
 		
 		maxIF = 0.0;
 		
-		//scale average distance to AVG_DIST
-		scale_factor = 0.0;
 		double avgAdjIF = 0.0; //average of adjacent IFs
 		int avgAdjCount = 0;
-		double d;
 		
 		DescriptiveStatistics descStat = new DescriptiveStatistics();
 		
+		int[] pos1 = constraints.getPos1Array();
+		int[] pos2 = constraints.getPos2Array();
+		
 		//compute average adjacent IF
-		for(Constraint con : lstCons){
-			if (Math.abs(con.getPos1() - con.getPos2()) == 1 && idToChr.get(con.getPos1()).getChr().equals(idToChr.get(con.getPos2()).getChr())) {
+		for(int k = 0; k < constraints.size(); k++){
+			if (pos2[k] - pos1[k] == 1 && constraints.isIntraChromosome(k)) {
 
-				avgAdjIF += con.getIF();
+				avgAdjIF += constraints.getIF(k);
 				avgAdjCount++;
 				
-				descStat.addValue(con.getIF());
+				descStat.addValue(constraints.getIF(k));
 			}
 		}		
 		//avgAdjIF /= avgAdjCount;
@@ -241,53 +322,85 @@ public class StructureGeneratorLorentz_HierarchicalModeling implements Optimized
 		
 		System.out.println("Adding adjacent contacts: " + avgAdjIF);
 		addAdjacentContacts(avgAdjIF);
+				
+		System.out.println("Sorting contacts");		
+		constraints.sort();
+		constraints.trimToSize();
+		
+		double[] IF = constraints.getIFArray();
+		int size = constraints.size();
 		
-		//convert IFs to distances
 		totalIF = 0;		
-		for(Constraint con : lstCons){						
-
-			d = (1.0 / Math.pow(con.getIF(),inputParameters.getConvert_factor()));
-			scale_factor += d;
-			
-			totalIF += con.getIF();
-			
-			
+		for(int k = 0; k < size; k++){
+			totalIF += IF[k];
 		}
-		scale_factor /= lstCons.size(); // average of distances before normalization		
-		//avgIF = totalIF / lstCons.size();
-				
-		System.out.println("Sorting contacts");		
-		Collections.sort(lstCons);
-				
-		//PrintWriter pw = new PrintWriter("distances.txt");
-		double avgIF = totalIF/lstCons.size();
-		double maxAdjacentDist = 0;
-		for(Constraint con : lstCons){
-			
-			d = AVG_DIST / (Math.pow(con.getIF(),inputParameters.getConvert_factor()) * scale_factor );
-			con.setDist(d);						
-			con.setIF(con.getIF()/avgIF);
-			
-			if (Math.abs(con.getPos1() - con.getPos2()) == 1 && con.getDist() > maxAdjacentDist) maxAdjacentDist = con.getDist();
+		avgIF = totalIF / size;
+		
+		//IFs are normalized by the average IF
+		for(int k = 0; k < size; k++){
+			IF[k] = IF[k]/avgIF;
 			
-			if (con.getIF() > maxIF){
-				maxIF = con.getIF();
+			if (IF[k] > maxIF){
+				maxIF = IF[k];
 			}
-		}		
-		
+		}
 		
 		//maxIF = Math.min(avgAdjIF, maxIF);
 		
-		//add contraints for adjacent points
+		System.out.println("MaxIF:" + maxIF);
+		
+		//inequality constraints are added once, their distance is set by convertIF2Distance for each conversion factor
 		if (inputParameters.isAddInequalityConstraint()){
-			addInequalityConstraint(maxAdjacentDist);
+			addInequalityConstraint();
 		}
+	}
+	
+	/**
+	 * Convert IFs to distances with the current conversion factor
+	 * @throws Exception
+	 */
+	private void convertIF2Distance() throws Exception{
 		
-		System.out.println("MaxIF:" + maxIF);
+		System.out.println("Starting to convert IFs to distances, conversion factor: " + inputParameters.getConvert_factor());
+		
+		int[] pos1 = constraints.getPos1Array();
+		int[] pos2 = constraints.getPos2Array();
+		double[] IF = constraints.getIFArray();
+		double[] dist = constraints.getDistArray();
+		boolean[] inequality = constraints.getInequalityArray();
+		int size = constraints.size();
+		double d;
+		
+		//scale average distance to AVG_DIST, distances are computed from IFs before normalization
+		scale_factor = 0.0;
+		int count = 0;
+		for(int k = 0; k < size; k++){
+			if (inequality[k]) continue;
+			d = (1.0 / Math.pow(IF[k] * avgIF, inputParameters.getConvert_factor()));
+			scale_factor += d;
+			count++;
+		}
+		scale_factor /= count; // average of distances before normalization		
+		
+		//PrintWriter pw = new PrintWriter("distances.txt");
+		double maxAdjacentDist = 0;
+		for(int k = 0; k < size; k++){
+			if (inequality[k]) continue;
+			
+			d = AVG_DIST / (Math.pow(IF[k] * avgIF, inputParameters.getConvert_factor()) * scale_factor );
+			dist[k] = d;						
+			
+			if (pos2[k] - pos1[k] == 1 && dist[k] > maxAdjacentDist) maxAdjacentDist = dist[k];
+		}		
+		
+		//contraints for adjacent points, the table may be shared with other conversion factors, so only distances are set here
+		for(int k = 0; k < size; k++){
+			if (inequality[k]) dist[k] = maxAdjacentDist;
+		}
 		
 		//maxIF *= 1000;
 		
-		System.out.println("Number of constraints: " + lstCons.size());
+		System.out.println("Number of constraints: " + constraints.size());
 	}
 	
 	//add adjacent contacts if not exist	
@@ -296,44 +409,46 @@ public class StructureGeneratorLorentz_HierarchicalModeling implements Optimized
 		boolean[] hasAdjacentContact = new boolean[n];// hasAdjacentContact[i] = true if contact (i, i + 1) exists
 		System.out.println("Checking constraint...");
 		
-		for(Constraint c : lstCons){
-			if (c.getPos2() - c.getPos1() == 1 && c.getIF() >= IF){
-				hasAdjacentContact[c.getPos1()] = true; // this adjacent contact is good
+		int size = constraints.size();
+		for(int k = 0; k < size; k++){
+			if (constraints.getPos2(k) - constraints.getPos1(k) == 1 && constraints.getIF(k) >= IF){
+				hasAdjacentContact[constraints.getPos1(k)] = true; // this adjacent contact is good
 				
-			}else if (c.getPos2() - c.getPos1() == 1 && c.getIF() < IF){
-				hasAdjacentContact[c.getPos1()] = true;
-				c.setIF(IF);				
+			}else if (constraints.getPos2(k) - constraints.getPos1(k) == 1 && constraints.getIF(k) < IF){
+				hasAdjacentContact[constraints.getPos1(k)] = true;
+				constraints.setIF(k, IF);				
 			}
 		}
 		
-		Constraint ct;
 		System.out.println("Adding adjacent constraint...");
 		for(int i = 0; i < n - 1; i++){
 			if (!hasAdjacentContact[i]){
-				ct = new Constraint(i,i + 1,IF);
-				lstCons.add(ct);
+				constraints.add(i, i + 1, IF);
 			}
 		}
 	}
 	
 	/**
-	 * Add constraint for adjacent points to make sure they are not far way from each other
-	 * @param max_dist
+	 * Add constraint for adjacent points to make sure they are not far way from each other,
+	 * their distance is the max distance of adjacent contacts, set by convertIF2Distance
 	 */	
-	private void addInequalityConstraint(double max_dist){
-		System.out.println("Adding inequality constraints ..." + lstCons.size());
+	private void addInequalityConstraint(){
+		System.out.println("Adding inequality constraints ..." + constraints.size());
 		
-		Constraint new_con;		
-		for(int i = 0; i < n - 1; i++){	
-			new_con = new Constraint(i, i + 1 , maxIF, max_dist);
-			
-			if (i + 2 < n) new_con = new Constraint(i, i + 2 , maxIF, max_dist);
-			if (i + 3 < n) new_con = new Constraint(i, i + 3 , maxIF, max_dist);
-			if (i + 4 < n) new_con = new Constraint(i, i + 4 , maxIF, max_dist);
-			if (i + 5 < n) new_con = new Constraint(i, i + 5 , maxIF, max_dist);
-			
-			new_con.setInequality(true);
-		}		
+		int[] chrId = constraints.getChrId();
+		constraints.ensureCapacity(constraints.size() + n * 5);
+		for(int i = 0; i < n - 1; i++){
+			//points i + 1 ... i + 5 in the same chromosome
+			for(int j = i + 1; j <= i + 5 && j < n; j++){
+				if (chrId != null && chrId[i] != chrId[j]) break;
+				
+				constraints.add(i, j, maxIF, 0.0, true);
+			}
+		}
+		
+		//keep constraints sorted for the optimization
+		constraints.sort();
+		constraints.trimToSize();
 	}
 
 	private void readParameters(String paraFile)throws Exception{
@@ -415,6 +530,24 @@ public class StructureGeneratorLorentz_HierarchicalModeling implements Optimized
 					
 				}else if (st[0].equalsIgnoreCase(Constants.DISTANCE_FILE)){					
 					inputParameters.setDistanceFile(st[1]);					
+				}else if (st[0].equalsIgnoreCase(Constants.OPTIMIZER_KEY)){					
+					inputParameters.setOptimizer(st[1]);					
+				}else if (st[0].equalsIgnoreCase(Constants.SEARCH_MODE_KEY)){					
+					inputParameters.setSearchMode(st[1]);					
+				}else if (st[0].equalsIgnoreCase(Constants.MULTIRESOLUTION_LEVELS_KEY)){					
+					inputParameters.setMultiresolutionLevels(Integer.parseInt(st[1]));					
+				}else if (st[0].equalsIgnoreCase(Constants.EXCLUDED_VOLUME_DISTANCE_KEY)){					
+					inputParameters.setExcludedVolumeDistance(Double.parseDouble(st[1]));					
+				}else if (st[0].equalsIgnoreCase(Constants.EXCLUDED_VOLUME_WEIGHT_KEY)){					
+					inputParameters.setExcludedVolumeWeight(Double.parseDouble(st[1]));					
+				}else if (st[0].equalsIgnoreCase(Constants.CHECKPOINT_INTERVAL_KEY)){					
+					inputParameters.setCheckpointInterval(Integer.parseInt(st[1]));					
+				}else if (st[0].equalsIgnoreCase(Constants.RESUME_KEY)){					
+					inputParameters.setResume(Boolean.parseBoolean(st[1]));					
+				}else if (st[0].equalsIgnoreCase(Constants.EARLY_SCORING_SAMPLE_KEY)){					
+					inputParameters.setEarlyScoringSample(Integer.parseInt(st[1]));					
+				}else if (st[0].equalsIgnoreCase(Constants.EARLY_SCORING_CONFIDENCE_KEY)){					
+					inputParameters.setEarlyScoringConfidence(Double.parseDouble(st[1]));					
 				}
 				
 				
@@ -450,9 +583,9 @@ public class StructureGeneratorLorentz_HierarchicalModeling implements Optimized
 		if (numOfcores == 0){
 			numOfcores = 2;// default number when this parameter cannot be detected
 		}
-		//each core can take care of 2 threads		
+		//threads are kept busy by the evaluator, so one thread per core		
 		//limit number of threads to avoid excessive communication cost
-		numOfcores = Math.min(numOfcores * 2 , Constants.MAX_NUM_THREAD);
+		numOfcores = Math.min(numOfcores, Constants.MAX_NUM_THREAD);
 		
 //		String inEclipseStr = System.getProperty("runInEclipse");
 //		if ("true".equalsIgnoreCase(inEclipseStr)){
@@ -469,8 +602,17 @@ public class StructureGeneratorLorentz_HierarchicalModeling implements Optimized
 		
 		System.out.println("Number of processors:" + numOfcores);
 		//divide the set of points into equal subsets, each will be processed by one processor (thread)
-
-		helper.divideDataSet(lstCons.size(), numOfcores, lstSubDataSetId);
+		
+		if (evaluator != null){
+			evaluator.shutdown();
+		}
+		evaluator = new ObjectiveEvaluator(new GradientCaculator(maxIF), constraints.size(), n * 3, numOfcores, Constants.MIN_CONSTRAINTS_PER_THREAD);
+		
+		excludedVolume = null;
+		if (inputParameters.getExcludedVolumeDistance() > 0){
+			excludedVolume = new ExcludedVolume(n, inputParameters.getExcludedVolumeDistance(), inputParameters.getExcludedVolumeWeight(), 
+					constraints.getChrId());
+		}
 		
 		
 		File outputFolder = new File(inputParameters.getOutput_folder());
@@ -569,15 +711,20 @@ public class StructureGeneratorLorentz_HierarchicalModeling implements Optimized
 			return;
 		}
 		
+		if (inputParameters != null && inputParameters.getMultiresolutionLevels() > 0 && n / 2 >= Constants.MIN_COARSE_POINTS){
+			initializeFromCoarseResolution();
+			return;
+		}
+		
 		double chrX=0,chrY=0,chrZ=0,size = 1.0;
 		
 		for(int i = 0; i < n; i++){
 			
 //			//reset starting point for every chromosome
 //			if (i == 0 || idToChr.get(i) != idToChr.get(i - 1)){			
-				chrX = Math.random() * size;
-				chrY = Math.random() * size;
-				chrZ = Math.random() * size;
+				chrX = random.nextDouble() * size;
+				chrY = random.nextDouble() * size;
+				chrZ = random.nextDouble() * size;
 				
 //			}else {
 //				//extend in X,Y,Z coordinate
@@ -595,155 +742,331 @@ public class StructureGeneratorLorentz_HierarchicalModeling implements Optimized
 
 	}
 
-	public Pair generateStructure() throws Exception {
+	/**
+	 * Initialize the structure from a solution at half of this resolution: consecutive points of the same chromosome are
+	 * merged in pairs, IFs between merged points are summed, the coarse problem is solved (initialized the same way
+	 * from an even coarser one, down to MULTIRESOLUTION_LEVELS levels) and its structure is interpolated to this resolution.
+	 * Distances must have been converted from IFs
+	 * @throws Exception
+	 */
+	private void initializeFromCoarseResolution() throws Exception{
 		
-
-		if (parameterFile != null) readParameters(parameterFile);
+		long startTime = System.currentTimeMillis();
 		
-		double convertFactor = inputParameters.getConvert_factor();
+		int[] chrId = constraints.getChrId();
 		
-		if (convertFactor == -1){
-			
-			//convertFactor = Constants.START_CONVERT_FACTOR;
-			convertFactor = inputParameters.getMinConversionFactor();
-			
-
-			double minCor = 1.0; //correlation between IFs and distances
-			double bestConvertFactor = Constants.DEFAULT_CONVERT_FACTOR;//default
-			String bestModel = "";
-			Pair pair;
-			
-			inputParameters.setSearchingConversionFactor(true);
-			/*
-			int numOfcores = Runtime.getRuntime().availableProcessors() * 2;
-			
-			if (numOfcores == 0){
-				numOfcores = 2;// default number when this parameter cannot be detected
+		//coarse point of each point, a coarse point has at most 2 points of the same chromosome
+		int[] coarseId = new int[n];
+		int nbrCoarse = 0, start = 0;
+		for(int i = 0; i < n; i++){
+			if (i == 0 || chrId[i] != chrId[i - 1] || i - start == 2){
+				start = i;
+				nbrCoarse++;
+			}
+			coarseId[i] = nbrCoarse - 1;
+		}
+		
+		int[] coarseChrId = new int[nbrCoarse];
+		HashMap<Integer,GenomicLocation> coarseIdToChr = new HashMap<Integer,GenomicLocation>();
+		for(int i = 0; i < n; i++){
+			int c = coarseId[i];
+			GenomicLocation loc = idToChr.get(i);
+			coarseChrId[c] = chrId[i];
+			if (!coarseIdToChr.containsKey(c)){
+				coarseIdToChr.put(c, new GenomicLocation(c, loc.getChr(), loc.getStart(), loc.getEnd()));
+			}else{
+				coarseIdToChr.get(c).setEnd(loc.getEnd());
 			}
-			if (inputParameters.getNumber_threads() != 0) numOfcores = inputParameters.getNumber_threads();
-			//each core can take care of 2 threads		
-			//limit number of threads to avoid excessive communication cost
-			numOfcores = Math.min(numOfcores, Constants.MAX_NUM_THREAD);
+		}
+		
+		int[] pos1 = constraints.getPos1Array();
+		int[] pos2 = constraints.getPos2Array();
+		double[] IF = constraints.getIFArray();
+		boolean[] inequality = constraints.getInequalityArray();
+		
+		ConstraintTable coarseConstraints = new ConstraintTable(constraints.size());
+		for(int k = 0; k < constraints.size(); k++){
+			if (inequality[k] || coarseId[pos1[k]] == coarseId[pos2[k]]) continue;
+			coarseConstraints.add(coarseId[pos1[k]], coarseId[pos2[k]], IF[k]);
+		}
+		coarseConstraints.sort();
+		coarseConstraints.sumDuplicates();
+		coarseConstraints.setChrId(coarseChrId);
+		
+		if (inputParameters.getViewer() != null){
+			inputParameters.getViewer().displayMessage(new String[]{"Solving resolution level " + (level + 1) + " (" + nbrCoarse + " points) ..."});
+		}
+		System.out.printf("Resolution level %d: %d points, %d constraints\n", level + 1, nbrCoarse, coarseConstraints.size());
+		
+		InputParameters parameters = inputParameters.copy();
+		parameters.setMultiresolutionLevels(inputParameters.getMultiresolutionLevels() - 1);
+		parameters.setInitial_str_file(null);
+		parameters.setTmpFolder(null);
+		
+		StructureGeneratorLorentz_HierarchicalModeling generator = new StructureGeneratorLorentz_HierarchicalModeling(this, parameters);
+		generator.n = nbrCoarse;
+		generator.idToChr = coarseIdToChr;
+		generator.lstPos = null;
+		generator.constraints = coarseConstraints;
+		generator.level = level + 1;
+		generator.levelTimings = levelTimings;
+		generator.random = new Random(random.nextLong());
+		
+		generator.prepareConstraints();
+		generator.convertIF2Distance();
+		generator.initialize();
+		
+		long coarserTime;
+		int nbrIteration;
+		try{
+			//time to solve coarser levels is not counted for this level
+			coarserTime = System.currentTimeMillis();
+			generator.initializeStructure();
+			coarserTime = System.currentTimeMillis() - coarserTime;
 			
-			ExecutorService executor = Executors.newFixedThreadPool(Math.min((int)Constants.END_CONVERT_FACTOR * 10, numOfcores));			
+			nbrIteration = generator.optimizeStructure(null);
+		}finally{
+			generator.evaluator.shutdown();
+		}
+		
+		levelTimings.add(new LevelTiming(level + 1, nbrCoarse, coarseConstraints.size(), nbrIteration, 
+				(System.currentTimeMillis() - startTime - coarserTime) / 1000.0));
+		
+		//position of coarse points, in indices of this resolution (center of merged points)
+		double[] center = new double[nbrCoarse];
+		int[] count = new int[nbrCoarse];
+		for(int i = 0; i < n; i++){
+			center[coarseId[i]] += i;
+			count[coarseId[i]]++;
+		}
+		for(int c = 0; c < nbrCoarse; c++){
+			center[c] /= count[c];
+		}
+		
+		//linear interpolation between the two nearest coarse points of the same chromosome
+		double[] coarseStr = generator.str;
+		double u, w;
+		int c, other;
+		for(int i = 0; i < n; i++){
+			c = coarseId[i];
+			u = i - center[c];
+			other = u >= 0 ? c + 1 : c - 1;
 			
-			HashMap<Future<Double>, Double> result = new HashMap<Future<Double>, Double>();
-			for(; convertFactor <= Constants.END_CONVERT_FACTOR; convertFactor += 0.1){
-				inputParameters.setConvert_factor(convertFactor);
-				inputParameters.setVerbose(false);
-				
-				InputParameters ip = inputParameters.copy();
-				
-				ip.setNumber_threads(4);
-				ip.setNum(5);
-				ip.setPrintOutStr(false);
-				
-				CallableWorker worker = new CallableWorker(ip);
-				Future<Double> future_rs = executor.submit(worker);
-				result.put(future_rs, convertFactor);			
+			if (u != 0 && other >= 0 && other < nbrCoarse && coarseChrId[other] == coarseChrId[c]){
+				w = Math.abs(u) / Math.abs(center[other] - center[c]);
+			}else{
+				other = c;
+				w = 0;
 			}
 			
-			
-			for(Entry<Future<Double>, Double> entry : result.entrySet()){
-				
-				cor = entry.getKey().get();
-				System.out.println("Convert factor: " + entry.getValue() + "\t" + cor);
-				
-				if (minCor - cor > 0.001 || (Math.abs(cor - minCor) < 0.001 && bestConvertFactor > entry.getValue()) ){
-					
-					minCor = cor;
-					bestConvertFactor = entry.getValue();
-				}
-			}			
-			executor.shutdown();
-			*/
+			for(int d = 0; d < 3; d++){
+				str[i * 3 + d] = (1 - w) * coarseStr[c * 3 + d] + w * coarseStr[other * 3 + d];
+			}
+		}
+		
+		//scale the structure so that its average distance matches the average wish distance of this resolution
+		double[] dist = constraints.getDistArray();
+		double wishDist = 0, strDist = 0;
+		int i, j;
+		for(int k = 0; k < constraints.size(); k++){
+			if (inequality[k]) continue;
+			i = pos1[k];
+			j = pos2[k];
+			wishDist += dist[k];
+			strDist += Math.sqrt(helper.calEuclidianDist(str[i * 3], str[i * 3 + 1], str[i * 3 + 2], str[j * 3], str[j * 3 + 1], str[j * 3 + 2]));
+		}
+		double scale = strDist > 0 ? wishDist / strDist : 1.0;
+		
+		//points at chromosome ends can be at the same position, small noise separates them
+		for(int k = 0; k < str.length; k++){
+			str[k] = str[k] * scale + random.nextGaussian() * 0.01 * AVG_DIST;
+		}
+	}
+	
+	/**
+	 * Time and number of iterations to optimize one resolution
+	 */
+	static class LevelTiming{
+		int level;
+		int nbrPoint;
+		int nbrConstraint;
+		int nbrIteration;
+		double seconds;
+		
+		LevelTiming(int level, int nbrPoint, int nbrConstraint, int nbrIteration, double seconds){
+			this.level = level;
+			this.nbrPoint = nbrPoint;
+			this.nbrConstraint = nbrConstraint;
+			this.nbrIteration = nbrIteration;
+			this.seconds = seconds;
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("Resolution level %d: %d points, %d constraints, %d iterations, %.2f seconds", 
+					level, nbrPoint, nbrConstraint, nbrIteration, seconds);
+		}
+	}
 
-			Set<String> allModels = new HashSet<String>();
+	public Pair generateStructure() throws Exception {
+		
 
-			for(; convertFactor <= inputParameters.getMaxConversionFactor(); convertFactor += 0.1){
-				try {
-					inputParameters.setNumber_threads(1);
-					inputParameters.setConvert_factor(convertFactor);
-					pair = run();  
-					
-					allModels.add(pair.modelFile);
-					
-				} catch (Exception e) {					
-					e.printStackTrace();
-					continue;
-				}
-				System.out.println("Result--------------------" + convertFactor + "\t" + pair.cor);
-				if (minCor > pair.cor){
-					minCor = pair.cor;
-					bestConvertFactor = convertFactor;
-					bestModel = pair.modelFile;
-				}
-				
-				if (inputParameters.isStopRunning()){
-					inputParameters.setStopRunning(false);
-					break;
-				}
-			}
-			
-			
-			
+		if (parameterFile != null) readParameters(parameterFile);
+		
+		//a resumed run takes the conversion factor of its checkpoint, so the factor is not searched again
+		if (inputParameters.isResume()){
+			readCheckpoint();
+		}
+		
+		//contacts are read once, even when many conversion factors are tried
+		readInput();
+		
+		prepareConstraints();
+		
+		if (inputParameters.getConvert_factor() == -1){
 			
-			//free memory
-			lstPos = null;
+			return searchConvertFactor();
 			
-			PrintWriter pw = new PrintWriter(inputParameters.getOutput_folder() + "/" + "best_alpha_log.txt");
-			pw.printf("\n\nBest convert factor: %.2f, with avg. correlation: %.2f, pick models generated using this convert factor as your final models \n", bestConvertFactor, minCor);
-			System.out.printf("\n\nBest convert factor: %.2f, pick models generated using this convert factor as your final models \n", bestConvertFactor);
-			pw.close();
+		}else{
+			inputParameters.setSearchingConversionFactor(false);
+			return run();
+		}
+	}
+	
+	/**
+	 * Search for the best conversion factor, candidate factors are evaluated in parallel on the contacts that have been read,
+	 * the model of the best factor is written out
+	 * @return
+	 * @throws Exception
+	 */
+	private Pair searchConvertFactor() throws Exception{
+		
+		inputParameters.setSearchingConversionFactor(true);
+		
+		int numOfcores = Runtime.getRuntime().availableProcessors();
+		if (numOfcores == 0){
+			numOfcores = 2;// default number when this parameter cannot be detected
+		}
+		numOfcores = Math.min(numOfcores, Constants.MAX_NUM_THREAD);
+		
+		ConversionFactorSearch search = new ConversionFactorSearch(new ConversionFactorSearch.CandidateFactory() {
 			
-			//generate models after searching for best factor
-			//convertFactor = bestConvertFactor;
-			//inputParameters.setConvert_factor(convertFactor);
-			//inputParameters.setSearchingConversionFactor(false);
+			@Override
+			public ConversionFactorSearch.Candidate create(double factor) throws Exception {
+				return new FactorCandidate(factor);
+			}
 			
-			//return run();
+			@Override
+			public boolean isStopRunning() {
+				return inputParameters.isStopRunning();
+			}
 			
-			for(String file: allModels) {
-				if (!file.equals(bestModel)) {
-					CommonFunctions.delete_file(file);
+			@Override
+			public void candidateScored(double factor, double score, boolean isFinal) {
+				if (inputParameters.getViewer() != null){
+					inputParameters.getViewer().displayMessage(new String[]{"Searching conversion factor...", 
+							"Conversion factor: " + String.format("%.2f", factor), "Correlation: " + String.format("%.2f", -1 * score)});
 				}
-			};
-			
-			
-			inputParameters.getViewer().loadNewModel(bestModel, new String[]{"Best Conversion Factor: " + String.format("%.2f", bestConvertFactor), 
-					"Correlation: " + String.format("%.2f", -1 * minCor)});
-			
-			return new Pair(minCor, bestModel);
-			
-		}else{
-			inputParameters.setSearchingConversionFactor(false);
-			return run();
+			}
+		}, inputParameters.getMinConversionFactor(), inputParameters.getMaxConversionFactor(), numOfcores, inputParameters.getMax_iteration());
+		
+		search.setAdaptive(Constants.SEARCH_ADAPTIVE.equalsIgnoreCase(inputParameters.getSearchMode()));
+		
+		//candidates are scored on the same sample of constraints after the first stage
+		if (inputParameters.getEarlyScoringSample() > 0){
+			search.setEstimator(new SampledCorrelation(constraints, inputParameters.getEarlyScoringSample(), 
+					inputParameters.getEarlyScoringConfidence(), random.nextLong()));
+		}
+		
+		ConversionFactorSearch.Result best = search.search();
+		
+		if (inputParameters.isStopRunning()){
+			inputParameters.setStopRunning(false);
+		}
+		
+		if (best == null){
+			throw new Exception("No conversion factor could be evaluated, please check your input");
+		}
+		
+		List<ConversionFactorSearch.Result> results = new ArrayList<ConversionFactorSearch.Result>(search.getResults());
+		Collections.sort(results, new Comparator<ConversionFactorSearch.Result>() {
+			@Override
+			public int compare(ConversionFactorSearch.Result o1, ConversionFactorSearch.Result o2) {
+				return Double.compare(o1.getFactor(), o2.getFactor());
+			}
+		});
+		
+		PrintWriter pw = new PrintWriter(inputParameters.getOutput_folder() + "/" + "best_alpha_log.txt");
+		pw.printf("\n\nBest convert factor: %.2f, with avg. correlation: %.2f, pick models generated using this convert factor as your final models \n", best.getFactor(), best.getScore());
+		pw.println("\nConvert factor\tCorrelation");
+		for(ConversionFactorSearch.Result rs : results){
+			pw.printf("%.3f\t%.4f%s\n", rs.getFactor(), rs.getScore(), rs.isAbandoned() ? "\tabandoned early" : "");
 		}
+		System.out.printf("\n\nBest convert factor: %.2f, pick models generated using this convert factor as your final models \n", best.getFactor());
+		pw.close();
+		
+		//write out the model of the best factor, distances of the shared constraints are computed for it
+		inputParameters.setConvert_factor(best.getFactor());
+		convertIF2Distance();
+		str = ((FactorCandidate)best.getCandidate()).generator.str;
+		
+		Pair pair = inputParameters.getNum() > 1 ? runEnsemble() : writeOutput();
+		
+		//free memory
+		lstPos = null;
+		
+		return pair;
 	}
 	
-	public Pair run() throws Exception{
-		String fileName;
+	/**
+	 * Read contacts and initialize the structure without optimizing it, 
+	 * calGradientAndObjective() can be called after this, e.g. to benchmark the objective function
+	 * @return the initial structure
+	 * @throws Exception
+	 */
+	public double[] prepareStructure() throws Exception{
 		
-		//read contact data
-		readInput();
+		if (constraints == null){
+			readInput();
+			
+			prepareConstraints();
+		}
 		
 		convertIF2Distance();
 		
 		initialize();
 		
-		double str_scale = scale_factor; //scale structure when writing it out
+		initializeStructure();
 		
-		inputParameters.setLstPos(lstPos);
+		return str;
+	}
+	
+	/**
+	 * release threads used to evaluate the objective function
+	 */
+	public void shutdown(){
+		if (evaluator != null){
+			evaluator.shutdown();
+		}
+	}
+	
+	public Pair run() throws Exception{
+		String fileName;
 		
-		if (!inputParameters.isKeepOriginalScale()) str_scale = 1;
+		if (inputParameters.isResume()){
+			readCheckpoint();
+		}
 		
-		String logFileName = "";		
-		PrintWriter logPW = null;
-		double rmsd,cor,corDist;
-		double avgRMSD = 0,avgCor = 0, avgCorDist = 0;
-		//boolean isOutput = false;
+		//read contact data, unless it has been read
+		if (constraints == null){
+			readInput();
+			
+			prepareConstraints();
+		}
 		
-		int run_nbr = inputParameters.getNum();
+		convertIF2Distance();
+		
+		initialize();
 		
 		if (inputParameters.getFiltered_input_file() != null){
 			//generate structure with filter_input_file first and use the output as initial model
@@ -754,13 +1077,7 @@ public class StructureGeneratorLorentz_HierarchicalModeling implements Optimized
 			
 			initializeStructure();
 			
-
-			GradientAscent gradientAscent = new GradientAscent(this, str, inputParameters.isVerbose(), inputParameters.getTmpFolder());
-			if (inputParameters.getLearning_rate() != 0){
-				gradientAscent.setInitialLearingRate(inputParameters.getLearning_rate());
-			}
-			
-			gradientAscent.performGradientAscent(inputParameters);
+			optimizeStructure(null);
 			
 			String currentTimeMillis = System.currentTimeMillis() + "";
 						
@@ -775,30 +1092,282 @@ public class StructureGeneratorLorentz_HierarchicalModeling implements Optimized
 			inputParameters.setFile_prefix(inputParameters.getFile_prefix() + "Final");
 		}
 		
-		//adapt from LorDG, only one model is generated
-		//for(int i = 0; i < run_nbr; i++) {		
+		if (inputParameters.getNum() > 1){
+			//models of the ensemble have their own evaluators
+			evaluator.shutdown();
+			
+			return runEnsemble();
+		}
+		
+		if (resumed != null && resumed.getX().length != n * 3){
+			System.out.println("The checkpoint has " + resumed.getX().length / 3 + " points instead of " + n + ", it is not used");
+			resumed = null;
+		}
+		
+		if (resumed != null){
+			str = resumed.getX();
+		}else{
 			initializeStructure();
+		}
+		
+		checkpointWriter = Checkpoint.Writer.create(inputParameters);
+		
+		long startTime = System.currentTimeMillis();
+		int nbrIteration = optimizeStructure(idToChr, resumed);
+		levelTimings.add(new LevelTiming(0, n, constraints.size(), nbrIteration, (System.currentTimeMillis() - startTime) / 1000.0));
+		
+		//release threads of the evaluator
+		evaluator.shutdown();
+		resumed = null;
+		
+		if (levelTimings.size() > 1){
+			System.out.println("Coarse-to-fine optimization:");
+			for(LevelTiming timing : levelTimings){
+				System.out.println(timing);
+			}
+		}
+		
+		Pair pair = writeOutput();
+		
+		//the checkpoint of a stopped optimization is kept to resume it
+		if (checkpointWriter != null && !inputParameters.isStopRunning()){
+			checkpointWriter.delete();
+		}
+		checkpointWriter = null;
+		
+		return pair;
+	}
+	
+	/**
+	 * Read the checkpoint of a previous run of this model, the conversion factor is set to the factor of the checkpoint
+	 * @return the checkpoint, null if there is no valid checkpoint
+	 */
+	private Checkpoint readCheckpoint(){
+		if (resumed == null){
+			File file = Checkpoint.getFile(inputParameters.getOutput_folder(), inputParameters.getFile_prefix());
+			resumed = Checkpoint.read(file);
+			
+			if (resumed == null){
+				System.out.println("No checkpoint to resume from: " + file.getPath());
+				return null;
+			}
+			System.out.printf("Resuming from %s, iteration: %d, conversion factor: %.2f\n", file.getPath(), resumed.getIteration(), resumed.getConvertFactor());
+		}
+		
+		inputParameters.setConvert_factor(resumed.getConvertFactor());
+		return resumed;
+	}
+	
+	/**
+	 * Generate inputParameters.getNum() models at the same time, each from its own random initial structure.
+	 * Models share the constraints of this generator (they are only read during the optimization),
+	 * each model has its own structure and gradient buffers
+	 * @return average correlation and the file of the best model
+	 * @throws Exception
+	 */
+	private Pair runEnsemble() throws Exception{
+		
+		int nbrModel = inputParameters.getNum();
+		
+		int numOfcores = inputParameters.getNumber_threads();
+		if (numOfcores == 0){
+			numOfcores = Math.max(2, Math.min(Runtime.getRuntime().availableProcessors(), Constants.MAX_NUM_THREAD));
+		}
+		
+		//one thread per model when there are more models than cores, otherwise cores are divided among models
+		int nbrConcurrent = Math.min(nbrModel, numOfcores);
+		int threadPerModel = Math.max(1, numOfcores / nbrConcurrent);
+		
+		//seeds are written to the ensemble log, so that a model can be generated again
+		long baseSeed = System.currentTimeMillis();
+		
+		System.out.printf("Generating %d models, %d at the same time\n", nbrModel, nbrConcurrent);
+		if (inputParameters.getViewer() != null){
+			inputParameters.getViewer().displayMessage(new String[]{"Generating " + nbrModel + " models ..."});
+		}
+		
+		long startTime = System.currentTimeMillis();
+		
+		EnsembleModel[] models = new EnsembleModel[nbrModel];
+		List<Future<EnsembleModel>> futures = new ArrayList<Future<EnsembleModel>>();
+		ExecutorService executor = Executors.newFixedThreadPool(nbrConcurrent);
+		try{
+			for(int i = 0; i < nbrModel; i++){
+				models[i] = new EnsembleModel(i, baseSeed + i, threadPerModel);
+				futures.add(executor.submit(models[i]));
+			}
 			
-			GradientAscent gradientAscent = new GradientAscent(this, str, inputParameters.isVerbose(), inputParameters.getTmpFolder(), idToChr);
-			if (inputParameters.getLearning_rate() != 0){
-				gradientAscent.setInitialLearingRate(inputParameters.getLearning_rate());
+			int nbrDone = 0;
+			for(Future<EnsembleModel> future : futures){
+				while(true){
+					try{
+						future.get(500, TimeUnit.MILLISECONDS);
+						break;
+					}catch(TimeoutException e){
+						//users stop all models
+						if (inputParameters.isStopRunning()){
+							for(EnsembleModel model : models){
+								model.generator.inputParameters.setStopRunning(true);
+							}
+						}
+					}catch(ExecutionException e){
+						e.printStackTrace();
+						if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+						throw e;
+					}
+				}
+				
+				nbrDone++;
+				if (inputParameters.getViewer() != null){
+					inputParameters.getViewer().displayMessage(new String[]{"Generating " + nbrModel + " models ...", nbrDone + " models done"});
+				}
 			}
+		}finally{
+			executor.shutdownNow();
+		}
+		
+		if (inputParameters.isStopRunning()){
+			inputParameters.setStopRunning(false);
+		}
+		
+		double seconds = (System.currentTimeMillis() - startTime) / 1000.0;
+		System.out.printf("%d models generated in %.2f seconds (%.2f models per minute)\n", nbrModel, seconds, nbrModel * 60.0 / Math.max(seconds, 1e-3));
+		
+		return writeEnsemble(models, baseSeed);
+	}
+	
+	/**
+	 * Write all models of an ensemble with a table of their scores, the best model (highest correlation) is shown in the viewer
+	 * @param models
+	 * @param baseSeed
+	 * @return average correlation and the file of the best model
+	 * @throws Exception
+	 */
+	private Pair writeEnsemble(EnsembleModel[] models, long baseSeed) throws Exception{
+		
+		double str_scale = inputParameters.isKeepOriginalScale() ? scale_factor : 1;
+		
+		inputParameters.setLstPos(lstPos);
+		
+		String currentTimeMillis = System.currentTimeMillis() + "";
+		
+		double avgRMSD = 0, avgCor = 0;
+		EnsembleModel best = null;
+		
+		PrintWriter pw = new PrintWriter(inputParameters.getOutput_folder() + "/" + inputParameters.getFile_prefix() + "_ensemble_" + currentTimeMillis + ".txt");
+		pw.println("Input file: " + inputParameters.getInput_file());
+		pw.println("Convert factor: " + inputParameters.getConvert_factor());
+		pw.println("Number of models: " + models.length);
+		pw.println("Seed of model i: " + baseSeed + " + i - 1");
+		pw.println();
+		pw.println("Model\tSeed\tRMSE\tSpearman correlation IFs vs. Reconstructed Dist\tSeconds\tFile");
+		
+		for(EnsembleModel model : models){
+			String fileName = inputParameters.getFile_prefix() + "_" + currentTimeMillis + "_" + (model.id + 1) + ".gss";
+			model.file = inputParameters.getOutput_folder() + "/" + fileName;
 			
-			gradientAscent.performGradientAscent(inputParameters);
+			if (inputParameters.isPrintOutStr()){
+				helper.writeStructureGSS(model.file, helper.zoomStructure(model.generator.str, str_scale), idToChr, inputParameters.getChrom(), inputParameters.getGenomeID());
+			}
+			
+			pw.printf("%d\t%d\t%.4f\t%.4f\t%.2f\t%s\n", model.id + 1, model.seed, model.rmse, model.cor, model.seconds, fileName);
 			
+			avgRMSD += model.rmse;
+			avgCor += model.cor;
+			if (best == null || model.cor < best.cor){
+				best = model;
+			}
+		}
+		
+		avgRMSD /= models.length;
+		avgCor /= models.length;
+		
+		pw.println();
+		pw.printf("Best model: %d, Spearman correlation: %.4f\n", best.id + 1, best.cor);
+		pw.close();
+		
+		pw = new PrintWriter(inputParameters.getOutput_folder() + "/" + inputParameters.getFile_prefix() + "_log.txt");
+		pw.println("Input file: " + inputParameters.getInput_file());
+		pw.println("Convert factor: " + inputParameters.getConvert_factor());
+		pw.println("Learning rate: " + inputParameters.getLearning_rate());
+		if (inputParameters.getChr_lens() != null){
+			pw.print("Chromosome lengths:");
+			for(int k = 0; k < inputParameters.getChr_lens().length; k++){
+				pw.print(inputParameters.getChr_lens()[k] + " ");
+			}
+			pw.println();
+		}
+		pw.println("Number of models: " + models.length);
+		pw.println("AVG RMSE: " + avgRMSD);
+		pw.println("AVG Spearman correlation IFs vs. Reconstructed Dist: " + avgCor);
+		pw.close();
+		
+		System.out.println("AVG RMSE: " + avgRMSD);
+		System.out.println("AVG Spearman correlation IFs vs. Reconstructed Dist: " + avgCor);
+		
+		str = best.generator.str;
+		
+		if (inputParameters.isPrintOutStr() && inputParameters.getViewer() != null){
+			inputParameters.getViewer().loadNewModel(best.file, new String[]{"Best of " + models.length + " models", 
+					"Conversion Factor: " + String.format("%.2f", inputParameters.getConvert_factor()),
+					"Correlation: " + String.format("%.2f", -1 * best.cor)});
+		}
+		
+		return new Pair(avgCor, best.file);
+	}
+	
+	/**
+	 * Optimize a model of an ensemble, the constraints are shared with the parent generator
+	 * @throws Exception
+	 */
+	private void optimizeEnsembleModel() throws Exception{
+		
+		initialize();
+		try{
+			initializeStructure();
+			
+			optimizeStructure(null);
+		}finally{
+			evaluator.shutdown();
+			evaluator = null;
+		}
+	}
+	
+	/**
+	 * Evaluate the structure, write it out with log files and show it in the viewer
+	 * @return
+	 * @throws Exception
+	 */
+	private Pair writeOutput() throws Exception{
+		String fileName;
+		
+		double str_scale = scale_factor; //scale structure when writing it out
+		
+		inputParameters.setLstPos(lstPos);
+		
+		if (!inputParameters.isKeepOriginalScale()) str_scale = 1;
+		
+		String logFileName = "";		
+		PrintWriter logPW = null;
+		double rmsd,cor;
+		double avgRMSD = 0,avgCor = 0, avgCorDist = 0;
+		
+		//one model is written, ensembles are written by writeEnsemble
+		int run_nbr = 1;
+		
 			String currentTimeMillis = System.currentTimeMillis() + "";
 						
 			fileName = inputParameters.getFile_prefix() + "_" + currentTimeMillis ;			
 			
-			rmsd = CalRMSD.rmse(str, lstCons);
+			rmsd = CalRMSD.rmse(str, constraints);
 			interval = 0;
 			try{
-				cor = CalRMSD.correlationIFvsDist(str, lstCons, interval);
+				cor = CalRMSD.correlationIFvsDist(str, constraints, interval, inputParameters.getNumber_threads());
 			}catch(Exception ex){
 				//continue;
 				cor = 1.0;// convertFactor fails the reconstruction so make cor = maximum (1)
 			}
-			//corDist = CalRMSD.correlationWishDistvsDist(str, lstCons, interval);
+			//corDist = CalRMSD.correlationWishDistvsDist(str, constraints, interval);
 			
 			avgRMSD += rmsd;
 			avgCor += cor;
@@ -817,7 +1386,8 @@ public class StructureGeneratorLorentz_HierarchicalModeling implements Optimized
 				helper.writeStructureGSS(outputFileGSS, helper.zoomStructure(str, str_scale), idToChr, inputParameters.getChrom(), inputParameters.getGenomeID());
 				
 				if (inputParameters.getViewer() != null){
-					inputParameters.getViewer().loadNewModel(outputFileGSS, new String[]{"Conversion Factor: " + String.format("%.2f", inputParameters.getConvert_factor()), 
+					String factorMsg = inputParameters.isSearchingConversionFactor() ? "Best Conversion Factor: " : "Conversion Factor: ";
+					inputParameters.getViewer().loadNewModel(outputFileGSS, new String[]{factorMsg + String.format("%.2f", inputParameters.getConvert_factor()), 
 							"Correlation: " + String.format("%.2f", -1 * cor)});
 				}
 				
@@ -874,6 +1444,12 @@ public class StructureGeneratorLorentz_HierarchicalModeling implements Optimized
 		pw.println("AVG RMSE: " + avgRMSD);
 		pw.println("AVG Spearman correlation IFs vs. Reconstructed Dist: " + avgCor);
 		pw.println("AVG Spearman correlation WishDist vs. Reconstructed Dist: " + avgCorDist);
+		if (levelTimings.size() > 1){
+			pw.println("Coarse-to-fine optimization:");
+			for(LevelTiming timing : levelTimings){
+				pw.println(timing);
+			}
+		}
 		pw.close();
 		
 		System.out.println("AVG RMSE: " + avgRMSD);
@@ -883,6 +1459,185 @@ public class StructureGeneratorLorentz_HierarchicalModeling implements Optimized
 		return new Pair(avgCor, outputFileGSS);
 	}
 	
+	/**
+	 * Optimize the structure of a candidate conversion factor, the structure is initialized in the first call
+	 * and the optimization continues from it in the next calls
+	 * @param maxIteration
+	 * @throws Exception
+	 */
+	private void optimizeCandidate(int maxIteration) throws Exception{
+		
+		constraints = sharedConstraints.copyWithNewDistances();
+		convertIF2Distance();
+		
+		initialize();
+		
+		if (str == null){
+			initializeStructure();
+		}
+		
+		inputParameters.setMax_iteration(maxIteration);
+		try{
+			optimizeStructure(null);
+		}finally{
+			evaluator.shutdown();
+		}
+		
+		//distances are computed again in the next call, so that candidates waiting for the next call don't keep them
+		constraints = null;
+		evaluator = null;
+	}
+	
+	/**
+	 * Score the structure of a candidate conversion factor, only IFs of the shared constraints are used
+	 * @return Spearman correlation between IFs and distances, the lower the better
+	 */
+	private double scoreCandidate(){
+		try{
+			return CalRMSD.correlationIFvsDist(str, sharedConstraints, 0, inputParameters.getNumber_threads());
+		}catch(Exception ex){
+			return 1.0;// convertFactor fails the reconstruction so make cor = maximum (1)
+		}
+	}
+	
+	/**
+	 * A conversion factor evaluated by ConversionFactorSearch, it has its own generator sharing contacts with this generator
+	 */
+	class FactorCandidate implements ConversionFactorSearch.Candidate{
+		
+		StructureGeneratorLorentz_HierarchicalModeling generator;
+		
+		FactorCandidate(double factor){
+			InputParameters parameters = inputParameters.copy();
+			parameters.setConvert_factor(factor);
+			//candidates are optimized at the same time, each uses one thread and doesn't show intermediate models
+			parameters.setNumber_threads(1);
+			parameters.setTmpFolder(null);
+			parameters.setViewer(null);
+			parameters.setVerbose(false);
+			parameters.setStopRunning(false);
+			
+			generator = new StructureGeneratorLorentz_HierarchicalModeling(StructureGeneratorLorentz_HierarchicalModeling.this, parameters);
+		}
+		
+		@Override
+		public void optimize(int maxIteration) throws Exception {
+			generator.optimizeCandidate(maxIteration);
+		}
+		
+		@Override
+		public double score() throws Exception {
+			return generator.scoreCandidate();
+		}
+		
+		@Override
+		public double[] getStructure() {
+			return generator.str;
+		}
+		
+		@Override
+		public void stop() {
+			generator.inputParameters.setStopRunning(true);
+		}
+	}
+	
+	/**
+	 * A model of an ensemble, it has its own generator sharing constraints (with distances) with this generator
+	 */
+	class EnsembleModel implements Callable<EnsembleModel>{
+		
+		int id;
+		long seed;
+		StructureGeneratorLorentz_HierarchicalModeling generator;
+		
+		double rmse;
+		double cor;
+		double seconds;
+		String file;
+		
+		EnsembleModel(int id, long seed, int nbrThread){
+			this.id = id;
+			this.seed = seed;
+			
+			InputParameters parameters = inputParameters.copy();
+			//models are optimized at the same time and don't show intermediate models
+			parameters.setNumber_threads(nbrThread);
+			parameters.setTmpFolder(null);
+			parameters.setViewer(null);
+			parameters.setVerbose(false);
+			parameters.setStopRunning(false);
+			
+			generator = new StructureGeneratorLorentz_HierarchicalModeling(StructureGeneratorLorentz_HierarchicalModeling.this, parameters);
+			generator.constraints = constraints;
+			generator.random = new Random(seed);
+		}
+		
+		@Override
+		public EnsembleModel call() throws Exception {
+			long startTime = System.currentTimeMillis();
+			
+			generator.optimizeEnsembleModel();
+			
+			rmse = CalRMSD.rmse(generator.str, constraints);
+			try{
+				cor = CalRMSD.correlationIFvsDist(generator.str, constraints, 0, generator.inputParameters.getNumber_threads());
+			}catch(Exception ex){
+				cor = 1.0;
+			}
+			seconds = (System.currentTimeMillis() - startTime) / 1000.0;
+			
+			System.out.printf("Model %d done, Spearman correlation: %.4f, %.2f seconds\n", id + 1, cor, seconds);
+			return this;
+		}
+	}
+	
+	/**
+	 * Optimize the structure with the optimizer selected in inputParameters
+	 * @param id2Chr: to write intermediate structures
+	 * @return number of iterations
+	 * @throws Exception
+	 */
+	private int optimizeStructure(Map<Integer,GenomicLocation> id2Chr) throws Exception{
+		return optimizeStructure(id2Chr, null);
+	}
+	
+	/**
+	 * Optimize the structure with the optimizer selected in inputParameters, checkpoints are written by checkpointWriter if it is set
+	 * @param id2Chr: to write intermediate structures
+	 * @param checkpoint: to continue the optimization saved in it, the structure must be its variables, null to start a new optimization
+	 * @return number of iterations
+	 * @throws Exception
+	 */
+	private int optimizeStructure(Map<Integer,GenomicLocation> id2Chr, Checkpoint checkpoint) throws Exception{
+		
+		if (Constants.LBFGS.equalsIgnoreCase(inputParameters.getOptimizer())){
+			
+			LBFGS lbfgs = new LBFGS(this, str, inputParameters.isVerbose(), inputParameters.getTmpFolder(), id2Chr);
+			lbfgs.setCheckpointWriter(checkpointWriter);
+			if (checkpoint != null){
+				lbfgs.resume(checkpoint);
+			}
+			lbfgs.performLBFGS(inputParameters);
+			
+			return lbfgs.getNbrIteration();
+			
+		}else{
+			
+			GradientAscent gradientAscent = new GradientAscent(this, str, inputParameters.isVerbose(), inputParameters.getTmpFolder(), id2Chr);
+			if (inputParameters.getLearning_rate() != 0){
+				gradientAscent.setInitialLearingRate(inputParameters.getLearning_rate());
+			}
+			gradientAscent.setCheckpointWriter(checkpointWriter);
+			if (checkpoint != null){
+				gradientAscent.resume(checkpoint);
+			}
+			
+			gradientAscent.performGradientAscent(inputParameters);
+			
+			return gradientAscent.getNbrIteration();
+		}
+	}
+	
 	class Pair{
 		double cor;
 		String modelFile;
@@ -900,55 +1655,12 @@ public class StructureGeneratorLorentz_HierarchicalModeling implements Optimized
 	public double calGradientAndObjective(double[] x, double[] der)
 			throws InterruptedException {
 		
-		double cost = 0.0;		
-		
-		GradientCaculator[] gradCalculator = new GradientCaculator[lstSubDataSetId.size()];
-		
-		gradCalculator[0] = new GradientCaculator(x, 0 , lstSubDataSetId.get(0), maxIF, der != null);
-		for(int i = 1; i < gradCalculator.length; i++){
-			gradCalculator[i] = new GradientCaculator(x, lstSubDataSetId.get(i - 1) + 1, lstSubDataSetId.get(i), maxIF, der != null);
-		}
-		//System.out.println("Starting threads ..., number of threads: " + gradCalculator.length);
-		
-		//if there are more than one threads
-		if (gradCalculator.length > 1){
-		
-			//start threads
-			for(int i = 0; i < gradCalculator.length; i++){
-				gradCalculator[i].start();
-			}
-			
-			//wait for all threads to finish
-			try {
-				for(int i=0; i< gradCalculator.length; i++){
-					gradCalculator[i].join();
-				}			
-			} catch (InterruptedException e) {			
-				e.printStackTrace();
-				throw e;
-			}		
-		}else{//otherwise, use the current thread
-			
-			gradCalculator[0].run();
-			
+		//neighbor lists of the excluded volume term are rebuilt here, before workers read them
+		if (excludedVolume != null){
+			excludedVolume.update(x);
 		}
-
-		//aggregate the cost
-		for(int i = 0; i < gradCalculator.length; i++){
-			cost += gradCalculator[i].getCost();
-		}
-	
-		if (der != null){
-			//aggregate the gradient
-			for(int i = 0; i < der.length; i++){
-				der[i] = 0;
-				for(int k = 0; k < gradCalculator.length; k++){
-					der[i] += gradCalculator[k].getChange()[i];
-				} 				
-			}			
-		}		
 		
-		return cost;
+		return evaluator.evaluate(x, der);
 		
 	}
 
@@ -968,79 +1680,63 @@ public class StructureGeneratorLorentz_HierarchicalModeling implements Optimized
 	 * to calculate the gradient in parallel, one thread will be in charged of calculating for i = begin ... end
 	 * 
 	 * for any modification of the objective function, this function will need to be modified accordingly
+	 * 
+	 * the excluded volume term is divided among the same threads, the thread of constraints beg ... end 
+	 * evaluates points in the same proportion of the points
 	 * @author Tuan
 	 *
 	 */
-	class GradientCaculator extends Thread{
-		//the first index to calculate the gradient
-		private int beg;
-		//the last index to calculate the gradient
-		private int end;
-		//gradient to be returned
-		double[] change;
-		//objective function
-		double cost=0;
-		//indicate if calculation for gradient is needed
+	class GradientCaculator implements ObjectiveEvaluator.Kernel{
 		
 		double adjacentIF;
 		
-		boolean isGradientNeeded;
-		
-		double[] structure;
-		
-		GradientCaculator(double[] str, int b, int e, double mIF, boolean isGradient){
-			this.beg = b;
-			this.end = e;		
-			this.structure = str;
-			this.isGradientNeeded = isGradient;
+		GradientCaculator(double mIF){
 			this.adjacentIF = mIF;
-			
-			if (isGradientNeeded){
-				this.change = new double[n * 3];
-			}
 		}
 		
-		public void run(){
+		@Override
+		public double evaluate(double[] structure, double[] change, int beg, int end){
 			double dist,x,tmp,z,ifr;
+			double cost = 0;
 			int i,j;
-			Constraint con;
+			
+			int[] pos1 = constraints.getPos1Array();
+			int[] pos2 = constraints.getPos2Array();
+			double[] IF = constraints.getIFArray();
+			double[] distance = constraints.getDistArray();
+			boolean[] inequality = constraints.getInequalityArray();
+			
 			for(int k = beg; k <= end; k ++){
 				
-				con = lstCons.get(k);
+				i = pos1[k];
+				j = pos2[k];
+				dist = distance[k];
 				
-				i = con.getPos1();
-				j = con.getPos2();
-				dist = con.getDist();
 				
-				
-				ifr = con.getIF();
+				ifr = IF[k];
 				
 				if (ifr <= 0) continue;
-					
-//				ifr = ifr * ifr;
-				
-				//if (Math.abs(lstPos.get(i) - lstPos.get(j)) == 1 && idToChr.get(i) == idToChr.get(j)){
-				if (Math.abs(i - j) == 1 && idToChr.get(i) == idToChr.get(j)){					
-					//ifr = Math.max(ifr, adjacentIF);
-				}				
-//				else {
-//					ifr = 1.0;
-//				}
 				
 				x = Math.sqrt(helper.calEuclidianDist(structure[i * 3], structure[i * 3 + 1], 
 						structure[i * 3 + 2], structure[j * 3], structure[j * 3 + 1], structure[j * 3 + 2]));
 
 				
-				if (!con.isInequality()) {
-					int pow = 2;
-					z = Math.pow(x - dist,pow);
-					tmp = - ifr * WIDE_CURVE * pow * Math.pow(x - dist,pow - 1) / ((z + WIDE_CURVE)*(z + WIDE_CURVE) * x); 
+				if (!inequality[k]) {
+					z = (x - dist) * (x - dist);
 					cost += ifr * WIDE_CURVE / (z + WIDE_CURVE);	
 					
+					//the derivative is only needed for the gradient
+					if (change == null) continue;
+					
+					tmp = - ifr * WIDE_CURVE * 2 * (x - dist) / ((z + WIDE_CURVE)*(z + WIDE_CURVE) * x); 
+					
 				}else{					
 					z = helper.tanh(dist - x);
-					tmp = - ifr * (1 - z * z) / dist;					
 					cost +=  ifr * z;
+					
+					if (change == null) continue;
+					
+					tmp = - ifr * (1 - z * z) / x;					
 				}
 				
 				
@@ -1053,27 +1749,22 @@ public class StructureGeneratorLorentz_HierarchicalModeling implements Optimized
 					System.exit(1);
 				}
 				
-				if ( isGradientNeeded){					 
-					
-					change[i * 3] += tmp * (structure[i * 3] - structure[j * 3]);
-					change[i * 3 + 1] += tmp * (structure[i * 3 + 1] - structure[j * 3 + 1]);
-					change[i * 3 + 2] += tmp * (structure[i * 3 + 2] - structure[j * 3 + 2]);
-					
-					change[j * 3] += tmp * (structure[j * 3] - structure[i * 3]);
-					change[j * 3 + 1] += tmp * (structure[j * 3 + 1] - structure[i * 3 + 1]);
-					change[j * 3 + 2] += tmp * (structure[j * 3 + 2] - structure[i * 3 + 2]);
-
-				}
-
+				change[i * 3] += tmp * (structure[i * 3] - structure[j * 3]);
+				change[i * 3 + 1] += tmp * (structure[i * 3 + 1] - structure[j * 3 + 1]);
+				change[i * 3 + 2] += tmp * (structure[i * 3 + 2] - structure[j * 3 + 2]);
 				
-			}			
-		}
-
-		public double[] getChange() {
-			return change;
-		}
-		
-		public double getCost() {
+				change[j * 3] += tmp * (structure[j * 3] - structure[i * 3]);
+				change[j * 3 + 1] += tmp * (structure[j * 3 + 1] - structure[i * 3 + 1]);
+				change[j * 3 + 2] += tmp * (structure[j * 3 + 2] - structure[i * 3 + 2]);
+				
+			}
+			
+			if (excludedVolume != null && constraints.size() > 0){
+				long m = constraints.size();
+				int nbrPoint = excludedVolume.getNbrPoint();
+				cost += excludedVolume.evaluate(structure, change, (int)(beg * (long)nbrPoint / m), (int)((end + 1) * (long)nbrPoint / m) - 1);
+			}
+			
 			return cost;
 		}
 		
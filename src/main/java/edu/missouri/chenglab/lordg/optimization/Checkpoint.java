@@ -0,0 +1,309 @@
+package edu.missouri.chenglab.lordg.optimization;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import edu.missouri.chenglab.lordg.valueObject.Constants;
+import edu.missouri.chenglab.lordg.valueObject.InputParameters;
+
+/**
+ * State of an optimization saved to disk, so that a long run that is stopped or killed can be resumed.
+ * It keeps the coordinates, the search direction of the optimizer (can be null), the step size,
+ * the number of iterations done and the conversion factor used to compute distances.
+ *
+ * Checkpoints are binary files: a header (magic number, version, number of variables, iteration, step size,
+ * conversion factor, whether there is a direction) followed by the variables and the direction
+ *
+ */
+public class Checkpoint {
+
+	private static final int MAGIC = 0x474D4350;//GMCP
+	private static final int VERSION = 1;
+
+	//int magic, int version, int length, int iteration, double stepSize, double convertFactor, int hasDirection
+	private static final int HEADER_SIZE = 4 * 4 + 8 * 2 + 4;
+
+	//size of the buffer used to write/read variables
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private double[] x;
+	private double[] direction;
+	private double stepSize;
+	private int iteration;
+	private double convertFactor;
+
+	public Checkpoint(double[] x, double[] direction, double stepSize, int iteration, double convertFactor){
+		this.x = x;
+		this.direction = direction;
+		this.stepSize = stepSize;
+		this.iteration = iteration;
+		this.convertFactor = convertFactor;
+	}
+
+	/**
+	 *
+	 * @param outputFolder
+	 * @param filePrefix
+	 * @return the checkpoint file of the model with this prefix
+	 */
+	public static File getFile(String outputFolder, String filePrefix){
+		return new File(outputFolder, filePrefix + Constants.CHECKPOINT_SUFFIX);
+	}
+
+	/**
+	 * Write the checkpoint atomically: it is written to a temporary file which then replaces the checkpoint file,
+	 * so the file always holds a complete checkpoint even if the program is killed while writing
+	 * @param file
+	 * @throws IOException
+	 */
+	public void write(File file) throws IOException{
+		write(file, ByteBuffer.allocate(BUFFER_SIZE));
+	}
+
+	/**
+	 * Write the checkpoint with a buffer of the caller, e.g. the buffer a Writer keeps for all its checkpoints
+	 * @param file
+	 * @param buffer
+	 * @throws IOException
+	 */
+	private void write(File file, ByteBuffer buffer) throws IOException{
+		File tmpFile = new File(file.getPath() + ".tmp");
+
+		FileChannel channel = FileChannel.open(tmpFile.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		try{
+			buffer.clear();
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putInt(x.length);
+			buffer.putInt(iteration);
+			buffer.putDouble(stepSize);
+			buffer.putDouble(convertFactor);
+			buffer.putInt(direction != null ? 1 : 0);
+
+			buffer = writeArray(channel, buffer, x);
+			if (direction != null){
+				buffer = writeArray(channel, buffer, direction);
+			}
+
+			buffer.flip();
+			while(buffer.hasRemaining()){
+				channel.write(buffer);
+			}
+
+			channel.force(true);
+		}finally{
+			channel.close();
+		}
+
+		try{
+			Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}catch(AtomicMoveNotSupportedException ex){
+			Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * put the array into the buffer, the buffer is written to the channel whenever it is full
+	 * @return the buffer, with the remaining values not written yet
+	 */
+	private static ByteBuffer writeArray(FileChannel channel, ByteBuffer buffer, double[] a) throws IOException{
+		int i = 0;
+		while(i < a.length){
+			if (buffer.remaining() < 8){
+				buffer.flip();
+				while(buffer.hasRemaining()){
+					channel.write(buffer);
+				}
+				buffer.clear();
+			}
+
+			DoubleBuffer doubles = buffer.asDoubleBuffer();
+			int len = Math.min(doubles.remaining(), a.length - i);
+			doubles.put(a, i, len);
+			buffer.position(buffer.position() + len * 8);
+			i += len;
+		}
+		return buffer;
+	}
+
+	/**
+	 *
+	 * @param file
+	 * @return the checkpoint in the file, null if there is no file or it is not a valid checkpoint
+	 */
+	public static Checkpoint read(File file){
+		if (file == null || !file.isFile()) return null;
+
+		try{
+			FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			try{
+				//the header is read with the buffer used for the arrays
+				ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+				buffer.limit(HEADER_SIZE);
+				readFully(channel, buffer);
+
+				if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) return null;
+
+				int length = buffer.getInt();
+				int iteration = buffer.getInt();
+				double stepSize = buffer.getDouble();
+				double convertFactor = buffer.getDouble();
+				boolean hasDirection = buffer.getInt() == 1;
+
+				if (length <= 0 || channel.size() != HEADER_SIZE + (long)length * 8 * (hasDirection ? 2 : 1)) return null;
+
+				double[] x = readArray(channel, buffer, length);
+				double[] direction = hasDirection ? readArray(channel, buffer, length) : null;
+
+				return new Checkpoint(x, direction, stepSize, iteration, convertFactor);
+			}finally{
+				channel.close();
+			}
+		}catch(IOException ex){
+			System.err.println("Cannot read the checkpoint " + file.getPath() + ": " + ex.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * fill the buffer up to its limit, then flip it to read the values
+	 */
+	private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException{
+		while(buffer.hasRemaining()){
+			if (channel.read(buffer) < 0) throw new IOException("Unexpected end of file");
+		}
+		buffer.flip();
+	}
+
+	private static double[] readArray(FileChannel channel, ByteBuffer buffer, int length) throws IOException{
+		double[] a = new double[length];
+		int i = 0, len;
+		while(i < length){
+			len = Math.min(buffer.capacity() / 8, length - i);
+			buffer.clear();
+			buffer.limit(len * 8);
+			readFully(channel, buffer);
+			buffer.asDoubleBuffer().get(a, i, len);
+			i += len;
+		}
+		return a;
+	}
+
+	public double[] getX() {
+		return x;
+	}
+
+	public double[] getDirection() {
+		return direction;
+	}
+
+	public double getStepSize() {
+		return stepSize;
+	}
+
+	public int getIteration() {
+		return iteration;
+	}
+
+	public double getConvertFactor() {
+		return convertFactor;
+	}
+
+	/**
+	 * Writes checkpoints of one optimization, at most one every interval seconds
+	 */
+	public static class Writer {
+
+		private File file;
+
+		//minimum time between two checkpoints (milliseconds)
+		private long interval;
+
+		private double convertFactor;
+
+		//time the last checkpoint was written, the optimization starts with a fresh state
+		private long lastWriteTime = System.currentTimeMillis();
+
+		private int nbrWrite = 0;
+
+		//buffer to write all the checkpoints of the optimization
+		private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+		/**
+		 *
+		 * @param file
+		 * @param interval: seconds between two checkpoints
+		 * @param convertFactor: conversion factor of the optimization, saved with the state
+		 */
+		public Writer(File file, int interval, double convertFactor){
+			this.file = file;
+			this.interval = interval * 1000L;
+			this.convertFactor = convertFactor;
+		}
+
+		/**
+		 * Make a writer for LorDG
+		 * @param inputPara
+		 * @return null if checkpoints are disabled
+		 */
+		public static Writer create(InputParameters inputPara){
+			if (inputPara.getCheckpointInterval() <= 0) return null;
+
+			return new Writer(Checkpoint.getFile(inputPara.getOutput_folder(), inputPara.getFile_prefix()),
+					inputPara.getCheckpointInterval(), inputPara.getConvert_factor());
+		}
+
+		/**
+		 *
+		 * @return true if it is time for the next checkpoint
+		 */
+		public boolean isDue(){
+			return System.currentTimeMillis() - lastWriteTime >= interval;
+		}
+
+		/**
+		 * Write a checkpoint, a failure is reported but doesn't stop the optimization
+		 * @param x
+		 * @param direction: can be null
+		 * @param stepSize
+		 * @param iteration: number of iterations done
+		 * @return true if the checkpoint is written
+		 */
+		public boolean write(double[] x, double[] direction, double stepSize, int iteration){
+			try{
+				new Checkpoint(x, direction, stepSize, iteration, convertFactor).write(file, buffer);
+				nbrWrite++;
+				return true;
+			}catch(IOException ex){
+				ex.printStackTrace();
+				System.err.println("Cannot write the checkpoint " + file.getPath());
+				return false;
+			}finally{
+				lastWriteTime = System.currentTimeMillis();
+			}
+		}
+
+		/**
+		 * delete the checkpoint, when the optimization is done
+		 */
+		public void delete(){
+			file.delete();
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+		public int getNbrWrite() {
+			return nbrWrite;
+		}
+	}
+}
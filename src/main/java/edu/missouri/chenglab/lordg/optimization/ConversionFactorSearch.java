@@ -0,0 +1,443 @@
+package edu.missouri.chenglab.lordg.optimization;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import edu.missouri.chenglab.lordg.evaluation.SampledCorrelation;
+import edu.missouri.chenglab.lordg.valueObject.Constants;
+
+/**
+ * Search for the factor to convert IFs to distances (alpha), contacts are read once by the caller
+ * and every candidate factor is evaluated in its own thread on the shared data.
+ *
+ * Candidates are optimized in two stages, after the first stage (EARLY_SCORING_FRACTION of the iterations),
+ * candidates whose score is clearly worse than the best score so far are abandoned, the others are optimized
+ * for the remaining iterations. If an estimator is set, scores after the first stage are estimated on a sample
+ * of the constraints with a confidence interval, a candidate is abandoned if the best end of its interval is worse
+ * than the worst end of the best interval by more than ABANDON_MARGIN.
+ *
+ * Two search modes are available:
+ * grid: every factor from min to max with step CONVERT_FACTOR_STEP is evaluated
+ * adaptive: in every round, a few factors evenly spaced in the current interval are evaluated in parallel,
+ * then the interval is narrowed around the best one (a parallel version of golden-section search), until
+ * factors are evaluated within CONVERT_FACTOR_TOLERANCE of each other
+ *
+ */
+public class ConversionFactorSearch {
+
+	/**
+	 * A structure being optimized with one conversion factor
+	 */
+	public interface Candidate {
+		/**
+		 * Continue to optimize the structure
+		 * @param maxIteration: maximum number of iterations for this call
+		 * @throws Exception
+		 */
+		public void optimize(int maxIteration) throws Exception;
+
+		/**
+		 *
+		 * @return score of the structure on all constraints, the lower the better (Spearman correlation between IFs and distances)
+		 * @throws Exception
+		 */
+		public double score() throws Exception;
+
+		/**
+		 *
+		 * @return the structure, to estimate its score
+		 */
+		public double[] getStructure();
+
+		/**
+		 * Stop the optimization, this is called from a thread different from the one running optimize()
+		 */
+		public void stop();
+	}
+
+	public interface CandidateFactory {
+		/**
+		 *
+		 * @param factor: conversion factor
+		 * @return a new candidate using factor
+		 * @throws Exception
+		 */
+		public Candidate create(double factor) throws Exception;
+
+		/**
+		 *
+		 * @return true if users requested to stop
+		 */
+		public boolean isStopRunning();
+
+		/**
+		 * Called after a candidate is scored, e.g. to show progress
+		 * @param factor
+		 * @param score
+		 * @param isFinal: false if this is the score after the first stage
+		 */
+		public void candidateScored(double factor, double score, boolean isFinal);
+	}
+
+	/**
+	 * Score of a conversion factor
+	 */
+	public static class Result {
+		private double factor;
+		private double score = Double.NaN;
+		private boolean isAbandoned = false;
+		private SampledCorrelation.Estimate earlyEstimate;
+		private Candidate candidate;
+
+		Result(double factor){
+			this.factor = factor;
+		}
+
+		public double getFactor() {
+			return factor;
+		}
+
+		public double getScore() {
+			return score;
+		}
+
+		public boolean isAbandoned() {
+			return isAbandoned;
+		}
+
+		/**
+		 *
+		 * @return score after the first stage, exact if no estimator is set, null if the candidate is not scored early
+		 */
+		public SampledCorrelation.Estimate getEarlyEstimate() {
+			return earlyEstimate;
+		}
+
+		/**
+		 *
+		 * @return the candidate, only kept for the best result
+		 */
+		public Candidate getCandidate() {
+			return candidate;
+		}
+	}
+
+	//score given to a candidate that fails, same as the worst correlation
+	private static final double FAILED_SCORE = 1.0;
+
+	//maximum number of factors evaluated in one round of the adaptive search
+	private static final int MAX_FACTOR_PER_ROUND = 8;
+
+	//how often (milliseconds) to check if users requested to stop
+	private static final long STOP_CHECKING_INTERVAL = 500;
+
+	private CandidateFactory factory;
+
+	private double minFactor;
+	private double maxFactor;
+
+	private int nbrThread;
+	private int maxIteration;
+
+	private boolean isAdaptive = false;
+
+	private double earlyScoringFraction = Constants.EARLY_SCORING_FRACTION;
+	private double abandonMargin = Constants.ABANDON_MARGIN;
+
+	//to score candidates after the first stage, null to score them on all constraints
+	private SampledCorrelation estimator;
+
+	//all factors evaluated so far
+	private List<Result> results = new ArrayList<Result>();
+
+	private Result best;
+
+	//lowest upper bound of scores after the first stage
+	private double bestEarlyUpper = Double.MAX_VALUE;
+
+	private ExecutorService executor;
+
+	//candidates being optimized, to stop them
+	private List<Candidate> runningCandidates = new ArrayList<Candidate>();
+
+	private volatile boolean isStopped = false;
+
+	/**
+	 *
+	 * @param factory: to create candidates
+	 * @param minFactor: smallest conversion factor
+	 * @param maxFactor: largest conversion factor
+	 * @param nbrThread: number of candidates optimized at the same time
+	 * @param maxIteration: maximum number of iterations to optimize a candidate
+	 */
+	public ConversionFactorSearch(CandidateFactory factory, double minFactor, double maxFactor, int nbrThread, int maxIteration){
+		this.factory = factory;
+		this.minFactor = minFactor;
+		this.maxFactor = maxFactor;
+		this.nbrThread = Math.max(1, nbrThread);
+		this.maxIteration = maxIteration;
+	}
+
+	/**
+	 *
+	 * @return the best factor, null if no factor could be evaluated
+	 * @throws InterruptedException
+	 */
+	public Result search() throws InterruptedException{
+
+		long startTime = System.currentTimeMillis();
+
+		executor = Executors.newFixedThreadPool(nbrThread);
+		try{
+			if (isAdaptive){
+				adaptiveSearch();
+			}else{
+				gridSearch();
+			}
+		}finally{
+			executor.shutdownNow();
+		}
+
+		int nbrAbandoned = 0;
+		for(Result rs : results){
+			if (rs.isAbandoned) nbrAbandoned++;
+		}
+		System.out.printf("Conversion factor search: %d factors evaluated, %d abandoned early, %.2f seconds\n",
+				results.size(), nbrAbandoned, (System.currentTimeMillis() - startTime) / 1000.0);
+
+		return best;
+	}
+
+	private void gridSearch() throws InterruptedException{
+		List<Double> factors = new ArrayList<Double>();
+		//factors are computed from the index so that errors are not accumulated
+		for(int i = 0; minFactor + i * Constants.CONVERT_FACTOR_STEP <= maxFactor + 1e-9; i++){
+			factors.add(minFactor + i * Constants.CONVERT_FACTOR_STEP);
+		}
+		evaluate(factors);
+	}
+
+	private void adaptiveSearch() throws InterruptedException{
+		int nbrFactor = Math.max(2, Math.min(nbrThread, MAX_FACTOR_PER_ROUND));
+		double lo = minFactor, hi = maxFactor, h;
+
+		while(!isStopped){
+			h = (hi - lo) / (nbrFactor + 1);
+
+			List<Double> factors = new ArrayList<Double>();
+			for(int i = 1; i <= nbrFactor; i++){
+				factors.add(lo + i * h);
+			}
+			evaluate(factors);
+
+			if (best == null || h < Constants.CONVERT_FACTOR_TOLERANCE){
+				break;
+			}
+
+			//the best factor is in the interval around the best evaluated factor
+			lo = Math.max(lo, best.factor - h);
+			hi = Math.min(hi, best.factor + h);
+		}
+	}
+
+	/**
+	 * Evaluate a list of factors in parallel
+	 * @param factors
+	 * @throws InterruptedException
+	 */
+	private void evaluate(List<Double> factors) throws InterruptedException{
+
+		final int earlyIteration = Math.max(1, (int)(maxIteration * earlyScoringFraction));
+
+		List<Result> batch = new ArrayList<Result>();
+		List<Callable<Double>> tasks = new ArrayList<Callable<Double>>();
+		for(double factor : factors){
+			if (isEvaluated(factor)) continue;
+			
+			final Result rs = new Result(factor);
+			batch.add(rs);
+			tasks.add(new Callable<Double>() {
+				@Override
+				public Double call() throws Exception {
+					rs.candidate = factory.create(rs.factor);
+					return optimize(rs, Math.min(earlyIteration, maxIteration), earlyIteration >= maxIteration);
+				}
+			});
+		}
+		runAll(tasks);
+
+		if (earlyIteration < maxIteration && !isStopped){
+
+			for(Result rs : batch){
+				if (rs.earlyEstimate != null) bestEarlyUpper = Math.min(bestEarlyUpper, rs.earlyEstimate.getUpper());
+			}
+
+			tasks.clear();
+			for(final Result rs : batch){
+				if (Double.isNaN(rs.score) || rs.candidate == null) continue;
+
+				if (rs.earlyEstimate != null && rs.earlyEstimate.getLower() > bestEarlyUpper + abandonMargin){
+					System.out.printf("Abandon conversion factor %.2f, score: %s, best upper bound: %.3f\n", rs.factor, rs.earlyEstimate, bestEarlyUpper);
+					rs.isAbandoned = true;
+					rs.candidate = null;
+					continue;
+				}
+
+				tasks.add(new Callable<Double>() {
+					@Override
+					public Double call() throws Exception {
+						return optimize(rs, maxIteration - earlyIteration, true);
+					}
+				});
+			}
+			runAll(tasks);
+		}
+
+		for(Result rs : batch){
+			if (Double.isNaN(rs.score)) continue;
+
+			results.add(rs);
+			if (!rs.isAbandoned && (best == null || rs.score < best.score)){
+				if (best != null) best.candidate = null;
+				best = rs;
+			}else{
+				rs.candidate = null;
+			}
+		}
+	}
+
+	private boolean isEvaluated(double factor){
+		for(Result rs : results){
+			if (Math.abs(rs.factor - factor) < 1e-6) return true;
+		}
+		return false;
+	}
+
+	private double optimize(Result rs, int nbrIteration, boolean isFinal){
+		if (isStopped) return rs.score;
+
+		synchronized(runningCandidates){
+			runningCandidates.add(rs.candidate);
+		}
+		try{
+			rs.candidate.optimize(nbrIteration);
+
+			if (isFinal || estimator == null){
+				rs.score = rs.candidate.score();
+				if (Double.isNaN(rs.score)) rs.score = FAILED_SCORE;
+				if (!isFinal) rs.earlyEstimate = SampledCorrelation.Estimate.exact(rs.score);
+			}else{
+				rs.earlyEstimate = estimator.estimate(rs.candidate.getStructure());
+				if (Double.isNaN(rs.earlyEstimate.getScore())) rs.earlyEstimate = SampledCorrelation.Estimate.exact(FAILED_SCORE);
+				rs.score = rs.earlyEstimate.getScore();
+			}
+		}catch(Exception e){
+			e.printStackTrace();
+			rs.score = FAILED_SCORE;
+			if (!isFinal) rs.earlyEstimate = SampledCorrelation.Estimate.exact(FAILED_SCORE);
+		}finally{
+			synchronized(runningCandidates){
+				runningCandidates.remove(rs.candidate);
+			}
+		}
+
+		System.out.println("Result--------------------" + String.format("%.2f", rs.factor) + "\t" 
+				+ (isFinal || rs.earlyEstimate == null ? String.valueOf(rs.score) : rs.earlyEstimate.toString()));
+		synchronized(factory){
+			factory.candidateScored(rs.factor, rs.score, isFinal);
+		}
+		return rs.score;
+	}
+
+	/**
+	 * Run tasks and wait for them to finish, stop them if users request to stop
+	 * @param tasks
+	 * @throws InterruptedException
+	 */
+	private void runAll(List<Callable<Double>> tasks) throws InterruptedException{
+		List<Future<Double>> futures = new ArrayList<Future<Double>>();
+		for(Callable<Double> task : tasks){
+			futures.add(executor.submit(task));
+		}
+
+		for(Future<Double> future : futures){
+			while(true){
+				try{
+					future.get(STOP_CHECKING_INTERVAL, TimeUnit.MILLISECONDS);
+					break;
+				}catch(TimeoutException e){
+					if (!isStopped && factory.isStopRunning()){
+						stop();
+					}
+				}catch(ExecutionException e){
+					//exceptions are handled in the tasks, this is from factory.create()
+					e.printStackTrace();
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stop the search, candidates being optimized are stopped and scored, candidates not started are skipped
+	 */
+	public void stop(){
+		isStopped = true;
+		synchronized(runningCandidates){
+			for(Candidate candidate : runningCandidates){
+				candidate.stop();
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @return all evaluated factors
+	 */
+	public List<Result> getResults() {
+		return results;
+	}
+
+	public boolean isAdaptive() {
+		return isAdaptive;
+	}
+
+	public void setAdaptive(boolean isAdaptive) {
+		this.isAdaptive = isAdaptive;
+	}
+
+	public double getEarlyScoringFraction() {
+		return earlyScoringFraction;
+	}
+
+	public void setEarlyScoringFraction(double earlyScoringFraction) {
+		this.earlyScoringFraction = earlyScoringFraction;
+	}
+
+	public double getAbandonMargin() {
+		return abandonMargin;
+	}
+
+	public void setAbandonMargin(double abandonMargin) {
+		this.abandonMargin = abandonMargin;
+	}
+
+	public SampledCorrelation getEstimator() {
+		return estimator;
+	}
+
+	/**
+	 *
+	 * @param estimator: to score candidates after the first stage on a sample of constraints, null to score them on all constraints
+	 */
+	public void setEstimator(SampledCorrelation estimator) {
+		this.estimator = estimator;
+	}
+}
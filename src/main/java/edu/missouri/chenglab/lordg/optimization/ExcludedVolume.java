@@ -0,0 +1,287 @@
+package edu.missouri.chenglab.lordg.optimization;
+
+import java.util.Arrays;
+
+import edu.missouri.chenglab.lordg.valueObject.Constants;
+
+/**
+ * Excluded volume (steric exclusion) term: points closer than minDist are pushed apart,
+ * every pair (i,j) with d(i,j) < minDist adds -weight * (1 - d(i,j) / minDist)^2 to the objective function.
+ * Adjacent points of the same chromosome are excluded, they are kept together by contacts.
+ *
+ * Only pairs in the neighbor lists are evaluated. Neighbor lists are built with a cell list (a uniform grid
+ * with cells of size minDist + skin, only non empty cells are stored), they contain the pairs closer than minDist + skin
+ * and stay valid until a point moves more than skin / 2, so they are rebuilt once every few iterations.
+ *
+ * Neighbors of point i are its neighbors j > i, stored from start[i] to start[i + 1] - 1 in neighbors,
+ * so that points can be divided into blocks evaluated by different threads
+ *
+ */
+public class ExcludedVolume {
+
+	//initial capacity of the neighbor array, per point
+	private static final int INITIAL_NEIGHBOR_PER_POINT = 8;
+
+	private int n;
+
+	private double minDist;
+	private double weight;
+	private double skin;
+
+	//chromosome id of each point, null if all points are in one chromosome
+	private int[] chrId;
+
+	private int[] start;
+	private int[] neighbors;
+
+	//positions when the neighbor lists were built
+	private double[] reference;
+
+	//cell list: points sorted by cell, and a hash table of non empty cells
+	private long[] cells;
+	private long[] tableKey;
+	private int[] tableStart;
+
+	private int nbrRebuild = 0;
+
+	/**
+	 *
+	 * @param n: number of points
+	 * @param minDist: minimum distance between two points
+	 * @param weight: weight of the term
+	 * @param chrId: chromosome id of each point, null if all points are in one chromosome
+	 */
+	public ExcludedVolume(int n, double minDist, double weight, int[] chrId){
+		this.n = n;
+		this.minDist = minDist;
+		this.weight = weight;
+		this.skin = minDist * Constants.EXCLUDED_VOLUME_SKIN;
+		this.chrId = chrId;
+
+		start = new int[n + 1];
+		neighbors = new int[Math.max(1, n * INITIAL_NEIGHBOR_PER_POINT)];
+		cells = new long[n];
+	}
+
+	/**
+	 * Rebuild the neighbor lists if a point moved more than half of the skin since they were built,
+	 * this must be called before evaluate() each time the structure changes
+	 * @param x: structure
+	 * @return true if the neighbor lists are rebuilt
+	 */
+	public boolean update(double[] x){
+		if (reference != null){
+			double maxMove = skin * skin / 4, dx, dy, dz;
+			boolean isValid = true;
+			for(int i = 0; i < n * 3 && isValid; i += 3){
+				dx = x[i] - reference[i];
+				dy = x[i + 1] - reference[i + 1];
+				dz = x[i + 2] - reference[i + 2];
+				isValid = dx * dx + dy * dy + dz * dz <= maxMove;
+			}
+			if (isValid) return false;
+		}
+
+		build(x);
+		return true;
+	}
+
+	private void build(double[] x){
+
+		double cutoff = minDist + skin;
+		double cutoff2 = cutoff * cutoff;
+
+		double[] min = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+		double[] max = {-Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+		for(int i = 0; i < n; i++){
+			for(int k = 0; k < 3; k++){
+				min[k] = Math.min(min[k], x[i * 3 + k]);
+				max[k] = Math.max(max[k], x[i * 3 + k]);
+			}
+		}
+
+		//cells must not be smaller than the cutoff, so that neighbors are in the 27 cells around a point,
+		//cell ids must fit in 31 bits
+		double cellSize = cutoff;
+		long nx, ny, nz;
+		while(true){
+			nx = (long)((max[0] - min[0]) / cellSize) + 1;
+			ny = (long)((max[1] - min[1]) / cellSize) + 1;
+			nz = (long)((max[2] - min[2]) / cellSize) + 1;
+			if ((double)nx * ny * nz < Integer.MAX_VALUE) break;
+			cellSize *= 2;
+		}
+
+		//points are sorted by cell, cell id in the high bits, point in the low bits
+		for(int i = 0; i < n; i++){
+			cells[i] = (cellId(x, i, min, cellSize, ny, nz) << 32) | i;
+		}
+		Arrays.sort(cells, 0, n);
+
+		//only non empty cells are kept, in a hash table from cell id to the first point of the cell
+		int capacity = Integer.highestOneBit(Math.max(1, n) * 2 - 1) << 1;
+		if (tableKey == null || tableKey.length != capacity){
+			tableKey = new long[capacity];
+			tableStart = new int[capacity];
+		}
+		Arrays.fill(tableKey, -1);
+		for(int p = 0; p < n; p++){
+			if (p == 0 || cells[p] >>> 32 != cells[p - 1] >>> 32){
+				put(cells[p] >>> 32, p);
+			}
+		}
+
+		int count = 0, j, p;
+		long c, cx, cy, cz;
+		double dx, dy, dz;
+		for(int i = 0; i < n; i++){
+			start[i] = count;
+
+			c = cellId(x, i, min, cellSize, ny, nz);
+			cz = c % nz;
+			cy = (c / nz) % ny;
+			cx = c / (nz * ny);
+
+			for(long ix = Math.max(0, cx - 1); ix <= Math.min(nx - 1, cx + 1); ix++){
+				for(long iy = Math.max(0, cy - 1); iy <= Math.min(ny - 1, cy + 1); iy++){
+					for(long iz = Math.max(0, cz - 1); iz <= Math.min(nz - 1, cz + 1); iz++){
+						c = (ix * ny + iy) * nz + iz;
+						p = get(c);
+						for(; p >= 0 && p < n && cells[p] >>> 32 == c; p++){
+							j = (int)cells[p];
+							if (j <= i || isAdjacent(i, j)) continue;
+
+							dx = x[i * 3] - x[j * 3];
+							dy = x[i * 3 + 1] - x[j * 3 + 1];
+							dz = x[i * 3 + 2] - x[j * 3 + 2];
+							if (dx * dx + dy * dy + dz * dz >= cutoff2) continue;
+
+							if (count == neighbors.length){
+								neighbors = Arrays.copyOf(neighbors, count + (count >> 1) + 1);
+							}
+							neighbors[count++] = j;
+						}
+					}
+				}
+			}
+		}
+		start[n] = count;
+
+		if (reference == null){
+			reference = new double[n * 3];
+		}
+		System.arraycopy(x, 0, reference, 0, n * 3);
+
+		nbrRebuild++;
+	}
+
+	private long cellId(double[] x, int i, double[] min, double cellSize, long ny, long nz){
+		long cx = (long)((x[i * 3] - min[0]) / cellSize);
+		long cy = (long)((x[i * 3 + 1] - min[1]) / cellSize);
+		long cz = (long)((x[i * 3 + 2] - min[2]) / cellSize);
+		return (cx * ny + cy) * nz + cz;
+	}
+
+	private int slot(long key){
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int)(h >>> 32) & (tableKey.length - 1);
+	}
+
+	//open addressing with linear probing
+	private void put(long key, int p){
+		int s = slot(key);
+		while(tableKey[s] != -1){
+			s = (s + 1) & (tableKey.length - 1);
+		}
+		tableKey[s] = key;
+		tableStart[s] = p;
+	}
+
+	//first point of the cell, -1 if the cell is empty
+	private int get(long key){
+		int s = slot(key);
+		while(tableKey[s] != -1){
+			if (tableKey[s] == key) return tableStart[s];
+			s = (s + 1) & (tableKey.length - 1);
+		}
+		return -1;
+	}
+
+	private boolean isAdjacent(int i, int j){
+		return j == i + 1 && (chrId == null || chrId[i] == chrId[j]);
+	}
+
+	/**
+	 * Evaluate the term for pairs (i,j), i = beg...end, j > i, update() must have been called for x
+	 * @param x: structure
+	 * @param change: gradient buffer to accumulate into, null if only the objective function is needed
+	 * @param beg: the first point (included)
+	 * @param end: the last point (included)
+	 * @return the objective function of these pairs (not positive)
+	 */
+	public double evaluate(double[] x, double[] change, int beg, int end){
+		double minDist2 = minDist * minDist;
+		double cost = 0, dx, dy, dz, d2, d, u, tmp;
+		int j;
+
+		for(int i = beg; i <= end; i++){
+			for(int p = start[i]; p < start[i + 1]; p++){
+				j = neighbors[p];
+
+				dx = x[i * 3] - x[j * 3];
+				dy = x[i * 3 + 1] - x[j * 3 + 1];
+				dz = x[i * 3 + 2] - x[j * 3 + 2];
+				d2 = dx * dx + dy * dy + dz * dz;
+				if (d2 >= minDist2) continue;
+
+				d = Math.sqrt(d2);
+				u = 1 - d / minDist;
+				cost -= weight * u * u;
+
+				//the direction is not defined for points at the same position
+				if (change == null || d == 0) continue;
+
+				tmp = 2 * weight * u / (minDist * d);
+
+				change[i * 3] += tmp * dx;
+				change[i * 3 + 1] += tmp * dy;
+				change[i * 3 + 2] += tmp * dz;
+
+				change[j * 3] -= tmp * dx;
+				change[j * 3 + 1] -= tmp * dy;
+				change[j * 3 + 2] -= tmp * dz;
+			}
+		}
+
+		return cost;
+	}
+
+	/**
+	 *
+	 * @return number of points
+	 */
+	public int getNbrPoint() {
+		return n;
+	}
+
+	/**
+	 *
+	 * @return number of pairs in the neighbor lists
+	 */
+	public int getNbrPair() {
+		return start[n];
+	}
+
+	public int getNbrRebuild() {
+		return nbrRebuild;
+	}
+
+	/**
+	 *
+	 * @param i
+	 * @return neighbors j > i of point i in the neighbor lists
+	 */
+	int[] getNeighbors(int i) {
+		return Arrays.copyOfRange(neighbors, start[i], start[i + 1]);
+	}
+}
@@ -7,7 +7,6 @@ import java.util.Map;
 
 import org.apache.commons.math3.stat.StatUtils;
 
-import edu.missouri.chenglab.lordg.utility.Helper;
 import edu.missouri.chenglab.lordg.valueObject.Constants;
 import edu.missouri.chenglab.lordg.valueObject.GenomicLocation;
 import edu.missouri.chenglab.lordg.valueObject.InputParameters;
@@ -51,8 +50,20 @@ public class GradientAscent {
 	
 	private String tmpFolder;
 	
+	//number of objective function evaluations of the last run
+	private int nbrEvaluation;
+	
+	//number of iterations of the last run
+	private int nbrIteration;
+	
 	private InputParameters inputParameters = null;
 	
+	//writes checkpoints of the optimization, null if checkpoints are disabled
+	private Checkpoint.Writer checkpointWriter;
+	
+	//state to resume the optimization from, null to start from the variables
+	private Checkpoint resumed;
+	
 	/**
 	 * this should be used when calling gradient ascent multiple times, 
 	 * set variables in very run but initialize derivative and tried_derivative once
@@ -133,35 +144,52 @@ public class GradientAscent {
 	 */
 	public void performGradientAscent(InputParameters inputPara) throws Exception{
 		int count = 0;
+		long startTime = System.currentTimeMillis();
 		double[] tmp;
 		double beta = 0.1;
 		
 		initialize();
+		nbrEvaluation = 0;
 		
 		//initial objective function value
 		double oldObj;
 		objectiveFn = optimizedObject.calGradientAndObjective(variables, derivatives);
+		nbrEvaluation++;
 		
 		//perform line search and go up for the first step
 //		if (isConvergence()){
 //			return;
 //		}
 		
-		step_size = lineSearch(variables, derivatives, objectiveFn);
-		updateVariables(variables, derivatives, step_size);
-		
-		Helper helper = Helper.getHelperInstance();
+		//iterations done before this run, when it resumes from a checkpoint
+		int firstIteration = resumed != null ? resumed.getIteration() : 0;
+		count = firstIteration;
 		
-		for(int i = 0; i < derivatives.length; i++){
-			prevDirection[i] = derivatives[i];
+		if (resumed != null && resumed.getDirection() != null){
+			//variables come from the checkpoint, continue with its direction and step size
+			step_size = resumed.getStepSize();
+			System.arraycopy(resumed.getDirection(), 0, prevDirection, 0, prevDirection.length);
+		}else{
+			step_size = lineSearch(variables, derivatives, objectiveFn);
+			updateVariables(variables, derivatives, step_size);
+			
+			for(int i = 0; i < derivatives.length; i++){
+				prevDirection[i] = derivatives[i];
+			}
 		}
 		
+		resumed = null;
+		
+		//shows the structure in the viewer during the optimization
+		ModelStreamer streamer = ModelStreamer.create(inputPara, tmpFolder, idToChr);
+		
 		while(! isConvergence() && count < inputPara.getMax_iteration()){
 			
 			count++;			
 			oldObj = objectiveFn;
 			
 			objectiveFn = optimizedObject.calGradientAndObjective(variables, derivatives);
+			nbrEvaluation++;
 			
 			for(int i = 0; i < derivatives.length; i++){
 				newDirection[i] = prevDirection[i] * beta + derivatives[i];
@@ -196,36 +224,19 @@ public class GradientAscent {
 			newDirection = tmp;
 			
 			
-			if (tmpFolder != null && (count % 30 == 0 || count < 100) ){			
-				
-				String tmpFileGss = tmpFolder + "/iteration_" + count + ".gss";
-				String tmpFilePdb = tmpFolder + "/iteration_" + count + ".pdb";
-				helper.writeStructureGSS(tmpFileGss,variables, idToChr, inputPara.getChrom(), inputPara.getGenomeID());
-				//helper.writeStructure(tmpFilePdb,variables, idToChr, "");				
-				
-				if (inputPara.getViewer() != null){					
-					
-					/*if (count > 1){
-						inputPara.getViewer().loadNewModel(tmpFile);
-					}else{*/
-						
-						String msg = "Conversion factor: " + String.format("%.2f", inputPara.getConvert_factor());
-						String msgObj = "Objective function: " + String.format("%.3f",objectiveFn);
-						if (inputPara.isSearchingConversionFactor()){
-							inputPara.getViewer().loadNewModel(tmpFileGss, new String[]{"Searching conversion factor...",msg, msgObj});
-						}else{
-							inputPara.getViewer().loadNewModel(tmpFileGss, msg, msgObj);
-						}
-						
-						
-					//}
-					
-					//if (count < 60) Thread.sleep(1000);					
+			if (streamer != null && streamer.isDue()){
+				String msg = "Conversion factor: " + String.format("%.2f", inputPara.getConvert_factor());
+				String msgObj = "Objective function: " + String.format("%.3f",objectiveFn);
+				if (inputPara.isSearchingConversionFactor()){
+					streamer.publish(variables, "Searching conversion factor...", msg, msgObj);
+				}else{
+					streamer.publish(variables, msg, msgObj);
 				}
-				
-				helper.delete_file(tmpFileGss);
-				helper.delete_file(tmpFilePdb);
-			}	
+			}
+			
+			if (checkpointWriter != null && (checkpointWriter.isDue() || inputPara.isStopRunning())){
+				checkpointWriter.write(variables, prevDirection, step_size, count);
+			}
 			
 			if (inputPara.isStopRunning()){
 				//inputPara.setStopRunning(false);
@@ -234,6 +245,12 @@ public class GradientAscent {
 			
 		}
 		
+		nbrIteration = count;
+		
+		System.out.printf("Gradient ascent: %d iterations, %d objective evaluations (%.2f per iteration), %s in %.2f seconds\n",
+				count, nbrEvaluation, nbrEvaluation / (double) Math.max(count - firstIteration, 1),
+				isConvergence() ? "converged" : "stopped", (System.currentTimeMillis() - startTime) / 1000.0);
+		
 	}
 	
 	/**
@@ -275,6 +292,7 @@ public class GradientAscent {
 			updateVariables(triedVariables,variables,direction,alpha);
 			
 			f1 = optimizedObject.calObjective(triedVariables);
+			nbrEvaluation++;
 			//f2 = currentFn + 0.5 * alpha * gradientNorm * gradientNorm;
 			f2 = currentFn + 0.5 * alpha * directionLen * directionLen;
 			
@@ -341,6 +359,22 @@ public class GradientAscent {
 			initialize();
 		}
 	}
+	public int getNbrEvaluation() {
+		return nbrEvaluation;
+	}
+	public int getNbrIteration() {
+		return nbrIteration;
+	}
+	public void setCheckpointWriter(Checkpoint.Writer checkpointWriter) {
+		this.checkpointWriter = checkpointWriter;
+	}
+	/**
+	 * the next run continues the optimization saved in the checkpoint, its variables must already be set
+	 * @param checkpoint: the iteration count is continued, so are the direction and step size if the checkpoint has a direction
+	 */
+	public void resume(Checkpoint checkpoint) {
+		this.resumed = checkpoint;
+	}
 	public double getInitialLearingRate() {
 		return initialLearingRate;
 	}
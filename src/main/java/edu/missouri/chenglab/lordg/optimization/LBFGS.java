@@ -0,0 +1,507 @@
+package edu.missouri.chenglab.lordg.optimization;
+
+import static edu.missouri.chenglab.lordg.valueObject.Constants.NEAR_ZERO;
+
+import java.util.Map;
+
+import edu.missouri.chenglab.lordg.valueObject.Constants;
+import edu.missouri.chenglab.lordg.valueObject.GenomicLocation;
+import edu.missouri.chenglab.lordg.valueObject.InputParameters;
+
+/**
+ * Limited-memory BFGS with a line search satisfying the strong Wolfe conditions, it can be used
+ * in place of GradientAscent for any OptimizedObject.
+ *
+ * The objective function of OptimizedObject is maximized, internally L-BFGS minimizes its negation.
+ * Every trial point of the line search needs the gradient (for the curvature condition), so
+ * all evaluations use calGradientAndObjective. A step of 1 is accepted by most iterations,
+ * so the number of evaluations per iteration is close to one.
+ *
+ */
+public class LBFGS {
+
+	/**
+	 * Called after every iteration
+	 */
+	public interface IterationListener {
+		/**
+		 *
+		 * @param iteration
+		 * @param x: current variables
+		 * @param objective: current objective function
+		 * @return false to stop the optimization
+		 * @throws Exception
+		 */
+		public boolean iterationDone(int iteration, double[] x, double objective) throws Exception;
+	}
+
+	//parameters of the strong Wolfe conditions
+	private static final double C1 = 1e-4;
+	private static final double C2 = 0.9;
+
+	private static final int MAX_LINE_SEARCH = 20;
+	private static final double MAX_STEP = 1e10;
+
+	private OptimizedObject optimizedObject;
+
+	private double[] variables;
+
+	private boolean verbose;
+
+	private String tmpFolder;
+
+	private Map<Integer,GenomicLocation> idToChr;
+
+	//number of corrections kept
+	private int memory = Constants.LBFGS_MEMORY;
+
+	//convergence when the relative change of the objective function is less than this
+	private double functionTolerance = Constants.LBFGS_FUNCTION_TOLERANCE;
+
+	//corrections s = x(k+1) - x(k), y = g(k+1) - g(k), stored in a ring
+	private double[][] s;
+	private double[][] y;
+	private double[] rho;
+	private double[] alpha;
+	private int nbrCorrection;
+	private int newest;
+
+	//current point (minimization of the negative objective function)
+	private double f;
+	private double[] g;
+
+	//search direction
+	private double[] d;
+
+	//trial point of the line search
+	private double[] xTrial;
+	private double[] gTrial;
+	private double fTrial;
+	private double dphiTrial;
+
+	//writes checkpoints of the optimization, null if checkpoints are disabled
+	private Checkpoint.Writer checkpointWriter;
+
+	//iterations done before the next run, when it resumes from a checkpoint
+	private int resumedIteration = 0;
+
+	//statistics
+	private int nbrIteration;
+	private int nbrEvaluation;
+	private boolean isConverged;
+	private long runningTime;
+
+	public LBFGS(OptimizedObject obj, double[] x, boolean ver){
+		this.optimizedObject = obj;
+		this.variables = x;
+		this.verbose = ver;
+	}
+
+	public LBFGS(OptimizedObject obj, double[] x, boolean ver, String tmpFol, Map<Integer,GenomicLocation> id2Chr){
+		this(obj, x, ver);
+		this.tmpFolder = tmpFol;
+		this.idToChr = id2Chr;
+	}
+
+	/**
+	 * Optimize with the settings of inputPara (maximum number of iterations, stop signal, viewer)
+	 * @param inputPara
+	 * @throws Exception
+	 */
+	public void performLBFGS(final InputParameters inputPara) throws Exception{
+		final ModelStreamer streamer = ModelStreamer.create(inputPara, tmpFolder, idToChr);
+
+		optimize(inputPara.getMax_iteration(), new IterationListener() {
+			@Override
+			public boolean iterationDone(int count, double[] x, double objectiveFn) throws Exception {
+
+				if (streamer != null && streamer.isDue()){
+					String msg = "Conversion factor: " + String.format("%.2f", inputPara.getConvert_factor());
+					String msgObj = "Objective function: " + String.format("%.3f",objectiveFn);
+					if (inputPara.isSearchingConversionFactor()){
+						streamer.publish(x, "Searching conversion factor...", msg, msgObj);
+					}else{
+						streamer.publish(x, msg, msgObj);
+					}
+				}
+
+				return !inputPara.isStopRunning();
+			}
+		});
+	}
+
+	/**
+	 *
+	 * @param maxIteration
+	 * @param listener: can be null
+	 * @return the objective function at the final point
+	 * @throws Exception
+	 */
+	public double optimize(int maxIteration, IterationListener listener) throws Exception{
+		long startTime = System.currentTimeMillis();
+
+		initialize();
+
+		//iterations done before this run, when it resumes from a checkpoint
+		int firstIteration = nbrIteration;
+
+		f = evaluate(variables, g);
+
+		double fPrev, step, dg;
+		boolean isRestarted = false;
+
+		while (nbrIteration < maxIteration){
+
+			if (isConvergence()){
+				isConverged = true;
+				break;
+			}
+
+			computeDirection();
+
+			dg = dot(g, d);
+			if (dg >= 0){
+				//not a descent direction, restart from the steepest descent
+				nbrCorrection = 0;
+				computeDirection();
+				dg = dot(g, d);
+			}
+
+			//first step of the steepest descent is scaled by the length of the gradient
+			step = nbrCorrection == 0 ? 1.0 / Math.max(Math.sqrt(dot(g, g)), NEAR_ZERO) : 1.0;
+
+			fPrev = f;
+			if (!lineSearch(dg, step)){
+				if (nbrCorrection == 0 || isRestarted){
+					if (verbose){
+						System.out.println("L-BFGS: line search failed, stop at iteration " + nbrIteration);
+					}
+					break;
+				}
+				//try again with the steepest descent
+				nbrCorrection = 0;
+				isRestarted = true;
+				continue;
+			}
+			isRestarted = false;
+
+			update();
+
+			nbrIteration++;
+
+			if (verbose){
+				System.out.printf("Iteration %1$d, objective function:%2$.5f, evaluations: %3$d\n", nbrIteration, -f, nbrEvaluation);
+			}
+
+			boolean isStopped = listener != null && !listener.iterationDone(nbrIteration, variables, -f);
+
+			//corrections are not saved, a resumed run builds them again
+			if (checkpointWriter != null && (isStopped || checkpointWriter.isDue())){
+				checkpointWriter.write(variables, null, 0, nbrIteration);
+			}
+
+			if (isStopped){
+				break;
+			}
+
+			if (Math.abs(fPrev - f) <= functionTolerance * Math.max(Math.max(Math.abs(f), Math.abs(fPrev)), 1.0)){
+				isConverged = true;
+				break;
+			}
+		}
+
+		runningTime = System.currentTimeMillis() - startTime;
+
+		System.out.printf("L-BFGS: %d iterations, %d objective evaluations (%.2f per iteration), %s in %.2f seconds\n",
+				nbrIteration, nbrEvaluation, nbrEvaluation / (double) Math.max(nbrIteration - firstIteration, 1),
+				isConverged ? "converged" : "stopped", runningTime / 1000.0);
+
+		return -f;
+	}
+
+	private void initialize(){
+		int dim = variables.length;
+
+		s = new double[memory][dim];
+		y = new double[memory][dim];
+		rho = new double[memory];
+		alpha = new double[memory];
+
+		g = new double[dim];
+		d = new double[dim];
+		xTrial = new double[dim];
+		gTrial = new double[dim];
+
+		nbrCorrection = 0;
+		newest = -1;
+		nbrIteration = resumedIteration;
+		resumedIteration = 0;
+		nbrEvaluation = 0;
+		isConverged = false;
+	}
+
+	/**
+	 * evaluate the negative objective function and its gradient
+	 */
+	private double evaluate(double[] x, double[] grad) throws InterruptedException{
+		nbrEvaluation++;
+
+		double obj = optimizedObject.calGradientAndObjective(x, grad);
+		for(int i = 0; i < grad.length; i++){
+			grad[i] = -grad[i];
+		}
+		return -obj;
+	}
+
+	/**
+	 * same test as GradientAscent
+	 */
+	private boolean isConvergence(){
+		return Math.sqrt(dot(g, g)) < NEAR_ZERO * Math.abs(f);
+	}
+
+	/**
+	 * two-loop recursion, d = - H * g
+	 */
+	private void computeDirection(){
+		int dim = d.length;
+		for(int i = 0; i < dim; i++){
+			d[i] = -g[i];
+		}
+
+		int k = newest;
+		for(int c = 0; c < nbrCorrection; c++){
+			alpha[k] = rho[k] * dot(s[k], d);
+			axpy(-alpha[k], y[k], d);
+			k = (k - 1 + memory) % memory;
+		}
+
+		if (nbrCorrection > 0){
+			double gamma = dot(s[newest], y[newest]) / dot(y[newest], y[newest]);
+			for(int i = 0; i < dim; i++){
+				d[i] *= gamma;
+			}
+		}
+
+		k = (newest - nbrCorrection + 1 + memory) % memory;
+		double beta;
+		for(int c = 0; c < nbrCorrection; c++){
+			beta = rho[k] * dot(y[k], d);
+			axpy(alpha[k] - beta, s[k], d);
+			k = (k + 1) % memory;
+		}
+	}
+
+	/**
+	 * move to the accepted trial point and store the correction
+	 */
+	private void update(){
+		int next = (newest + 1) % memory;
+		double[] sk = s[next];
+		double[] yk = y[next];
+		for(int i = 0; i < variables.length; i++){
+			sk[i] = xTrial[i] - variables[i];
+			yk[i] = gTrial[i] - g[i];
+		}
+
+		double sy = dot(sk, yk);
+		//keep the approximation positive definite
+		if (sy > NEAR_ZERO * Math.sqrt(dot(yk, yk) * dot(sk, sk))){
+			rho[next] = 1.0 / sy;
+			newest = next;
+			nbrCorrection = Math.min(nbrCorrection + 1, memory);
+		}else if (nbrCorrection == memory){
+			//the oldest correction was overwritten
+			nbrCorrection--;
+		}
+
+		System.arraycopy(xTrial, 0, variables, 0, variables.length);
+		double[] tmp = g;
+		g = gTrial;
+		gTrial = tmp;
+		f = fTrial;
+	}
+
+	/**
+	 * evaluate at variables + step * d
+	 */
+	private void evaluateTrial(double step) throws InterruptedException{
+		for(int i = 0; i < variables.length; i++){
+			xTrial[i] = variables[i] + step * d[i];
+		}
+		fTrial = evaluate(xTrial, gTrial);
+		dphiTrial = dot(gTrial, d);
+	}
+
+	/**
+	 * Line search for a step satisfying the strong Wolfe conditions (Nocedal and Wright, Algorithm 3.5),
+	 * the accepted point is left in xTrial, gTrial, fTrial
+	 * @param dphi0: directional derivative at step 0
+	 * @param step: initial step
+	 * @return false if no step is found
+	 */
+	private boolean lineSearch(double dphi0, double step) throws InterruptedException{
+		double prevStep = 0, fPrev = f, dphiPrev = dphi0;
+
+		for(int i = 0; i < MAX_LINE_SEARCH; i++){
+			evaluateTrial(step);
+
+			if (Double.isNaN(fTrial) || Double.isInfinite(fTrial)){
+				//the step is too long
+				return zoom(prevStep, fPrev, dphiPrev, step, Double.MAX_VALUE, 0, dphi0);
+			}
+
+			if (fTrial > f + C1 * step * dphi0 || (i > 0 && fTrial >= fPrev)){
+				return zoom(prevStep, fPrev, dphiPrev, step, fTrial, dphiTrial, dphi0);
+			}
+
+			if (Math.abs(dphiTrial) <= -C2 * dphi0){
+				return true;
+			}
+
+			if (dphiTrial >= 0){
+				return zoom(step, fTrial, dphiTrial, prevStep, fPrev, dphiPrev, dphi0);
+			}
+
+			prevStep = step;
+			fPrev = fTrial;
+			dphiPrev = dphiTrial;
+			step = Math.min(2 * step, MAX_STEP);
+		}
+
+		return false;
+	}
+
+	/**
+	 * Nocedal and Wright, Algorithm 3.6, the trial step is the minimizer of the cubic interpolation,
+	 * or the middle of the interval when the cubic is not reliable
+	 */
+	private boolean zoom(double lo, double fLo, double dLo, double hi, double fHi, double dHi, double dphi0) throws InterruptedException{
+		double step = lo;
+
+		for(int i = 0; i < MAX_LINE_SEARCH; i++){
+			step = interpolate(lo, fLo, dLo, hi, fHi, dHi);
+
+			evaluateTrial(step);
+
+			if (Double.isNaN(fTrial) || Double.isInfinite(fTrial) || fTrial > f + C1 * step * dphi0 || fTrial >= fLo){
+				hi = step;
+				fHi = Double.isNaN(fTrial) ? Double.MAX_VALUE : fTrial;
+				dHi = dphiTrial;
+			}else{
+				if (Math.abs(dphiTrial) <= -C2 * dphi0){
+					return true;
+				}
+				if (dphiTrial * (hi - lo) >= 0){
+					hi = lo;
+					fHi = fLo;
+					dHi = dLo;
+				}
+				lo = step;
+				fLo = fTrial;
+				dLo = dphiTrial;
+			}
+
+			if (Math.abs(hi - lo) < NEAR_ZERO * Math.max(Math.abs(lo), NEAR_ZERO)){
+				break;
+			}
+		}
+
+		//accept the best point found if it decreases the function
+		if (lo > 0 && fLo < f){
+			if (step != lo){
+				evaluateTrial(lo);
+			}
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * minimizer of the cubic interpolating (a, fa, da), (b, fb, db), safeguarded inside the interval
+	 */
+	private double interpolate(double a, double fa, double da, double b, double fb, double db){
+		double left = Math.min(a, b), right = Math.max(a, b);
+		double width = right - left;
+		double mid = left + 0.5 * width;
+
+		if (fb == Double.MAX_VALUE) return mid;
+
+		double d1 = da + db - 3 * (fa - fb) / (a - b);
+		double sq = d1 * d1 - da * db;
+		if (sq < 0) return mid;
+
+		double d2 = Math.signum(b - a) * Math.sqrt(sq);
+		double t = b - (b - a) * (db + d2 - d1) / (db - da + 2 * d2);
+
+		if (Double.isNaN(t) || t < left + 0.1 * width || t > right - 0.1 * width){
+			return mid;
+		}
+
+		return t;
+	}
+
+	private static double dot(double[] a, double[] b){
+		double sum = 0;
+		for(int i = 0; i < a.length; i++){
+			sum += a[i] * b[i];
+		}
+		return sum;
+	}
+
+	//b = b + c * a
+	private static void axpy(double c, double[] a, double[] b){
+		for(int i = 0; i < a.length; i++){
+			b[i] += c * a[i];
+		}
+	}
+
+	public double[] getVariables() {
+		return variables;
+	}
+
+	public int getNbrIteration() {
+		return nbrIteration;
+	}
+
+	public void setCheckpointWriter(Checkpoint.Writer checkpointWriter) {
+		this.checkpointWriter = checkpointWriter;
+	}
+
+	/**
+	 * the next run continues the iteration count of the checkpoint, its variables must already be set
+	 * @param checkpoint
+	 */
+	public void resume(Checkpoint checkpoint) {
+		this.resumedIteration = checkpoint.getIteration();
+	}
+
+	public int getNbrEvaluation() {
+		return nbrEvaluation;
+	}
+
+	public boolean isConverged() {
+		return isConverged;
+	}
+
+	public long getRunningTime() {
+		return runningTime;
+	}
+
+	public int getMemory() {
+		return memory;
+	}
+
+	public void setMemory(int memory) {
+		this.memory = memory;
+	}
+
+	public double getFunctionTolerance() {
+		return functionTolerance;
+	}
+
+	public void setFunctionTolerance(double functionTolerance) {
+		this.functionTolerance = functionTolerance;
+	}
+}
@@ -0,0 +1,123 @@
+package edu.missouri.chenglab.lordg.optimization;
+
+import java.util.Map;
+
+import org.jmol.api.JmolViewer;
+
+import edu.missouri.chenglab.lordg.utility.Helper;
+import edu.missouri.chenglab.lordg.valueObject.Constants;
+import edu.missouri.chenglab.lordg.valueObject.GenomicLocation;
+import edu.missouri.chenglab.lordg.valueObject.InputParameters;
+
+/**
+ * Shows the structure being optimized in the viewer.
+ *
+ * Coordinates are copied straight into atoms of the model being displayed, no file is written or parsed.
+ * The model is loaded (by the ModelLoader) only when the viewer doesn't show a model with the same number of points,
+ * i.e. for the first snapshot of an optimization.
+ *
+ * Snapshots are shown at most LIVE_MODEL_FRAME_RATE times per second, the others are skipped
+ *
+ */
+public class ModelStreamer {
+
+	/**
+	 * Loads a structure as a new model in the viewer
+	 */
+	public interface ModelLoader {
+		public void loadModel(double[] x, String... msg) throws Exception;
+	}
+
+	private JmolViewer viewer;
+
+	private ModelLoader loader;
+
+	//minimum time between two snapshots (milliseconds)
+	private long frameInterval;
+
+	//time the last snapshot was shown
+	private long lastFrameTime = 0;
+
+	private boolean isLoaded = false;
+
+	//number of snapshots shown and number of times the model is loaded
+	private int nbrFrame = 0;
+	private int nbrLoad = 0;
+
+	public ModelStreamer(JmolViewer viewer, ModelLoader loader){
+		this(viewer, loader, Constants.LIVE_MODEL_FRAME_RATE);
+	}
+
+	/**
+	 *
+	 * @param viewer
+	 * @param loader: to load the model the first time
+	 * @param frameRate: maximum number of snapshots shown per second
+	 */
+	public ModelStreamer(JmolViewer viewer, ModelLoader loader, int frameRate){
+		this.viewer = viewer;
+		this.loader = loader;
+		this.frameInterval = 1000 / Math.max(1, frameRate);
+	}
+
+	/**
+	 * Make a streamer for LorDG, the model is loaded from a gss file written in tmpFolder
+	 * @param inputPara
+	 * @param tmpFolder
+	 * @param idToChr
+	 * @return null if there is no viewer or no tmpFolder, i.e. the structure is not shown during the optimization
+	 */
+	public static ModelStreamer create(final InputParameters inputPara, final String tmpFolder, final Map<Integer,GenomicLocation> idToChr){
+		if (tmpFolder == null || inputPara.getViewer() == null) return null;
+
+		return new ModelStreamer(inputPara.getViewer(), new ModelLoader() {
+			@Override
+			public void loadModel(double[] x, String... msg) throws Exception {
+				Helper helper = Helper.getHelperInstance();
+				String tmpFileGss = tmpFolder + "/live_model.gss";
+				helper.writeStructureGSS(tmpFileGss, x, idToChr, inputPara.getChrom(), inputPara.getGenomeID());
+				inputPara.getViewer().loadNewModel(tmpFileGss, msg);
+				helper.delete_file(tmpFileGss);
+			}
+		});
+	}
+
+	/**
+	 *
+	 * @return true if the next snapshot will be shown, so that callers can skip preparing messages
+	 */
+	public boolean isDue(){
+		return !isLoaded || System.currentTimeMillis() - lastFrameTime >= frameInterval;
+	}
+
+	/**
+	 * Show a snapshot if it is time for the next frame
+	 * @param x: coordinates, point i is x[i * 3], x[i * 3 + 1], x[i * 3 + 2]
+	 * @param msg: messages shown with the model
+	 * @return true if the snapshot is shown
+	 * @throws Exception
+	 */
+	public boolean publish(double[] x, String... msg) throws Exception{
+		if (!isDue()) return false;
+
+		if (!isLoaded || !viewer.updateModelCoordinates(x, msg)){
+			loader.loadModel(x, msg);
+			isLoaded = true;
+			nbrLoad++;
+		}
+		nbrFrame++;
+
+		//measured after the update, so that slow rendering doesn't make frames pile up
+		lastFrameTime = System.currentTimeMillis();
+
+		return true;
+	}
+
+	public int getNbrFrame() {
+		return nbrFrame;
+	}
+
+	public int getNbrLoad() {
+		return nbrLoad;
+	}
+}
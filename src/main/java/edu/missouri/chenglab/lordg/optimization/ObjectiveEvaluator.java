@@ -0,0 +1,202 @@
+package edu.missouri.chenglab.lordg.optimization;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Evaluates an objective function (and its gradient) that is a sum over a list of terms,
+ * e.g. one term per constraint, with a pool of worker threads that lives for the whole optimization.
+ *
+ * Terms are divided into contiguous blocks, one per worker. Every worker owns a gradient buffer
+ * that is allocated once and reused by every call, after all workers finish, the buffers are
+ * summed into the output gradient in parallel, each worker reduces one slice of the variables.
+ *
+ * An instance must not be used by two threads at the same time
+ *
+ */
+public class ObjectiveEvaluator {
+
+	/**
+	 * The function to be evaluated for a block of terms
+	 */
+	public interface Kernel {
+		/**
+		 *
+		 * @param x: variables
+		 * @param change: gradient buffer to accumulate into, null if only the objective function is needed
+		 * @param beg: the first term (included)
+		 * @param end: the last term (included)
+		 * @return the objective function of terms beg...end
+		 */
+		public double evaluate(double[] x, double[] change, int beg, int end);
+	}
+
+	//threads are released if they are idle for this long (seconds), so a pool that was not shutdown does not leak threads
+	private static final long KEEP_ALIVE_TIME = 30;
+
+	private static final AtomicInteger poolNumber = new AtomicInteger(0);
+
+	private Kernel kernel;
+
+	//number of variables
+	private int dim;
+
+	//number of workers
+	private int nbrWorker;
+
+	//first and last term of each worker
+	private int[] beg;
+	private int[] end;
+
+	//gradient buffer of each worker
+	private double[][] buffers;
+
+	private ThreadPoolExecutor executor;
+
+	private List<Callable<Double>> evaluateTasks = new ArrayList<Callable<Double>>();
+	private List<Callable<Double>> reduceTasks = new ArrayList<Callable<Double>>();
+
+	//arguments of the current call, read by the tasks
+	private double[] currentX;
+	private double[] currentDer;
+
+	/**
+	 *
+	 * @param k: kernel to evaluate terms
+	 * @param nbrTerm: number of terms
+	 * @param nbrVariable: number of variables (length of the gradient)
+	 * @param nbrThread: maximum number of threads
+	 * @param minTermPerThread: a thread is not created for less than this number of terms
+	 */
+	public ObjectiveEvaluator(Kernel k, int nbrTerm, int nbrVariable, int nbrThread, int minTermPerThread){
+		this.kernel = k;
+		this.dim = nbrVariable;
+
+		nbrWorker = Math.max(1, Math.min(nbrThread, nbrTerm / Math.max(1, minTermPerThread)));
+
+		beg = new int[nbrWorker];
+		end = new int[nbrWorker];
+		for(int i = 0; i < nbrWorker; i++){
+			beg[i] = (int)((long)nbrTerm * i / nbrWorker);
+			end[i] = (int)((long)nbrTerm * (i + 1) / nbrWorker) - 1;
+		}
+
+		if (nbrWorker == 1) return;
+
+		buffers = new double[nbrWorker][dim];
+
+		final int poolId = poolNumber.incrementAndGet();
+		executor = new ThreadPoolExecutor(nbrWorker, nbrWorker, KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			private AtomicInteger count = new AtomicInteger(0);
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "objective-evaluator-" + poolId + "-" + count.getAndIncrement());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		executor.allowCoreThreadTimeOut(true);
+
+		for(int i = 0; i < nbrWorker; i++){
+			final int id = i;
+
+			evaluateTasks.add(new Callable<Double>() {
+				@Override
+				public Double call() throws Exception {
+					double[] change = null;
+					if (currentDer != null){
+						change = buffers[id];
+						for(int j = 0; j < change.length; j++){
+							change[j] = 0;
+						}
+					}
+					return kernel.evaluate(currentX, change, beg[id], end[id]);
+				}
+			});
+
+			//variables from first to last are summed by this task
+			final int first = (int)((long)dim * i / nbrWorker);
+			final int last = (int)((long)dim * (i + 1) / nbrWorker);
+			reduceTasks.add(new Callable<Double>() {
+				@Override
+				public Double call() throws Exception {
+					double s;
+					for(int j = first; j < last; j++){
+						s = 0;
+						for(int k = 0; k < nbrWorker; k++){
+							s += buffers[k][j];
+						}
+						currentDer[j] = s;
+					}
+					return 0.0;
+				}
+			});
+		}
+	}
+
+	/**
+	 *
+	 * @param x: variables
+	 * @param der: gradient will be written here, null if only the objective function is needed
+	 * @return objective function
+	 * @throws InterruptedException
+	 */
+	public double evaluate(double[] x, double[] der) throws InterruptedException{
+
+		//use the current thread
+		if (nbrWorker == 1){
+			if (der != null){
+				for(int i = 0; i < der.length; i++){
+					der[i] = 0;
+				}
+			}
+			return kernel.evaluate(x, der, beg[0], end[0]);
+		}
+
+		currentX = x;
+		currentDer = der;
+
+		double cost = 0.0;
+		try{
+			for(Future<Double> f : executor.invokeAll(evaluateTasks)){
+				cost += f.get();
+			}
+
+			if (der != null){
+				for(Future<Double> f : executor.invokeAll(reduceTasks)){
+					f.get();
+				}
+			}
+		}catch(ExecutionException e){
+			e.printStackTrace();
+			throw new RuntimeException(e.getCause());
+		}finally{
+			currentX = null;
+			currentDer = null;
+		}
+
+		return cost;
+	}
+
+	public int getNbrWorker(){
+		return nbrWorker;
+	}
+
+	/**
+	 * release threads of the pool
+	 */
+	public void shutdown(){
+		if (executor != null){
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,664 @@
+package edu.missouri.chenglab.lordg.utility;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jmol.api.JmolViewer;
+
+import edu.missouri.chenglab.lordg.valueObject.Constants;
+import edu.missouri.chenglab.lordg.valueObject.ConstraintTable;
+
+/**
+ * Read contact list files, each line is a contact of the form: pos1 pos2 IF
+ * (separated by spaces, tabs or ':', lines starting with # or x are skipped).
+ *
+ * The file is memory-mapped and split into parts at line ends, parts are parsed in parallel
+ * without creating strings and merged into primitive arrays in the order of the file.
+ *
+ * After a file is parsed, contacts are written to a binary file next to it (CONTACT_CACHE_SUFFIX),
+ * later reads of the same file with the same threshold load the binary file instead of parsing.
+ *
+ * Only contacts with pos1 != pos2 and IF > threshold are kept, contacts with pos1 == pos2 are kept too if the diagonal is kept
+ * (their binary file has the suffix CONTACT_DIAGONAL_CACHE_SUFFIX).
+ *
+ */
+public class ContactListReader {
+
+	//identifies binary contact files, and their version
+	private static final int CACHE_MAGIC = 0x47464331;
+
+	//size of the header of binary contact files (bytes)
+	private static final int CACHE_HEADER_SIZE = 4 + 8 + 8 + 8 + 4 + 4;
+
+	//buffer size to find line ends and to write binary files (bytes)
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	//largest region mapped at once when reading binary files (bytes)
+	private static final int MAX_MAPPED_SIZE = 1 << 30;
+
+	//how often (milliseconds) progress is reported
+	private static final long PROGRESS_INTERVAL = 500;
+
+	//powers of ten that are exact in double
+	private static final double[] POW10 = new double[23];
+	static {
+		POW10[0] = 1.0;
+		for(int i = 1; i < POW10.length; i++){
+			POW10[i] = POW10[i - 1] * 10;
+		}
+	}
+
+	private int nbrThread;
+
+	//to show progress, can be null
+	private JmolViewer viewer;
+
+	private boolean isCacheEnabled = true;
+
+	//keep contacts with pos1 == pos2
+	private boolean isDiagonalKept = false;
+
+	//the file is split into parts of about this size (bytes) parsed in parallel
+	private int chunkSize = Constants.CONTACT_CHUNK_SIZE;
+
+	//sorted distinct positions of the contacts read last
+	private int[] positions;
+
+	/**
+	 *
+	 * @param nbrThread: number of parts parsed at the same time, 0 to use all processors
+	 * @param viewer: to show progress, can be null
+	 */
+	public ContactListReader(int nbrThread, JmolViewer viewer){
+		this.nbrThread = nbrThread > 0 ? nbrThread : Runtime.getRuntime().availableProcessors();
+		this.viewer = viewer;
+	}
+
+	/**
+	 * Read contacts, positions are the ones in the file (not indices)
+	 * @param fileName
+	 * @param thr: only contacts with IF > thr are kept
+	 * @return contacts, pos1 <= pos2, in the order of the file
+	 * @throws Exception
+	 */
+	public ConstraintTable read(String fileName, double thr) throws Exception{
+
+		long startTime = System.currentTimeMillis();
+
+		File file = new File(fileName);
+		File cacheFile = new File(fileName + (isDiagonalKept ? Constants.CONTACT_DIAGONAL_CACHE_SUFFIX : Constants.CONTACT_CACHE_SUFFIX));
+
+		System.out.println("Reading input data ......");
+
+		ConstraintTable table = null;
+		try{
+			if (isCacheEnabled && cacheFile.exists()){
+				table = readCache(cacheFile, file, thr);
+			}
+
+			if (table == null){
+				table = parse(file, thr);
+				positions = table.findPositions();
+
+				if (isCacheEnabled){
+					writeCache(cacheFile, file, thr, table);
+				}
+			}
+
+		}catch(Exception ex){
+			if (viewer != null) viewer.displayMessage(new String[]{"Exception:" + ex.getMessage()});
+			ex.printStackTrace();
+			throw ex;
+
+		}catch(Error er){
+			if (viewer != null) viewer.displayMessage(new String[]{"Error:" + er.getMessage()});
+			er.printStackTrace();
+			throw new Exception(er.getMessage());
+		}
+
+		System.out.printf("Done reading input data: %d contacts, %d positions, %.2f seconds\n", table.size(), positions.length,
+				(System.currentTimeMillis() - startTime) / 1000.0);
+
+		return table;
+	}
+
+	/**
+	 *
+	 * @return sorted distinct positions of the contacts read last
+	 */
+	public int[] getPositions() {
+		return positions;
+	}
+
+	public boolean isCacheEnabled() {
+		return isCacheEnabled;
+	}
+
+	public void setCacheEnabled(boolean isCacheEnabled) {
+		this.isCacheEnabled = isCacheEnabled;
+	}
+
+	public boolean isDiagonalKept() {
+		return isDiagonalKept;
+	}
+
+	public void setDiagonalKept(boolean isDiagonalKept) {
+		this.isDiagonalKept = isDiagonalKept;
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * contacts parsed from one part of the file
+	 */
+	static class Chunk {
+		int size;
+		int[] pos1;
+		int[] pos2;
+		double[] IF;
+
+		Chunk(int capacity){
+			capacity = Math.max(capacity, 16);
+			pos1 = new int[capacity];
+			pos2 = new int[capacity];
+			IF = new double[capacity];
+		}
+
+		void add(int x, int y, double f){
+			if (size == pos1.length){
+				int capacity = size + (size >> 1) + 1;
+				pos1 = Arrays.copyOf(pos1, capacity);
+				pos2 = Arrays.copyOf(pos2, capacity);
+				IF = Arrays.copyOf(IF, capacity);
+			}
+			if (x > y){
+				pos1[size] = y;
+				pos2[size] = x;
+			}else{
+				pos1[size] = x;
+				pos2[size] = y;
+			}
+			IF[size] = f;
+			size++;
+		}
+	}
+
+	private ConstraintTable parse(File file, final double thr) throws Exception{
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		final FileChannel channel = raf.getChannel();
+		ExecutorService executor = Executors.newFixedThreadPool(nbrThread);
+		try{
+			long length = channel.size();
+			long[] bounds = findChunkBounds(channel, length);
+
+			final AtomicLong parsedLength = new AtomicLong();
+			List<Future<Chunk>> futures = new ArrayList<Future<Chunk>>();
+			for(int i = 0; i + 1 < bounds.length; i++){
+				final long start = bounds[i], end = bounds[i + 1];
+				futures.add(executor.submit(new Callable<Chunk>() {
+					@Override
+					public Chunk call() throws Exception {
+						MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+						Chunk chunk = parseChunk(buf, thr, isDiagonalKept);
+						parsedLength.addAndGet(end - start);
+						return chunk;
+					}
+				}));
+			}
+
+			//wait for the parts and report progress
+			Chunk[] chunks = new Chunk[futures.size()];
+			int total = 0, prevProgress = 0, progress;
+			for(int i = 0; i < chunks.length; i++){
+				while(true){
+					try{
+						chunks[i] = futures.get(i).get(PROGRESS_INTERVAL, TimeUnit.MILLISECONDS);
+						break;
+					}catch(TimeoutException e){
+						progress = (int)(100.0 * parsedLength.get() / Math.max(length, 1));
+						if (viewer != null && progress / 5 > prevProgress / 5){
+							viewer.displayMessage(new String[]{"Reading input data ... " + progress + " %" });
+							prevProgress = progress;
+						}
+					}catch(ExecutionException e){
+						if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+						throw e;
+					}
+				}
+				if ((long) total + chunks[i].size > Integer.MAX_VALUE - 8){
+					throw new Exception("Too many contacts in " + file.getName());
+				}
+				total += chunks[i].size;
+			}
+
+			//merge parts in the order of the file
+			int[] pos1 = new int[Math.max(total, 1)];
+			int[] pos2 = new int[Math.max(total, 1)];
+			double[] IF = new double[Math.max(total, 1)];
+			int k = 0;
+			for(int i = 0; i < chunks.length; i++){
+				System.arraycopy(chunks[i].pos1, 0, pos1, k, chunks[i].size);
+				System.arraycopy(chunks[i].pos2, 0, pos2, k, chunks[i].size);
+				System.arraycopy(chunks[i].IF, 0, IF, k, chunks[i].size);
+				k += chunks[i].size;
+				chunks[i] = null;
+			}
+
+			return new ConstraintTable(pos1, pos2, IF, total);
+
+		}finally{
+			executor.shutdownNow();
+			channel.close();
+			raf.close();
+		}
+	}
+
+	/**
+	 * Split the file into parts of about chunkSize bytes, every part ends at the end of a line
+	 * @param channel
+	 * @param length
+	 * @return offsets of the parts, part i is [bounds[i], bounds[i + 1])
+	 * @throws IOException
+	 */
+	private long[] findChunkBounds(FileChannel channel, long length) throws IOException{
+		List<Long> bounds = new ArrayList<Long>();
+		bounds.add(0L);
+
+		ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+		long start = 0, end;
+		while(start < length){
+			end = Math.min(length, start + chunkSize);
+
+			//move end to the byte after the next line end
+			boolean found = end == length;
+			while(!found){
+				buf.clear();
+				int nbrRead = channel.read(buf, end);
+				if (nbrRead <= 0){
+					end = length;
+					break;
+				}
+				for(int i = 0; i < nbrRead; i++){
+					if (buf.get(i) == '\n'){
+						end += i + 1;
+						found = true;
+						break;
+					}
+				}
+				if (!found) end += nbrRead;
+			}
+
+			bounds.add(end);
+			start = end;
+		}
+
+		long[] rs = new long[bounds.size()];
+		for(int i = 0; i < rs.length; i++){
+			rs[i] = bounds.get(i);
+		}
+		return rs;
+	}
+
+	private static boolean isSeparator(byte c){
+		return c == ' ' || c == '\t' || c == ':' || c == '\r' || c == '\f' || c == 0x0B;
+	}
+
+	//skip separators from p, return the position of the next token, or of the line end
+	private static int skipSeparators(ByteBuffer buf, int p, int limit){
+		while(p < limit && isSeparator(buf.get(p))) p++;
+		return p;
+	}
+
+	private static int skipLine(ByteBuffer buf, int p, int limit){
+		while(p < limit && buf.get(p) != '\n') p++;
+		return p + 1;
+	}
+
+	private static int tokenEnd(ByteBuffer buf, int p, int limit){
+		byte c;
+		while(p < limit && (c = buf.get(p)) != '\n' && !isSeparator(c)) p++;
+		return p;
+	}
+
+	private static String token(ByteBuffer buf, int p, int limit){
+		int end = tokenEnd(buf, p, limit);
+		byte[] b = new byte[end - p];
+		for(int i = 0; i < b.length; i++){
+			b[i] = buf.get(p + i);
+		}
+		return new String(b);
+	}
+
+	/**
+	 * Parse a part of the file, a number is parsed directly from the bytes,
+	 * only numbers in unusual forms (e.g. NaN) are parsed through strings
+	 * @param buf
+	 * @param thr
+	 * @param isDiagonalKept: keep contacts with pos1 == pos2
+	 * @return
+	 * @throws Exception
+	 */
+	static Chunk parseChunk(ByteBuffer buf, double thr, boolean isDiagonalKept) throws Exception{
+		int limit = buf.limit();
+
+		//about 12 bytes per contact
+		Chunk chunk = new Chunk(limit / 12);
+
+		//parsed numbers of the current line
+		int[] ints = new int[2];
+		double f;
+
+		int p = 0, i, start, digits, exp, expSign;
+		long value, mantissa;
+		boolean isNegative, isSimple;
+		byte c;
+
+		while(p < limit){
+			c = buf.get(p);
+			if (c == '#' || c == 'x'){
+				p = skipLine(buf, p, limit);
+				continue;
+			}
+
+			p = skipSeparators(buf, p, limit);
+			if (p >= limit || buf.get(p) == '\n'){
+				//empty line
+				p++;
+				continue;
+			}
+
+			//two positions
+			for(i = 0; i < 2; i++){
+				p = skipSeparators(buf, p, limit);
+				if (p >= limit || buf.get(p) == '\n'){
+					throw new Exception("There is a line that doesn't contain exactly 3 numbers");
+				}
+
+				start = p;
+				isNegative = false;
+				c = buf.get(p);
+				if (c == '-' || c == '+'){
+					isNegative = c == '-';
+					p++;
+				}
+				value = 0;
+				digits = 0;
+				while(p < limit && (c = buf.get(p)) >= '0' && c <= '9'){
+					value = value * 10 + (c - '0');
+					digits++;
+					p++;
+					if (value > Integer.MAX_VALUE + 1L) break;
+				}
+				if (digits == 0 || (p < limit && buf.get(p) != '\n' && !isSeparator(buf.get(p)))
+						|| value > (isNegative ? Integer.MAX_VALUE + 1L : Integer.MAX_VALUE)){
+					//same error as Integer.parseInt
+					throw new NumberFormatException("For input string: \"" + token(buf, start, limit) + "\"");
+				}
+				ints[i] = (int)(isNegative ? -value : value);
+			}
+
+			//interaction frequency
+			p = skipSeparators(buf, p, limit);
+			if (p >= limit || buf.get(p) == '\n'){
+				throw new Exception("There is a line that doesn't contain exactly 3 numbers");
+			}
+
+			start = p;
+			isNegative = false;
+			c = buf.get(p);
+			if (c == '-' || c == '+'){
+				isNegative = c == '-';
+				p++;
+			}
+			mantissa = 0;
+			digits = 0; //significant digits in mantissa
+			exp = 0;
+			isSimple = false;
+			while(p < limit && (c = buf.get(p)) >= '0' && c <= '9'){
+				if (mantissa != 0 || c != '0'){
+					if (digits < 18){
+						mantissa = mantissa * 10 + (c - '0');
+					}else{
+						exp++;
+					}
+					digits++;
+				}
+				isSimple = true;
+				p++;
+			}
+			if (p < limit && buf.get(p) == '.'){
+				p++;
+				while(p < limit && (c = buf.get(p)) >= '0' && c <= '9'){
+					if (mantissa != 0 || c != '0'){
+						if (digits < 18){
+							mantissa = mantissa * 10 + (c - '0');
+							exp--;
+						}
+						digits++;
+					}else{
+						exp--;
+					}
+					isSimple = true;
+					p++;
+				}
+			}
+			if (isSimple && p < limit && ((c = buf.get(p)) == 'e' || c == 'E')){
+				p++;
+				expSign = 1;
+				if (p < limit && ((c = buf.get(p)) == '-' || c == '+')){
+					expSign = c == '-' ? -1 : 1;
+					p++;
+				}
+				value = 0;
+				isSimple = false;
+				while(p < limit && (c = buf.get(p)) >= '0' && c <= '9'){
+					if (value < 10000) value = value * 10 + (c - '0');
+					isSimple = true;
+					p++;
+				}
+				exp += expSign * value;
+			}
+			if (isSimple && p < limit && buf.get(p) != '\n' && !isSeparator(buf.get(p))){
+				isSimple = false;
+			}
+
+			if (isSimple && mantissa == 0){
+				f = isNegative ? -0.0 : 0.0;
+			}else if (isSimple && digits <= 15 && exp >= -22 && exp <= 22){
+				//mantissa and power of ten are exact, one operation gives the correctly rounded value (same as Double.parseDouble)
+				f = exp >= 0 ? mantissa * POW10[exp] : mantissa / POW10[-exp];
+				if (isNegative) f = -f;
+			}else{
+				f = Double.parseDouble(token(buf, start, limit));
+				p = tokenEnd(buf, start, limit);
+			}
+
+			//the rest of the line is ignored
+			p = skipLine(buf, p, limit);
+
+			if ((isDiagonalKept || ints[0] != ints[1]) && !Double.isNaN(f) && f > thr){
+				chunk.add(ints[0], ints[1], f);
+			}
+		}
+
+		return chunk;
+	}
+
+	/**
+	 * Write contacts and positions to a binary file, the file is written under a temporary name
+	 * and then renamed, so that a partially written file is never read
+	 * @param cacheFile
+	 * @param file: the contact list file
+	 * @param thr
+	 * @param table
+	 */
+	private void writeCache(File cacheFile, File file, double thr, ConstraintTable table){
+		File tmpFile = new File(cacheFile.getPath() + ".tmp");
+		RandomAccessFile raf = null;
+		try{
+			raf = new RandomAccessFile(tmpFile, "rw");
+			raf.setLength(0);
+			FileChannel channel = raf.getChannel();
+
+			int size = table.size();
+			ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+			buf.putInt(CACHE_MAGIC);
+			buf.putLong(file.length());
+			buf.putLong(file.lastModified());
+			buf.putDouble(thr);
+			buf.putInt(size);
+			buf.putInt(positions.length);
+
+			writeInts(channel, buf, positions, positions.length);
+			writeInts(channel, buf, table.getPos1Array(), size);
+			writeInts(channel, buf, table.getPos2Array(), size);
+
+			double[] IF = table.getIFArray();
+			for(int k = 0; k < size; k++){
+				if (buf.remaining() < 8) flush(channel, buf);
+				buf.putDouble(IF[k]);
+			}
+			flush(channel, buf);
+
+			raf.close();
+			raf = null;
+
+			if (cacheFile.exists() && !cacheFile.delete() || !tmpFile.renameTo(cacheFile)){
+				throw new IOException("cannot rename " + tmpFile.getPath());
+			}
+
+		}catch(IOException e){
+			//the contacts are read anyway, they will be parsed again next time
+			System.err.println("Cannot write binary contact file " + cacheFile.getPath() + ": " + e.getMessage());
+			tmpFile.delete();
+		}finally{
+			if (raf != null){
+				try{
+					raf.close();
+				}catch(IOException e){
+					e.printStackTrace();
+				}
+				tmpFile.delete();
+			}
+		}
+	}
+
+	private static void writeInts(FileChannel channel, ByteBuffer buf, int[] a, int size) throws IOException{
+		for(int k = 0; k < size; k++){
+			if (buf.remaining() < 4) flush(channel, buf);
+			buf.putInt(a[k]);
+		}
+	}
+
+	private static void flush(FileChannel channel, ByteBuffer buf) throws IOException{
+		buf.flip();
+		while(buf.hasRemaining()){
+			channel.write(buf);
+		}
+		buf.clear();
+	}
+
+	/**
+	 * Load contacts from a binary file written by writeCache
+	 * @param cacheFile
+	 * @param file: the contact list file
+	 * @param thr
+	 * @return null if the binary file is not for this version of file or this threshold
+	 */
+	private ConstraintTable readCache(File cacheFile, File file, double thr){
+		RandomAccessFile raf = null;
+		try{
+			raf = new RandomAccessFile(cacheFile, "r");
+			FileChannel channel = raf.getChannel();
+			if (channel.size() < CACHE_HEADER_SIZE) return null;
+
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, CACHE_HEADER_SIZE);
+			if (header.getInt() != CACHE_MAGIC || header.getLong() != file.length()
+					|| header.getLong() != file.lastModified() || header.getDouble() != thr){
+				return null;
+			}
+			int size = header.getInt();
+			int nbrPosition = header.getInt();
+
+			if (channel.size() != CACHE_HEADER_SIZE + 4L * nbrPosition + 8L * size + 8L * size){
+				return null;
+			}
+
+			long offset = CACHE_HEADER_SIZE;
+			int[] pos = new int[nbrPosition];
+			offset = readInts(channel, offset, pos);
+
+			int[] pos1 = new int[Math.max(size, 1)];
+			int[] pos2 = new int[Math.max(size, 1)];
+			double[] IF = new double[Math.max(size, 1)];
+			offset = readInts(channel, offset, pos1, size);
+			offset = readInts(channel, offset, pos2, size);
+			readDoubles(channel, offset, IF, size);
+
+			positions = pos;
+			System.out.println("Contacts are loaded from " + cacheFile.getPath());
+			return new ConstraintTable(pos1, pos2, IF, size);
+
+		}catch(IOException e){
+			System.err.println("Cannot read binary contact file " + cacheFile.getPath() + ": " + e.getMessage());
+			return null;
+		}finally{
+			if (raf != null){
+				try{
+					raf.close();
+				}catch(IOException e){
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	private static long readInts(FileChannel channel, long offset, int[] a) throws IOException{
+		return readInts(channel, offset, a, a.length);
+	}
+
+	//read a in pieces of at most MAX_MAPPED_SIZE bytes, return the offset after a
+	private static long readInts(FileChannel channel, long offset, int[] a, int size) throws IOException{
+		int k = 0, len;
+		while(k < size){
+			len = Math.min(size - k, MAX_MAPPED_SIZE / 4);
+			channel.map(FileChannel.MapMode.READ_ONLY, offset, 4L * len).asIntBuffer().get(a, k, len);
+			offset += 4L * len;
+			k += len;
+		}
+		return offset;
+	}
+
+	private static long readDoubles(FileChannel channel, long offset, double[] a, int size) throws IOException{
+		int k = 0, len;
+		while(k < size){
+			len = Math.min(size - k, MAX_MAPPED_SIZE / 8);
+			channel.map(FileChannel.MapMode.READ_ONLY, offset, 8L * len).asDoubleBuffer().get(a, k, len);
+			offset += 8L * len;
+			k += len;
+		}
+		return offset;
+	}
+}
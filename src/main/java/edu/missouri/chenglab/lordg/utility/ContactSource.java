@@ -0,0 +1,22 @@
+package edu.missouri.chenglab.lordg.utility;
+
+import edu.missouri.chenglab.lordg.valueObject.ConstraintTable;
+
+/**
+ * Contacts given to the structure engines (LorDG, 3DMax) without a contact list file,
+ * e.g. a region of a .hic file read by edu.missouri.chenglab.hicdata.HiCContactReader.
+ * When the input parameters have a contact source, it is read instead of the input file
+ *
+ */
+public interface ContactSource {
+
+	/**
+	 * Read contacts, the same ones ContactListReader would read from a contact list file of the data:
+	 * positions are genomic positions (not indices), contacts with pos1 == pos2 or a NaN IF are skipped
+	 * @param thr: only contacts with IF > thr are kept
+	 * @return a new table on every call, pos1 <= pos2, engines take its positions (findPositions) before
+	 * mapping them to indices in place, so a source keeps no state between reads
+	 * @throws Exception
+	 */
+	ConstraintTable read(double thr) throws Exception;
+}
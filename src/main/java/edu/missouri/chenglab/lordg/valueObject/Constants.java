@@ -29,11 +29,43 @@ public interface Constants {
 	
 	public static final String DISTANCE_FILE = "DISTANCE_FILE";
 	
+	public static final String OPTIMIZER_KEY = "OPTIMIZER";
+	
+	//values of OPTIMIZER
+	public static final String GRADIENT_ASCENT = "gradient_ascent";
+	public static final String LBFGS = "lbfgs";
+	
+	//number of coarser resolutions solved before the input resolution, 0 to optimize the input resolution from a random structure
+	public static final String MULTIRESOLUTION_LEVELS_KEY = "MULTIRESOLUTION_LEVELS";
+	
+	//minimum distance between points that are not adjacent, 0 (default) to disable the excluded volume term
+	public static final String EXCLUDED_VOLUME_DISTANCE_KEY = "EXCLUDED_VOLUME_DISTANCE";
+	public static final String EXCLUDED_VOLUME_WEIGHT_KEY = "EXCLUDED_VOLUME_WEIGHT";
+	
+	//seconds between two checkpoints of the optimization, 0 (default) to disable checkpoints
+	public static final String CHECKPOINT_INTERVAL_KEY = "CHECKPOINT_INTERVAL";
+	//true to resume the optimization from the checkpoint of a previous run
+	public static final String RESUME_KEY = "RESUME";
+	
+	//number of constraints sampled to score conversion factors after the first stage of the search, 0 to score them on all constraints
+	public static final String EARLY_SCORING_SAMPLE_KEY = "EARLY_SCORING_SAMPLE";
+	//confidence level of early scores, e.g. 0.95
+	public static final String EARLY_SCORING_CONFIDENCE_KEY = "EARLY_SCORING_CONFIDENCE";
+	
+	public static final String SEARCH_MODE_KEY = "SEARCH_MODE";
+	
+	//values of SEARCH_MODE, how the conversion factor is searched when CONVERT_FACTOR = -1
+	public static final String SEARCH_GRID = "grid";
+	public static final String SEARCH_ADAPTIVE = "adaptive";
+	
 	String HEADER_STR_FILE = "3D chromosome/genome modeling by LorDG";
 	
 	//maximum number of threads should be used 
 	public static final int MAX_NUM_THREAD = 140;
 	
+	//a thread is not used to evaluate less than this number of constraints
+	public static final int MIN_CONSTRAINTS_PER_THREAD = 2000;
+	
 	//the starting learning rate for the line search
 	public static double INITIAL_LEARNING_RATE = 0.001;		
 	
@@ -42,6 +74,27 @@ public interface Constants {
 	
 	//this constant is used to check if the norm of the gradient is near zero
 	public static final double NEAR_ZERO = 1e-6;
+	
+	//number of corrections kept by L-BFGS
+	public static final int LBFGS_MEMORY = 10;
+	
+	//L-BFGS stops when the relative change of the objective function is less than this
+	public static final double LBFGS_FUNCTION_TOLERANCE = 1e-10;
+	
+	//a resolution is not made coarser when it has fewer points than this
+	public static final int MIN_COARSE_POINTS = 50;
+	
+	//weight of the excluded volume term, the penalty of two overlapping points is weight * (1 - d / EXCLUDED_VOLUME_DISTANCE)^2
+	public static final double EXCLUDED_VOLUME_WEIGHT = 1.0;
+	//neighbors of a point are searched within EXCLUDED_VOLUME_DISTANCE * (1 + EXCLUDED_VOLUME_SKIN),
+	//the neighbor lists are rebuilt when a point moves more than half of the skin
+	public static final double EXCLUDED_VOLUME_SKIN = 0.5;
+	
+	//maximum number of times per second the structure being optimized is shown in the viewer
+	public static final int LIVE_MODEL_FRAME_RATE = 25;
+	
+	//checkpoint of a model is output_folder/file_prefix + CHECKPOINT_SUFFIX
+	public static final String CHECKPOINT_SUFFIX = "_checkpoint.bin";
 
 	//if the distance is larger than LARGE_DISTANCE_FOR_TANH, it will be scale down to this value
 	public static final double SCALE_DISTANCE = 15.0;
@@ -56,6 +109,26 @@ public interface Constants {
 	public static final double END_CONVERT_FACTOR = 3.0;
 	double DEFAULT_CONVERT_FACTOR = 1.0; 
 	
+	//step of conversion factors in the grid search
+	public static final double CONVERT_FACTOR_STEP = 0.1;
+	//the adaptive search stops when conversion factors are evaluated this close to each other
+	public static final double CONVERT_FACTOR_TOLERANCE = 0.02;
+	//fraction of the iterations after which candidate conversion factors are scored for the first time
+	public static final double EARLY_SCORING_FRACTION = 0.25;
+	//a candidate is abandoned if its first score is worse than the best first score by more than this (Spearman correlation)
+	public static final double ABANDON_MARGIN = 0.1;
+	//default number of constraints sampled to score candidate conversion factors after the first stage
+	public static final int EARLY_SCORING_SAMPLE = 5000;
+	//default confidence level of the intervals of early scores
+	public static final double EARLY_SCORING_CONFIDENCE = 0.95;
+	
+	//contact lists are parsed in parts of this size (bytes), in parallel
+	public static final int CONTACT_CHUNK_SIZE = 64 * 1024 * 1024;
+	//the binary copy of a contact list is written next to it, with this suffix
+	public static final String CONTACT_CACHE_SUFFIX = ".contacts.bin";
+	//suffix of the binary copy when contacts with pos1 == pos2 are kept
+	public static final String CONTACT_DIAGONAL_CACHE_SUFFIX = ".contacts.diag.bin";
+	
 	public static final long MAX_CONTACT_LENGTH = Long.MAX_VALUE;
 	public static final long MIN_CONTACT_LENGTH = 0;
 	
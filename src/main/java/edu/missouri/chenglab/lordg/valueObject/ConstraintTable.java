@@ -0,0 +1,368 @@
+package edu.missouri.chenglab.lordg.valueObject;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Constraints stored as parallel primitive arrays (one array per field of Constraint),
+ * constraint k is (pos1[k], pos2[k], IF[k], dist[k], inequality[k])
+ *
+ * This is used in place of List<Constraint> by the optimization, it takes a fraction of the memory
+ * and lets the gradient kernels scan constraints without dereferencing an object per constraint.
+ * Arrays returned by the getters are the backing arrays, only the first size() elements are valid
+ *
+ */
+public class ConstraintTable {
+
+	private static final int DEFAULT_CAPACITY = 16;
+
+	//below this length, segments are sorted by insertion sort
+	private static final int INSERTION_SORT_THRESHOLD = 32;
+
+	private int size;
+
+	private int[] pos1; //pos1 <= pos2
+	private int[] pos2;
+	private double[] IF;
+	private double[] dist; //converted distance from IF
+	private boolean[] inequality;
+
+	//chromosome id of each bin (point), to check if two bins are in the same chromosome
+	private int[] chrId;
+
+	public ConstraintTable(){
+		this(DEFAULT_CAPACITY);
+	}
+
+	public ConstraintTable(int capacity){
+		capacity = Math.max(capacity, 1);
+		pos1 = new int[capacity];
+		pos2 = new int[capacity];
+		IF = new double[capacity];
+		dist = new double[capacity];
+		inequality = new boolean[capacity];
+	}
+
+	/**
+	 * Make a table on existing arrays (e.g. from a parser), the arrays are used as the backing arrays,
+	 * distances are 0 and no constraint is an inequality
+	 * @param pos1: pos1[k] <= pos2[k]
+	 * @param pos2
+	 * @param IF
+	 * @param size: number of valid elements in the arrays
+	 */
+	public ConstraintTable(int[] pos1, int[] pos2, double[] IF, int size){
+		this.pos1 = pos1;
+		this.pos2 = pos2;
+		this.IF = IF;
+		this.size = size;
+		dist = new double[pos1.length];
+		inequality = new boolean[pos1.length];
+	}
+
+	/**
+	 * Build a table from a list of constraints, the list is not modified
+	 * @param lst
+	 * @return
+	 */
+	public static ConstraintTable fromConstraints(List<Constraint> lst){
+		ConstraintTable table = new ConstraintTable(lst.size());
+		for(Constraint con : lst){
+			table.add(con.getPos1(), con.getPos2(), con.getIF(), con.getDist(), con.isInequality());
+		}
+		return table;
+	}
+
+	/**
+	 * Make a table that shares positions, IFs, inequality flags and chromosome ids with this table,
+	 * but has its own distances. This is used to convert IFs to distances with different conversion factors
+	 * at the same time, the shared arrays must not be modified while the copy is in use
+	 * @return
+	 */
+	public ConstraintTable copyWithNewDistances(){
+		ConstraintTable table = new ConstraintTable(1);
+		table.size = size;
+		table.pos1 = pos1;
+		table.pos2 = pos2;
+		table.IF = IF;
+		table.inequality = inequality;
+		table.chrId = chrId;
+		table.dist = new double[pos1.length];
+		return table;
+	}
+
+	/**
+	 * Add a constraint, positions are swapped if i > j
+	 * @param i
+	 * @param j
+	 * @param iF
+	 */
+	public void add(int i, int j, double iF){
+		add(i, j, iF, 0.0, false);
+	}
+
+	public void add(int i, int j, double iF, double d, boolean isInequality){
+		if (size == pos1.length){
+			ensureCapacity(size + (size >> 1) + 1);
+		}
+		if (i > j){
+			pos1[size] = j;
+			pos2[size] = i;
+		}else{
+			pos1[size] = i;
+			pos2[size] = j;
+		}
+		IF[size] = iF;
+		dist[size] = d;
+		inequality[size] = isInequality;
+		size++;
+	}
+
+	public void ensureCapacity(int capacity){
+		if (capacity <= pos1.length) return;
+
+		pos1 = Arrays.copyOf(pos1, capacity);
+		pos2 = Arrays.copyOf(pos2, capacity);
+		IF = Arrays.copyOf(IF, capacity);
+		dist = Arrays.copyOf(dist, capacity);
+		inequality = Arrays.copyOf(inequality, capacity);
+	}
+
+	/**
+	 * release unused capacity
+	 */
+	public void trimToSize(){
+		if (size == pos1.length) return;
+
+		int capacity = Math.max(size, 1);
+		pos1 = Arrays.copyOf(pos1, capacity);
+		pos2 = Arrays.copyOf(pos2, capacity);
+		IF = Arrays.copyOf(IF, capacity);
+		dist = Arrays.copyOf(dist, capacity);
+		inequality = Arrays.copyOf(inequality, capacity);
+	}
+
+	/**
+	 * Sort constraints by pos1 then pos2 (same order as Constraint.compareTo), so that
+	 * consecutive constraints touch nearby points
+	 */
+	public void sort(){
+		boolean sorted = true;
+		for(int k = 1; k < size && sorted; k++){
+			sorted = compare(k - 1, k) <= 0;
+		}
+		if (!sorted){
+			quickSort(0, size - 1);
+		}
+	}
+
+	/**
+	 * Merge constraints between the same pair of points in a sorted table, IFs of merged constraints are summed,
+	 * distances and inequality flags of the first one are kept
+	 */
+	public void sumDuplicates(){
+		int n = 0;
+		for(int k = 0; k < size; k++){
+			if (n > 0 && pos1[k] == pos1[n - 1] && pos2[k] == pos2[n - 1]){
+				IF[n - 1] += IF[k];
+			}else{
+				pos1[n] = pos1[k];
+				pos2[n] = pos2[k];
+				IF[n] = IF[k];
+				dist[n] = dist[k];
+				inequality[n] = inequality[k];
+				n++;
+			}
+		}
+		size = n;
+	}
+
+	/**
+	 * Find a constraint in a sorted table
+	 * @param i
+	 * @param j
+	 * @return index of constraint (i,j), or a negative number if it is not in the table
+	 */
+	public int indexOf(int i, int j){
+		if (i > j){
+			int t = i;
+			i = j;
+			j = t;
+		}
+		int lo = 0, hi = size - 1, mid, c;
+		while (lo <= hi){
+			mid = (lo + hi) >>> 1;
+			c = pos1[mid] != i ? Integer.compare(pos1[mid], i) : Integer.compare(pos2[mid], j);
+			if (c < 0){
+				lo = mid + 1;
+			}else if (c > 0){
+				hi = mid - 1;
+			}else{
+				return mid;
+			}
+		}
+		return -(lo + 1);
+	}
+
+	private int compare(int a, int b){
+		if (pos1[a] != pos1[b]) return Integer.compare(pos1[a], pos1[b]);
+		return Integer.compare(pos2[a], pos2[b]);
+	}
+
+	private int compare(int a, int p1, int p2){
+		if (pos1[a] != p1) return Integer.compare(pos1[a], p1);
+		return Integer.compare(pos2[a], p2);
+	}
+
+	//in place quick sort of all arrays, no extra memory is allocated
+	private void quickSort(int lo, int hi){
+		while (hi - lo >= INSERTION_SORT_THRESHOLD){
+			int mid = (lo + hi) >>> 1;
+			//median of three as pivot
+			if (compare(mid, lo) < 0) swap(mid, lo);
+			if (compare(hi, lo) < 0) swap(hi, lo);
+			if (compare(hi, mid) < 0) swap(hi, mid);
+
+			int p1 = pos1[mid], p2 = pos2[mid];
+			int i = lo, j = hi;
+			while (i <= j){
+				while (compare(i, p1, p2) < 0) i++;
+				while (compare(j, p1, p2) > 0) j--;
+				if (i <= j){
+					swap(i, j);
+					i++;
+					j--;
+				}
+			}
+
+			//recurse into the smaller part to bound the stack depth
+			if (j - lo < hi - i){
+				quickSort(lo, j);
+				lo = i;
+			}else{
+				quickSort(i, hi);
+				hi = j;
+			}
+		}
+
+		for(int i = lo + 1; i <= hi; i++){
+			for(int j = i; j > lo && compare(j - 1, j) > 0; j--){
+				swap(j - 1, j);
+			}
+		}
+	}
+
+	private void swap(int a, int b){
+		int t = pos1[a];
+		pos1[a] = pos1[b];
+		pos1[b] = t;
+
+		t = pos2[a];
+		pos2[a] = pos2[b];
+		pos2[b] = t;
+
+		double d = IF[a];
+		IF[a] = IF[b];
+		IF[b] = d;
+
+		d = dist[a];
+		dist[a] = dist[b];
+		dist[b] = d;
+
+		boolean e = inequality[a];
+		inequality[a] = inequality[b];
+		inequality[b] = e;
+	}
+
+	/**
+	 *
+	 * @return sorted distinct positions of the constraints
+	 */
+	public int[] findPositions(){
+		int[] pos = new int[size * 2];
+		System.arraycopy(pos1, 0, pos, 0, size);
+		System.arraycopy(pos2, 0, pos, size, size);
+		Arrays.parallelSort(pos);
+
+		int n = 0;
+		for(int i = 0; i < pos.length; i++){
+			if (n == 0 || pos[i] != pos[n - 1]){
+				pos[n++] = pos[i];
+			}
+		}
+		return Arrays.copyOf(pos, n);
+	}
+
+	/**
+	 *
+	 * @param k
+	 * @return true if the two points of constraint k are in the same chromosome, chromosome ids must be set
+	 */
+	public boolean isIntraChromosome(int k){
+		return chrId[pos1[k]] == chrId[pos2[k]];
+	}
+
+	public int size(){
+		return size;
+	}
+
+	public int getPos1(int k){
+		return pos1[k];
+	}
+
+	public int getPos2(int k){
+		return pos2[k];
+	}
+
+	public double getIF(int k){
+		return IF[k];
+	}
+
+	public void setIF(int k, double iF){
+		IF[k] = iF;
+	}
+
+	public double getDist(int k){
+		return dist[k];
+	}
+
+	public void setDist(int k, double d){
+		dist[k] = d;
+	}
+
+	public boolean isInequality(int k){
+		return inequality[k];
+	}
+
+	public void setInequality(int k, boolean isInequality){
+		inequality[k] = isInequality;
+	}
+
+	public int[] getPos1Array(){
+		return pos1;
+	}
+
+	public int[] getPos2Array(){
+		return pos2;
+	}
+
+	public double[] getIFArray(){
+		return IF;
+	}
+
+	public double[] getDistArray(){
+		return dist;
+	}
+
+	public boolean[] getInequalityArray(){
+		return inequality;
+	}
+
+	public int[] getChrId(){
+		return chrId;
+	}
+
+	public void setChrId(int[] chrId){
+		this.chrId = chrId;
+	}
+}
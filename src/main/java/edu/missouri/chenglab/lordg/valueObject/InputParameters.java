@@ -5,11 +5,15 @@ import java.util.Map;
 
 import org.jmol.api.JmolViewer;
 
+import edu.missouri.chenglab.lordg.utility.ContactSource;
+
 public class InputParameters {
 	private int num=1;
 	private String output_folder;
 	private String input_file;
 	private String filtered_input_file;
+	//contacts read instead of input_file (e.g. a region of a .hic file), null to read input_file
+	private ContactSource contactSource = null;
 	
 	private String file_prefix;
 	private boolean verbose=false;
@@ -48,6 +52,29 @@ public class InputParameters {
 	private double minConversionFactor = 0.1;
 	private double maxConversionFactor = 3.0;
 	
+	//optimization algorithm, Constants.GRADIENT_ASCENT or Constants.LBFGS
+	private String optimizer = Constants.GRADIENT_ASCENT;
+	
+	//how to search for the conversion factor, Constants.SEARCH_GRID or Constants.SEARCH_ADAPTIVE
+	private String searchMode = Constants.SEARCH_GRID;
+	
+	//number of coarser resolutions solved first, each halves the number of points, 0 for none
+	private int multiresolutionLevels = 0;
+	
+	//minimum distance between any two points that are not adjacent, 0 to disable the excluded volume term
+	private double excludedVolumeDistance = 0;
+	private double excludedVolumeWeight = Constants.EXCLUDED_VOLUME_WEIGHT;
+	
+	//seconds between two checkpoints of the optimization, 0 to disable checkpoints
+	private int checkpointInterval = 0;
+	
+	//resume the optimization from the checkpoint of a previous run
+	private boolean isResume = false;
+	
+	//number of constraints sampled to score conversion factors after the first stage of the search, 0 to use all constraints
+	private int earlyScoringSample = Constants.EARLY_SCORING_SAMPLE;
+	private double earlyScoringConfidence = Constants.EARLY_SCORING_CONFIDENCE;
+	
 	public InputParameters copy(){
 		InputParameters inputParameter = new InputParameters();
 		inputParameter.setNum(num);
@@ -67,6 +94,7 @@ public class InputParameters {
 		inputParameter.setAddInequalityConstraint(isAddInequalityConstraint);
 		inputParameter.setDistanceFile(distanceFile);
 		inputParameter.setFiltered_input_file(filtered_input_file);
+		inputParameter.setContactSource(contactSource);
 		
 		inputParameter.setViewer(viewer);
 		inputParameter.setLstPos(lstPos);
@@ -83,6 +111,16 @@ public class InputParameters {
 		
 		inputParameter.setIdToGenomLocation(idToGenomLocation);
 		
+		inputParameter.setOptimizer(optimizer);
+		inputParameter.setSearchMode(searchMode);
+		inputParameter.setMultiresolutionLevels(multiresolutionLevels);
+		inputParameter.setExcludedVolumeDistance(excludedVolumeDistance);
+		inputParameter.setExcludedVolumeWeight(excludedVolumeWeight);
+		inputParameter.setCheckpointInterval(checkpointInterval);
+		inputParameter.setResume(isResume);
+		inputParameter.setEarlyScoringSample(earlyScoringSample);
+		inputParameter.setEarlyScoringConfidence(earlyScoringConfidence);
+		
 		return inputParameter;
 	}
 	
@@ -100,6 +138,114 @@ public class InputParameters {
 
 
 
+	public String getOptimizer() {
+		return optimizer;
+	}
+
+
+
+	public void setOptimizer(String optimizer) {
+		this.optimizer = optimizer;
+	}
+
+
+
+	public String getSearchMode() {
+		return searchMode;
+	}
+
+
+
+	public void setSearchMode(String searchMode) {
+		this.searchMode = searchMode;
+	}
+
+
+
+	public int getMultiresolutionLevels() {
+		return multiresolutionLevels;
+	}
+
+
+
+	public void setMultiresolutionLevels(int multiresolutionLevels) {
+		this.multiresolutionLevels = multiresolutionLevels;
+	}
+
+
+
+	public double getExcludedVolumeDistance() {
+		return excludedVolumeDistance;
+	}
+
+
+
+	public void setExcludedVolumeDistance(double excludedVolumeDistance) {
+		this.excludedVolumeDistance = excludedVolumeDistance;
+	}
+
+
+
+	public double getExcludedVolumeWeight() {
+		return excludedVolumeWeight;
+	}
+
+
+
+	public void setExcludedVolumeWeight(double excludedVolumeWeight) {
+		this.excludedVolumeWeight = excludedVolumeWeight;
+	}
+
+
+
+	public int getCheckpointInterval() {
+		return checkpointInterval;
+	}
+
+
+
+	public void setCheckpointInterval(int checkpointInterval) {
+		this.checkpointInterval = checkpointInterval;
+	}
+
+
+
+	public boolean isResume() {
+		return isResume;
+	}
+
+
+
+	public void setResume(boolean isResume) {
+		this.isResume = isResume;
+	}
+
+
+
+	public int getEarlyScoringSample() {
+		return earlyScoringSample;
+	}
+
+
+
+	public void setEarlyScoringSample(int earlyScoringSample) {
+		this.earlyScoringSample = earlyScoringSample;
+	}
+
+
+
+	public double getEarlyScoringConfidence() {
+		return earlyScoringConfidence;
+	}
+
+
+
+	public void setEarlyScoringConfidence(double earlyScoringConfidence) {
+		this.earlyScoringConfidence = earlyScoringConfidence;
+	}
+
+
+
 	public double getMinConversionFactor() {
 		return minConversionFactor;
 	}
@@ -185,6 +331,14 @@ public class InputParameters {
 		this.filtered_input_file = filtered_input_file;
 	}
 
+	public ContactSource getContactSource() {
+		return contactSource;
+	}
+
+	public void setContactSource(ContactSource contactSource) {
+		this.contactSource = contactSource;
+	}
+
 
 	public String getDistanceFile() {
 		return distanceFile;
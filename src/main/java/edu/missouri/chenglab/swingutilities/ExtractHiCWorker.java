@@ -24,7 +24,8 @@ public class ExtractHiCWorker extends SwingWorker<String,Void>{
 			 
 				boolean includeIntra = true;
 				ReadHiCData.dumpGenomeWideData(readHiCData.getDataset(), readHiCData.getDataset().getChromosomes() , includeIntra, 
-						readHiCData.getZoom(), readHiCData.getNorm(), readHiCData.getMatrixType(), readHiCData.getZoom().getBinSize(), readHiCData.getOutputFile());
+						readHiCData.getZoom(), readHiCData.getNorm(), readHiCData.getMatrixType(), readHiCData.getZoom().getBinSize(), readHiCData.getOutputFile(),
+						readHiCData.getNbrThread());
 			 }else{
 			
 				 ReadHiCData.dumpMatrix(readHiCData.getDataset(), readHiCData.getChrom1(), readHiCData.getChrom2(),
@@ -9,12 +9,18 @@ public class NormalizeHiCWorker extends SwingWorker<String,Integer>{
 	
 	String inputFile, outputFile;
 	int minResolution  = 0;
+	int method = Normalization.ICE; // for contact lists: Normalization.ICE, KR or STANDARD
 	public NormalizeHiCWorker(String inputFile, String outputFile, int minRes){
 		this.inputFile = inputFile;
 		this.outputFile = outputFile;
 		this.minResolution = minRes;
 	}
 	
+	public NormalizeHiCWorker(String inputFile, String outputFile, int minRes, int method){
+		this(inputFile, outputFile, minRes);
+		this.method = method;
+	}
+	
 	@Override
 	protected String doInBackground() throws Exception {
 		
@@ -22,7 +28,7 @@ public class NormalizeHiCWorker extends SwingWorker<String,Integer>{
 			if (minResolution > 0) NormalizationVectorUpdater.updateHicFile(inputFile, minResolution);
 			else NormalizationVectorUpdater.updateHicFile(inputFile);
 		}else{
-			Normalization.normalize(inputFile, outputFile, 2);
+			Normalization.normalize(inputFile, outputFile, method);
 		}
 		
 		
@@ -645,6 +645,7 @@ abstract public class JmolViewer {
 	abstract public InputParameters getInput3DModeller();	
 	abstract public void setInput3DModeller(InputParameters input3dModeller);
 	abstract public void displayMessage(String[] msg);
+	abstract public boolean updateModelCoordinates(double[] structure, String ...msg);
 	//end
 	//Tosin added
 	
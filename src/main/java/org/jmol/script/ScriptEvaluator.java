@@ -124,9 +124,11 @@ import edu.missouri.chenglab.Heatmap.HeatMapDemo;
 import edu.missouri.chenglab.gmol.Constants;
 import edu.missouri.chenglab.gmol.annotation.Annotator;
 import edu.missouri.chenglab.gmol.filemodification.ConvertPDB2GSS;
+import edu.missouri.chenglab.hicdata.HiCContactReader;
 import edu.missouri.chenglab.loopdetection.Detector;
 import edu.missouri.chenglab.loopdetection.utility.CommonFunctions;
 import edu.missouri.chenglab.lordg.noisy_mds.StructureGeneratorLorentz_HierarchicalModeling;
+import edu.missouri.chenglab.lordg.utility.ContactSource;
 import edu.missouri.chenglab.lordg.utility.Helper;
 import edu.missouri.chenglab.lordg.valueObject.GenomicLocation;
 import edu.missouri.chenglab.lordg.valueObject.InputParameters;
@@ -6022,6 +6024,31 @@ public class ScriptEvaluator {
 	 * @author Tuan
 	 * To reconstruct 3D model using LorDG
 	 */
+	/**
+	 * Reader of the chromosome (or region) of a .hic input file, with the resolution, normalization and region 
+	 * selected in the LorDG or 3DMax dialog
+	 * @param hicFile
+	 * @param chrom
+	 * @return
+	 * @throws Exception
+	 */
+	private ContactSource openHiCSelection(String hicFile, String chrom) throws Exception{
+		String resolution = ((String) viewer.getParameter(Constants.HICRESOLUTION)).replace(",", "").trim();
+		if (resolution.length() == 0) throw new Exception("Please specify the resolution of the .hic file");
+		
+		String norm = (String) viewer.getParameter(Constants.HICNORMALIZATION);
+		if (norm.length() == 0) norm = "NONE";
+		
+		int[] region = null;
+		String regionStr = ((String) viewer.getParameter(Constants.HICREGION)).replace(",", "").trim();
+		if (regionStr.length() > 0){
+			String[] st = regionStr.split("[-\\s]+");
+			region = new int[]{Integer.parseInt(st[0]), Integer.parseInt(st[1])};
+		}
+		
+		return HiCContactReader.open(hicFile, chrom, Integer.parseInt(resolution), norm, region);
+	}
+	
 	private void lorDG3DModeller(){
 		
 		String contactFile = (String) viewer.getParameter(Constants.INPUTCONTACTFILE);		
@@ -6067,6 +6094,18 @@ public class ScriptEvaluator {
 		inputParameter.setNum(1);
 		inputParameter.setOutput_folder(outputFolder);
 		inputParameter.setInput_file(contactFile);
+		
+		if (contactFile.toLowerCase().endsWith(".hic")){
+			//contacts are read from the .hic file, no contact list file in between
+			try {
+				inputParameter.setContactSource(openHiCSelection(contactFile, chrom));
+			} catch (Exception e) {
+				viewer.displayMessage(new String[]{e.getMessage()});
+				e.printStackTrace();
+				return;
+			}
+		}
+		
 		inputParameter.setLearning_rate(learningRate);
 		inputParameter.setNumber_threads(1);
 		
@@ -6180,6 +6219,18 @@ public class ScriptEvaluator {
 		inputParameter.setNum(1);
 		inputParameter.setOutput_folder(outputFolder);
 		inputParameter.setInput_file(contactFile);
+		
+		if (contactFile.toLowerCase().endsWith(".hic")){
+			//contacts are read from the .hic file, no contact list file in between
+			try {
+				inputParameter.setContactSource(openHiCSelection(contactFile, chrom));
+			} catch (Exception e) {
+				viewer.displayMessage(new String[]{e.getMessage()});
+				e.printStackTrace();
+				return;
+			}
+		}
+		
 		inputParameter.setLearning_rate(learningRate);
 		inputParameter.setNumber_threads(1);
 		
@@ -2173,14 +2173,52 @@ public void callExtractPDB(String fileName) {
 		
 		//repaint();
   }
+  //model set created by displayMessage to show messages when no model is loaded
+  private ModelSet messageModelSet;
+  
+  /**
+   * Move atoms of the current model to new coordinates, to show a structure being optimized
+   * without writing and loading a file
+   * @param structure: coordinates, atom i is at structure[i * 3], structure[i * 3 + 1], structure[i * 3 + 2]
+   * @param msg
+   * @return false if the current model doesn't have the same number of atoms, the structure must be loaded as a new model
+   */
+  public boolean updateModelCoordinates(double[] structure, String... msg){
+	  if (modelSet == null || modelSet == messageModelSet || modelSet.atoms == null 
+			  || modelSet.getAtomCount() * 3 != structure.length){
+		  return false;
+	  }
+	  
+	  int atomCount = modelSet.getAtomCount();
+	  for(int i = 0; i < atomCount; i++){
+		  modelSet.setAtomCoord(i, (float)structure[i * 3], (float)structure[i * 3 + 1], (float)structure[i * 3 + 2]);
+	  }
+	  
+	  BitSet bsAll = new BitSet(atomCount);
+	  bsAll.set(0, atomCount);
+	  modelSet.recalculatePositionDependentQuantities(bsAll, null);
+	  
+	  //the structure changes in size during the optimization, center and zoom to fit it
+	  calcBoundBoxDimensions(bsAll, 1);
+	  setCenterBitSet(bsAll, true);
+	  
+	  modelSet.message = msg.length > 0 ? msg : null;
+	  
+	  refresh(3, "updateModelCoordinates");
+	  return true;
+  }
+  
   /**
    * Tuan added to display message while reading data
    */
   public void displayMessage(String[] msg){
 	  
-	  if (getFullPathName() == null || getFullPathName().equals("Gmol") || getFullPathName().equals("GenomeFlow")){
+	  //the empty model set showing messages is created once, later messages are shown on it
+	  if ((getFullPathName() == null || getFullPathName().equals("Gmol") || getFullPathName().equals("GenomeFlow"))
+			  && (modelSet == null || modelSet != messageModelSet)){
 		  int[] selectedPath = { 1, 0, 0, 0, 0 };		  	  
 		  createModelSetAndReturnError((Object)"", false, new StringBuffer(""), 2, selectedPath, true);
+		  messageModelSet = modelSet;
 	  }
 	  
 	  
@@ -30,6 +30,7 @@ import java.awt.Container;
 import java.awt.Cursor;
 import java.awt.Dialog.ModalityType;
 import java.awt.Dimension;
+import java.awt.FlowLayout;
 import java.awt.Font;
 import java.awt.Frame;
 import java.awt.GridBagConstraints;
@@ -154,6 +155,7 @@ import edu.missouri.chenglab.ClusterTAD.TADwriter;
 import edu.missouri.chenglab.Heatmap.LoadHeatmap;
 import edu.missouri.chenglab.gmol.Constants;
 import edu.missouri.chenglab.gmol.valueobjects.ComparisonObject;
+import edu.missouri.chenglab.hicdata.Normalization;
 import edu.missouri.chenglab.hicdata.PreProcessingHiC;
 import edu.missouri.chenglab.hicdata.ReadHiCData;
 import edu.missouri.chenglab.loopdetection.utility.CommonFunctions;
@@ -1774,6 +1776,18 @@ public void showStatus(String message) {
 		  optionalResolutionLabel.setVisible(false);
 		  panel.add(optionalResolutionLabel, gbc);
 		  
+		  y++;
+		  gbc.gridx = 0;
+		  gbc.gridy = y;
+		  gbc.anchor = GridBagConstraints.WEST;
+		  JLabel methodLabel = new JLabel("Normalization method:");
+		  panel.add(methodLabel, gbc);
+		  
+		  gbc.gridx = 1;
+		  gbc.gridy = y;
+		  JComboBox<String> methodList = new JComboBox<String>(new String[]{"ICE", "KR", "Standard"});
+		  panel.add(methodList, gbc);
+		  
 		  
 		  browserFileButton.addActionListener(new ActionListener() {				
 				@Override
@@ -1793,6 +1807,8 @@ public void showStatus(String message) {
 						minResolutionLabel.setVisible(true);
 						minResolutionField.setVisible(true);
 						optionalResolutionLabel.setVisible(true);
+						methodLabel.setVisible(false);
+						methodList.setVisible(false);
 						
 					}else{
 						outputField.setText(fileName.replace(".", "_norm."));
@@ -1802,6 +1818,8 @@ public void showStatus(String message) {
 						minResolutionLabel.setVisible(false);
 						minResolutionField.setVisible(false);
 						optionalResolutionLabel.setVisible(false);
+						methodLabel.setVisible(true);
+						methodList.setVisible(true);
 					}
 					
 					 //Tosin added: confirm it is a directory or not
@@ -1845,7 +1863,11 @@ public void showStatus(String message) {
 				final JDialog dialog = new JDialog(win, "Normalizing data ... please wait !", ModalityType.APPLICATION_MODAL);
 				dialog.setPreferredSize(new Dimension(300,80));
 				
-				NormalizeHiCWorker normalizationWorker = new NormalizeHiCWorker(inputFile, outputFile, minRes);
+				int method = Normalization.ICE;
+				if (methodList.getSelectedIndex() == 1) method = Normalization.KR;
+				else if (methodList.getSelectedIndex() == 2) method = Normalization.STANDARD;
+				
+				NormalizeHiCWorker normalizationWorker = new NormalizeHiCWorker(inputFile, outputFile, minRes, method);
 				  
 				normalizationWorker.addPropertyChangeListener(new PropertyChangeListener() {
 					
@@ -3838,6 +3860,7 @@ public void showStatus(String message) {
 
 	    	
 	    	JTextField outputFileField = new JTextField();
+	    	JTextField maxLoopSizeField = new JTextField();
 	    	JButton runButton = new JButton("Identify loops");
 	    	runButton.addActionListener(new ActionListener() {
 				
@@ -3858,6 +3881,8 @@ public void showStatus(String message) {
 			    	else {
 			    		viewer.setStringProperty(Constants.OUTPUTLOOPFILE, filename);
 			    	}
+			    	
+			    	viewer.setStringProperty(Constants.MAXLOOPSIZE, maxLoopSizeField.getText().replace(",", ""));
 			    					    	
 		        	script = "loopDetector";        	
 			    	viewer.script(script);
@@ -3881,7 +3906,7 @@ public void showStatus(String message) {
 	        JPanel panel = new JPanel(){
 	        	@Override
 	            public Dimension getPreferredSize() {
-	                return new Dimension(600, 140);
+	                return new Dimension(600, 170);
 	            }	       
 	        };
 	        panel.setLayout(new GridBagLayout());  
@@ -3953,6 +3978,18 @@ public void showStatus(String message) {
 			});
 	        panel.add(openFileButton, gbc);
 	        
+	        y++;
+	        gbc.gridx = 0;
+	        gbc.gridy = y;
+	        gbc.gridwidth = 1;
+	        panel.add(new JLabel("Max loop size in bp (optional)",JLabel.LEFT), gbc);
+	        
+	        gbc.gridx = 1;
+	        gbc.gridy = y;
+	        gbc.gridwidth = 2;
+	        maxLoopSizeField.setPreferredSize(new Dimension(300, 21));
+	        panel.add(maxLoopSizeField, gbc);
+	        
 	        y++;
 	        gbc.gridx = 1;
 	        gbc.gridy = y;
@@ -3960,7 +3997,7 @@ public void showStatus(String message) {
 	        panel.add(runButton, gbc);
 	        
 	        Frame subFrame = new JFrame();
-	        subFrame.setSize(new Dimension(750, 200));
+	        subFrame.setSize(new Dimension(750, 230));
 	        subFrame.setLocation(400, 400);
 	        
 	        subFrame.add(panel);
@@ -3972,6 +4009,61 @@ public void showStatus(String message) {
   }
 
   
+  /**
+   * Resolution, normalization and region of a .hic input file of LorDG or 3DMax,
+   * contacts of the chromosome are read from the .hic file, without extracting them to a contact file first
+   */
+  class HiCSelectionPanel extends JPanel {
+	  
+	  JTextField resolutionField = new JTextField("100000");
+	  JComboBox<String> normalizationList = new JComboBox<String>(new String[]{"NONE", "KR", "VC", "VC_SQRT"});
+	  JTextField fromField = new JTextField();
+	  JTextField toField = new JTextField();
+	  
+	  HiCSelectionPanel(){
+		  super(new FlowLayout(FlowLayout.LEFT, 5, 0));
+		  
+		  resolutionField.setPreferredSize(new Dimension(70, 21));
+		  fromField.setPreferredSize(new Dimension(80, 21));
+		  toField.setPreferredSize(new Dimension(80, 21));
+		  
+		  add(new JLabel("Resolution"));
+		  add(resolutionField);
+		  add(normalizationList);
+		  add(new JLabel("From"));
+		  add(fromField);
+		  add(new JLabel("To"));
+		  add(toField);
+	  }
+	  
+	  /**
+	   * Check the selection and set it as parameters of the viewer
+	   * @return false if a field is not correct
+	   */
+	  boolean setParameters(){
+		  String resolution = resolutionField.getText().replace(",", "").trim();
+		  String from = fromField.getText().replace(",", "").trim();
+		  String to = toField.getText().replace(",", "").trim();
+		  
+		  try{
+			  if (Integer.parseInt(resolution) <= 0) throw new NumberFormatException();
+			  if (from.length() > 0 || to.length() > 0){
+				  if (from.length() == 0) from = "0";
+				  if (to.length() == 0) to = Integer.MAX_VALUE + "";
+				  if (Integer.parseInt(from) > Integer.parseInt(to)) throw new NumberFormatException();
+			  }
+		  }catch(NumberFormatException ex){
+			  JOptionPane.showMessageDialog(null, "Error! Please check if the resolution, From and To fields of the .hic input are correct!");
+			  return false;
+		  }
+		  
+		  viewer.setStringProperty(Constants.HICRESOLUTION, resolution);
+		  viewer.setStringProperty(Constants.HICNORMALIZATION, (String) normalizationList.getSelectedItem());
+		  viewer.setStringProperty(Constants.HICREGION, from.length() > 0 ? from + "-" + to : "");
+		  return true;
+	  }
+  }
+  
   /*
    * Tuan created a new button for LorDG function
    */
@@ -4031,7 +4123,7 @@ public void showStatus(String message) {
 	        JPanel panel = new JPanel(){
 	        	@Override
 	            public Dimension getPreferredSize() {
-	                return new Dimension(450, 350);
+	                return new Dimension(450, 380);
 	            }	       
 	        };	                
 	        
@@ -4054,6 +4146,19 @@ public void showStatus(String message) {
 	        gbc.gridy = y;	  
 	        gbc.gridwidth = 1;
 	        panel.add(openContactFileButton, gbc);
+	        
+	        ////////////////////////////////////////////////
+	        y++;
+	        gbc.gridx = 0;
+	        gbc.gridy = y;
+	        gbc.gridwidth = 1;
+	        panel.add(new JLabel(".hic Input (Optional)"), gbc);
+	        
+	        HiCSelectionPanel hicSelectionPanel = new HiCSelectionPanel();
+	        gbc.gridx = 1;
+	        gbc.gridy = y;
+	        gbc.gridwidth = 3;
+	        panel.add(hicSelectionPanel, gbc);
 	        	        
 	       	////////////////////////////////////////////////
 	        y++;
@@ -4410,7 +4515,7 @@ public void showStatus(String message) {
 	        	        	        
 	        
 	        Frame lorDGFrame = new JFrame();
-	        lorDGFrame.setSize(new Dimension(700, 450));
+	        lorDGFrame.setSize(new Dimension(700, 480));
 	        lorDGFrame.setLocation(400, 400);
 	        
 	        lorDGFrame.add(panel);
@@ -4473,6 +4578,13 @@ public void showStatus(String message) {
 						JOptionPane.showMessageDialog(null, "Please specify a contact file as input");
 						return;
 					}
+					if (inputContactFileField.getText().toLowerCase().endsWith(".hic")){
+						if (chromosomeField.getText().trim().length() == 0){
+							JOptionPane.showMessageDialog(null, "Please specify the chromosome to read from the .hic file");
+							return;
+						}
+						if (!hicSelectionPanel.setParameters()) return;
+					}
 					if (outputGSSFileField.getText().length() == 0 || !CommonFunctions.isFolder(outputGSSFileField.getText())){
 						JOptionPane.showMessageDialog(null, "Please specify an output folder");
 						return;
@@ -4618,7 +4730,7 @@ public void showStatus(String message) {
 	        JPanel panel = new JPanel(){
 	        	@Override
 	            public Dimension getPreferredSize() {
-	                return new Dimension(450, 350);
+	                return new Dimension(450, 380);
 	            }	       
 	        };	                
 	        
@@ -4641,6 +4753,19 @@ public void showStatus(String message) {
 	        gbc.gridy = y;	  
 	        gbc.gridwidth = 1;
 	        panel.add(openContactFileButton, gbc);
+	        
+	        ////////////////////////////////////////////////
+	        y++;
+	        gbc.gridx = 0;
+	        gbc.gridy = y;
+	        gbc.gridwidth = 1;
+	        panel.add(new JLabel(".hic Input (Optional)"), gbc);
+	        
+	        HiCSelectionPanel hicSelectionPanel = new HiCSelectionPanel();
+	        gbc.gridx = 1;
+	        gbc.gridy = y;
+	        gbc.gridwidth = 3;
+	        panel.add(hicSelectionPanel, gbc);
 	        	        
 	       	////////////////////////////////////////////////
 	        y++;
@@ -4926,7 +5051,7 @@ public void showStatus(String message) {
 	        	        	        
 	        
 	        Frame Structure_3DMaxFrame = new JFrame();
-	        Structure_3DMaxFrame.setSize(new Dimension(700, 450));
+	        Structure_3DMaxFrame.setSize(new Dimension(700, 480));
 	        Structure_3DMaxFrame.setLocation(400, 400);
 	        
 	        Structure_3DMaxFrame.add(panel);
@@ -4998,6 +5123,13 @@ public void showStatus(String message) {
 						JOptionPane.showMessageDialog(null, "Please specify a contact file as input");
 						return;
 					}
+					if (inputContactFileField.getText().toLowerCase().endsWith(".hic")){
+						if (chromosomeField.getText().trim().length() == 0){
+							JOptionPane.showMessageDialog(null, "Please specify the chromosome to read from the .hic file");
+							return;
+						}
+						if (!hicSelectionPanel.setParameters()) return;
+					}
 					if (outputGSSFileField.getText().length() == 0 || !CommonFunctions.isFolder(outputGSSFileField.getText())){
 						JOptionPane.showMessageDialog(null, "Please specify an output folder");
 						return;
@@ -0,0 +1,180 @@
+package edu.missouri.chenglab.ClusterTAD;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class KMeansTest {
+
+	//data[attribute][instance], instances around nbrBlob random centers
+	private static double[][] blobs(Random random, int n, int d, int nbrBlob, double spread){
+		double[][] blobCenters = new double[nbrBlob][d];
+		for(int b = 0; b < nbrBlob; b++){
+			for(int a = 0; a < d; a++){
+				blobCenters[b][a] = random.nextDouble() * 10;
+			}
+		}
+		double[][] data = new double[d][n];
+		for(int i = 0; i < n; i++){
+			int b = random.nextInt(nbrBlob);
+			for(int a = 0; a < d; a++){
+				data[a][i] = blobCenters[b][a] + random.nextGaussian() * spread;
+			}
+		}
+		return data;
+	}
+
+	//instances scaled to [0, 1] by the range of every attribute, instance i is x[i * d .. i * d + d)
+	private static double[] scale(double[][] data){
+		int d = data.length, n = data[0].length;
+		double[] x = new double[n * d];
+		for(int a = 0; a < d; a++){
+			double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+			for(int i = 0; i < n; i++){
+				min = Math.min(min, data[a][i]);
+				max = Math.max(max, data[a][i]);
+			}
+			for(int i = 0; i < n; i++){
+				x[i * d + a] = max > min ? (data[a][i] - min) / (max - min) : 0;
+			}
+		}
+		return x;
+	}
+
+	private static double squareDistance(double[] x, int i, double[] c, int j, int d){
+		double s = 0, diff;
+		for(int a = 0; a < d; a++){
+			diff = x[i * d + a] - c[j * d + a];
+			s += diff * diff;
+		}
+		return s;
+	}
+
+	//closest center, the first one if there are ties
+	private static boolean assign(double[] x, int n, int d, double[] centers, int k, int[] assignments){
+		boolean changed = false;
+		for(int i = 0; i < n; i++){
+			int best = 0;
+			double bestDist = Double.MAX_VALUE, dist;
+			for(int j = 0; j < k; j++){
+				dist = squareDistance(x, i, centers, j, d);
+				if (dist < bestDist){
+					bestDist = dist;
+					best = j;
+				}
+			}
+			if (assignments[i] != best) changed = true;
+			assignments[i] = best;
+		}
+		return changed;
+	}
+
+	//means of clusters, a center without instance doesn't move
+	private static void means(double[] x, int n, int d, double[] centers, int k, int[] assignments){
+		double[] sum = new double[k * d];
+		int[] count = new int[k];
+		for(int i = 0; i < n; i++){
+			count[assignments[i]]++;
+			for(int a = 0; a < d; a++){
+				sum[assignments[i] * d + a] += x[i * d + a];
+			}
+		}
+		for(int j = 0; j < k; j++){
+			if (count[j] == 0) continue;
+			for(int a = 0; a < d; a++){
+				centers[j * d + a] = sum[j * d + a] / count[j];
+			}
+		}
+	}
+
+	//Lloyd's iterations, until no instance changes cluster
+	private static int[] lloyd(double[] x, int n, int d, double[] initialCenters){
+		int k = initialCenters.length / d;
+		double[] centers = initialCenters.clone();
+		int[] assignments = new int[n];
+		assign(x, n, d, centers, k, assignments);
+		do{
+			means(x, n, d, centers, k, assignments);
+		}while(assign(x, n, d, centers, k, assignments));
+		return assignments;
+	}
+
+	@Test
+	public void testHamerlyMatchesLloyd() throws Exception {
+		for(long seed = 1; seed <= 10; seed++){
+			Random random = new Random(seed);
+			int n = 300 + random.nextInt(1500);
+			//more attributes than a block of attributes for some seeds
+			int d = seed % 3 == 0 ? 70 + random.nextInt(30) : 2 + random.nextInt(10);
+			int k = 2 + random.nextInt(15);
+			double[][] data = blobs(random, n, d, 1 + random.nextInt(10), 0.5 + random.nextDouble() * 2);
+
+			double[] x = scale(data);
+			double[] initialCenters = new double[k * d];
+			for(int j = 0; j < k; j++){
+				System.arraycopy(x, random.nextInt(n) * d, initialCenters, j * d, d);
+			}
+
+			int[] expected = lloyd(x, n, d, initialCenters);
+			int[] actual = new KMeans(data, 4, seed).cluster(initialCenters);
+
+			assertArrayEquals("seed " + seed, expected, actual);
+		}
+	}
+
+	@Test
+	public void testSweepGivesLloydFixedPoints() throws Exception {
+		Random random = new Random(20);
+		int n = 2000, d = 5;
+		double[][] data = blobs(random, n, d, 6, 1.0);
+		double[] x = scale(data);
+
+		KMeans kmeans = new KMeans(data, 2, 7);
+		int[][] sweep = kmeans.sweep(2, 10);
+		for(int k = 2; k <= 10; k++){
+			int[] assignments = sweep[k - 2].clone();
+			double[] centers = new double[k * d];
+			means(x, n, d, centers, k, assignments);
+
+			//one more Lloyd iteration doesn't change the solution
+			assertFalse("K = " + k, assign(x, n, d, centers, k, assignments));
+		}
+	}
+
+	@Test
+	public void testThreadsDontChangeResult() throws Exception {
+		Random random = new Random(30);
+		double[][] data = blobs(random, 5000, 8, 12, 2.0);
+
+		KMeans single = new KMeans(data, 1, 3);
+		KMeans parallel = new KMeans(data, 4, 3);
+		for(int k = 5; k <= 15; k += 5){
+			assertArrayEquals(single.cluster(k), parallel.cluster(k));
+			assertEquals(single.getSquaredError(), parallel.getSquaredError(), 0.0);
+		}
+	}
+
+	@Test
+	public void testSeparatedClusters() throws Exception {
+		int n = 300;
+		double[][] data = new double[2][n];
+		for(int i = 0; i < n; i++){
+			data[0][i] = (i % 3) * 100 + (i % 7) * 0.01;
+			data[1][i] = (i % 3) * 50 + (i % 5) * 0.01;
+		}
+
+		int[] assignments = new KMeans(data, 1, 1).cluster(3);
+		for(int i = 3; i < n; i++){
+			assertEquals(assignments[i % 3], assignments[i]);
+		}
+		assertTrue(assignments[0] != assignments[1] && assignments[1] != assignments[2] && assignments[0] != assignments[2]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTooManyClusters() throws Exception {
+		new KMeans(new double[][]{{1, 2, 3}}, 1, 1).cluster(4);
+	}
+
+}
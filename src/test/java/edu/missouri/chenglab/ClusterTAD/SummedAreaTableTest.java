@@ -0,0 +1,141 @@
+package edu.missouri.chenglab.ClusterTAD;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SummedAreaTableTest {
+
+	private static double[][] randomMatrix(Random random, int nRow, int nCol){
+		double[][] data = new double[nRow][nCol];
+		for(int i = 0; i < nRow; i++){
+			for(int j = 0; j < nCol; j++){
+				data[i][j] = random.nextInt(4) == 0 ? 0 : random.nextInt(100) * 0.5;
+			}
+		}
+		return data;
+	}
+
+	//sum of the cells of the block with j - i <= k, every cell if k is null
+	private static double bruteSum(double[][] data, int rowStart, int rowEnd, int colStart, int colEnd, Integer k){
+		double sum = 0;
+		for(int i = rowStart; i <= rowEnd; i++){
+			for(int j = colStart; j <= colEnd; j++){
+				if (k == null || j - i <= k) sum += data[i][j];
+			}
+		}
+		return sum;
+	}
+
+	//contacts of InterQuality before the summed-area table, row i of the first domain (or of the gap) and the first i + 1 bins after it
+	private static double bruteStaircase(int dS1, int dE1, int dS2, int dE2, double[][] data){
+		double sum = 0;
+		int incr = 0;
+		for(int i = dS1; i <= dS2 - 1; i++){
+			incr++;
+			int c = 0;
+			for(int j = dE1 + 1; j <= dE2; j++){
+				c++;
+				sum += data[i][j];
+				if (c == incr) break;
+			}
+		}
+		return sum;
+	}
+
+	@Test
+	public void testBlockSums() {
+		Random random = new Random(1);
+		for(int t = 0; t < 20; t++){
+			int nRow = 1 + random.nextInt(40), nCol = 1 + random.nextInt(40);
+			double[][] data = randomMatrix(random, nRow, nCol);
+			SummedAreaTable table = new SummedAreaTable(data);
+
+			for(int q = 0; q < 200; q++){
+				int r1 = random.nextInt(nRow), r2 = random.nextInt(nRow);
+				int c1 = random.nextInt(nCol), c2 = random.nextInt(nCol);
+				int rowStart = Math.min(r1, r2), rowEnd = Math.max(r1, r2);
+				int colStart = Math.min(c1, c2), colEnd = Math.max(c1, c2);
+
+				assertEquals(bruteSum(data, rowStart, rowEnd, colStart, colEnd, null), table.sum(rowStart, rowEnd, colStart, colEnd), 1e-9);
+			}
+		}
+	}
+
+	@Test
+	public void testDiagonalSums() {
+		Random random = new Random(2);
+		for(int t = 0; t < 20; t++){
+			int nRow = 1 + random.nextInt(40), nCol = 1 + random.nextInt(40);
+			double[][] data = randomMatrix(random, nRow, nCol);
+			SummedAreaTable table = new SummedAreaTable(data);
+
+			for(int q = 0; q < 200; q++){
+				int r1 = random.nextInt(nRow), r2 = random.nextInt(nRow);
+				int c1 = random.nextInt(nCol), c2 = random.nextInt(nCol);
+				int rowStart = Math.min(r1, r2), rowEnd = Math.max(r1, r2);
+				int colStart = Math.min(c1, c2), colEnd = Math.max(c1, c2);
+				//diagonals crossing the block, and above or below it
+				int k = random.nextInt(2 * (nRow + nCol) + 1) - nRow - nCol;
+
+				assertEquals("k = " + k, bruteSum(data, rowStart, rowEnd, colStart, colEnd, k), table.sum(rowStart, rowEnd, colStart, colEnd, k), 1e-9);
+			}
+		}
+	}
+
+	@Test
+	public void testUpperTriangle() {
+		Random random = new Random(3);
+		int n = 50;
+		double[][] data = randomMatrix(random, n, n);
+		SummedAreaTable table = new SummedAreaTable(data);
+
+		for(int start = 0; start < n; start++){
+			for(int end = start; end < n; end++){
+				assertEquals(bruteSum(data, start, end, start, end, null) - bruteSum(data, start, end, start, end, 0), table.upperTriangle(start, end), 1e-9);
+			}
+		}
+	}
+
+	@Test
+	public void testEmptyBlocks() {
+		double[][] data = {{1, 2}, {3, 4}};
+		SummedAreaTable table = new SummedAreaTable(data);
+
+		assertEquals(0.0, table.sum(1, 0, 0, 1), 0.0);
+		assertEquals(0.0, table.sum(0, 1, 1, 0), 0.0);
+		assertEquals(0.0, table.sum(1, 0, 0, 1, 0), 0.0);
+		assertEquals(0.0, table.upperTriangle(1, 1), 0.0);
+		assertEquals(0.0, new SummedAreaTable(new double[0][0]).sum(0, -1, 0, -1), 0.0);
+	}
+
+	@Test
+	public void testStaircaseOfAdjacentDomains() {
+		Random random = new Random(4);
+		int n = 60;
+		double[][] data = randomMatrix(random, n, n);
+		SummedAreaTable table = new SummedAreaTable(data);
+
+		for(int q = 0; q < 500; q++){
+			int dS1 = random.nextInt(n - 2);
+			int dE1 = dS1 + random.nextInt(n - 1 - dS1);
+			int dS2 = dE1 + 1;
+			int dE2 = dS2 + random.nextInt(n - dS2);
+
+			//the query of ClusterTAD.InterQuality
+			assertEquals(bruteStaircase(dS1, dE1, dS2, dE2, data), table.sum(dS1, dS2 - 1, dE1 + 1, dE2, dE1 - dS1 + 1), 1e-9);
+		}
+	}
+
+	@Test
+	public void testTableOf() {
+		double[][] data = {{1}};
+		SummedAreaTable table = new SummedAreaTable(data);
+
+		assertTrue(table.isTableOf(data));
+		assertFalse(table.isTableOf(new double[][]{{1}}));
+	}
+
+}
@@ -0,0 +1,161 @@
+package edu.missouri.chenglab.compareTAD;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TADIndexTest {
+
+	//consecutive TADs with random lengths and gaps, not overlapping, sorted
+	private static int[][] randomTADs(Random random, int n){
+		int[][] tads = new int[n][];
+		int pos = random.nextInt(5);
+		for(int i = 0; i < n; i++){
+			int len = 1 + random.nextInt(20);
+			tads[i] = new int[]{pos, pos + len};
+			pos += len + (random.nextInt(3) == 0 ? random.nextInt(5) : 0);
+		}
+		return tads;
+	}
+
+	//counts of TADComparison.compare_TAD before the index, scanning the reference for every TAD
+	private static int[] scanCounts(int[][] method1, int[][] method2){
+		List<Integer> start1 = new ArrayList<Integer>(), end1 = new ArrayList<Integer>();
+		List<Integer> start2 = new ArrayList<Integer>(), end2 = new ArrayList<Integer>();
+		for(int[] tad : method1){
+			start1.add(tad[0]);
+			end1.add(tad[1]);
+		}
+		for(int[] tad : method2){
+			start2.add(tad[0]);
+			end2.add(tad[1]);
+		}
+
+		int eqcount = 0, subcount = 0, confcount = 0;
+		for(int i = 0; i < start1.size(); i++){
+			int c = start2.indexOf(start1.get(i));
+			if (c >= 0 && end1.get(i).equals(end2.get(c))) eqcount++;
+		}
+		for(int i = 0; i < start1.size(); i++){
+			int s = start1.get(i), e = end1.get(i);
+			int begin = -1, close = -1;
+			for(int j = 0; j < start2.size(); j++){
+				if (s >= start2.get(j)) begin = j;
+				if (e <= end2.get(j) && close < 0) close = j;
+			}
+			if (begin < 0 || close < 0) continue;
+			if (begin == close) subcount++;
+			else confcount++;
+		}
+		//equal TADs were also counted as sub TADs
+		subcount -= eqcount;
+		return new int[]{eqcount, subcount, confcount, start1.size() - eqcount - subcount - confcount};
+	}
+
+	@Test
+	public void testCountsVsScans() {
+		Random random = new Random(1);
+		for(int t = 0; t < 500; t++){
+			int[][] method1 = randomTADs(random, 1 + random.nextInt(30));
+			int[][] method2 = random.nextBoolean() ? randomTADs(random, 1 + random.nextInt(30)) : method1.clone();
+			//shorten some reference TADs, they still start at the same bins
+			if (random.nextInt(4) == 0){
+				for(int i = 0; i < method2.length; i++){
+					if (random.nextInt(3) == 0 && method2[i][1] - 1 > method2[i][0]) method2[i] = new int[]{method2[i][0], method2[i][1] - 1};
+				}
+			}
+
+			assertArrayEquals(scanCounts(method1, method2), new TADIndex(method1).count(new TADIndex(method2)));
+		}
+	}
+
+	@Test
+	public void testClassify() {
+		TADIndex reference = new TADIndex(new int[][]{{20, 30}, {0, 10}, {10, 20}});
+		TADIndex query = new TADIndex(new int[][]{{10, 20}, {12, 18}, {5, 15}, {25, 40}, {0, 30}});
+
+		int[] expected = {TADIndex.EQUAL, TADIndex.SUB, TADIndex.CONFLICTING, TADIndex.NEW, TADIndex.CONFLICTING};
+		assertArrayEquals(expected, query.classify(reference));
+
+		int[] counts = query.count(reference);
+		assertArrayEquals(new int[]{1, 1, 2, 1}, counts);
+		assertEquals(40.0, query.recall(counts), 1e-12);
+	}
+
+	@Test
+	public void testOverlappingReference() {
+		//a TAD equal to a reference TAD is only equal, even if it also starts in another reference TAD
+		TADIndex reference = new TADIndex(new int[][]{{0, 20}, {5, 10}, {8, 30}});
+		TADIndex query = new TADIndex(new int[][]{{5, 10}, {8, 30}});
+
+		assertArrayEquals(new int[]{TADIndex.EQUAL, TADIndex.EQUAL}, query.classify(reference));
+	}
+
+	@Test
+	public void testEveryTADHasOneClass() {
+		Random random = new Random(2);
+		for(int t = 0; t < 200; t++){
+			int[][] tads = new int[1 + random.nextInt(50)][];
+			for(int i = 0; i < tads.length; i++){
+				int s = random.nextInt(100);
+				tads[i] = new int[]{s, s + 1 + random.nextInt(30)};
+			}
+			TADIndex index = new TADIndex(tads);
+			TADIndex reference = new TADIndex(randomTADs(random, 1 + random.nextInt(20)));
+
+			int[] counts = index.count(reference);
+			assertEquals(tads.length, counts[0] + counts[1] + counts[2] + counts[3]);
+
+			//a set is equal to itself, whatever the order of its TADs
+			assertEquals(tads.length, index.count(index)[TADIndex.EQUAL]);
+		}
+	}
+
+	@Test
+	public void testReadTADs() throws Exception {
+		File file = File.createTempFile("tads", ".bed");
+		try{
+			PrintWriter pw = new PrintWriter(file);
+			pw.println("chr1\t40000\t200000");
+			pw.println();
+			pw.println("chr1 200000   480000");
+			pw.close();
+
+			assertArrayEquals(new int[][]{{1, 5}, {5, 12}}, TADIndex.readTADs(file.getPath(), 40000));
+			assertEquals(2, TADIndex.read(file.getPath(), 40000).size());
+		}finally{
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testBatchVsPairs() throws Exception {
+		Random random = new Random(3);
+		int m = 6;
+		String[] names = new String[m];
+		TADIndex[] sets = new TADIndex[m];
+		for(int a = 0; a < m; a++){
+			names[a] = "set" + a;
+			sets[a] = new TADIndex(randomTADs(random, 50 + random.nextInt(100)));
+		}
+
+		TADBatchComparison batch = new TADBatchComparison(3);
+		batch.compare(names, sets);
+
+		for(int a = 0; a < m; a++){
+			for(int b = 0; b < m; b++){
+				int[] counts = sets[a].count(sets[b]);
+				assertArrayEquals(counts, batch.getCounts()[a][b]);
+				assertEquals(sets[a].recall(counts), batch.getRecall()[a][b], 0.0);
+			}
+			assertEquals(100.0, batch.getRecall()[a][a], 1e-12);
+		}
+	}
+
+}
@@ -0,0 +1,180 @@
+package edu.missouri.chenglab.gmol.modelcomparison;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.apache.commons.math3.linear.LUDecomposition;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.SingularValueDecomposition;
+import org.junit.Test;
+
+public class SuperpositionTest {
+
+	private static double[] randomModel(Random random, int n){
+		double[] x = new double[n * 3];
+		for(int i = 0; i < x.length; i++){
+			x[i] = random.nextGaussian() * 10;
+		}
+		return x;
+	}
+
+	//rotation from a random unit quaternion, row major
+	private static double[] randomRotation(Random random){
+		double a = random.nextGaussian(), b = random.nextGaussian(), c = random.nextGaussian(), d = random.nextGaussian();
+		double norm = Math.sqrt(a * a + b * b + c * c + d * d);
+		a /= norm; b /= norm; c /= norm; d /= norm;
+		return new double[]{
+				a * a + b * b - c * c - d * d, 2 * (b * c - a * d), 2 * (b * d + a * c),
+				2 * (b * c + a * d), a * a - b * b + c * c - d * d, 2 * (c * d - a * b),
+				2 * (b * d - a * c), 2 * (c * d + a * b), a * a - b * b - c * c + d * d};
+	}
+
+	private static double[] apply(double[] r, double scale, double[] t, double[] x){
+		double[] y = new double[x.length];
+		for(int i = 0; i < x.length / 3; i++){
+			for(int row = 0; row < 3; row++){
+				y[i * 3 + row] = scale * (r[row * 3] * x[i * 3] + r[row * 3 + 1] * x[i * 3 + 1] + r[row * 3 + 2] * x[i * 3 + 2]) + t[row];
+			}
+		}
+		return y;
+	}
+
+	private static double rmsd(double[] x, double[] y){
+		double s = 0;
+		for(int i = 0; i < x.length; i++){
+			s += (x[i] - y[i]) * (x[i] - y[i]);
+		}
+		return Math.sqrt(s / (x.length / 3));
+	}
+
+	private static double determinant(double[] r){
+		return r[0] * (r[4] * r[8] - r[5] * r[7]) - r[1] * (r[3] * r[8] - r[5] * r[6]) + r[2] * (r[3] * r[7] - r[4] * r[6]);
+	}
+
+	//rigid RMSD of the Kabsch superposition with SVD, centers are removed
+	private static double kabschRMSD(double[] moving, double[] target){
+		int n = moving.length / 3;
+		double[][] a = new double[n][3], b = new double[n][3];
+		double[] ca = new double[3], cb = new double[3];
+		for(int i = 0; i < n; i++){
+			for(int d = 0; d < 3; d++){
+				ca[d] += moving[i * 3 + d] / n;
+				cb[d] += target[i * 3 + d] / n;
+			}
+		}
+		for(int i = 0; i < n; i++){
+			for(int d = 0; d < 3; d++){
+				a[i][d] = moving[i * 3 + d] - ca[d];
+				b[i][d] = target[i * 3 + d] - cb[d];
+			}
+		}
+		RealMatrix ma = MatrixUtils.createRealMatrix(a), mb = MatrixUtils.createRealMatrix(b);
+		SingularValueDecomposition svd = new SingularValueDecomposition(ma.transpose().multiply(mb));
+		double[] sv = svd.getSingularValues();
+		double sign = new LUDecomposition(svd.getU().multiply(svd.getVT())).getDeterminant() < 0 ? -1 : 1;
+		double e = 0;
+		for(int i = 0; i < n; i++){
+			for(int d = 0; d < 3; d++){
+				e += a[i][d] * a[i][d] + b[i][d] * b[i][d];
+			}
+		}
+		e -= 2 * (sv[0] + sv[1] + sign * sv[2]);
+		return Math.sqrt(Math.max(0, e) / n);
+	}
+
+	@Test
+	public void testRecoverTransformation() {
+		Random random = new Random(1);
+		Superposition superposition = new Superposition();
+		for(int t = 0; t < 50; t++){
+			int n = 3 + random.nextInt(200);
+			double[] moving = randomModel(random, n);
+			double[] rotation = randomRotation(random);
+			double scale = 0.5 + random.nextDouble() * 2;
+			double[] target = apply(rotation, scale, new double[]{random.nextGaussian() * 50, 3, -7}, moving);
+
+			superposition.superpose(moving, target, n);
+
+			//the RMSD is the square root of a difference of sums of squares, an error e of the eigenvalue gives about sqrt(e)
+			assertEquals(0.0, superposition.getRMSD(), 1e-4);
+			assertEquals(scale, superposition.getScale(), 1e-9);
+			assertArrayEquals(rotation, superposition.getRotation(), 1e-9);
+
+			double[] out = new double[moving.length];
+			superposition.transform(moving, n, out);
+			assertEquals(0.0, rmsd(out, target), 1e-6);
+		}
+	}
+
+	@Test
+	public void testRMSDVsSVD() {
+		Random random = new Random(2);
+		Superposition superposition = new Superposition();
+		for(int t = 0; t < 50; t++){
+			int n = 3 + random.nextInt(100);
+			double[] moving = randomModel(random, n);
+			double[] target = random.nextBoolean() ? randomModel(random, n) : apply(randomRotation(random), 1.0, new double[3], moving);
+			for(int i = 0; i < target.length; i++){
+				target[i] += random.nextGaussian();
+			}
+
+			superposition.superpose(moving, target, n);
+
+			assertEquals(kabschRMSD(moving, target), superposition.getRigidRMSD(), 1e-6);
+			assertEquals(1.0, determinant(superposition.getRotation()), 1e-9);
+
+			//the reported RMSD is the one of the transformed model
+			double[] out = new double[moving.length];
+			superposition.transform(moving, n, out);
+			assertEquals(rmsd(out, target), superposition.getRMSD(), 1e-6);
+		}
+	}
+
+	@Test
+	public void testMirrorIsNotReflected() {
+		Random random = new Random(3);
+		int n = 30;
+		double[] moving = randomModel(random, n);
+		double[] target = moving.clone();
+		for(int i = 0; i < n; i++){
+			target[i * 3 + 2] = -target[i * 3 + 2];
+		}
+
+		Superposition superposition = new Superposition();
+		superposition.superpose(moving, target, n);
+
+		assertEquals(1.0, determinant(superposition.getRotation()), 1e-9);
+		assertEquals(kabschRMSD(moving, target), superposition.getRigidRMSD(), 1e-6);
+		assertTrue(superposition.getRigidRMSD() > 1.0);
+	}
+
+	@Test
+	public void testCollinearPoints() {
+		Random random = new Random(4);
+		int n = 10;
+		double[] moving = new double[n * 3];
+		for(int i = 0; i < n; i++){
+			moving[i * 3] = i;
+			moving[i * 3 + 1] = 2 * i;
+			moving[i * 3 + 2] = -i;
+		}
+		double[] target = apply(randomRotation(random), 1.0, new double[]{1, 2, 3}, moving);
+
+		Superposition superposition = new Superposition();
+		superposition.superpose(moving, target, n);
+
+		//the eigenvalue is not simple, it comes from the full decomposition
+		assertEquals(0.0, superposition.getRMSD(), 1e-2);
+		double[] out = new double[moving.length];
+		superposition.transform(moving, n, out);
+		assertEquals(0.0, rmsd(out, target), 1e-6);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNoPoint() {
+		new Superposition().superpose(new double[0], new double[0], 0);
+	}
+
+}
@@ -0,0 +1,226 @@
+package edu.missouri.chenglab.hicdata;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.missouri.chenglab.lordg.valueObject.ConstraintTable;
+
+public class ContactMatrixTest {
+
+	private File dir;
+
+	private long mappedThreshold;
+
+	@Before
+	public void setUp() throws Exception {
+		dir = Files.createTempDirectory("contactmatrix").toFile();
+		mappedThreshold = ContactMatrix.getMappedThreshold();
+	}
+
+	@After
+	public void tearDown() {
+		ContactMatrix.setMappedThreshold(mappedThreshold);
+		for(File f : dir.listFiles()){
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	private static int[] indices(int n){
+		int[] positions = new int[n];
+		for(int i = 0; i < n; i++){
+			positions[i] = i;
+		}
+		return positions;
+	}
+
+	//adds the entry to the table and to the dense symmetric matrix
+	private static void add(ConstraintTable entries, double[][] dense, int i, int j, double value){
+		entries.add(Math.min(i, j), Math.max(i, j), value);
+		dense[i][j] += value;
+		if (i != j) dense[j][i] += value;
+	}
+
+	//contacts within distance 10 of the diagonal
+	private static ContactMatrix banded(Random random, int n, double[][] dense) throws Exception {
+		ConstraintTable entries = new ConstraintTable();
+		for(int i = 0; i < n; i++){
+			for(int j = i; j < Math.min(n, i + 11); j++){
+				if (random.nextInt(5) > 0) add(entries, dense, i, j, 1 + random.nextInt(100));
+			}
+		}
+		return ContactMatrix.create(entries, indices(n), true);
+	}
+
+	//few contacts anywhere
+	private static ContactMatrix scattered(Random random, int n, double[][] dense) throws Exception {
+		ConstraintTable entries = new ConstraintTable();
+		for(int k = 0; k < 500; k++){
+			add(entries, dense, random.nextInt(n), random.nextInt(n), 1 + random.nextInt(100));
+		}
+		return ContactMatrix.create(entries, indices(n), true);
+	}
+
+	//a full block on the diagonal and a full block far from it
+	private static ContactMatrix blocks(Random random, int n, double[][] dense) throws Exception {
+		ConstraintTable entries = new ConstraintTable();
+		for(int i = 0; i < ContactMatrix.BLOCK_SIZE; i++){
+			for(int j = i; j < ContactMatrix.BLOCK_SIZE; j++){
+				add(entries, dense, i, j, 1 + random.nextInt(100));
+			}
+			for(int j = n - ContactMatrix.BLOCK_SIZE; j < n; j++){
+				add(entries, dense, i, j, 1 + random.nextInt(100));
+			}
+		}
+		return ContactMatrix.create(entries, indices(n), true);
+	}
+
+	private static void assertSameAsDense(double[][] dense, final ContactMatrix matrix){
+		int n = dense.length;
+		assertEquals(n, matrix.size());
+		for(int i = 0; i < n; i++){
+			for(int j = 0; j < n; j++){
+				assertEquals(dense[i][j], matrix.get(i, j), 0.0);
+			}
+		}
+
+		//non-zero entries of the upper triangle, sorted by row then column
+		final int[] previous = {-1, -1};
+		final int[] count = {0};
+		matrix.forEachEntry(new ContactMatrix.EntryVisitor() {
+			@Override
+			public void visit(int i, int j, double value) {
+				assertTrue(j >= i);
+				assertTrue(i > previous[0] || i == previous[0] && j > previous[1]);
+				assertTrue(value != 0);
+				assertEquals(matrix.get(i, j), value, 0.0);
+				previous[0] = i;
+				previous[1] = j;
+				count[0]++;
+			}
+		});
+		int nonZeros = 0;
+		for(int i = 0; i < n; i++){
+			for(int j = i; j < n; j++){
+				if (dense[i][j] != 0) nonZeros++;
+			}
+		}
+		assertEquals(nonZeros, count[0]);
+
+		double[][] a = matrix.toDense();
+		for(int i = 0; i < n; i++){
+			assertArrayEquals(dense[i], a[i], 0.0);
+		}
+
+		//a block of bins
+		double[][] b = matrix.toDense(n / 3, n / 2);
+		for(int i = 0; i < b.length; i++){
+			for(int j = 0; j < b.length; j++){
+				assertEquals(dense[n / 3 + i][n / 3 + j], b[i][j], 0.0);
+			}
+		}
+	}
+
+	@Test
+	public void testBackends() throws Exception {
+		Random random = new Random(1);
+
+		double[][] dense = new double[600][600];
+		ContactMatrix matrix = banded(random, 600, dense);
+		assertTrue(matrix instanceof BandedContactMatrix);
+		assertSameAsDense(dense, matrix);
+
+		dense = new double[2000][2000];
+		matrix = scattered(random, 2000, dense);
+		assertTrue(matrix instanceof SparseContactMatrix);
+		assertSameAsDense(dense, matrix);
+
+		dense = new double[1000][1000];
+		matrix = blocks(random, 1000, dense);
+		assertTrue(matrix instanceof BlockContactMatrix);
+		assertSameAsDense(dense, matrix);
+	}
+
+	@Test
+	public void testMappedBackends() throws Exception {
+		Random random = new Random(2);
+		ContactMatrix.setMappedThreshold(0);
+
+		double[][] dense = new double[600][600];
+		ContactMatrix matrix = banded(random, 600, dense);
+		assertTrue(matrix.isMapped());
+		assertSameAsDense(dense, matrix);
+
+		dense = new double[1000][1000];
+		matrix = blocks(random, 1000, dense);
+		assertTrue(matrix.isMapped());
+		assertSameAsDense(dense, matrix);
+	}
+
+	@Test
+	public void testLastValueKept() throws Exception {
+		ConstraintTable entries = new ConstraintTable();
+		entries.add(0, 1, 2.0);
+		entries.add(1, 1, 5.0);
+		entries.add(0, 1, 3.0);
+
+		ContactMatrix matrix = ContactMatrix.create(entries, indices(2), false);
+		assertEquals(3.0, matrix.get(1, 0), 0.0);
+		assertEquals(5.0, matrix.get(1, 1), 0.0);
+	}
+
+	private File write(String name, String... lines) throws Exception {
+		File file = new File(dir, name);
+		PrintWriter pw = new PrintWriter(file);
+		for(String line : lines){
+			pw.println(line);
+		}
+		pw.close();
+		return file;
+	}
+
+	@Test
+	public void testReadMatrix() throws Exception {
+		File file = write("matrix.txt", "1 2 0", "", "2\t0 NaN", "0 NaN 4");
+		ContactMatrix matrix = ContactMatrix.readMatrix(file.getPath());
+
+		assertArrayEquals(new double[][]{{1, 2, 0}, {2, 0, 0}, {0, 0, 4}}, matrix.toDense());
+	}
+
+	@Test(expected = Exception.class)
+	public void testReadAsymmetricMatrix() throws Exception {
+		ContactMatrix.readMatrix(write("matrix.txt", "1 2 3", "2 0 0", "5 0 4").getPath());
+	}
+
+	@Test(expected = Exception.class)
+	public void testReadMatrixWithMissingMirror() throws Exception {
+		//(0, 2) has no value below the diagonal
+		ContactMatrix.readMatrix(write("matrix.txt", "1 2 3", "2 0 0", "0 0 4").getPath());
+	}
+
+	@Test(expected = Exception.class)
+	public void testReadNonSquareMatrix() throws Exception {
+		ContactMatrix.readMatrix(write("matrix.txt", "1 2 3", "2 0 0").getPath());
+	}
+
+	@Test
+	public void testReadContactList() throws Exception {
+		File file = write("contacts.txt", "1000\t1000\t3", "1000\t3000\t2", "3000\t2000\t1.5", "2000\t3000\t4");
+		ContactMatrix matrix = ContactMatrix.readContactList(file.getPath(), 1);
+
+		assertArrayEquals(new int[]{1000, 2000, 3000}, matrix.getPositions());
+		assertEquals(3.0, matrix.get(0, 0), 0.0);
+		assertEquals(2.0, matrix.get(2, 0), 0.0);
+		//the last value of a contact listed twice
+		assertEquals(4.0, matrix.get(1, 2), 0.0);
+	}
+
+}
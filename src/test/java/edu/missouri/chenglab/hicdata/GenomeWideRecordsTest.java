@@ -0,0 +1,209 @@
+package edu.missouri.chenglab.hicdata;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.broad.igv.feature.Chromosome;
+import org.junit.Test;
+
+import edu.missouri.chenglab.hicdata.GenomeWideRecords.GenomeBlock;
+import edu.missouri.chenglab.lordg.valueObject.ConstraintTable;
+import juicebox.HiC;
+import juicebox.data.ContactRecord;
+import juicebox.windowui.HiCZoom;
+
+public class GenomeWideRecordsTest {
+
+	private static final HiCZoom ZOOM = new HiCZoom(HiC.Unit.BP, 1000);
+
+	private static List<Chromosome> chromosomes(){
+		return Arrays.asList(new Chromosome(1, "1", 120000), new Chromosome(2, "2", 80500), new Chromosome(3, "3", 40000));
+	}
+
+	//blocks of a small genome, in the order of createWholeGenomeBlocks, the first one has enough records for several chunks
+	private static List<GenomeBlock> genomeBlocks(Random random){
+		List<Chromosome> chromosomes = chromosomes();
+		int[] offsets = GenomeWideRecords.getGenomeOffsets(chromosomes, ZOOM);
+		List<GenomeBlock> blocks = new ArrayList<GenomeBlock>();
+		for(int i = 0; i < chromosomes.size(); i++){
+			for(int j = i; j < chromosomes.size(); j++){
+				int nbrX = offsets[i + 1] - offsets[i], nbrY = offsets[j + 1] - offsets[j];
+				int size = i == 0 && j == 0 ? 120000 : 2000;
+				List<ContactRecord> records = new ArrayList<ContactRecord>();
+				for(int k = 0; k < size; k++){
+					int x = random.nextInt(nbrX), y = random.nextInt(nbrY);
+					if (i == j && x > y){
+						int t = x; x = y; y = t;
+					}
+					records.add(new ContactRecord(x, y, 1 + random.nextInt(1000) / 7.0f));
+				}
+				blocks.add(new GenomeBlock(records, offsets[i], offsets[j]));
+			}
+		}
+		return blocks;
+	}
+
+	private static double[] genomeVector(Random random){
+		int[] offsets = GenomeWideRecords.getGenomeOffsets(chromosomes(), ZOOM);
+		double[] vector = new double[offsets[offsets.length - 1]];
+		for(int i = 0; i < vector.length; i++){
+			vector[i] = 0.3 + 1.7 * random.nextDouble();
+		}
+		vector[5] = 0;
+		vector[130] = Double.NaN;
+		return vector;
+	}
+
+	//records of the whole-genome matrix with their values, as the baseline dump loop computed them
+	private static List<ContactRecord> baselineRecords(List<GenomeBlock> blocks, double[] vector){
+		List<ContactRecord> records = new ArrayList<ContactRecord>();
+		for(GenomeBlock block : blocks){
+			for(ContactRecord cr : block.records){
+				int x = cr.getBinX() + block.addX;
+				int y = cr.getBinY() + block.addY;
+				float value = cr.getCounts();
+				if (vector != null){
+					if (vector[x] != 0 && vector[y] != 0 && !Double.isNaN(vector[x]) && !Double.isNaN(vector[y])){
+						value = (float) (value / (vector[x] * vector[y]));
+					}else{
+						value = Float.NaN;
+					}
+				}
+				records.add(new ContactRecord(x, y, value));
+			}
+		}
+		return records;
+	}
+
+	//text of the baseline dump (txtWriter.println(x + "\t" + y + "\t" + value))
+	private static byte[] baselineText(List<ContactRecord> records){
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		PrintWriter pw = new PrintWriter(out);
+		for(ContactRecord cr : records){
+			pw.println(cr.getBinX() + "\t" + cr.getBinY() + "\t" + cr.getCounts());
+		}
+		pw.close();
+		return out.toByteArray();
+	}
+
+	private static byte[] write(List<GenomeBlock> blocks, double[] vector, String suffix, int nbrThread) throws Exception {
+		File file = File.createTempFile("genome", suffix);
+		ExecutorService executor = Executors.newFixedThreadPool(nbrThread);
+		try{
+			long nbrRecord = GenomeWideRecords.writeGenomeWideRecords(blocks, vector, file.getPath(), nbrThread, executor);
+			assertEquals(GenomeWideRecords.collectRecords(blocks).size(), nbrRecord);
+			return Files.readAllBytes(file.toPath());
+		}finally{
+			executor.shutdownNow();
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testTextDumpVsBaseline() throws Exception {
+		Random random = new Random(1);
+		List<GenomeBlock> blocks = genomeBlocks(random);
+		double[] vector = genomeVector(random);
+
+		for(double[] v : new double[][]{null, vector}){
+			byte[] expected = baselineText(baselineRecords(blocks, v));
+			for(int nbrThread : new int[]{1, 2, 4}){
+				assertArrayEquals(expected, write(blocks, v, ".txt", nbrThread));
+			}
+		}
+	}
+
+	@Test
+	public void testBinaryDumpVsBaseline() throws Exception {
+		Random random = new Random(2);
+		List<GenomeBlock> blocks = genomeBlocks(random);
+		double[] vector = genomeVector(random);
+
+		for(double[] v : new double[][]{null, vector}){
+			List<ContactRecord> expected = baselineRecords(blocks, v);
+			for(int nbrThread : new int[]{1, 3}){
+				byte[] bytes = write(blocks, v, ".bin", nbrThread);
+				assertEquals(expected.size() * 12, bytes.length);
+
+				//int x, int y, float value, little-endian
+				ByteBuffer buf = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+				for(ContactRecord cr : expected){
+					assertEquals(cr.getBinX(), buf.getInt());
+					assertEquals(cr.getBinY(), buf.getInt());
+					assertEquals(Float.floatToIntBits(cr.getCounts()), Float.floatToIntBits(buf.getFloat()));
+				}
+			}
+		}
+
+		//byte order of one record
+		List<GenomeBlock> one = Arrays.asList(new GenomeBlock(Arrays.asList(new ContactRecord(1, 2, 1.5f)), 0, 0x100));
+		assertArrayEquals(new byte[]{1, 0, 0, 0, 2, 1, 0, 0, 0, 0, (byte) 0xc0, 0x3f}, write(one, null, ".bin", 1));
+	}
+
+	@Test
+	public void testReadBlocksVsBaseline() throws Exception {
+		Random random = new Random(3);
+		List<GenomeBlock> blocks = genomeBlocks(random);
+		double[] vector = genomeVector(random);
+		double thr = 2.5;
+
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try{
+			for(boolean isDiagonalKept : new boolean[]{false, true}){
+				ConstraintTable table = GenomeWideRecords.readBlocks(blocks, vector, thr, isDiagonalKept, executor);
+
+				int k = 0;
+				for(ContactRecord cr : baselineRecords(blocks, vector)){
+					float value = cr.getCounts();
+					if ((!isDiagonalKept && cr.getBinX() == cr.getBinY()) || Float.isNaN(value) || value <= thr) continue;
+
+					assertEquals(cr.getBinX(), table.getPos1(k));
+					assertEquals(cr.getBinY(), table.getPos2(k));
+					assertEquals(value, table.getIF(k), 0.0);
+					k++;
+				}
+				assertEquals(k, table.size());
+			}
+		}finally{
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testCollectRecordsInBlockOrder() {
+		Random random = new Random(4);
+		List<GenomeBlock> blocks = genomeBlocks(random);
+
+		List<ContactRecord> expected = baselineRecords(blocks, null);
+		List<ContactRecord> records = GenomeWideRecords.collectRecords(blocks);
+		assertEquals(expected.size(), records.size());
+		for(int k = 0; k < records.size(); k++){
+			assertEquals(expected.get(k).getBinX(), records.get(k).getBinX());
+			assertEquals(expected.get(k).getBinY(), records.get(k).getBinY());
+			assertEquals(expected.get(k).getCounts(), records.get(k).getCounts(), 0.0f);
+		}
+	}
+
+	@Test
+	public void testGenomeOffsets() {
+		//"All" is not in the whole-genome matrix
+		List<Chromosome> list = new ArrayList<Chromosome>(chromosomes());
+		list.add(0, new Chromosome(0, "All", 240));
+		List<Chromosome> genome = GenomeWideRecords.getGenomeChromosomes(list);
+		assertEquals(3, genome.size());
+
+		assertArrayEquals(new int[]{0, 121, 202, 243}, GenomeWideRecords.getGenomeOffsets(genome, ZOOM));
+	}
+}
@@ -0,0 +1,182 @@
+package edu.missouri.chenglab.hicdata;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.broad.igv.feature.Chromosome;
+import org.junit.Test;
+
+import edu.missouri.chenglab.lordg.utility.ContactListReader;
+import edu.missouri.chenglab.lordg.valueObject.ConstraintTable;
+import juicebox.data.ContactRecord;
+
+public class HiCContactReaderTest {
+
+	private static final int BIN_SIZE = 1000;
+
+	//records of an intra-chromosomal matrix, x <= y, diagonal included
+	private static List<ContactRecord> randomRecords(Random random, int nbrBin, int size){
+		List<ContactRecord> records = new ArrayList<ContactRecord>();
+		for(int k = 0; k < size; k++){
+			int x = random.nextInt(nbrBin), y = random.nextInt(nbrBin);
+			records.add(new ContactRecord(Math.min(x, y), Math.max(x, y), 1 + random.nextInt(200)));
+		}
+		return records;
+	}
+
+	private static double[] randomVector(Random random, int nbrBin){
+		double[] v = new double[nbrBin];
+		for(int i = 0; i < nbrBin; i++){
+			v[i] = 0.2 + 2 * random.nextDouble();
+		}
+		v[3] = 0;
+		v[7] = Double.NaN;
+		return v;
+	}
+
+	//what the observed text dump (MatrixZoomData.dump of a normalized block) writes, records outside the region are skipped
+	private static File dump(List<ContactRecord> records, int[] region, double[] v1, double[] v2) throws Exception {
+		File file = File.createTempFile("dump", ".txt");
+		PrintWriter pw = new PrintWriter(file);
+		for(ContactRecord cr : records){
+			int x = cr.getBinX(), y = cr.getBinY();
+			float counts = cr.getCounts();
+			if (v1 != null){
+				if (v1[x] != 0 && v2[y] != 0 && !Double.isNaN(v1[x]) && !Double.isNaN(v2[y])){
+					counts = (float) (counts / (v1[x] * v2[y]));
+				}else{
+					counts = Float.NaN;
+				}
+			}
+			int xActual = x * BIN_SIZE, yActual = y * BIN_SIZE;
+			if (region == null || (xActual >= region[0] && xActual <= region[1] && yActual >= region[2] && yActual <= region[3])){
+				pw.println(xActual + "\t" + yActual + "\t" + counts);
+			}
+		}
+		pw.close();
+		return file;
+	}
+
+	//contacts of the dump, parsed back by ContactListReader
+	private static ConstraintTable readDump(List<ContactRecord> records, int[] region, double[] v1, double[] v2, double thr) throws Exception {
+		File file = dump(records, region, v1, v2);
+		try{
+			ContactListReader reader = new ContactListReader(2, null);
+			reader.setCacheEnabled(false);
+			return reader.read(file.getPath(), thr);
+		}finally{
+			file.delete();
+		}
+	}
+
+	private static void assertSameContacts(ConstraintTable expected, ConstraintTable table){
+		assertEquals(expected.size(), table.size());
+		for(int k = 0; k < table.size(); k++){
+			assertEquals(expected.getPos1(k), table.getPos1(k));
+			assertEquals(expected.getPos2(k), table.getPos2(k));
+			//the dump writes float values as text
+			assertEquals(expected.getIF(k), table.getIF(k), Math.abs(expected.getIF(k)) * 1e-7);
+		}
+	}
+
+	@Test
+	public void testRawCountsVsDump() throws Exception {
+		Random random = new Random(1);
+		List<ContactRecord> records = randomRecords(random, 50, 800);
+
+		for(double thr : new double[]{0, 50.5}){
+			ConstraintTable table = HiCContactReader.readRecords(records.iterator(), BIN_SIZE, null, null, null, thr);
+			assertSameContacts(readDump(records, null, null, null, thr), table);
+		}
+	}
+
+	@Test
+	public void testNormalizedVsDump() throws Exception {
+		Random random = new Random(2);
+		List<ContactRecord> records = randomRecords(random, 50, 800);
+		records.add(new ContactRecord(3, 10, 5));
+		records.add(new ContactRecord(4, 7, 5));
+		double[] v = randomVector(random, 50);
+
+		ConstraintTable table = HiCContactReader.readRecords(records.iterator(), BIN_SIZE, null, v, v, 0);
+		assertSameContacts(readDump(records, null, v, v, 0), table);
+
+		//bins where the vector is 0 or NaN have no contacts
+		for(int k = 0; k < table.size(); k++){
+			for(int pos : new int[]{table.getPos1(k), table.getPos2(k)}){
+				assertTrue(pos != 3 * BIN_SIZE && pos != 7 * BIN_SIZE);
+			}
+		}
+	}
+
+	@Test
+	public void testDivideByVectors() {
+		double[] v1 = {1, 2, 4}, v2 = {0.5, 3, 8};
+		List<ContactRecord> records = Arrays.asList(new ContactRecord(0, 1, 6), new ContactRecord(1, 2, 32), new ContactRecord(2, 0, 10));
+
+		ConstraintTable table = HiCContactReader.readRecords(records.iterator(), BIN_SIZE, null, v1, v2, 0);
+		assertEquals(3, table.size());
+		assertEquals(6 / (1 * 3.0), table.getIF(0), 0.0);
+		assertEquals(32 / (2 * 8.0), table.getIF(1), 0.0);
+		assertEquals(10 / (4 * 0.5), table.getIF(2), 0.0);
+		//positions of the third record are ordered
+		assertEquals(0, table.getPos1(2));
+		assertEquals(2 * BIN_SIZE, table.getPos2(2));
+	}
+
+	@Test
+	public void testDiagonalAndNaNAreSkipped() {
+		List<ContactRecord> records = Arrays.asList(new ContactRecord(1, 1, 10), new ContactRecord(1, 2, Float.NaN),
+				new ContactRecord(1, 3, 4), new ContactRecord(2, 2, 7));
+
+		ConstraintTable table = HiCContactReader.readRecords(records.iterator(), BIN_SIZE, null, null, null, 0);
+		assertEquals(1, table.size());
+		assertEquals(BIN_SIZE, table.getPos1(0));
+		assertEquals(3 * BIN_SIZE, table.getPos2(0));
+		assertEquals(4.0, table.getIF(0), 0.0);
+	}
+
+	@Test
+	public void testRegionVsDump() throws Exception {
+		Random random = new Random(3);
+		List<ContactRecord> records = randomRecords(random, 60, 1000);
+		double[] v = randomVector(random, 60);
+		int[] region = {10000, 30000, 20000, 45000};
+
+		ConstraintTable table = HiCContactReader.readRecords(records.iterator(), BIN_SIZE, region, v, v, 0);
+		assertSameContacts(readDump(records, region, v, v, 0), table);
+
+		assertTrue(table.size() > 0);
+		for(int k = 0; k < table.size(); k++){
+			int x = table.getPos1(k), y = table.getPos2(k);
+			assertTrue(x >= region[0] && x <= region[1] && y >= region[2] && y <= region[3]);
+		}
+	}
+
+	@Test
+	public void testRecordRegionOfSwappedChromosomes() {
+		Chromosome chr1 = new Chromosome(1, "1", 100000), chr2 = new Chromosome(2, "2", 80000);
+		int[] region = {0, 5000, 10000, 20000};
+
+		//x of records is in the chromosome with the smaller index
+		assertArrayEquals(region, HiCContactReader.recordRegion(region, chr1, chr2));
+		assertArrayEquals(new int[]{10000, 20000, 0, 5000}, HiCContactReader.recordRegion(region, chr2, chr1));
+		assertArrayEquals(region, HiCContactReader.recordRegion(region, chr1, chr1));
+		assertNull(HiCContactReader.recordRegion(null, chr2, chr1));
+
+		//the pair (chr2, chr1) with chr2 in [0, 5000] and chr1 in [10000, 20000]: records have x in chr1
+		List<ContactRecord> records = Arrays.asList(new ContactRecord(2, 15, 1), new ContactRecord(15, 2, 2), new ContactRecord(15, 40, 3));
+		ConstraintTable table = HiCContactReader.readRecords(records.iterator(), BIN_SIZE, HiCContactReader.recordRegion(region, chr2, chr1), null, null, 0);
+		assertEquals(1, table.size());
+		assertEquals(2.0, table.getIF(0), 0.0);
+		assertEquals(2 * BIN_SIZE, table.getPos1(0));
+		assertEquals(15 * BIN_SIZE, table.getPos2(0));
+	}
+
+}
@@ -0,0 +1,172 @@
+package edu.missouri.chenglab.hicdata;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class KnightRuizBalancerTest {
+
+	private static final double TOLERANCE = 1e-6;
+
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() {
+		executor = Executors.newFixedThreadPool(2);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdown();
+	}
+
+	//Hi-C like matrix: contacts decay with the distance between bins, every bin has a random bias (spread over several orders of magnitude)
+	private static SparseContactMatrix hicMatrix(Random random, int n, int band, double biasRange){
+		double[] bias = new double[n];
+		for(int i = 0; i < n; i++){
+			bias[i] = Math.pow(biasRange, random.nextDouble() * 2 - 1);
+		}
+		List<int[]> entries = new ArrayList<int[]>();
+		List<Double> values = new ArrayList<Double>();
+		for(int i = 0; i < n; i++){
+			for(int j = i; j < Math.min(n, i + band); j++){
+				entries.add(new int[]{i, j});
+				values.add(bias[i] * bias[j] * 100.0 / (1 + j - i) * (0.5 + random.nextDouble()));
+			}
+		}
+		return build(n, entries, values);
+	}
+
+	private static SparseContactMatrix build(int n, List<int[]> entries, List<Double> values){
+		int size = entries.size();
+		int[] positions = new int[n], row = new int[size], column = new int[size];
+		double[] IF = new double[size];
+		for(int i = 0; i < n; i++){
+			positions[i] = i;
+		}
+		for(int k = 0; k < size; k++){
+			row[k] = entries.get(k)[0];
+			column[k] = entries.get(k)[1];
+			IF[k] = values.get(k);
+		}
+		return new SparseContactMatrix(positions, row, column, IF, size, true);
+	}
+
+	//norm of (1 - row sums of diag(x) A diag(x)) over rows kept
+	private double residual(SparseContactMatrix a, double[] x) throws Exception {
+		double[] ax = new double[x.length];
+		a.multiply(x, ax, executor);
+		double r = 0;
+		for(int i = 0; i < x.length; i++){
+			if (x[i] > 0) r += (1 - x[i] * ax[i]) * (1 - x[i] * ax[i]);
+		}
+		return Math.sqrt(r);
+	}
+
+	@Test
+	public void testRowSumsReachOne() throws Exception {
+		Random random = new Random(1);
+		for(double biasRange : new double[]{1, 10, 1000}){
+			SparseContactMatrix a = hicMatrix(random, 1500, 30, biasRange);
+
+			KnightRuizBalancer balancer = new KnightRuizBalancer(TOLERANCE, executor);
+			double[] x = balancer.balance(a);
+
+			assertEquals(0, balancer.getNbrFiltered());
+			for(double xi : x){
+				assertTrue(xi > 0);
+			}
+			assertTrue("bias range " + biasRange, residual(a, x) < TOLERANCE);
+		}
+	}
+
+	@Test
+	public void testBalancedMatrixIsUnchanged() throws Exception {
+		//every row of a circulant matrix sums to 1
+		int n = 100;
+		List<int[]> entries = new ArrayList<int[]>();
+		List<Double> values = new ArrayList<Double>();
+		for(int i = 0; i < n; i++){
+			entries.add(new int[]{i, i});
+			values.add(0.5);
+			entries.add(new int[]{i, (i + 1) % n});
+			values.add(0.25);
+		}
+		for(int k = 0; k < entries.size(); k++){
+			int[] e = entries.get(k);
+			if (e[0] > e[1]) entries.set(k, new int[]{e[1], e[0]});
+		}
+
+		double[] x = new KnightRuizBalancer(TOLERANCE, executor).balance(build(n, entries, values));
+		for(double xi : x){
+			assertEquals(1.0, xi, 1e-9);
+		}
+	}
+
+	@Test
+	public void testEmptyRowsAreFilteredOut() throws Exception {
+		Random random = new Random(2);
+		int n = 500;
+		SparseContactMatrix full = hicMatrix(random, n, 20, 10);
+
+		//rows 100 and 300 lose all their contacts
+		List<int[]> entries = new ArrayList<int[]>();
+		List<Double> values = new ArrayList<Double>();
+		for(int i = 0; i < n; i++){
+			for(int j = i; j < n; j++){
+				double f = full.get(i, j);
+				if (f > 0 && i != 100 && j != 100 && i != 300 && j != 300){
+					entries.add(new int[]{i, j});
+					values.add(f);
+				}
+			}
+		}
+		SparseContactMatrix a = build(n, entries, values);
+
+		KnightRuizBalancer balancer = new KnightRuizBalancer(TOLERANCE, executor);
+		double[] x = balancer.balance(a);
+
+		assertEquals(0.0, x[100], 0.0);
+		assertEquals(0.0, x[300], 0.0);
+		assertTrue(residual(a, x) < TOLERANCE);
+	}
+
+	@Test
+	public void testKRNormKeepsTotal() throws Exception {
+		Random random = new Random(3);
+		int n = 800;
+		SparseContactMatrix a = hicMatrix(random, n, 25, 100);
+
+		double[] ones = new double[n], product = new double[n];
+		Arrays.fill(ones, 1.0);
+		a.multiply(ones, product, executor);
+		double rawTotal = 0;
+		for(double s : product) rawTotal += s;
+
+		double[] b = Normalization.KRNorm(a, TOLERANCE, executor);
+
+		a.multiply(ones, product, executor);
+		double total = 0;
+		for(int i = 0; i < n; i++){
+			total += product[i];
+			assertTrue(b[i] > 0);
+		}
+		assertEquals(rawTotal, total, rawTotal * 1e-9);
+
+		//balanced rows all have the same sum
+		double[] s = a.rowSums(executor);
+		for(int i = 0; i < n; i++){
+			assertEquals(s[0], s[i], s[0] * 1e-4);
+		}
+	}
+
+}
@@ -0,0 +1,185 @@
+package edu.missouri.chenglab.hicdata;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SparseContactMatrixTest {
+
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() {
+		executor = Executors.newFixedThreadPool(4);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdown();
+	}
+
+	//random upper triangle entries (diagonal included, some duplicated), and the dense symmetric matrix with duplicates summed
+	private static SparseContactMatrix randomMatrix(Random random, int n, int size, double[][] dense){
+		int[] positions = new int[n];
+		for(int i = 0; i < n; i++){
+			positions[i] = i * 1000;
+		}
+		int[] row = new int[size], column = new int[size];
+		double[] IF = new double[size];
+		for(int k = 0; k < size; k++){
+			int i = random.nextInt(n), j = random.nextInt(n);
+			row[k] = Math.min(i, j);
+			column[k] = Math.max(i, j);
+			IF[k] = 1 + random.nextInt(50);
+
+			dense[row[k]][column[k]] += IF[k];
+			if (row[k] != column[k]) dense[column[k]][row[k]] += IF[k];
+		}
+		return new SparseContactMatrix(positions, row, column, IF, size, true);
+	}
+
+	@Test
+	public void testMultiplyVsDense() throws Exception {
+		Random random = new Random(1);
+		//more rows than a chunk of rows
+		int n = 3000;
+		double[][] dense = new double[n][n];
+		SparseContactMatrix a = randomMatrix(random, n, 40000, dense);
+
+		double[] x = new double[n];
+		for(int i = 0; i < n; i++){
+			x[i] = random.nextGaussian();
+		}
+		double[] y = new double[n];
+		a.multiply(x, y, executor);
+
+		for(int i = 0; i < n; i++){
+			double s = 0;
+			for(int j = 0; j < n; j++){
+				s += dense[i][j] * x[j];
+			}
+			assertEquals(s, y[i], 1e-9);
+		}
+
+		//same sums with one thread
+		ExecutorService single = Executors.newFixedThreadPool(1);
+		try{
+			double[] y1 = new double[n];
+			a.multiply(x, y1, single);
+			assertArrayEquals(y, y1, 0.0);
+		}finally{
+			single.shutdown();
+		}
+	}
+
+	@Test
+	public void testSumsVsDense() throws Exception {
+		Random random = new Random(2);
+		int n = 200;
+		double[][] dense = new double[n][n];
+		SparseContactMatrix a = randomMatrix(random, n, 3000, dense);
+
+		double[] rowSums = a.rowSums(executor);
+		double[] diagonal = a.diagonal();
+		double total = 0;
+		for(int i = 0; i < n; i++){
+			double s = 0;
+			for(int j = 0; j < n; j++){
+				s += dense[i][j];
+				if (j >= i) total += dense[i][j];
+				assertEquals(dense[i][j], a.get(i, j), 0.0);
+			}
+			assertEquals(s, rowSums[i], 1e-9);
+			assertEquals(dense[i][i], diagonal[i], 0.0);
+		}
+		assertEquals(total, a.sum(executor), 1e-9);
+	}
+
+	@Test
+	public void testScaleVsDense() throws Exception {
+		Random random = new Random(3);
+		int n = 100;
+		double[][] dense = new double[n][n];
+		SparseContactMatrix a = randomMatrix(random, n, 1000, dense);
+
+		double[] f = new double[n];
+		for(int i = 0; i < n; i++){
+			f[i] = 0.5 + random.nextDouble();
+		}
+		a.scale(f, f, executor);
+
+		for(int i = 0; i < n; i++){
+			for(int j = 0; j < n; j++){
+				assertEquals(dense[i][j] * f[i] * f[j], a.get(i, j), 1e-9);
+			}
+		}
+	}
+
+	@Test
+	public void testStandardNormEmptyRow() throws Exception {
+		//the second bin only has a contact of 0
+		SparseContactMatrix a = new SparseContactMatrix(new int[]{0, 1, 2}, new int[]{0, 1}, new int[]{2, 1}, new double[]{4, 0}, 2, true);
+		Normalization.standardNorm(a, executor);
+
+		assertEquals(0.0, a.get(1, 1), 0.0);
+		assertEquals(4.0 * 4 / (4 * 4), a.get(0, 2), 1e-12);
+		assertFalse(Double.isNaN(a.sum(executor)));
+	}
+
+	@Test
+	public void testNormalizeKeepsDiagonalInRowSums() throws Exception {
+		File dir = Files.createTempDirectory("normalization").toFile();
+		try{
+			File input = new File(dir, "contacts.txt");
+			PrintWriter pw = new PrintWriter(input);
+			pw.println("100\t100\t10");
+			pw.println("100\t200\t4");
+			pw.println("200\t300\t6");
+			pw.println("300\t300\t2");
+			pw.println("100\t300\t1");
+			pw.close();
+
+			SparseContactMatrix a = Normalization.readContactData(input.getPath(), 1);
+			assertEquals(10.0, a.get(0, 0), 0.0);
+			assertArrayEquals(new double[]{15, 10, 9}, a.rowSums(executor), 0.0);
+
+			//IF_ij * total / (S_i * S_j), row sums and total with the diagonal, as with the dense matrix
+			File output = new File(dir, "normalized.txt");
+			Normalization.normalize(input.getPath(), output.getPath(), Normalization.STANDARD);
+			double[] s = {15, 10, 9};
+			double total = (15 + 10 + 9) / 2.0;
+
+			BufferedReader br = new BufferedReader(new FileReader(output));
+			try{
+				double[][] expected = {{100, 200, 4 * total / (s[0] * s[1])}, {100, 300, 1 * total / (s[0] * s[2])}, {200, 300, 6 * total / (s[1] * s[2])}};
+				for(double[] contact : expected){
+					String[] line = br.readLine().split("\t");
+					assertEquals((int) contact[0], Integer.parseInt(line[0]));
+					assertEquals((int) contact[1], Integer.parseInt(line[1]));
+					assertEquals(contact[2], Double.parseDouble(line[2]), 1e-12);
+				}
+				//the diagonal is not written
+				assertNull(br.readLine());
+			}finally{
+				br.close();
+			}
+		}finally{
+			for(File f : dir.listFiles()){
+				f.delete();
+			}
+			dir.delete();
+		}
+	}
+
+}
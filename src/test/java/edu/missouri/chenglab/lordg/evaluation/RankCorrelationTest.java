@@ -0,0 +1,110 @@
+package edu.missouri.chenglab.lordg.evaluation;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.math3.stat.correlation.PearsonsCorrelation;
+import org.apache.commons.math3.stat.correlation.SpearmansCorrelation;
+import org.junit.Test;
+
+public class RankCorrelationTest {
+
+	//values with many ties, as IFs of contacts and rounded distances
+	private static double[] tiedValues(Random random, int n, int nbrDistinct){
+		double[] a = new double[n];
+		for(int i = 0; i < n; i++){
+			a[i] = random.nextInt(nbrDistinct) * 0.5;
+		}
+		return a;
+	}
+
+	//ranks by counting, ties get the average of their ranks
+	private static double[] naiveRanks(double[] a){
+		double[] ranks = new double[a.length];
+		for(int i = 0; i < a.length; i++){
+			int less = 0, equal = 0;
+			for(int j = 0; j < a.length; j++){
+				if (a[j] < a[i]) less++;
+				else if (a[j] == a[i]) equal++;
+			}
+			ranks[i] = less + (equal + 1) / 2.0;
+		}
+		return ranks;
+	}
+
+	@Test
+	public void testRankTies() throws Exception {
+		double[] values = {3.0, 1.0, 3.0, 2.0, 3.0, 1.0};
+		double[] ranks = new double[values.length];
+		new RankCorrelation(1).rank(values, values.length, ranks);
+
+		assertArrayEquals(new double[]{5.0, 1.5, 5.0, 3.0, 5.0, 1.5}, ranks, 0.0);
+	}
+
+	@Test
+	public void testSpearmanWithTiesVsNaive() throws Exception {
+		Random random = new Random(11);
+		for(int t = 0; t < 20; t++){
+			int n = 2 + random.nextInt(300);
+			double[] x = tiedValues(random, n, 1 + random.nextInt(20));
+			double[] y = tiedValues(random, n, 1 + random.nextInt(20));
+			for(int i = 0; i < n; i++){
+				y[i] += x[i];
+			}
+
+			double expected = new PearsonsCorrelation().correlation(naiveRanks(x), naiveRanks(y));
+			if (Double.isNaN(expected)) continue;
+
+			assertEquals(expected, RankCorrelation.spearman(x, y, 1), 1e-12);
+		}
+	}
+
+	@Test
+	public void testParallelSortVsCommonsMath() throws Exception {
+		Random random = new Random(12);
+		//several chunks of values per thread
+		int n = 300000;
+		double[] x = tiedValues(random, n, 5000);
+		double[] y = new double[n];
+		for(int i = 0; i < n; i++){
+			y[i] = x[i] + random.nextGaussian() * 100;
+		}
+
+		RankCorrelation correlation = new RankCorrelation(4);
+		double spearman = correlation.correlate(x, y, n);
+
+		assertEquals(new SpearmansCorrelation().correlation(x, y), spearman, 1e-10);
+		assertEquals(new PearsonsCorrelation().correlation(x, y), correlation.getPearson(), 1e-10);
+		assertEquals(spearman, new RankCorrelation(1).correlate(x, y, n), 1e-12);
+	}
+
+	@Test
+	public void testPrefixAndReuse() throws Exception {
+		Random random = new Random(13);
+		double[] x = tiedValues(random, 1000, 50);
+		double[] y = tiedValues(random, 1000, 50);
+
+		RankCorrelation correlation = new RankCorrelation(2);
+		correlation.correlate(x, y, 1000);
+
+		//only the first n values are used, buffers of the previous call don't matter
+		double[] x1 = Arrays.copyOf(x, 100);
+		double[] y1 = Arrays.copyOf(y, 100);
+		assertEquals(new SpearmansCorrelation().correlation(x1, y1), correlation.correlate(x, y, 100), 1e-12);
+	}
+
+	@Test
+	public void testPearson() {
+		double[] x = {1, 2, 3, 4, 5};
+		double[] y = {2, 4, 6, 8, 10.5};
+		assertEquals(new PearsonsCorrelation().correlation(x, y), RankCorrelation.pearson(x, y), 1e-12);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDifferentLengths() throws Exception {
+		RankCorrelation.spearman(new double[3], new double[4], 1);
+	}
+
+}
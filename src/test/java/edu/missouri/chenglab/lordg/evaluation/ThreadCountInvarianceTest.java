@@ -0,0 +1,151 @@
+package edu.missouri.chenglab.lordg.evaluation;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.missouri.chenglab.Structure3DMax.algorithm.StructureGenerator3DMax;
+import edu.missouri.chenglab.Structure3DMax.valueObject.InputParameters_3DMax;
+import edu.missouri.chenglab.lordg.noisy_mds.StructureGeneratorLorentz_HierarchicalModeling;
+import edu.missouri.chenglab.lordg.utility.ContactSource;
+import edu.missouri.chenglab.lordg.valueObject.ConstraintTable;
+import edu.missouri.chenglab.lordg.valueObject.InputParameters;
+
+public class ThreadCountInvarianceTest {
+
+	private static final int[] THREADS = {1, 2, 4, 8};
+
+	//points of the structure, enough contacts for 8 threads of MIN_CONSTRAINTS_PER_THREAD
+	private static final int NBR_POINT = 250;
+
+	private File outputFolder;
+
+	@Before
+	public void setUp() throws Exception {
+		outputFolder = Files.createTempDirectory("threads").toFile();
+	}
+
+	@After
+	public void tearDown() {
+		for(File f : outputFolder.listFiles()){
+			f.delete();
+		}
+		outputFolder.delete();
+	}
+
+	//all pairs of points with random IFs, a new table on every read
+	private static ContactSource randomContacts(final long seed){
+		return new ContactSource() {
+			@Override
+			public ConstraintTable read(double thr) {
+				Random random = new Random(seed);
+				ConstraintTable table = new ConstraintTable();
+				for(int i = 0; i < NBR_POINT; i++){
+					for(int j = i + 1; j < NBR_POINT; j++){
+						double IF = 1 + random.nextInt(100) / (1.0 + j - i);
+						if (IF > thr) table.add(i * 1000, j * 1000, IF);
+					}
+				}
+				return table;
+			}
+		};
+	}
+
+	private static double[] randomStructure(Random random, int n){
+		double[] x = new double[n * 3];
+		for(int i = 0; i < x.length; i++){
+			x[i] = 10 * random.nextDouble();
+		}
+		return x;
+	}
+
+	//objectives and gradients with every number of threads agree with the single-threaded ones
+	private static void assertSameAsSingleThread(double[] obj, double[][] der){
+		double maxDer = 0;
+		for(double d : der[0]){
+			maxDer = Math.max(maxDer, Math.abs(d));
+		}
+
+		for(int t = 1; t < THREADS.length; t++){
+			assertEquals(THREADS[t] + " threads", obj[0], obj[t], Math.abs(obj[0]) * 1e-14);
+			for(int i = 0; i < der[t].length; i++){
+				assertEquals(THREADS[t] + " threads, variable " + i, der[0][i], der[t][i], maxDer * 1e-14);
+			}
+		}
+	}
+
+	@Test
+	public void test3DMaxThreadCounts() throws Exception {
+		StructureGenerator3DMax[] generators = new StructureGenerator3DMax[THREADS.length];
+		try{
+			for(int t = 0; t < THREADS.length; t++){
+				InputParameters_3DMax parameters = new InputParameters_3DMax();
+				parameters.setContactSource(randomContacts(1));
+				parameters.setOutput_folder(outputFolder.getPath());
+				parameters.setFile_prefix("3dmax");
+				parameters.setConvert_factor(0.6);
+				parameters.setNumber_threads(THREADS[t]);
+
+				generators[t] = new StructureGenerator3DMax(parameters);
+				generators[t].prepareStructure();
+			}
+
+			Random random = new Random(2);
+			for(int k = 0; k < 3; k++){
+				double[] x = randomStructure(random, NBR_POINT);
+				double[] obj = new double[THREADS.length];
+				double[][] der = new double[THREADS.length][x.length];
+				for(int t = 0; t < THREADS.length; t++){
+					obj[t] = generators[t].calGradientAndObjective(x, der[t]);
+					assertEquals(obj[t], generators[t].calObjective(x), 0.0);
+				}
+				assertSameAsSingleThread(obj, der);
+			}
+		}finally{
+			for(StructureGenerator3DMax g : generators){
+				if (g != null) g.shutdown();
+			}
+		}
+	}
+
+	@Test
+	public void testLorDGThreadCounts() throws Exception {
+		StructureGeneratorLorentz_HierarchicalModeling[] generators = new StructureGeneratorLorentz_HierarchicalModeling[THREADS.length];
+		try{
+			for(int t = 0; t < THREADS.length; t++){
+				InputParameters parameters = new InputParameters();
+				parameters.setContactSource(randomContacts(3));
+				parameters.setOutput_folder(outputFolder.getPath());
+				parameters.setFile_prefix("lordg");
+				parameters.setChrom("1");
+				parameters.setConvert_factor(0.6);
+				parameters.setNumber_threads(THREADS[t]);
+
+				generators[t] = new StructureGeneratorLorentz_HierarchicalModeling(parameters);
+				generators[t].prepareStructure();
+			}
+
+			Random random = new Random(4);
+			for(int k = 0; k < 3; k++){
+				double[] x = randomStructure(random, NBR_POINT);
+				double[] obj = new double[THREADS.length];
+				double[][] der = new double[THREADS.length][x.length];
+				for(int t = 0; t < THREADS.length; t++){
+					obj[t] = generators[t].calGradientAndObjective(x, der[t]);
+					assertEquals(obj[t], generators[t].calObjective(x), 0.0);
+				}
+				assertSameAsSingleThread(obj, der);
+			}
+		}finally{
+			for(StructureGeneratorLorentz_HierarchicalModeling g : generators){
+				if (g != null) g.shutdown();
+			}
+		}
+	}
+}
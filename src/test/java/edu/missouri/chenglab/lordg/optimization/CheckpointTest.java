@@ -0,0 +1,101 @@
+package edu.missouri.chenglab.lordg.optimization;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CheckpointTest {
+
+	private File file;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("checkpoint", ".bin");
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	private static double[] randomArray(Random random, int n){
+		double[] a = new double[n];
+		for(int i = 0; i < n; i++){
+			a[i] = random.nextGaussian();
+		}
+		return a;
+	}
+
+	@Test
+	public void testWriteRead() throws Exception {
+		Random random = new Random(1);
+		//more than one buffer of variables
+		double[] x = randomArray(random, 30000);
+		double[] direction = randomArray(random, 30000);
+
+		new Checkpoint(x, direction, 0.25, 120, 1.5).write(file);
+		Checkpoint checkpoint = Checkpoint.read(file);
+
+		assertNotNull(checkpoint);
+		assertArrayEquals(x, checkpoint.getX(), 0.0);
+		assertArrayEquals(direction, checkpoint.getDirection(), 0.0);
+		assertEquals(0.25, checkpoint.getStepSize(), 0.0);
+		assertEquals(120, checkpoint.getIteration());
+		assertEquals(1.5, checkpoint.getConvertFactor(), 0.0);
+	}
+
+	@Test
+	public void testWriteReadWithoutDirection() throws Exception {
+		double[] x = {1.0, 2.0, 3.0};
+
+		new Checkpoint(x, null, 0.1, 7, 0.8).write(file);
+		Checkpoint checkpoint = Checkpoint.read(file);
+
+		assertNotNull(checkpoint);
+		assertArrayEquals(x, checkpoint.getX(), 0.0);
+		assertNull(checkpoint.getDirection());
+		assertEquals(7, checkpoint.getIteration());
+	}
+
+	@Test
+	public void testWriterReusesBuffer() throws Exception {
+		Random random = new Random(2);
+		Checkpoint.Writer writer = new Checkpoint.Writer(file, 0, 2.0);
+
+		for(int n : new int[]{20000, 6, 9000}){
+			double[] x = randomArray(random, n);
+			assertTrue(writer.write(x, null, 0.5, n));
+
+			Checkpoint checkpoint = Checkpoint.read(file);
+			assertArrayEquals(x, checkpoint.getX(), 0.0);
+			assertEquals(n, checkpoint.getIteration());
+			assertEquals(2.0, checkpoint.getConvertFactor(), 0.0);
+		}
+		assertEquals(3, writer.getNbrWrite());
+	}
+
+	@Test
+	public void testReadInvalidFile() throws Exception {
+		assertNull(Checkpoint.read(new File(file.getPath() + ".missing")));
+
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+		out.close();
+		assertNull(Checkpoint.read(file));
+
+		//truncated checkpoint
+		new Checkpoint(new double[]{1.0, 2.0, 3.0}, null, 0.1, 1, 1.0).write(file);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(file.length() - 8);
+		raf.close();
+		assertNull(Checkpoint.read(file));
+	}
+
+}
@@ -0,0 +1,200 @@
+package edu.missouri.chenglab.lordg.optimization;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.missouri.chenglab.lordg.valueObject.Constants;
+
+public class ExcludedVolumeTest {
+
+	private static final double MIN_DIST = 1.0;
+	private static final double WEIGHT = 2.0;
+
+	//points in a box of the given size around center
+	private static void randomPoints(Random random, double[] x, int from, int to, double center, double size){
+		for(int i = from * 3; i < to * 3; i++){
+			x[i] = center + size * random.nextDouble();
+		}
+	}
+
+	//pairs j > i closer than the cutoff of the neighbor lists, adjacent points of a chromosome excluded, by checking all pairs
+	private static int[] bruteForceNeighbors(double[] x, int i, int[] chrId){
+		double cutoff = MIN_DIST * (1 + Constants.EXCLUDED_VOLUME_SKIN);
+		int n = x.length / 3;
+		int[] rs = new int[n];
+		int count = 0;
+		for(int j = i + 1; j < n; j++){
+			if (j == i + 1 && (chrId == null || chrId[i] == chrId[j])) continue;
+			double dx = x[i * 3] - x[j * 3], dy = x[i * 3 + 1] - x[j * 3 + 1], dz = x[i * 3 + 2] - x[j * 3 + 2];
+			if (dx * dx + dy * dy + dz * dz < cutoff * cutoff) rs[count++] = j;
+		}
+		return Arrays.copyOf(rs, count);
+	}
+
+	//the term over all pairs closer than MIN_DIST
+	private static double bruteForceCost(double[] x, int[] chrId){
+		int n = x.length / 3;
+		double cost = 0;
+		for(int i = 0; i < n; i++){
+			for(int j = i + 1; j < n; j++){
+				if (j == i + 1 && (chrId == null || chrId[i] == chrId[j])) continue;
+				double dx = x[i * 3] - x[j * 3], dy = x[i * 3 + 1] - x[j * 3 + 1], dz = x[i * 3 + 2] - x[j * 3 + 2];
+				double d = Math.sqrt(dx * dx + dy * dy + dz * dz);
+				if (d < MIN_DIST) cost -= WEIGHT * (1 - d / MIN_DIST) * (1 - d / MIN_DIST);
+			}
+		}
+		return cost;
+	}
+
+	private static boolean contains(int[] a, int v){
+		for(int e : a){
+			if (e == v) return true;
+		}
+		return false;
+	}
+
+	private static void assertNeighborsAsBruteForce(ExcludedVolume ev, double[] x, int[] chrId){
+		int n = x.length / 3, total = 0;
+		for(int i = 0; i < n; i++){
+			int[] neighbors = ev.getNeighbors(i);
+			Arrays.sort(neighbors);
+			assertArrayEquals("point " + i, bruteForceNeighbors(x, i, chrId), neighbors);
+			total += neighbors.length;
+		}
+		assertEquals(total, ev.getNbrPair());
+	}
+
+	@Test
+	public void testNeighborsVsBruteForce() {
+		Random random = new Random(1);
+		int n = 1500;
+		double[] x = new double[n * 3];
+		randomPoints(random, x, 0, n, 0, 12);
+
+		ExcludedVolume ev = new ExcludedVolume(n, MIN_DIST, WEIGHT, null);
+		assertTrue(ev.update(x));
+		assertTrue(ev.getNbrPair() > n);
+		assertNeighborsAsBruteForce(ev, x, null);
+		assertEquals(bruteForceCost(x, null), ev.evaluate(x, null, 0, n - 1), 1e-9);
+	}
+
+	@Test
+	public void testNeighborsOfFarClusters() {
+		//two clusters far apart: there are too many cells of the cutoff size, cells are doubled
+		Random random = new Random(2);
+		int n = 600;
+		double[] x = new double[n * 3];
+		randomPoints(random, x, 0, n / 2, 0, 5);
+		randomPoints(random, x, n / 2, n, 1e5, 5);
+		//a point alone in a corner, and two points at the same position
+		x[0] = x[1] = x[2] = -1e5;
+		System.arraycopy(x, 30, x, 60, 3);
+
+		ExcludedVolume ev = new ExcludedVolume(n, MIN_DIST, WEIGHT, null);
+		ev.update(x);
+		assertNeighborsAsBruteForce(ev, x, null);
+		assertEquals(bruteForceCost(x, null), ev.evaluate(x, null, 0, n - 1), 1e-9);
+
+		//a single point
+		ExcludedVolume one = new ExcludedVolume(1, MIN_DIST, WEIGHT, null);
+		one.update(new double[]{3, 4, 5});
+		assertEquals(0, one.getNbrPair());
+	}
+
+	@Test
+	public void testNeighborListsAreKeptForSmallMoves() {
+		Random random = new Random(3);
+		int n = 800;
+		double[] x = new double[n * 3];
+		randomPoints(random, x, 0, n, 0, 10);
+
+		ExcludedVolume ev = new ExcludedVolume(n, MIN_DIST, WEIGHT, null);
+		ev.update(x);
+
+		//no point moves more than half of the skin: the lists still have every pair closer than MIN_DIST
+		double maxMove = MIN_DIST * Constants.EXCLUDED_VOLUME_SKIN / 2 / Math.sqrt(3) * 0.99;
+		double[] y = x.clone();
+		for(int i = 0; i < y.length; i++){
+			y[i] += maxMove * (2 * random.nextDouble() - 1);
+		}
+		assertFalse(ev.update(y));
+		assertEquals(1, ev.getNbrRebuild());
+		assertEquals(bruteForceCost(y, null), ev.evaluate(y, null, 0, n - 1), 1e-9);
+
+		//one point moves further
+		y[0] += MIN_DIST;
+		assertTrue(ev.update(y));
+		assertEquals(2, ev.getNbrRebuild());
+		assertNeighborsAsBruteForce(ev, y, null);
+	}
+
+	@Test
+	public void testGradientMatchesFiniteDifference() {
+		Random random = new Random(4);
+		int n = 300;
+		double[] x = new double[n * 3];
+		randomPoints(random, x, 0, n, 0, 6);
+		int[] chrId = new int[n];
+		for(int i = n / 2; i < n; i++){
+			chrId[i] = 1;
+		}
+
+		ExcludedVolume ev = new ExcludedVolume(n, MIN_DIST, WEIGHT, chrId);
+		ev.update(x);
+		double[] change = new double[n * 3];
+		double cost = ev.evaluate(x, change, 0, n - 1);
+		assertTrue(cost < 0);
+
+		//blocks of points give the same sum
+		double[] blockChange = new double[n * 3];
+		double blockCost = ev.evaluate(x, blockChange, 0, 99) + ev.evaluate(x, blockChange, 100, 217) + ev.evaluate(x, blockChange, 218, n - 1);
+		assertEquals(cost, blockCost, 1e-9);
+		assertArrayEquals(change, blockChange, 1e-9);
+
+		double h = 1e-6;
+		for(int i = 0; i < x.length; i++){
+			double xi = x[i];
+			x[i] = xi + h;
+			ev.update(x);
+			double plus = ev.evaluate(x, null, 0, n - 1);
+			x[i] = xi - h;
+			ev.update(x);
+			double minus = ev.evaluate(x, null, 0, n - 1);
+			x[i] = xi;
+
+			double fd = (plus - minus) / (2 * h);
+			assertEquals("variable " + i, fd, change[i], 1e-5 * (1 + Math.abs(fd)));
+		}
+	}
+
+	@Test
+	public void testAdjacentPairsAcrossChromosomes() {
+		//points 0...4 in chromosome 0, 5...9 in chromosome 1, all on a line 0.5 apart
+		int n = 10;
+		double[] x = new double[n * 3];
+		for(int i = 0; i < n; i++){
+			x[i * 3] = 0.5 * i;
+		}
+		int[] chrId = {0, 0, 0, 0, 0, 1, 1, 1, 1, 1};
+
+		ExcludedVolume ev = new ExcludedVolume(n, MIN_DIST, WEIGHT, chrId);
+		ev.update(x);
+		assertNeighborsAsBruteForce(ev, x, chrId);
+
+		//(4, 5) spans two chromosomes, it is kept, (3, 4) and (5, 6) are not
+		assertTrue(contains(ev.getNeighbors(4), 5));
+		assertFalse(contains(ev.getNeighbors(3), 4));
+		assertFalse(contains(ev.getNeighbors(5), 6));
+		assertEquals(bruteForceCost(x, chrId), ev.evaluate(x, null, 0, n - 1), 1e-12);
+
+		//in one chromosome, (4, 5) is excluded too
+		ExcludedVolume single = new ExcludedVolume(n, MIN_DIST, WEIGHT, null);
+		single.update(x);
+		assertFalse(contains(single.getNeighbors(4), 5));
+		assertEquals(ev.evaluate(x, null, 0, n - 1) + WEIGHT * 0.25, single.evaluate(x, null, 0, n - 1), 1e-12);
+	}
+}
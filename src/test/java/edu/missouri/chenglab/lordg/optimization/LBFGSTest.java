@@ -0,0 +1,294 @@
+package edu.missouri.chenglab.lordg.optimization;
+
+import static edu.missouri.chenglab.lordg.valueObject.Constants.NEAR_ZERO;
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LBFGSTest {
+
+	//evaluations of a failed line search, the first step and MAX_LINE_SEARCH steps of zoom
+	private static final int FAILED_LINE_SEARCH = 21;
+
+	//maximize -1/2 x'Ax + b'x, A symmetric positive definite, the maximum is at A^-1 b
+	private static class Quadratic implements OptimizedObject {
+		double[][] A;
+		double[] b;
+
+		Quadratic(Random random, int n){
+			//A = M'M + I, eigenvalues from 1 to about 4n
+			double[][] M = new double[n][n];
+			for(int i = 0; i < n; i++){
+				for(int j = 0; j < n; j++){
+					M[i][j] = random.nextGaussian();
+				}
+			}
+			A = new double[n][n];
+			for(int i = 0; i < n; i++){
+				for(int j = 0; j < n; j++){
+					for(int k = 0; k < n; k++){
+						A[i][j] += M[k][i] * M[k][j];
+					}
+				}
+				A[i][i] += 1;
+			}
+			b = new double[n];
+			for(int i = 0; i < n; i++){
+				b[i] = 10 * random.nextGaussian();
+			}
+		}
+
+		//the maximum, by Gaussian elimination
+		double[] solve(){
+			int n = b.length;
+			double[][] a = new double[n][];
+			double[] rhs = b.clone();
+			for(int i = 0; i < n; i++){
+				a[i] = A[i].clone();
+			}
+			for(int c = 0; c < n; c++){
+				for(int r = c + 1; r < n; r++){
+					double m = a[r][c] / a[c][c];
+					for(int k = c; k < n; k++){
+						a[r][k] -= m * a[c][k];
+					}
+					rhs[r] -= m * rhs[c];
+				}
+			}
+			double[] x = new double[n];
+			for(int r = n - 1; r >= 0; r--){
+				double s = rhs[r];
+				for(int k = r + 1; k < n; k++){
+					s -= a[r][k] * x[k];
+				}
+				x[r] = s / a[r][r];
+			}
+			return x;
+		}
+
+		@Override
+		public double calGradientAndObjective(double[] x, double[] der) throws InterruptedException {
+			double obj = 0;
+			for(int i = 0; i < x.length; i++){
+				double ax = 0;
+				for(int j = 0; j < x.length; j++){
+					ax += A[i][j] * x[j];
+				}
+				der[i] = b[i] - ax;
+				obj += x[i] * (b[i] - 0.5 * ax);
+			}
+			return obj;
+		}
+
+		@Override
+		public double calObjective(double[] x) throws InterruptedException {
+			return calGradientAndObjective(x, new double[x.length]);
+		}
+	}
+
+	//the quadratic, NaN for the next evaluations after poison() is called
+	private static class PoisonedQuadratic extends Quadratic {
+		int nbrPoisoned;
+		int nbrEvaluation;
+
+		//point and gradient when poison() is called, the first poisoned point, and the first point evaluated after them
+		double[] poisonedX;
+		double[] poisonedDer;
+		double[] firstPoisonedX;
+		double[] nextX;
+		int nextEvaluation;
+
+		PoisonedQuadratic(Random random, int n){
+			super(random, n);
+		}
+
+		void poison(double[] x, int count) throws InterruptedException {
+			poisonedX = x.clone();
+			poisonedDer = new double[x.length];
+			super.calGradientAndObjective(x, poisonedDer);
+			nbrPoisoned = count;
+		}
+
+		@Override
+		public double calGradientAndObjective(double[] x, double[] der) throws InterruptedException {
+			nbrEvaluation++;
+			double obj = super.calGradientAndObjective(x, der);
+			if (nbrPoisoned > 0){
+				if (firstPoisonedX == null) firstPoisonedX = x.clone();
+				nbrPoisoned--;
+				return Double.NaN;
+			}
+			if (poisonedX != null && nextX == null){
+				nextX = x.clone();
+				nextEvaluation = nbrEvaluation;
+			}
+			return obj;
+		}
+	}
+
+	private static double rosenbrock(double[] x, double[] der){
+		double obj = 0;
+		for(int i = 0; i < x.length; i++){
+			der[i] = 0;
+		}
+		for(int i = 0; i + 1 < x.length; i++){
+			double a = x[i + 1] - x[i] * x[i], c = 1 - x[i];
+			obj += 100 * a * a + c * c;
+			der[i] += -400 * a * x[i] - 2 * c;
+			der[i + 1] += 200 * a;
+		}
+		return obj;
+	}
+
+	//the eigenvalues of A are at least 1, so |x - expected| <= |gradient|, and the gradient meets the convergence test
+	private static void assertNearMaximum(Quadratic quadratic, double[] x, double[] expected) throws Exception {
+		double[] der = new double[x.length];
+		double obj = quadratic.calGradientAndObjective(x, der);
+		double norm = 0;
+		for(double d : der){
+			norm += d * d;
+		}
+		norm = Math.sqrt(norm);
+		assertTrue(norm < NEAR_ZERO * Math.abs(obj));
+		for(int i = 0; i < x.length; i++){
+			assertEquals("variable " + i, expected[i], x[i], norm);
+		}
+	}
+
+	//cosine of the angle between the step from poisonedX to point and the gradient at poisonedX
+	private static double cosineWithGradient(PoisonedQuadratic quadratic, double[] point){
+		double sd = 0, ss = 0, dd = 0;
+		for(int i = 0; i < point.length; i++){
+			double step = point[i] - quadratic.poisonedX[i];
+			sd += step * quadratic.poisonedDer[i];
+			ss += step * step;
+			dd += quadratic.poisonedDer[i] * quadratic.poisonedDer[i];
+		}
+		return sd / Math.sqrt(ss * dd);
+	}
+
+	@Test
+	public void testConvexQuadratic() throws Exception {
+		Random random = new Random(1);
+		int n = 60;
+		Quadratic quadratic = new Quadratic(random, n);
+		double[] expected = quadratic.solve();
+
+		double[] x = new double[n];
+		LBFGS lbfgs = new LBFGS(quadratic, x, false);
+		lbfgs.setFunctionTolerance(1e-15);
+		double obj = lbfgs.optimize(1000, null);
+
+		assertTrue(lbfgs.isConverged());
+		assertSame(x, lbfgs.getVariables());
+		assertNearMaximum(quadratic, x, expected);
+		assertEquals(quadratic.calObjective(expected), obj, 1e-9 * Math.abs(obj));
+		//about one evaluation per iteration
+		assertTrue(lbfgs.getNbrIteration() < 300);
+		assertTrue(lbfgs.getNbrEvaluation() < 2 * lbfgs.getNbrIteration() + 10);
+	}
+
+	@Test
+	public void testRosenbrock() throws Exception {
+		for(int n : new int[]{2, 10}){
+			//a 3DMax objective goes through the same interface
+			edu.missouri.chenglab.Structure3DMax.optimization.OptimizedObject negRosenbrock = new edu.missouri.chenglab.Structure3DMax.optimization.OptimizedObject() {
+				@Override
+				public double calGradientAndObjective(double[] x, double[] der) throws InterruptedException {
+					double obj = rosenbrock(x, der);
+					for(int i = 0; i < der.length; i++){
+						der[i] = -der[i];
+					}
+					return -obj;
+				}
+
+				@Override
+				public double calObjective(double[] x) throws InterruptedException {
+					return -rosenbrock(x, new double[x.length]);
+				}
+			};
+
+			double[] x = new double[n];
+			for(int i = 0; i < n; i += 2){
+				x[i] = -1.2;
+				if (i + 1 < n) x[i + 1] = 1;
+			}
+
+			LBFGS lbfgs = new LBFGS(negRosenbrock, x, false);
+			lbfgs.setFunctionTolerance(1e-20);
+			double obj = lbfgs.optimize(2000, null);
+
+			for(int i = 0; i < n; i++){
+				assertEquals(n + " variables, variable " + i, 1, x[i], 1e-4);
+			}
+			assertTrue(obj <= 0 && obj > -1e-8);
+			assertTrue(lbfgs.getNbrIteration() < 2000);
+		}
+	}
+
+	@Test
+	public void testRestartAfterFailedLineSearch() throws Exception {
+		Random random = new Random(2);
+		int n = 30;
+		final PoisonedQuadratic quadratic = new PoisonedQuadratic(random, n);
+		double[] expected = quadratic.solve();
+
+		final int[] nbrEvaluationBefore = new int[1];
+		double[] x = new double[n];
+		LBFGS lbfgs = new LBFGS(quadratic, x, false);
+		lbfgs.setFunctionTolerance(1e-15);
+		lbfgs.optimize(1000, new LBFGS.IterationListener() {
+			@Override
+			public boolean iterationDone(int iteration, double[] x, double objective) throws Exception {
+				if (iteration == 3){
+					nbrEvaluationBefore[0] = quadratic.nbrEvaluation;
+					quadratic.poison(x, FAILED_LINE_SEARCH);
+				}
+				return true;
+			}
+		});
+
+		//the search along the L-BFGS direction fails, the next one is along the gradient at the last point
+		assertEquals(nbrEvaluationBefore[0] + FAILED_LINE_SEARCH + 1, quadratic.nextEvaluation);
+		assertTrue(cosineWithGradient(quadratic, quadratic.firstPoisonedX) < 1 - 1e-6);
+		assertEquals(1, cosineWithGradient(quadratic, quadratic.nextX), 1e-12);
+		assertTrue(lbfgs.getNbrIteration() > 3);
+		assertEquals(quadratic.nbrEvaluation, lbfgs.getNbrEvaluation());
+
+		//and converges
+		assertTrue(lbfgs.isConverged());
+		assertNearMaximum(quadratic, x, expected);
+	}
+
+	@Test
+	public void testStopWhenSteepestAscentFails() throws Exception {
+		Random random = new Random(4);
+		int n = 20;
+		final PoisonedQuadratic quadratic = new PoisonedQuadratic(random, n);
+
+		final int[] nbrEvaluationBefore = new int[1];
+		final double[][] lastX = new double[1][];
+		double[] x = new double[n];
+		LBFGS lbfgs = new LBFGS(quadratic, x, false);
+		lbfgs.optimize(1000, new LBFGS.IterationListener() {
+			@Override
+			public boolean iterationDone(int iteration, double[] x, double objective) throws Exception {
+				if (iteration == 3){
+					nbrEvaluationBefore[0] = quadratic.nbrEvaluation;
+					lastX[0] = x.clone();
+					quadratic.poison(x, Integer.MAX_VALUE);
+				}
+				return true;
+			}
+		});
+
+		//the L-BFGS direction, then the steepest ascent fail, the last point is kept
+		assertFalse(lbfgs.isConverged());
+		assertEquals(3, lbfgs.getNbrIteration());
+		assertEquals(nbrEvaluationBefore[0] + 2 * FAILED_LINE_SEARCH, quadratic.nbrEvaluation);
+		assertEquals(nbrEvaluationBefore[0] + 2 * FAILED_LINE_SEARCH, lbfgs.getNbrEvaluation());
+		assertArrayEquals(lastX[0], x, 0.0);
+	}
+}
@@ -0,0 +1,177 @@
+package edu.missouri.chenglab.lordg.optimization;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.missouri.chenglab.lordg.valueObject.Constants;
+import edu.missouri.chenglab.lordg.valueObject.ConstraintTable;
+
+public class ObjectiveEvaluatorTest {
+
+	//terms of the LorDG objective, as GradientCaculator of StructureGeneratorLorentz_HierarchicalModeling evaluates them
+	private static class LorDGKernel implements ObjectiveEvaluator.Kernel {
+		private ConstraintTable constraints;
+
+		LorDGKernel(ConstraintTable constraints){
+			this.constraints = constraints;
+		}
+
+		@Override
+		public double evaluate(double[] structure, double[] change, int beg, int end) {
+			double cost = 0, x, z, tmp, dx, dy, dz;
+			int i, j;
+			for(int k = beg; k <= end; k++){
+				i = constraints.getPos1(k);
+				j = constraints.getPos2(k);
+				double dist = constraints.getDist(k), ifr = constraints.getIF(k);
+
+				dx = structure[i * 3] - structure[j * 3];
+				dy = structure[i * 3 + 1] - structure[j * 3 + 1];
+				dz = structure[i * 3 + 2] - structure[j * 3 + 2];
+				x = Math.sqrt(dx * dx + dy * dy + dz * dz);
+
+				if (!constraints.isInequality(k)){
+					z = (x - dist) * (x - dist);
+					cost += ifr * Constants.WIDE_CURVE / (z + Constants.WIDE_CURVE);
+					if (change == null) continue;
+					tmp = - ifr * Constants.WIDE_CURVE * 2 * (x - dist) / ((z + Constants.WIDE_CURVE) * (z + Constants.WIDE_CURVE) * x);
+				}else{
+					z = Math.tanh(dist - x);
+					cost += ifr * z;
+					if (change == null) continue;
+					tmp = - ifr * (1 - z * z) / x;
+				}
+
+				change[i * 3] += tmp * dx;
+				change[i * 3 + 1] += tmp * dy;
+				change[i * 3 + 2] += tmp * dz;
+				change[j * 3] -= tmp * dx;
+				change[j * 3 + 1] -= tmp * dy;
+				change[j * 3 + 2] -= tmp * dz;
+			}
+			return cost;
+		}
+	}
+
+	private static ConstraintTable randomConstraints(Random random, int n, int size){
+		ConstraintTable table = new ConstraintTable(size);
+		for(int k = 0; k < size; k++){
+			int i = random.nextInt(n - 1);
+			int j = i + 1 + random.nextInt(n - i - 1);
+			table.add(i, j, 0.5 + random.nextDouble(), 1 + 5 * random.nextDouble(), random.nextInt(10) == 0);
+		}
+		return table;
+	}
+
+	private static double[] randomStructure(Random random, int n){
+		double[] x = new double[n * 3];
+		for(int i = 0; i < x.length; i++){
+			x[i] = 10 * random.nextDouble();
+		}
+		return x;
+	}
+
+	@Test
+	public void testWorkersMatchSerial() throws Exception {
+		Random random = new Random(1);
+		int n = 300;
+		ConstraintTable constraints = randomConstraints(random, n, 4 * Constants.MIN_CONSTRAINTS_PER_THREAD + 123);
+		LorDGKernel kernel = new LorDGKernel(constraints);
+
+		double[] x = randomStructure(random, n);
+		double[] serialDer = new double[n * 3];
+		double serial = kernel.evaluate(x, serialDer, 0, constraints.size() - 1);
+
+		for(int nbrThread : new int[]{1, 2, 4}){
+			ObjectiveEvaluator evaluator = new ObjectiveEvaluator(kernel, constraints.size(), n * 3, nbrThread, Constants.MIN_CONSTRAINTS_PER_THREAD);
+			try{
+				assertEquals(nbrThread, evaluator.getNbrWorker());
+
+				//buffers are reused, the second call must not add to the first one
+				for(int call = 0; call < 2; call++){
+					double[] der = new double[n * 3];
+					der[0] = 123;
+					double cost = evaluator.evaluate(x, der);
+					assertEquals(serial, cost, Math.abs(serial) * 1e-12);
+					for(int i = 0; i < der.length; i++){
+						assertEquals(serialDer[i], der[i], 1e-12 * (1 + Math.abs(serialDer[i])));
+					}
+				}
+
+				assertEquals(serial, evaluator.evaluate(x, null), Math.abs(serial) * 1e-12);
+			}finally{
+				evaluator.shutdown();
+			}
+		}
+	}
+
+	@Test
+	public void testGradientMatchesFiniteDifference() throws Exception {
+		Random random = new Random(2);
+		int n = 60;
+		ConstraintTable constraints = randomConstraints(random, n, 3 * Constants.MIN_CONSTRAINTS_PER_THREAD);
+		ObjectiveEvaluator evaluator = new ObjectiveEvaluator(new LorDGKernel(constraints), constraints.size(), n * 3, 4,
+				Constants.MIN_CONSTRAINTS_PER_THREAD);
+		try{
+			assertEquals(3, evaluator.getNbrWorker());
+
+			double[] x = randomStructure(random, n);
+			double[] der = new double[n * 3];
+			evaluator.evaluate(x, der);
+
+			double h = 1e-6;
+			for(int i = 0; i < x.length; i++){
+				double xi = x[i];
+				x[i] = xi + h;
+				double plus = evaluator.evaluate(x, null);
+				x[i] = xi - h;
+				double minus = evaluator.evaluate(x, null);
+				x[i] = xi;
+
+				double fd = (plus - minus) / (2 * h);
+				assertEquals("variable " + i, fd, der[i], 1e-5 * (1 + Math.abs(fd)));
+			}
+		}finally{
+			evaluator.shutdown();
+		}
+	}
+
+	@Test
+	public void testTermsAreSplitByMinimumPerThread() throws Exception {
+		//objective is the sum of the indices of terms, every term must be evaluated once
+		ObjectiveEvaluator.Kernel kernel = new ObjectiveEvaluator.Kernel() {
+			@Override
+			public double evaluate(double[] x, double[] change, int beg, int end) {
+				double s = 0;
+				for(int k = beg; k <= end; k++){
+					s += k;
+					if (change != null) change[k % change.length] += 1;
+				}
+				return s;
+			}
+		};
+
+		int min = Constants.MIN_CONSTRAINTS_PER_THREAD;
+		int[][] cases = {{min - 1, 4, 1}, {2 * min - 1, 4, 1}, {2 * min, 4, 2}, {5 * min + 7, 4, 4}, {5 * min + 7, 8, 5}, {10, 1, 1}};
+		for(int[] c : cases){
+			int nbrTerm = c[0];
+			ObjectiveEvaluator evaluator = new ObjectiveEvaluator(kernel, nbrTerm, 7, c[1], min);
+			try{
+				assertEquals(c[2], evaluator.getNbrWorker());
+
+				double[] der = new double[7];
+				assertEquals((double) nbrTerm * (nbrTerm - 1) / 2, evaluator.evaluate(new double[7], der), 0.0);
+				double total = 0;
+				for(double d : der){
+					total += d;
+				}
+				assertEquals(nbrTerm, total, 0.0);
+			}finally{
+				evaluator.shutdown();
+			}
+		}
+	}
+}
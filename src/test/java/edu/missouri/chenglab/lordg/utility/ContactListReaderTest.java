@@ -0,0 +1,239 @@
+package edu.missouri.chenglab.lordg.utility;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.missouri.chenglab.lordg.valueObject.Constants;
+import edu.missouri.chenglab.lordg.valueObject.ConstraintTable;
+
+public class ContactListReaderTest {
+
+	private static ContactListReader.Chunk parse(String text, double thr, boolean isDiagonalKept) throws Exception {
+		return ContactListReader.parseChunk(ByteBuffer.wrap(text.getBytes()), thr, isDiagonalKept);
+	}
+
+	//contacts of the text parsed line by line with String.split, Integer.parseInt and Double.parseDouble
+	private static ConstraintTable reference(String text, double thr){
+		ConstraintTable table = new ConstraintTable();
+		for(String line : text.split("\n")){
+			if (line.startsWith("#") || line.startsWith("x") || line.trim().isEmpty()) continue;
+			String[] st = line.trim().split("[\\s:]+");
+			int x = Integer.parseInt(st[0]), y = Integer.parseInt(st[1]);
+			double f = Double.parseDouble(st[2]);
+			if (x != y && !Double.isNaN(f) && f > thr){
+				table.add(Math.min(x, y), Math.max(x, y), f);
+			}
+		}
+		return table;
+	}
+
+	private static void assertSameContacts(ConstraintTable expected, ConstraintTable table){
+		assertEquals(expected.size(), table.size());
+		for(int k = 0; k < table.size(); k++){
+			assertEquals(expected.getPos1(k), table.getPos1(k));
+			assertEquals(expected.getPos2(k), table.getPos2(k));
+			assertEquals(Double.doubleToLongBits(expected.getIF(k)), Double.doubleToLongBits(table.getIF(k)));
+		}
+	}
+
+	private static File write(String text) throws Exception {
+		File file = File.createTempFile("contacts", ".txt");
+		PrintWriter pw = new PrintWriter(file);
+		pw.print(text);
+		pw.close();
+		return file;
+	}
+
+	private static void delete(File file){
+		file.delete();
+		new File(file.getPath() + Constants.CONTACT_CACHE_SUFFIX).delete();
+		new File(file.getPath() + Constants.CONTACT_DIAGONAL_CACHE_SUFFIX).delete();
+	}
+
+	@Test
+	public void testNumbersAsParseDouble() throws Exception {
+		List<String> numbers = new ArrayList<String>();
+		String[] fixed = {"0", "7", "007", "000.250", "0.5", "+3.25", "-3.25", "-0", "-0.0", ".5", "5.", "0.1", "0.000001234",
+				"123456789012345", "999999999999999", "1234567890123456", "12345678901234567890", "1.23456789012345678901",
+				"1e5", "1E5", "2.5e+3", "+1e-3", "1e22", "1e23", "1e-22", "1e-23", "9.999e21", "15e21", "1.5e-21", "123.456e-20",
+				"1e400", "1e-400", "-1e-400", "4.9e-324", "Infinity", "-1e300", "1.7976931348623157E308"};
+		for(String s : fixed){
+			numbers.add(s);
+		}
+		Random random = new Random(1);
+		for(int i = 0; i < 2000; i++){
+			double d = Math.pow(10, random.nextInt(50) - 25) * random.nextDouble();
+			numbers.add(Double.toString(d));
+			numbers.add(Float.toString((float) d));
+			numbers.add(String.format(Locale.US, "%.6f", d));
+			numbers.add(String.format(Locale.US, "%.15e", d));
+		}
+
+		for(String s : numbers){
+			ContactListReader.Chunk chunk = parse("1\t2\t" + s + "\n", Double.NEGATIVE_INFINITY, false);
+			assertEquals(s, 1, chunk.size);
+			assertEquals(s, Double.doubleToLongBits(Double.parseDouble(s)), Double.doubleToLongBits(chunk.IF[0]));
+		}
+
+		//NaN goes through Double.parseDouble and is skipped
+		assertEquals(0, parse("1 2 NaN\n", Double.NEGATIVE_INFINITY, false).size);
+	}
+
+	@Test
+	public void testPositionsAndSeparators() throws Exception {
+		ContactListReader.Chunk chunk = parse("5 2 1.5\n1:2:2.5\r\n-5\t+7\t3.5 extra columns\n-2147483648 2147483647 4\n",
+				Double.NEGATIVE_INFINITY, false);
+		assertEquals(4, chunk.size);
+		//pos1 <= pos2
+		assertArrayEquals(new int[]{2, 1, -5, Integer.MIN_VALUE}, Arrays.copyOf(chunk.pos1, 4));
+		assertArrayEquals(new int[]{5, 2, 7, Integer.MAX_VALUE}, Arrays.copyOf(chunk.pos2, 4));
+		assertArrayEquals(new double[]{1.5, 2.5, 3.5, 4}, Arrays.copyOf(chunk.IF, 4), 0.0);
+
+		for(String line : new String[]{"2147483648 1 1\n", "1 1.5 1\n", "a 1 1\n"}){
+			try{
+				parse(line, 0, false);
+				fail(line);
+			}catch(NumberFormatException e){
+			}
+		}
+	}
+
+	@Test
+	public void testSkippedLines() throws Exception {
+		String text = "# comment\nx\ty\tvalue\n\n   \n\t\n1 2 3\n5 5 2\n3 4 NaN\n6 7 0.5\n#1 2 3\n";
+
+		ContactListReader.Chunk chunk = parse(text, 1, false);
+		assertEquals(1, chunk.size);
+		assertEquals(1, chunk.pos1[0]);
+		assertEquals(2, chunk.pos2[0]);
+
+		chunk = parse(text, 1, true);
+		assertEquals(2, chunk.size);
+		assertEquals(5, chunk.pos1[1]);
+		assertEquals(5, chunk.pos2[1]);
+		assertEquals(2, chunk.IF[1], 0.0);
+	}
+
+	@Test
+	public void testTooFewColumns() throws Exception {
+		for(String text : new String[]{"1 2 3\n1 2\n", "1\n", "1 2 \n3 4 5\n", "1 2 3\n4 5"}){
+			try{
+				parse(text, 0, false);
+				fail(text);
+			}catch(NumberFormatException e){
+				fail(text);
+			}catch(Exception e){
+				assertEquals("There is a line that doesn't contain exactly 3 numbers", e.getMessage());
+			}
+		}
+	}
+
+	@Test
+	public void testNoTrailingNewline() throws Exception {
+		ContactListReader.Chunk chunk = parse("1 2 3\n4 5 6.5e1", 0, false);
+		assertEquals(2, chunk.size);
+		assertEquals(65, chunk.IF[1], 0.0);
+
+		chunk = parse("1 2 NaN", 0, false);
+		assertEquals(0, chunk.size);
+	}
+
+	@Test
+	public void testChunkBoundaries() throws Exception {
+		Random random = new Random(2);
+		StringBuilder sb = new StringBuilder("# header\n");
+		for(int i = 0; i < 3000; i++){
+			int x = random.nextInt(100000), y = random.nextInt(100000);
+			switch(random.nextInt(20)){
+				case 0: sb.append("\n"); break;
+				case 1: sb.append("# ").append(x).append('\n'); break;
+				case 2: sb.append(x).append('\t').append(x).append('\t').append(5).append('\n'); break;
+				case 3: sb.append(x).append(' ').append(y).append(' ').append(random.nextDouble()).append("\r\n"); break;
+				default: sb.append(x).append('\t').append(y).append('\t').append((float) (10 * random.nextDouble())).append('\n');
+			}
+		}
+		sb.append("1 2 3.5");
+		String text = sb.toString();
+		ConstraintTable expected = reference(text, 0.5);
+
+		File file = write(text);
+		try{
+			//parts of one byte, a few lines, and the whole file
+			for(int chunkSize : new int[]{1, 7, 13, 64, 1000, Constants.CONTACT_CHUNK_SIZE}){
+				ContactListReader reader = new ContactListReader(3, null);
+				reader.setCacheEnabled(false);
+				reader.setChunkSize(chunkSize);
+				assertSameContacts(expected, reader.read(file.getPath(), 0.5));
+			}
+		}finally{
+			delete(file);
+		}
+	}
+
+	@Test
+	public void testCacheIsInvalidated() throws Exception {
+		File file = write("1 2 3\n2 3 4\n3 4 5\n");
+		File cacheFile = new File(file.getPath() + Constants.CONTACT_CACHE_SUFFIX);
+		try{
+			ContactListReader reader = new ContactListReader(2, null);
+			ConstraintTable table = reader.read(file.getPath(), 0);
+			assertEquals(3, table.size());
+			assertTrue(cacheFile.exists());
+			assertArrayEquals(new int[]{1, 2, 3, 4}, reader.getPositions());
+
+			//same length and modification time: the binary file is loaded
+			long lastModified = file.lastModified();
+			PrintWriter pw = new PrintWriter(file);
+			pw.print("1 2 9\n2 3 4\n3 4 5\n");
+			pw.close();
+			file.setLastModified(lastModified);
+			assertEquals(3, reader.read(file.getPath(), 0).getIF(0), 0.0);
+
+			//another modification time
+			file.setLastModified(lastModified - 10000);
+			assertEquals(9, reader.read(file.getPath(), 0).getIF(0), 0.0);
+
+			//another threshold
+			table = reader.read(file.getPath(), 4);
+			assertEquals(2, table.size());
+			assertEquals(9, table.getIF(0), 0.0);
+			assertArrayEquals(new int[]{1, 2, 3, 4}, reader.getPositions());
+			table = reader.read(file.getPath(), 4.5);
+			assertEquals(2, table.size());
+			assertEquals(5, table.getIF(1), 0.0);
+
+			//another length, with the same modification time
+			lastModified = file.lastModified();
+			pw = new PrintWriter(file);
+			pw.print("1 2 9\n2 3 4\n3 4 5\n5 6 7\n");
+			pw.close();
+			file.setLastModified(lastModified);
+			table = reader.read(file.getPath(), 4.5);
+			assertEquals(3, table.size());
+			assertArrayEquals(new int[]{1, 2, 3, 4, 5, 6}, reader.getPositions());
+
+			//the diagonal has its own binary file
+			reader.setDiagonalKept(true);
+			pw = new PrintWriter(file);
+			pw.print("1 1 9\n2 3 4\n3 4 5\n5 6 7\n");
+			pw.close();
+			file.setLastModified(lastModified);
+			table = reader.read(file.getPath(), 4.5);
+			assertEquals(3, table.size());
+			assertEquals(1, table.getPos2(0));
+			assertTrue(new File(file.getPath() + Constants.CONTACT_DIAGONAL_CACHE_SUFFIX).exists());
+		}finally{
+			delete(file);
+		}
+	}
+}
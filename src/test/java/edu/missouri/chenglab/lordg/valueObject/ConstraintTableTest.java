@@ -0,0 +1,229 @@
+package edu.missouri.chenglab.lordg.valueObject;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+public class ConstraintTableTest {
+
+	//constraints with few distinct pairs, so many keys are duplicated
+	private static ConstraintTable randomTable(Random random, int size, int nbrPoint){
+		ConstraintTable table = new ConstraintTable();
+		for(int k = 0; k < size; k++){
+			table.add(random.nextInt(nbrPoint), random.nextInt(nbrPoint), k + 1, random.nextDouble(), random.nextBoolean());
+		}
+		return table;
+	}
+
+	//rows of the table (pos1, pos2, IF, dist, inequality), ordered by all fields
+	private static List<double[]> rows(ConstraintTable table){
+		List<double[]> rows = new ArrayList<double[]>();
+		for(int k = 0; k < table.size(); k++){
+			rows.add(new double[]{table.getPos1(k), table.getPos2(k), table.getIF(k), table.getDist(k), table.isInequality(k) ? 1 : 0});
+		}
+		Collections.sort(rows, new Comparator<double[]>() {
+			@Override
+			public int compare(double[] a, double[] b) {
+				for(int i = 0; i < a.length; i++){
+					if (a[i] != b[i]) return Double.compare(a[i], b[i]);
+				}
+				return 0;
+			}
+		});
+		return rows;
+	}
+
+	private static void assertSorted(ConstraintTable table){
+		for(int k = 1; k < table.size(); k++){
+			assertTrue(table.getPos1(k - 1) < table.getPos1(k)
+					|| (table.getPos1(k - 1) == table.getPos1(k) && table.getPos2(k - 1) <= table.getPos2(k)));
+		}
+	}
+
+	@Test
+	public void testSortWithDuplicateKeys() {
+		Random random = new Random(1);
+		for(int nbrPoint : new int[]{1, 2, 5, 30, 1000}){
+			for(int size : new int[]{0, 1, 2, 31, 32, 33, 1000, 20000}){
+				ConstraintTable table = randomTable(random, size, nbrPoint);
+				List<double[]> expected = rows(table);
+
+				table.sort();
+				assertSorted(table);
+
+				//every constraint keeps its fields, pos1 <= pos2
+				List<double[]> sorted = rows(table);
+				assertEquals(expected.size(), sorted.size());
+				for(int k = 0; k < sorted.size(); k++){
+					assertArrayEquals(expected.get(k), sorted.get(k), 0.0);
+					assertTrue(sorted.get(k)[0] <= sorted.get(k)[1]);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testSortOfOrderedInput() {
+		//already sorted, reversed, and a single key repeated
+		int size = 50000;
+		ConstraintTable ordered = new ConstraintTable(), reversed = new ConstraintTable(), same = new ConstraintTable();
+		for(int k = 0; k < size; k++){
+			ordered.add(k / 10, k, k);
+			reversed.add(size - k, size + k, k);
+			same.add(7, 9, k);
+		}
+
+		ordered.sort();
+		reversed.sort();
+		same.sort();
+		assertSorted(ordered);
+		assertSorted(reversed);
+		assertEquals(0, ordered.getIF(0), 0.0);
+		assertEquals(size - 1, reversed.getIF(0), 0.0);
+		assertEquals(size, same.size());
+		double total = 0;
+		for(int k = 0; k < size; k++){
+			total += same.getIF(k);
+		}
+		assertEquals((double) size * (size - 1) / 2, total, 0.0);
+	}
+
+	@Test
+	public void testSumDuplicates() {
+		ConstraintTable table = new ConstraintTable();
+		table.add(1, 2, 1.0, 10, true);
+		table.add(2, 1, 2.0, 20, false);
+		table.add(1, 2, 3.0, 30, false);
+		table.add(1, 3, 4.0, 40, false);
+		table.add(2, 3, 5.0, 50, true);
+		table.add(3, 2, 6.0, 60, false);
+		table.sort();
+		table.sumDuplicates();
+
+		assertEquals(3, table.size());
+		assertEquals(1, table.getPos1(0));
+		assertEquals(2, table.getPos2(0));
+		assertEquals(6.0, table.getIF(0), 0.0);
+		assertEquals(4.0, table.getIF(1), 0.0);
+		assertEquals(11.0, table.getIF(2), 0.0);
+
+		//random tables, IFs of a pair are summed
+		Random random = new Random(2);
+		ConstraintTable big = randomTable(random, 10000, 40);
+		double[][] sums = new double[40][40];
+		for(int k = 0; k < big.size(); k++){
+			sums[big.getPos1(k)][big.getPos2(k)] += big.getIF(k);
+		}
+		big.sort();
+		big.sumDuplicates();
+		assertSorted(big);
+		for(int k = 0; k < big.size(); k++){
+			if (k > 0) assertFalse(big.getPos1(k) == big.getPos1(k - 1) && big.getPos2(k) == big.getPos2(k - 1));
+			assertEquals(sums[big.getPos1(k)][big.getPos2(k)], big.getIF(k), 0.0);
+		}
+		int count = 0;
+		for(double[] row : sums){
+			for(double s : row){
+				if (s != 0) count++;
+			}
+		}
+		assertEquals(count, big.size());
+	}
+
+	@Test
+	public void testIndexOf() {
+		Random random = new Random(3);
+		ConstraintTable table = randomTable(random, 2000, 100);
+		table.sort();
+		table.sumDuplicates();
+
+		for(int k = 0; k < table.size(); k++){
+			assertEquals(k, table.indexOf(table.getPos1(k), table.getPos2(k)));
+			assertEquals(k, table.indexOf(table.getPos2(k), table.getPos1(k)));
+		}
+		//missing pairs give the insertion point
+		for(int i = 0; i < 100; i++){
+			for(int j = i; j < 100; j++){
+				int index = table.indexOf(i, j);
+				if (index >= 0) continue;
+				int p = -index - 1;
+				assertTrue(p == 0 || table.getPos1(p - 1) < i || (table.getPos1(p - 1) == i && table.getPos2(p - 1) < j));
+				assertTrue(p == table.size() || table.getPos1(p) > i || (table.getPos1(p) == i && table.getPos2(p) > j));
+			}
+		}
+		assertEquals(-1, new ConstraintTable().indexOf(1, 2));
+	}
+
+	@Test
+	public void testFindPositions() {
+		Random random = new Random(4);
+		ConstraintTable table = new ConstraintTable();
+		TreeSet<Integer> expected = new TreeSet<Integer>();
+		for(int k = 0; k < 5000; k++){
+			int i = random.nextInt(100000) - 50000, j = random.nextInt(300);
+			table.add(i, j, 1.0);
+			expected.add(i);
+			expected.add(j);
+		}
+
+		int[] positions = table.findPositions();
+		assertEquals(expected.size(), positions.length);
+		int k = 0;
+		for(int pos : expected){
+			assertEquals(pos, positions[k++]);
+		}
+
+		assertEquals(0, new ConstraintTable().findPositions().length);
+	}
+
+	@Test
+	public void testCopyWithNewDistances() {
+		Random random = new Random(5);
+		ConstraintTable table = randomTable(random, 1000, 50);
+		table.setChrId(new int[50]);
+		double[] dist = Arrays.copyOf(table.getDistArray(), table.size());
+
+		ConstraintTable copy1 = table.copyWithNewDistances();
+		ConstraintTable copy2 = copy1.copyWithNewDistances();
+		assertNotSame(table.getDistArray(), copy1.getDistArray());
+		assertNotSame(copy1.getDistArray(), copy2.getDistArray());
+		assertNotSame(table.getDistArray(), copy2.getDistArray());
+
+		//positions, IFs, inequality flags and chromosome ids are shared
+		assertEquals(table.size(), copy1.size());
+		assertSame(table.getPos1Array(), copy1.getPos1Array());
+		assertSame(table.getIFArray(), copy2.getIFArray());
+		assertSame(table.getInequalityArray(), copy1.getInequalityArray());
+		assertSame(table.getChrId(), copy2.getChrId());
+
+		for(int k = 0; k < table.size(); k++){
+			assertEquals(0, copy1.getDist(k), 0.0);
+			copy1.setDist(k, 1000 + k);
+			copy2.setDist(k, 2000 + k);
+		}
+		for(int k = 0; k < table.size(); k++){
+			assertEquals(dist[k], table.getDist(k), 0.0);
+			assertEquals(1000 + k, copy1.getDist(k), 0.0);
+			assertEquals(2000 + k, copy2.getDist(k), 0.0);
+		}
+
+		//growing the parent or a copy doesn't make distances shared
+		table.add(1, 2, 1.0, -1.0, false);
+		copy1.add(3, 4, 1.0, -2.0, false);
+		assertEquals(-1.0, table.getDist(table.size() - 1), 0.0);
+		assertEquals(-2.0, copy1.getDist(copy1.size() - 1), 0.0);
+		assertNotSame(table.getDistArray(), copy1.getDistArray());
+		for(int k = 0; k < dist.length; k++){
+			assertEquals(dist[k], table.getDist(k), 0.0);
+			assertEquals(2000 + k, copy2.getDist(k), 0.0);
+		}
+	}
+}